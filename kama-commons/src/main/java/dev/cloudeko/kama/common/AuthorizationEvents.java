@@ -0,0 +1,33 @@
+package dev.cloudeko.kama.common;
+
+/**
+ * Event-bus addresses broadcast when inputs of authorization decisions change. Subscribers drop the cached decisions
+ * derived from the changed user or collection.
+ */
+public final class AuthorizationEvents {
+
+    /**
+     * Published with {@code {"user_id": ..., "roles_version": ...}} after the roles of a user changed.
+     */
+    public static final String ROLES_CHANGED = "dev.cloudeko.kama.authorization.roles-changed";
+
+    /**
+     * Published with {@code {"collection_id": ...}} after the rules of a collection changed or the collection was
+     * deleted.
+     */
+    public static final String RULES_CHANGED = "dev.cloudeko.kama.authorization.rules-changed";
+
+    /**
+     * Published with {@code {"user_id": ..., "not_before": ...}} when tokens of a user issued before {@code not_before}
+     * (epoch seconds) must no longer be accepted.
+     */
+    public static final String TOKENS_REVOKED = "dev.cloudeko.kama.authorization.tokens-revoked";
+
+    /**
+     * Published with {@code {"kid": ...}} after a new token signing key was activated, nodes reload their key set.
+     */
+    public static final String KEYS_ROTATED = "dev.cloudeko.kama.authorization.keys-rotated";
+
+    private AuthorizationEvents() {
+    }
+}
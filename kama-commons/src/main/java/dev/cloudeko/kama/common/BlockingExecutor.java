@@ -0,0 +1,142 @@
+package dev.cloudeko.kama.common;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.internal.ContextInternal;
+import io.vertx.core.internal.PromiseInternal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking calls of one subsystem, at most {@code maxConcurrency} at a time, either on a named Vert.x worker
+ * pool or on virtual threads depending on the {@link BlockingMode}.
+ * <p>
+ * With virtual threads every call gets a thread of its own and waits for a permit there, so a queued call holds no
+ * platform thread. Either way the time calls spend queued and running is recorded as {@code kama.blocking.wait} and
+ * {@code kama.blocking.duration}, with the number of queued and running calls as gauges, all tagged with the subsystem
+ * and the mode. Results complete on the context of the caller. Closing removes the gauges, so an executor created again
+ * for the same subsystem reports its own calls.
+ */
+public final class BlockingExecutor {
+
+    private final Vertx vertx;
+    private final int maxConcurrency;
+    private final WorkerExecutor worker;
+    private final ExecutorService threads;
+    private final Semaphore permits;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Timer waitTimer;
+    private final Timer durationTimer;
+    private final MeterRegistry registry;
+    private final Gauge queuedGauge;
+    private final Gauge activeGauge;
+
+    public BlockingExecutor(Vertx vertx, String subsystem, BlockingMode mode, int maxConcurrency, MeterRegistry registry) {
+        this.vertx = vertx;
+        this.maxConcurrency = maxConcurrency;
+        if (mode == BlockingMode.VIRTUAL) {
+            this.worker = null;
+            this.threads = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(subsystem + "-", 0).factory());
+            this.permits = new Semaphore(maxConcurrency, true);
+        } else {
+            this.worker = vertx.createSharedWorkerExecutor(subsystem, maxConcurrency);
+            this.threads = null;
+            this.permits = null;
+        }
+
+        Tags tags = Tags.of("subsystem", subsystem, "mode", mode.name().toLowerCase());
+        this.waitTimer = Timer.builder("kama.blocking.wait")
+                .description("Time blocking calls spent queued before running")
+                .tags(tags)
+                .register(registry);
+        this.durationTimer = Timer.builder("kama.blocking.duration")
+                .description("Time blocking calls spent running")
+                .tags(tags)
+                .register(registry);
+        this.registry = registry;
+        this.queuedGauge = Gauge.builder("kama.blocking.queued", queued, AtomicInteger::get)
+                .description("Blocking calls waiting for a thread or a permit")
+                .tags(tags)
+                .register(registry);
+        this.activeGauge = Gauge.builder("kama.blocking.active", active, AtomicInteger::get)
+                .description("Blocking calls running")
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * Returns the number of calls that can run at the same time.
+     */
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public <T> Future<T> execute(Callable<T> task) {
+        queued.incrementAndGet();
+        long submitted = System.nanoTime();
+        Callable<T> measured = () -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            long started = System.nanoTime();
+            waitTimer.record(started - submitted, TimeUnit.NANOSECONDS);
+            try {
+                return task.call();
+            } finally {
+                durationTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                active.decrementAndGet();
+            }
+        };
+
+        if (worker != null) {
+            return worker.executeBlocking(measured, false);
+        }
+
+        PromiseInternal<T> promise = ((ContextInternal) vertx.getOrCreateContext()).promise();
+        try {
+            threads.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    queued.decrementAndGet();
+                    promise.fail(e);
+                    return;
+                }
+                try {
+                    promise.complete(measured.call());
+                } catch (Throwable t) {
+                    promise.fail(t);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            // Closed
+            queued.decrementAndGet();
+            promise.fail(e);
+        }
+        return promise.future();
+    }
+
+    public Future<Void> close() {
+        // The gauges hold on to this executor through its counters
+        registry.remove(queuedGauge);
+        registry.remove(activeGauge);
+        if (worker != null) {
+            return worker.close();
+        }
+        threads.shutdown();
+        return Future.succeededFuture();
+    }
+}
@@ -0,0 +1,18 @@
+package dev.cloudeko.kama.common;
+
+/**
+ * Where blocking work runs: JDBC statements, migrations and password hashing.
+ */
+public enum BlockingMode {
+
+    /**
+     * Blocking work runs on platform threads, the Vert.x worker pool or a dedicated worker pool of its own.
+     */
+    WORKER,
+
+    /**
+     * Blocking work runs on virtual threads. Every subsystem is capped on its own, JDBC work by the connections of its
+     * pool and hashing by its pool size, so one subsystem cannot take the threads the others need.
+     */
+    VIRTUAL
+}
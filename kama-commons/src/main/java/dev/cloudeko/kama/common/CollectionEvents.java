@@ -0,0 +1,16 @@
+package dev.cloudeko.kama.common;
+
+/**
+ * Event-bus addresses broadcast when collection metadata changes. Subscribers drop what they derived from it, such as
+ * cached responses and their validators.
+ */
+public final class CollectionEvents {
+
+    /**
+     * Published with {@code {"name": ..., "collection_id": ...}} after a collection was created, updated or deleted.
+     */
+    public static final String CHANGED = "dev.cloudeko.kama.collections.changed";
+
+    private CollectionEvents() {
+    }
+}
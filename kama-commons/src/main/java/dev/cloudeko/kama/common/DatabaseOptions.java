@@ -12,17 +12,26 @@ public class DatabaseOptions {
     private static final String DEFAULT_SCHEMA = "PUBLIC";
     private static final String DEFAULT_USERNAME = "sa";
     private static final String DEFAULT_PASSWORD = "";
+    private static final int DEFAULT_MAX_POOL_SIZE = 5;
+    private static final int DEFAULT_QUERY_TIMEOUT = 30;
+    private static final BlockingMode DEFAULT_BLOCKING_MODE = BlockingMode.WORKER;
 
     private String url;
     private String schema;
     private String username;
     private String password;
+    private int maxPoolSize;
+    private int queryTimeout;
+    private BlockingMode blockingMode;
 
     public DatabaseOptions() {
         this.url = DEFAULT_URL;
         this.schema = DEFAULT_SCHEMA;
         this.username = DEFAULT_USERNAME;
         this.password = DEFAULT_PASSWORD;
+        this.maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+        this.queryTimeout = DEFAULT_QUERY_TIMEOUT;
+        this.blockingMode = DEFAULT_BLOCKING_MODE;
     }
 
     public DatabaseOptions(DatabaseOptions other) {
@@ -30,6 +39,9 @@ public class DatabaseOptions {
         this.schema = other.schema;
         this.username = other.username;
         this.password = other.password;
+        this.maxPoolSize = other.maxPoolSize;
+        this.queryTimeout = other.queryTimeout;
+        this.blockingMode = other.blockingMode;
     }
 
     public DatabaseOptions(JsonObject json) {
@@ -73,6 +85,43 @@ public class DatabaseOptions {
         return this;
     }
 
+    /**
+     * The maximum number of connections of each service's pool.
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public DatabaseOptions setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+        return this;
+    }
+
+    /**
+     * The time in seconds after which the driver cancels a statement, whatever the deadline of the call that issued it.
+     * Calls are failed at their own deadline, this only stops the database from working for a caller that is gone.
+     */
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public DatabaseOptions setQueryTimeout(int queryTimeout) {
+        this.queryTimeout = queryTimeout;
+        return this;
+    }
+
+    /**
+     * Whether JDBC statements, migrations and password hashing run on worker threads or on virtual threads.
+     */
+    public BlockingMode getBlockingMode() {
+        return blockingMode;
+    }
+
+    public DatabaseOptions setBlockingMode(BlockingMode blockingMode) {
+        this.blockingMode = blockingMode;
+        return this;
+    }
+
     public JsonObject toJson() {
         JsonObject json = new JsonObject();
         DatabaseOptionsConverter.toJson(this, json);
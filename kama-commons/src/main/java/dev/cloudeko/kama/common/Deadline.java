@@ -0,0 +1,181 @@
+package dev.cloudeko.kama.common;
+
+import dev.cloudeko.kama.common.exception.DeadlineExceeded;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryContext;
+import io.vertx.core.internal.ContextInternal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which the client of a call expects its response.
+ * <p>
+ * The deadline is attached to the context of the call. Vert.x serves every request on its own duplicated context, and
+ * SQL clients and direct service bindings complete on the caller's context, so every step of the call sees the
+ * deadline without it being passed along. Work is checked against it before it starts: once the deadline has passed or
+ * the client went away, further statements and password hashes are skipped and the call fails with
+ * {@link DeadlineExceeded}.
+ * <p>
+ * Across the event bus the deadline travels as the absolute time in the {@value #HEADER} header.
+ */
+public final class Deadline {
+
+    public static final String HEADER = "kama-deadline";
+
+    private static final Object KEY = Deadline.class;
+
+    private final long expiresAt;
+    private volatile boolean cancelled;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public static Deadline at(long epochMillis) {
+        return new Deadline(epochMillis);
+    }
+
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.currentTimeMillis() + unit.toMillis(timeout));
+    }
+
+    /**
+     * Parses a {@code grpc-timeout} header value such as {@code 250m}, returns {@code null} when it is missing or
+     * malformed.
+     */
+    public static Deadline fromTimeout(String value) {
+        if (value == null || value.length() < 2 || value.length() > 9) {
+            return null;
+        }
+
+        long amount;
+        try {
+            amount = Long.parseLong(value, 0, value.length() - 1, 10);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        TimeUnit unit = switch (value.charAt(value.length() - 1)) {
+            case 'H' -> TimeUnit.HOURS;
+            case 'M' -> TimeUnit.MINUTES;
+            case 'S' -> TimeUnit.SECONDS;
+            case 'm' -> TimeUnit.MILLISECONDS;
+            case 'u' -> TimeUnit.MICROSECONDS;
+            case 'n' -> TimeUnit.NANOSECONDS;
+            default -> null;
+        };
+        if (unit == null || amount < 0) {
+            return null;
+        }
+        // Sub-millisecond timeouts are already over by the time they are read
+        return new Deadline(System.currentTimeMillis() + unit.toMillis(amount));
+    }
+
+    /**
+     * Parses a {@value #HEADER} header value, returns {@code null} when it is missing or malformed.
+     */
+    public static Deadline fromHeader(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new Deadline(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public String toHeader() {
+        return Long.toString(expiresAt);
+    }
+
+    /**
+     * Returns the milliseconds left, zero or less once the deadline has passed.
+     */
+    public long remaining() {
+        return expiresAt - System.currentTimeMillis();
+    }
+
+    /**
+     * Whether the call should stop, because its deadline passed or its client cancelled it.
+     */
+    public boolean expired() {
+        return cancelled || remaining() <= 0;
+    }
+
+    /**
+     * Marks the call as abandoned by its client, remaining work is skipped as if the deadline had passed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void attach(Context context) {
+        ((ContextInternal) context).localContextData().put(KEY, this);
+    }
+
+    /**
+     * Returns the deadline of the call served on the current context, or {@code null} when it has none.
+     */
+    public static Deadline current() {
+        Context context = Vertx.currentContext();
+        return context != null ? (Deadline) ((ContextInternal) context).localContextData().get(KEY) : null;
+    }
+
+    /**
+     * Succeeds when the current call may go on, fails with {@link DeadlineExceeded} when it should stop.
+     */
+    public static Future<Void> check() {
+        Deadline deadline = current();
+        if (deadline != null && deadline.expired()) {
+            return Future.failedFuture(deadline.exceeded());
+        }
+        return Future.succeededFuture();
+    }
+
+    /**
+     * Returns {@code future}, failed with {@link DeadlineExceeded} if it is not complete by the current deadline.
+     */
+    public static <T> Future<T> bound(Future<T> future) {
+        Context context = Vertx.currentContext();
+        Deadline deadline = current();
+        if (deadline == null || future.isComplete()) {
+            return future;
+        }
+
+        Promise<T> promise = Promise.promise();
+        long timer = context.owner().setTimer(Math.max(1, deadline.remaining()), id -> promise.tryFail(deadline.exceeded()));
+        future.onComplete(ar -> {
+            context.owner().cancelTimer(timer);
+            if (ar.succeeded()) {
+                promise.tryComplete(ar.result());
+            } else {
+                promise.tryFail(ar.cause());
+            }
+        });
+        return promise.future();
+    }
+
+    /**
+     * Event-bus inbound interceptor, attaches the deadline carried by a message to the context handling it.
+     */
+    public static <T> void intercept(DeliveryContext<T> delivery) {
+        Deadline deadline = fromHeader(delivery.message().headers().get(HEADER));
+        Context context = Vertx.currentContext();
+        // The context of a consumer is shared by its messages unless it was duplicated for this one
+        if (deadline != null && context instanceof ContextInternal internal && internal.isDuplicate()) {
+            deadline.attach(context);
+        }
+        delivery.next();
+    }
+
+    public DeadlineExceeded exceeded() {
+        return new DeadlineExceeded(cancelled ? "Call cancelled by the client" : "Deadline exceeded");
+    }
+}
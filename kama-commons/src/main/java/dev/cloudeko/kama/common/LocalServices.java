@@ -0,0 +1,209 @@
+package dev.cloudeko.kama.common;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.ThreadingModel;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.internal.ContextInternal;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Registry of service instances deployed in the current Vert.x instance.
+ * <p>
+ * Verticles that expose a service on the event bus also register the instance here, so colocated callers can invoke it
+ * directly instead of paying for message encoding, header maps and reply correlation. The returned binding completes
+ * results on the caller's context and reports failures as {@link ServiceException}, exactly like a generated event-bus
+ * proxy would. Arguments and results are copied, as encoding them would, so neither side sees changes the other makes
+ * afterwards, and calls that do not complete within the send timeout fail with a {@link ReplyFailure#TIMEOUT}.
+ * <p>
+ * A service registered from a virtual thread context is invoked on that context, with the deadline and trace of the
+ * caller, so the blocking work it starts runs on virtual threads like calls arriving over the event bus do.
+ */
+public final class LocalServices {
+
+    private static final String MAP_NAME = "dev.cloudeko.kama.common.LocalServices";
+
+    private LocalServices() {
+    }
+
+    public static <T> void register(Vertx vertx, String address, Class<T> type, T service) {
+        Context context = Vertx.currentContext();
+        Context owner = context != null && context.threadingModel() == ThreadingModel.VIRTUAL_THREAD ? context : null;
+        services(vertx).put(address, new Entry(type, service, owner));
+    }
+
+    public static void unregister(Vertx vertx, String address) {
+        services(vertx).remove(address);
+    }
+
+    /**
+     * Returns a direct binding to the service registered at {@code address}, or the proxy created by
+     * {@code proxyFactory} when the service is not deployed in this Vert.x instance. Calls time out after the default
+     * send timeout of the proxies.
+     */
+    public static <T> T lookup(Vertx vertx, String address, Class<T> type, Function<String, T> proxyFactory) {
+        return lookup(vertx, address, type, DeliveryOptions.DEFAULT_TIMEOUT, proxyFactory);
+    }
+
+    /**
+     * Returns a direct binding to the service registered at {@code address} whose calls time out after
+     * {@code timeoutMs}, or the proxy created by {@code proxyFactory} when the service is not deployed in this Vert.x
+     * instance.
+     */
+    public static <T> T lookup(Vertx vertx, String address, Class<T> type, long timeoutMs, Function<String, T> proxyFactory) {
+        Entry entry = services(vertx).get(address);
+        if (entry == null || !type.isAssignableFrom(entry.type())) {
+            return proxyFactory.apply(address);
+        }
+        return bind(vertx, address, type, type.cast(entry.service()), entry.owner(), timeoutMs);
+    }
+
+    /**
+     * Wraps {@code service} so that every returned future completes on the context of the caller.
+     */
+    public static <T> T bind(Vertx vertx, Class<T> type, T service) {
+        return bind(vertx, type.getName(), type, service, null, DeliveryOptions.DEFAULT_TIMEOUT);
+    }
+
+    private static <T> T bind(Vertx vertx, String address, Class<T> type, T service, Context owner, long timeoutMs) {
+        Object binding = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new Binding(vertx, address, service, owner, timeoutMs));
+        return type.cast(binding);
+    }
+
+    private static LocalMap<String, Entry> services(Vertx vertx) {
+        return vertx.sharedData().getLocalMap(MAP_NAME);
+    }
+
+    private record Entry(Class<?> type, Object service, Context owner) implements Shareable {
+    }
+
+    private record Binding(Vertx vertx, String address, Object service, Context owner, long timeoutMs) implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(service, args);
+            }
+
+            Context caller = vertx.getOrCreateContext();
+            Object[] copies = copyAll(args);
+            Future<?> result = owner != null ? dispatch(caller, method, copies) : call(method, copies);
+
+            Promise<Object> promise = Promise.promise();
+            // Like a proxy the caller stops waiting at the send timeout, the service is not interrupted
+            long timer = timeoutMs > 0 && !result.isComplete() ? vertx.setTimer(timeoutMs, id -> caller.runOnContext(v -> promise.tryFail(
+                    new ReplyException(ReplyFailure.TIMEOUT, "Timed out after waiting " + timeoutMs + "(ms) for a reply. address: " + address)))) : -1;
+            result.onComplete(ar -> {
+                if (timer >= 0) {
+                    vertx.cancelTimer(timer);
+                }
+                if (Vertx.currentContext() == caller) {
+                    complete(promise, ar);
+                } else {
+                    caller.runOnContext(v -> complete(promise, ar));
+                }
+            });
+            return promise.future();
+        }
+
+        private Future<?> call(Method method, Object[] args) throws IllegalAccessException {
+            try {
+                return (Future<?>) method.invoke(service, args);
+            } catch (InvocationTargetException e) {
+                return Future.failedFuture(e.getCause());
+            }
+        }
+
+        private Future<?> dispatch(Context caller, Method method, Object[] args) {
+            ContextInternal target = ((ContextInternal) owner).duplicate();
+            // The deadline and the trace of the call live in the local data of the caller's context
+            target.localContextData().putAll(((ContextInternal) caller).localContextData());
+            Promise<Object> promise = target.promise();
+            target.runOnContext(v -> {
+                try {
+                    call(method, args).onComplete(ar -> {
+                        if (ar.succeeded()) {
+                            promise.complete(ar.result());
+                        } else {
+                            promise.fail(ar.cause());
+                        }
+                    });
+                } catch (IllegalAccessException e) {
+                    promise.fail(e);
+                }
+            });
+            return promise.future();
+        }
+
+        private static void complete(Promise<Object> promise, AsyncResult<?> ar) {
+            if (ar.succeeded()) {
+                promise.tryComplete(copy(ar.result()));
+                return;
+            }
+
+            // Mirror ProxyHandler: anything that is not already a ServiceException is reported with code -1
+            Throwable cause = ar.cause();
+            promise.tryFail(cause instanceof ServiceException ? cause : new ServiceException(-1, cause.getMessage()));
+        }
+
+        private static Object[] copyAll(Object[] args) {
+            if (args == null) {
+                return null;
+            }
+            Object[] copies = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                copies[i] = copy(args[i]);
+            }
+            return copies;
+        }
+
+        /**
+         * Copies the mutable types a service proxy can carry, strings, numbers and enums are passed as they are.
+         */
+        private static Object copy(Object value) {
+            if (value instanceof JsonObject json) {
+                return json.copy();
+            }
+            if (value instanceof JsonArray json) {
+                return json.copy();
+            }
+            if (value instanceof List<?> list) {
+                List<Object> copy = new ArrayList<>(list.size());
+                list.forEach(element -> copy.add(copy(element)));
+                return copy;
+            }
+            if (value instanceof Set<?> set) {
+                Set<Object> copy = new LinkedHashSet<>();
+                set.forEach(element -> copy.add(copy(element)));
+                return copy;
+            }
+            if (value instanceof Map<?, ?> map) {
+                Map<Object, Object> copy = new LinkedHashMap<>();
+                map.forEach((key, element) -> copy.put(key, copy(element)));
+                return copy;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dev.cloudeko.kama.common;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records virtual threads that stay pinned to their carrier as {@code kama.blocking.pinned}, from the
+ * {@code jdk.VirtualThreadPinned} events of the JDK flight recorder.
+ * <p>
+ * A pinned virtual thread blocks its carrier like a platform thread would, for instance in a driver that blocks inside
+ * {@code synchronized} on JDKs before 24. Every event is tagged with the subsystem its stack belongs to, {@code jdbc},
+ * {@code migration}, {@code hashing} or {@code other}, so a driver that pins shows up next to the subsystem it slows
+ * down. The monitor is installed once per JVM and runs until the JVM exits.
+ */
+public final class PinningMonitor {
+
+    private static final Logger logger = Logger.getLogger(PinningMonitor.class);
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    public static final Duration DEFAULT_THRESHOLD = Duration.ofMillis(20);
+
+    private static RecordingStream stream;
+
+    private PinningMonitor() {
+    }
+
+    /**
+     * Starts recording pinned periods longer than {@code threshold}, unless the monitor already runs.
+     */
+    public static synchronized void install(MeterRegistry registry, Duration threshold) {
+        if (stream != null) {
+            return;
+        }
+        try {
+            RecordingStream recording = new RecordingStream();
+            recording.enable(EVENT).withThreshold(threshold).withStackTrace();
+            recording.onEvent(EVENT, event -> Timer.builder("kama.blocking.pinned")
+                    .description("Time virtual threads spent pinned to their carrier")
+                    .tag("subsystem", subsystem(event))
+                    .register(registry)
+                    .record(event.getDuration()));
+            recording.startAsync();
+            stream = recording;
+        } catch (RuntimeException e) {
+            // Flight recorder missing or disabled, virtual threads still work
+            logger.warnv(e, "Could not monitor pinned virtual threads");
+        }
+    }
+
+    static String subsystem(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "other";
+        }
+        List<String> types = new ArrayList<>();
+        for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+            types.add(frame.getMethod().getType().getName());
+        }
+        return subsystem(types);
+    }
+
+    /**
+     * Classifies a stack by the declaring types of its frames, innermost first. Migrations and hashing win over the JDBC
+     * calls they make.
+     */
+    static String subsystem(List<String> types) {
+        boolean jdbc = false;
+        for (String type : types) {
+            if (type.startsWith("org.flywaydb.")) {
+                return "migration";
+            }
+            if (type.startsWith("org.mindrot.") || type.startsWith("org.bouncycastle.") || type.startsWith("dev.cloudeko.kama.identity.hash.")) {
+                return "hashing";
+            }
+            jdbc |= type.startsWith("java.sql.") || type.startsWith("org.h2.") || type.startsWith("org.sqlite.")
+                    || type.startsWith("io.vertx.jdbcclient.");
+        }
+        return jdbc ? "jdbc" : "other";
+    }
+}
@@ -0,0 +1,12 @@
+package dev.cloudeko.kama.common.exception;
+
+import io.vertx.serviceproxy.ServiceException;
+
+public class DeadlineExceeded extends ServiceException {
+
+    public static final int FAILURE_CODE = 504;
+
+    public DeadlineExceeded(String message) {
+        super(FAILURE_CODE, message);
+    }
+}
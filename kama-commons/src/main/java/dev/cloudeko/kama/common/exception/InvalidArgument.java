@@ -0,0 +1,12 @@
+package dev.cloudeko.kama.common.exception;
+
+import io.vertx.serviceproxy.ServiceException;
+
+public class InvalidArgument extends ServiceException {
+
+    public static final int FAILURE_CODE = 400;
+
+    public InvalidArgument(String message) {
+        super(FAILURE_CODE, message);
+    }
+}
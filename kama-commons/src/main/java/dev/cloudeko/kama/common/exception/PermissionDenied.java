@@ -0,0 +1,12 @@
+package dev.cloudeko.kama.common.exception;
+
+import io.vertx.serviceproxy.ServiceException;
+
+public class PermissionDenied extends ServiceException {
+
+    public static final int FAILURE_CODE = 403;
+
+    public PermissionDenied(String message) {
+        super(FAILURE_CODE, message);
+    }
+}
@@ -0,0 +1,12 @@
+package dev.cloudeko.kama.common.exception;
+
+import io.vertx.serviceproxy.ServiceException;
+
+public class ResourceExhausted extends ServiceException {
+
+    public static final int FAILURE_CODE = 429;
+
+    public ResourceExhausted(String message) {
+        super(FAILURE_CODE, message);
+    }
+}
@@ -0,0 +1,138 @@
+package dev.cloudeko.kama.common;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockingExecutorTest {
+
+    private static final String SUBSYSTEM = "test-blocking";
+    private static final int MAX_CONCURRENCY = 2;
+    private static final int CALLS = 6;
+
+    private Vertx vertx;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close().await(10, TimeUnit.SECONDS);
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlockingMode.class)
+    void testConcurrencyIsCapped(BlockingMode mode) throws Exception {
+        BlockingExecutor executor = new BlockingExecutor(vertx, SUBSYSTEM, mode, MAX_CONCURRENCY, registry);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            int call = i;
+            results.add(executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                    return call;
+                } finally {
+                    running.decrementAndGet();
+                }
+            }));
+        }
+
+        // The first calls hold every permit, the others stay queued until they are released
+        await(() -> gauge("kama.blocking.active", mode) == MAX_CONCURRENCY);
+        assertEquals(CALLS - MAX_CONCURRENCY, gauge("kama.blocking.queued", mode));
+        assertEquals(MAX_CONCURRENCY, running.get());
+
+        release.countDown();
+        for (int i = 0; i < CALLS; i++) {
+            assertEquals(i, results.get(i).await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(MAX_CONCURRENCY, maxRunning.get());
+        assertEquals(0, gauge("kama.blocking.active", mode));
+        assertEquals(0, gauge("kama.blocking.queued", mode));
+        assertEquals(CALLS, registry.get("kama.blocking.duration").tag("mode", tag(mode)).timer().count());
+        assertEquals(CALLS, registry.get("kama.blocking.wait").tag("mode", tag(mode)).timer().count());
+
+        executor.close().await(10, TimeUnit.SECONDS);
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlockingMode.class)
+    void testCompletesOnCallerContext(BlockingMode mode) {
+        BlockingExecutor executor = new BlockingExecutor(vertx, SUBSYSTEM, mode, MAX_CONCURRENCY, registry);
+        Context context = vertx.getOrCreateContext();
+        Promise<Context> completedOn = Promise.promise();
+        context.runOnContext(v -> executor.execute(() -> "done")
+                .onComplete(ar -> completedOn.complete(Vertx.currentContext())));
+
+        assertSame(context, completedOn.future().await(10, TimeUnit.SECONDS));
+        executor.close().await(10, TimeUnit.SECONDS);
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlockingMode.class)
+    void testFailuresArePropagated(BlockingMode mode) {
+        BlockingExecutor executor = new BlockingExecutor(vertx, SUBSYSTEM, mode, MAX_CONCURRENCY, registry);
+        Future<Object> result = executor.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+
+        Exception e = assertThrows(Exception.class, () -> result.await(10, TimeUnit.SECONDS));
+        assertEquals("boom", e.getMessage());
+        executor.close().await(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testCloseRemovesGauges() {
+        BlockingExecutor executor = new BlockingExecutor(vertx, SUBSYSTEM, BlockingMode.VIRTUAL, MAX_CONCURRENCY, registry);
+        assertNotNull(registry.find("kama.blocking.queued").tag("subsystem", SUBSYSTEM).gauge());
+        assertNotNull(registry.find("kama.blocking.active").tag("subsystem", SUBSYSTEM).gauge());
+
+        executor.close().await(10, TimeUnit.SECONDS);
+
+        assertNull(registry.find("kama.blocking.queued").gauge());
+        assertNull(registry.find("kama.blocking.active").gauge());
+        // Timers keep what was recorded
+        assertNotNull(registry.find("kama.blocking.duration").timer());
+    }
+
+    private double gauge(String name, BlockingMode mode) {
+        return registry.get(name).tag("subsystem", SUBSYSTEM).tag("mode", tag(mode)).gauge().value();
+    }
+
+    private static String tag(BlockingMode mode) {
+        return mode.name().toLowerCase();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met within 10 seconds");
+            Thread.sleep(10);
+        }
+    }
+}
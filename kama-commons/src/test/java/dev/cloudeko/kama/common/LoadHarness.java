@@ -0,0 +1,166 @@
+package dev.cloudeko.kama.common;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Closed-loop load for the load tests: a fixed number of callers each start their next call as soon as the previous
+ * one completed, until the deadline. Calls report an {@link Outcome}, the latency of successful calls is kept for
+ * percentiles.
+ */
+public final class LoadHarness {
+
+    // How long a run may take past its duration, calls in flight at the deadline still complete
+    private static final long GRACE_MS = 30_000;
+
+    public enum Outcome {
+        OK, REJECTED, FAILED
+    }
+
+    private LoadHarness() {
+    }
+
+    public static final class Load {
+
+        public final AtomicLong ok = new AtomicLong();
+        public final AtomicLong rejected = new AtomicLong();
+        public final AtomicLong failed = new AtomicLong();
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        private volatile long durationMs;
+
+        /**
+         * Returns the successful calls per second.
+         */
+        public long throughput() {
+            return durationMs > 0 ? ok.get() * 1_000 / durationMs : 0;
+        }
+
+        /**
+         * Returns the latency of successful calls at {@code percentile}, between 0 and 1, in milliseconds.
+         */
+        public double percentile(double percentile) {
+            List<Long> sorted;
+            synchronized (latencies) {
+                sorted = new ArrayList<>(latencies);
+            }
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            Collections.sort(sorted);
+            return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(sorted.size() * percentile) - 1)) / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Runs {@code concurrency} callers for {@code durationMs} and waits for them.
+     */
+    public static Load run(int concurrency, long durationMs, Supplier<Future<Outcome>> call) throws InterruptedException {
+        Load load = new Load();
+        await(start(concurrency, durationMs, call, load), durationMs);
+        return load;
+    }
+
+    /**
+     * Starts {@code concurrency} callers for {@code durationMs} without waiting, the latch counts down as they stop.
+     */
+    public static CountDownLatch start(int concurrency, long durationMs, Supplier<Future<Outcome>> call, Load load) {
+        load.durationMs = durationMs;
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        for (int i = 0; i < concurrency; i++) {
+            loop(call, deadline, load, done);
+        }
+        return done;
+    }
+
+    public static void await(CountDownLatch done, long durationMs) throws InterruptedException {
+        if (!done.await(durationMs + GRACE_MS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Load did not finish within " + (durationMs + GRACE_MS) + " ms");
+        }
+    }
+
+    private static void loop(Supplier<Future<Outcome>> call, long deadline, Load load, CountDownLatch done) {
+        if (System.nanoTime() >= deadline) {
+            done.countDown();
+            return;
+        }
+        long start = System.nanoTime();
+        call.get().onComplete(ar -> {
+            Outcome outcome = ar.succeeded() ? ar.result() : Outcome.FAILED;
+            switch (outcome) {
+                case OK -> {
+                    load.ok.incrementAndGet();
+                    load.latencies.add(System.nanoTime() - start);
+                }
+                case REJECTED -> load.rejected.incrementAndGet();
+                case FAILED -> load.failed.incrementAndGet();
+            }
+            loop(call, deadline, load, done);
+        });
+    }
+
+    /**
+     * Returns an HTTP/2 client for gRPC calls to {@code port} on loopback, spreading calls over {@code connections}.
+     */
+    public static HttpClient grpcClient(Vertx vertx, int port, int connections) {
+        return vertx.createHttpClient(new HttpClientOptions()
+                        .setProtocolVersion(HttpVersion.HTTP_2)
+                        .setHttp2ClearTextUpgrade(false)
+                        .setDefaultHost("127.0.0.1")
+                        .setDefaultPort(port),
+                new PoolOptions().setHttp2MaxSize(connections));
+    }
+
+    /**
+     * Calls {@code path} with an already framed {@code body}, OK and RESOURCE_EXHAUSTED count as such, any other status
+     * as a failure.
+     */
+    public static Future<Outcome> grpc(HttpClient client, String path, Buffer body) {
+        return grpcStatus(client, path, body).map(status -> switch (status == null ? "" : status) {
+            case "0" -> Outcome.OK;
+            case "8" -> Outcome.REJECTED;
+            default -> Outcome.FAILED;
+        });
+    }
+
+    public static Future<String> grpcStatus(HttpClient client, String path, Buffer body) {
+        return client.request(HttpMethod.POST, path)
+                .compose(request -> request
+                        .putHeader("content-type", "application/grpc")
+                        .putHeader("te", "trailers")
+                        .send(body))
+                .compose(response -> response.body().map(b -> {
+                    // Trailers-only responses carry the status in the headers
+                    String status = response.getTrailer("grpc-status");
+                    return status != null ? status : response.getHeader("grpc-status");
+                }));
+    }
+
+    /**
+     * Frames a serialized message as an uncompressed gRPC message.
+     */
+    public static Buffer frame(byte[] message) {
+        return Buffer.buffer().appendByte((byte) 0).appendInt(message.length).appendBytes(message);
+    }
+
+    public static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
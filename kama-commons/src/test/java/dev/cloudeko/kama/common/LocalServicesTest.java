@@ -0,0 +1,82 @@
+package dev.cloudeko.kama.common;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalServicesTest {
+
+    private static final String ADDRESS = "dev.cloudeko.kama.common.EchoService";
+
+    interface EchoService {
+
+        Future<JsonObject> echo(JsonObject value);
+
+        Future<JsonObject> never();
+    }
+
+    static final class Echo implements EchoService {
+
+        private JsonObject received;
+
+        @Override
+        public Future<JsonObject> echo(JsonObject value) {
+            received = value;
+            return Future.succeededFuture(value);
+        }
+
+        @Override
+        public Future<JsonObject> never() {
+            return Promise.<JsonObject>promise().future();
+        }
+    }
+
+    private Vertx vertx;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close().await(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testArgumentsAndResultsAreCopied() throws Exception {
+        Echo service = new Echo();
+        LocalServices.register(vertx, ADDRESS, EchoService.class, service);
+        EchoService local = LocalServices.lookup(vertx, ADDRESS, EchoService.class, address -> fail("Service is registered"));
+
+        JsonObject argument = new JsonObject().put("value", 1);
+        JsonObject result = local.echo(argument).await(5, TimeUnit.SECONDS);
+
+        // Neither side sees what the other changes afterwards, as if the call went over the event bus
+        argument.put("value", 2);
+        assertEquals(1, service.received.getInteger("value"));
+        result.put("value", 3);
+        assertEquals(1, service.received.getInteger("value"));
+        assertNotSame(service.received, result);
+    }
+
+    @Test
+    void testCallsTimeOutLikeProxies() {
+        LocalServices.register(vertx, ADDRESS, EchoService.class, new Echo());
+        EchoService local = LocalServices.lookup(vertx, ADDRESS, EchoService.class, 100, address -> fail("Service is registered"));
+
+        Exception failure = assertThrows(Exception.class, () -> local.never().await(5, TimeUnit.SECONDS));
+        ReplyException timeout = assertInstanceOf(ReplyException.class, failure);
+        assertEquals(ReplyFailure.TIMEOUT, timeout.failureType());
+    }
+}
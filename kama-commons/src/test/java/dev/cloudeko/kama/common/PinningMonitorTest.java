@@ -0,0 +1,42 @@
+package dev.cloudeko.kama.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PinningMonitorTest {
+
+    @Test
+    void testMigrationWinsOverJdbc() {
+        assertEquals("migration", PinningMonitor.subsystem(List.of(
+                "org.h2.jdbc.JdbcStatement",
+                "org.flywaydb.core.internal.sqlscript.DefaultSqlScriptExecutor",
+                "java.lang.VirtualThread")));
+    }
+
+    @Test
+    void testHashing() {
+        assertEquals("hashing", PinningMonitor.subsystem(List.of(
+                "org.mindrot.jbcrypt.BCrypt",
+                "dev.cloudeko.kama.identity.hash.BCryptAlgorithm")));
+        assertEquals("hashing", PinningMonitor.subsystem(List.of("org.bouncycastle.crypto.generators.Argon2BytesGenerator")));
+        assertEquals("hashing", PinningMonitor.subsystem(List.of("dev.cloudeko.kama.identity.hash.PasswordHasher")));
+    }
+
+    @Test
+    void testJdbc() {
+        assertEquals("jdbc", PinningMonitor.subsystem(List.of(
+                "org.h2.mvstore.MVStore",
+                "io.vertx.jdbcclient.impl.actions.JDBCQueryAction",
+                "java.lang.VirtualThread")));
+        assertEquals("jdbc", PinningMonitor.subsystem(List.of("org.sqlite.core.NativeDB", "java.sql.DriverManager")));
+    }
+
+    @Test
+    void testOther() {
+        assertEquals("other", PinningMonitor.subsystem(List.of("java.lang.Object", "java.lang.VirtualThread")));
+        assertEquals("other", PinningMonitor.subsystem(List.of()));
+    }
+}
@@ -1,6 +1,7 @@
 package dev.cloudeko.kama.database;
 
 import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.LocalServices;
 import io.vertx.core.Future;
 import io.vertx.core.VerticleBase;
 import io.vertx.core.eventbus.MessageConsumer;
@@ -25,11 +26,17 @@ public class DatabaseVerticle extends VerticleBase {
         collectionServiceBinder = new ServiceBinder(vertx).setAddress("dev.cloudeko.kama.database.CollectionService").register(CollectionService.class, collectionService);
         recordServiceBinder = new ServiceBinder(vertx).setAddress("dev.cloudeko.kama.database.RecordService").register(RecordService.class, recordService);
 
+        LocalServices.register(vertx, "dev.cloudeko.kama.database.CollectionService", CollectionService.class, collectionService);
+        LocalServices.register(vertx, "dev.cloudeko.kama.database.RecordService", RecordService.class, recordService);
+
         return Future.succeededFuture();
     }
 
     @Override
     public Future<?> stop() {
+        LocalServices.unregister(vertx, "dev.cloudeko.kama.database.CollectionService");
+        LocalServices.unregister(vertx, "dev.cloudeko.kama.database.RecordService");
+
         return Future.all(collectionServiceBinder.unregister(), recordServiceBinder.unregister());
     }
 }
@@ -22,13 +22,16 @@ public interface RecordService {
         return new RecordServiceVertxEBProxy(vertx, address);
     }
 
-    Future<JsonObject> createRecord(String parent, JsonObject record);
+    // Every operation takes the principal of the caller ({"id": ..., "roles": [...]}), which is exposed to the
+    // collection rules as the `user` variable. A null or empty principal is treated as an anonymous caller.
 
-    Future<JsonObject> getRecord(String name);
+    Future<JsonObject> createRecord(String parent, JsonObject record, JsonObject principal);
 
-    Future<List<JsonObject>> listRecords(String parent);
+    Future<JsonObject> getRecord(String name, JsonObject principal);
 
-    Future<JsonObject> updateRecord(JsonObject record);
+    Future<List<JsonObject>> listRecords(String parent, JsonObject principal);
 
-    Future<Void> deleteRecord(String name);
+    Future<JsonObject> updateRecord(JsonObject record, JsonObject principal);
+
+    Future<Void> deleteRecord(String name, JsonObject principal);
 }
@@ -4,9 +4,12 @@ import com.google.protobuf.Timestamp;
 import dev.cloudeko.kama.database.CollectionService;
 import dev.cloudeko.kama.collection.v1.Collection;
 import dev.cloudeko.kama.collection.v1.CollectionField;
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import dev.cloudeko.kama.common.CollectionEvents;
 import dev.cloudeko.kama.common.DatabaseOptions;
 import dev.cloudeko.kama.common.ResourceUtil;
 import dev.cloudeko.kama.common.exception.ResourceAlreadyExists;
+import dev.cloudeko.kama.database.rule.RuleEngine;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
@@ -34,8 +37,8 @@ public class CollectionServiceImpl implements CollectionService {
         this.vertx = vertx;
         this.options = options;
 
-        JDBCConnectOptions connect = new JDBCConnectOptions().setJdbcUrl(options.getUrl()).setUser(options.getUsername()).setPassword(options.getPassword());
-        PoolOptions opts = new PoolOptions().setMaxSize(5);
+        JDBCConnectOptions connect = new JDBCConnectOptions().setJdbcUrl(options.getUrl()).setUser(options.getUsername()).setPassword(options.getPassword()).setQueryTimeout(options.getQueryTimeout());
+        PoolOptions opts = new PoolOptions().setMaxSize(options.getMaxPoolSize()).setName("kama-collections");
         this.client = JDBCPool.pool(vertx, connect, opts);
     }
 
@@ -97,12 +100,18 @@ public class CollectionServiceImpl implements CollectionService {
         if (incoming == null) {
             return Future.failedFuture("Invalid collection");
         }
+        try {
+            RuleEngine.validate(incoming);
+        } catch (IllegalArgumentException e) {
+            return Future.failedFuture(e.getMessage());
+        }
 
         UUID id = UUID.randomUUID();
         // Server-populated fields: id, name
         Collection.Builder toStore = Collection.newBuilder(incoming)
                 .setId(id.toString())
-                .setName("collections/" + id);
+                .setName("collections/" + id)
+                .setVersion(1);
 
         // Add columns per field
         Map<String, CollectionField> fieldsMap = new LinkedHashMap<>(); // Use LinkedHashMap to maintain insertion order
@@ -146,7 +155,8 @@ public class CollectionServiceImpl implements CollectionService {
                     // 2) Create physical table for the collection
                     String ddl = buildCreateTableDdl(toStore.build());
                     return client.query(ddl).execute().map(doc);
-                });
+                })
+                .onSuccess(created -> publishChanged(toStore.getName(), toStore.getId()));
     }
 
     @Override
@@ -155,6 +165,11 @@ public class CollectionServiceImpl implements CollectionService {
         if (incoming == null || incoming.getName().isBlank()) {
             return Future.failedFuture("Invalid collection");
         }
+        try {
+            RuleEngine.validate(incoming);
+        } catch (IllegalArgumentException e) {
+            return Future.failedFuture(e.getMessage());
+        }
         // Get current to preserve id and name
         return getCollection(incoming.getName()).compose(existingJson -> {
             Collection existing = ResourceUtil.decodeCollection(existingJson);
@@ -183,7 +198,7 @@ public class CollectionServiceImpl implements CollectionService {
 
             JsonObject doc = ResourceUtil.encodeCollection(toStore.build());
 
-            String sql = "UPDATE \"collections_meta\" SET \"display_name\" = #{display_name}, \"schema_json\" = #{schema}, \"update_time\" = CURRENT_TIMESTAMP WHERE \"name\" = #{name}";
+            String sql = "UPDATE \"collections_meta\" SET \"display_name\" = #{display_name}, \"schema_json\" = #{schema}, \"version\" = \"version\" + 1, \"update_time\" = CURRENT_TIMESTAMP WHERE \"name\" = #{name}";
             Map<String, Object> params = Map.of(
                     "display_name", toStore.getDisplayName(),
                     "schema", doc.encode(),
@@ -192,7 +207,11 @@ public class CollectionServiceImpl implements CollectionService {
 
             return SqlTemplate.forUpdate(client, sql)
                     .execute(params)
-                    .compose(r -> r.rowCount() == 0 ? Future.failedFuture("Not found") : Future.succeededFuture(doc));
+                    .compose(r -> r.rowCount() == 0 ? Future.failedFuture("Not found") : getCollection(toStore.getName()))
+                    .onSuccess(updated -> {
+                        publishRulesChanged(existing.getId());
+                        publishChanged(existing.getName(), existing.getId());
+                    });
         });
     }
 
@@ -205,10 +224,22 @@ public class CollectionServiceImpl implements CollectionService {
                 .compose(json -> {
                     Collection c = ResourceUtil.decodeCollection(json);
                     String drop = "DROP TABLE IF EXISTS " + tableNameFor(c);
-                    return client.query(drop).execute().mapEmpty().recover(err -> Future.succeededFuture()); // ignore drop issues
-                })
-                .compose(v -> SqlTemplate.forUpdate(client, "DELETE FROM \"collections_meta\" WHERE \"name\" = #{name}").execute(Map.of("name", name)))
-                .compose(r -> r.rowCount() == 0 ? Future.failedFuture("Not found") : Future.succeededFuture());
+                    return client.query(drop).execute().recover(err -> Future.succeededFuture()) // ignore drop issues
+                            .compose(v -> SqlTemplate.forUpdate(client, "DELETE FROM \"collections_meta\" WHERE \"name\" = #{name}").execute(Map.of("name", name)))
+                            .<Void>compose(r -> r.rowCount() == 0 ? Future.failedFuture("Not found") : Future.succeededFuture())
+                            .onSuccess(v -> {
+                                publishRulesChanged(c.getId());
+                                publishChanged(c.getName(), c.getId());
+                            });
+                });
+    }
+
+    private void publishRulesChanged(String collectionId) {
+        vertx.eventBus().publish(AuthorizationEvents.RULES_CHANGED, new JsonObject().put("collection_id", collectionId));
+    }
+
+    private void publishChanged(String name, String collectionId) {
+        vertx.eventBus().publish(CollectionEvents.CHANGED, new JsonObject().put("name", name).put("collection_id", collectionId));
     }
 
     @Override
@@ -216,31 +247,35 @@ public class CollectionServiceImpl implements CollectionService {
         if (name == null || name.isBlank()) {
             return Future.failedFuture("Invalid name");
         }
-        String sql = "SELECT \"schema_json\" FROM \"collections_meta\" WHERE \"name\" = #{name}";
+        String sql = "SELECT \"schema_json\", \"version\" FROM \"collections_meta\" WHERE \"name\" = #{name}";
         return SqlTemplate.forQuery(client, sql).execute(Map.of("name", name))
                 .compose(rs -> {
                     Iterator<Row> it = rs.iterator();
                     if (!it.hasNext()) {
                         return Future.failedFuture("Not found");
                     }
-                    Row row = it.next();
-                    return Future.succeededFuture(new JsonObject(row.getString("schema_json")));
+                    return Future.succeededFuture(toDocument(it.next()));
                 });
     }
 
     @Override
     public Future<List<JsonObject>> listCollections() {
-        String sql = "SELECT \"schema_json\" FROM \"collections_meta\" ORDER BY \"create_time\"";
+        String sql = "SELECT \"schema_json\", \"version\" FROM \"collections_meta\" ORDER BY \"create_time\"";
         return SqlTemplate.forQuery(client, sql).execute(Collections.emptyMap())
                 .map(rowSet -> {
                     List<JsonObject> list = new ArrayList<>();
                     for (Row row : rowSet) {
-                        list.add(new JsonObject(row.getString("schema_json")));
+                        list.add(toDocument(row));
                     }
                     return list;
                 });
     }
 
+    private static JsonObject toDocument(Row row) {
+        // The stored document is written once per update, the version column is authoritative
+        return new JsonObject(row.getString("schema_json")).put("version", row.getLong("version"));
+    }
+
     // TupleMapper for completeness (not strictly needed since we use Map params). RowMapper for proto if needed elsewhere.
     private static final class CollectionMapper implements RowMapper<Collection>, TupleMapper<Collection> {
         @Override
@@ -4,7 +4,14 @@ import dev.cloudeko.kama.database.CollectionService;
 import dev.cloudeko.kama.database.RecordService;
 import dev.cloudeko.kama.collection.v1.Collection;
 import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.Deadline;
 import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.common.exception.PermissionDenied;
+import dev.cloudeko.kama.database.rule.CompiledRules;
+import dev.cloudeko.kama.database.rule.DecisionCache;
+import dev.cloudeko.kama.database.rule.RuleEngine;
+import dev.cloudeko.kama.database.rule.RulePushdown;
+import io.micrometer.core.instrument.Metrics;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
@@ -22,13 +29,16 @@ public class RecordServiceImpl implements RecordService {
     private final Vertx vertx;
     private final SqlClient client;
     private final CollectionService collectionService;
+    private final RuleEngine ruleEngine = new RuleEngine();
+    private final DecisionCache decisions = new DecisionCache(10_000, Metrics.globalRegistry);
 
     public RecordServiceImpl(Vertx vertx, CollectionService collectionService, DatabaseOptions options) {
         this.vertx = vertx;
         this.collectionService = collectionService;
+        this.decisions.listen(vertx.eventBus());
 
-        JDBCConnectOptions connect = new JDBCConnectOptions().setJdbcUrl(options.getUrl()).setUser(options.getUsername()).setPassword(options.getPassword());
-        PoolOptions opts = new PoolOptions().setMaxSize(5);
+        JDBCConnectOptions connect = new JDBCConnectOptions().setJdbcUrl(options.getUrl()).setUser(options.getUsername()).setPassword(options.getPassword()).setQueryTimeout(options.getQueryTimeout());
+        PoolOptions opts = new PoolOptions().setMaxSize(options.getMaxPoolSize()).setName("kama-records");
         this.client = JDBCPool.pool(vertx, connect, opts);
     }
 
@@ -36,8 +46,95 @@ public class RecordServiceImpl implements RecordService {
         return "\"c_" + c.getId().replace("-", "") + "\"";
     }
 
+    private static String columnNameFor(String field) {
+        return field.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    private static String selectColumnsFor(Collection c) {
+        Set<String> fields = c.getFieldsMap().keySet();
+        return "\"id\"" + (fields.isEmpty() ? "" : ", " + String.join(", ", fields.stream().map(f -> "\"" + columnNameFor(f) + "\"").toList()));
+    }
+
+    private static JsonObject readValues(Collection c, Row row) {
+        JsonObject values = new JsonObject();
+        for (String f : c.getFieldsMap().keySet()) {
+            Object v = row.getValue(columnNameFor(f));
+            if (v == null)
+                continue;
+            values.put(f, v);
+        }
+        return values;
+    }
+
+    private static JsonObject toRecord(String collectionName, String id, JsonObject values) {
+        dev.cloudeko.kama.record.v1.Record rec = dev.cloudeko.kama.record.v1.Record.newBuilder()
+                .setId(id)
+                .setName(collectionName + "/records/" + id)
+                .setCollection(collectionName)
+                .build();
+        JsonObject out = ResourceUtil.encodeRecord(rec);
+        out.put("values", values);
+        return out;
+    }
+
+    /**
+     * Evaluates the collection rules for {@code method} against the given record values.
+     */
+    private Future<Void> authorize(Collection collection, String method, JsonObject principal, String id, JsonObject values) {
+        CompiledRules rules = ruleEngine.compile(collection);
+        if (rules.isEmpty()) {
+            return Future.succeededFuture();
+        }
+
+        // Collection-level decisions skip the per-record evaluation
+        RulePushdown.Predicate decision = decide(collection, rules, method, principal);
+        if (decision.none()) {
+            return Future.failedFuture(new PermissionDenied("Permission denied"));
+        }
+        if (decision.exact() && decision.sql() == null) {
+            return Future.succeededFuture();
+        }
+        if (!rules.isAllowed(requestVariable(collection, method), userVariable(principal), resourceVariable(collection, id, values))) {
+            return Future.failedFuture(new PermissionDenied("Permission denied"));
+        }
+        return Future.succeededFuture();
+    }
+
+    /**
+     * Returns the collection-level decision for {@code principal}. The roles of a principal are identified by its
+     * {@code roles_version}, which changes whenever roles are assigned or revoked.
+     */
+    private RulePushdown.Predicate decide(Collection collection, CompiledRules rules, String method, JsonObject principal) {
+        DecisionCache.Key key = new DecisionCache.Key(
+                principal.getString("id", ""),
+                principal.getLong("roles_version", 0L),
+                collection.getId(),
+                collection.getVersion(),
+                method);
+        return decisions.get(key, () -> RulePushdown.translate(rules, collection, requestVariable(collection, method), userVariable(principal)));
+    }
+
+    private static Map<String, Object> requestVariable(Collection collection, String method) {
+        return Map.of("method", method, "collection", collection.getName());
+    }
+
+    private static Map<String, Object> userVariable(JsonObject principal) {
+        Map<String, Object> user = RuleEngine.toCel(principal);
+        user.putIfAbsent("id", "");
+        user.putIfAbsent("roles", List.of());
+        return user;
+    }
+
+    private static Map<String, Object> resourceVariable(Collection collection, String id, JsonObject values) {
+        Map<String, Object> resource = RuleEngine.toCel(values);
+        resource.put("id", id);
+        resource.put("name", collection.getName() + "/records/" + id);
+        resource.put("collection", collection.getName());
+        return resource;
+    }
+
     @Override
-    public Future<JsonObject> createRecord(String parent, JsonObject record) {
+    public Future<JsonObject> createRecord(String parent, JsonObject record, JsonObject principal) {
         dev.cloudeko.kama.record.v1.Record incoming = ResourceUtil.decodeRecord(record);
         String collectionName = (incoming.getCollection() == null || incoming.getCollection().isBlank()) ? parent : incoming.getCollection();
         if (collectionName == null || collectionName.isBlank()) {
@@ -170,7 +267,7 @@ public class RecordServiceImpl implements RecordService {
             sql.append(String.join(", ", valueParams)).append(")");
 
             final JsonObject valuesOut = inputJson;
-            return SqlTemplate.forUpdate(client, sql.toString()).execute(params).map(v -> {
+            return authorize(collection, "create", principal, id.toString(), inputJson).compose(a -> Deadline.check()).compose(a -> SqlTemplate.forUpdate(client, sql.toString()).execute(params)).map(v -> {
                 dev.cloudeko.kama.record.v1.Record toStore = dev.cloudeko.kama.record.v1.Record.newBuilder(incoming)
                         .setId(id.toString())
                         .setName(collectionName + "/records/" + id)
@@ -185,7 +282,7 @@ public class RecordServiceImpl implements RecordService {
     }
 
     @Override
-    public Future<JsonObject> getRecord(String name) {
+    public Future<JsonObject> getRecord(String name, JsonObject principal) {
         if (name == null || name.isBlank())
             return Future.failedFuture("Invalid name");
         // Extract collection and record id
@@ -196,62 +293,61 @@ public class RecordServiceImpl implements RecordService {
         String id = name.substring(idx + "/records/".length());
         return collectionService.getCollection(collectionName).compose(json -> {
             Collection collection = ResourceUtil.decodeCollection(json);
-
-            String tbl = tableNameFor(collection);
-            // Build a select that includes all schema columns
-            Set<String> fields = collection.getFieldsMap().keySet();
-            String selectCols = "\"id\"" + (fields.isEmpty() ? "" : ", " + String.join(", ", fields.stream().map(f -> "\"" + f.replaceAll("[^A-Za-z0-9_]", "_") + "\"").toList()));
-            String sql = "SELECT " + selectCols + " FROM " + tbl + " WHERE \"id\" = #{id}";
-            return SqlTemplate.forQuery(client, sql).execute(Map.of("id", id))
-                    .compose(rs -> {
-                        if (!rs.iterator().hasNext())
-                            return Future.failedFuture("Not found");
-                        Row row = rs.iterator().next();
-                        JsonObject values = new JsonObject();
-                        int idxCol = 0;
-                        // first column is id, skip
-                        for (String f : fields) {
-                            String col = f.replaceAll("[^A-Za-z0-9_]", "_");
-                            Object v = row.getValue(col);
-                            if (v == null)
-                                continue;
-                            values.put(f, v);
-                        }
-                        dev.cloudeko.kama.record.v1.Record rec = dev.cloudeko.kama.record.v1.Record.newBuilder()
-                                .setId(id)
-                                .setName(name)
-                                .setCollection(collectionName)
-                                .build();
-                        JsonObject out = ResourceUtil.encodeRecord(rec);
-                        out.put("values", values);
-                        return Future.succeededFuture(out);
-                    });
+            return loadRecord(collection, id, "read", principal).map(values -> toRecord(collectionName, id, values));
         });
     }
 
+    /**
+     * Loads the values of a record and authorizes {@code method} against them.
+     */
+    private Future<JsonObject> loadRecord(Collection collection, String id, String method, JsonObject principal) {
+        String tbl = tableNameFor(collection);
+        // Build a select that includes all schema columns
+        String sql = "SELECT " + selectColumnsFor(collection) + " FROM " + tbl + " WHERE \"id\" = #{id}";
+        return Deadline.check()
+                .compose(v -> SqlTemplate.forQuery(client, sql).execute(Map.of("id", id)))
+                .compose(rs -> {
+                    if (!rs.iterator().hasNext())
+                        return Future.failedFuture("Not found");
+                    JsonObject values = readValues(collection, rs.iterator().next());
+                    return authorize(collection, method, principal, id, values).map(v -> values);
+                });
+    }
+
     @Override
-    public Future<List<JsonObject>> listRecords(String parent) {
+    public Future<List<JsonObject>> listRecords(String parent, JsonObject principal) {
         if (parent == null || parent.isBlank()) {
             return Future.failedFuture("parent required");
         }
 
         return collectionService.getCollection(parent).compose(json -> {
             Collection collection = ResourceUtil.decodeCollection(json);
+            CompiledRules rules = ruleEngine.compile(collection);
+
+            Map<String, Object> request = requestVariable(collection, "read");
+            Map<String, Object> user = userVariable(principal);
+
+            // Row-level parts of the rules are evaluated by the database, only inexact predicates need a residual check
+            RulePushdown.Predicate predicate = decide(collection, rules, "read", principal);
+            if (predicate.none()) {
+                return Future.succeededFuture(List.<JsonObject>of());
+            }
 
             String tbl = tableNameFor(collection);
-            String sql = "SELECT \"id\" FROM " + tbl + " ORDER BY \"create_time\"";
+            String where = predicate.sql() == null ? "" : " WHERE " + predicate.sql();
+            String sql = "SELECT " + selectColumnsFor(collection) + " FROM " + tbl + where + " ORDER BY \"create_time\"";
 
-            return SqlTemplate.forQuery(client, sql).execute(Collections.emptyMap())
+            return Deadline.check()
+                    .compose(v -> SqlTemplate.forQuery(client, sql).execute(predicate.params()))
                     .map(rowSet -> {
                         List<JsonObject> out = new ArrayList<>();
                         for (Row row : rowSet) {
                             String id = row.getString("id");
-                            dev.cloudeko.kama.record.v1.Record rec = dev.cloudeko.kama.record.v1.Record.newBuilder()
-                                    .setId(id)
-                                    .setName(parent + "/records/" + id)
-                                    .setCollection(parent)
-                                    .build();
-                            out.add(ResourceUtil.encodeRecord(rec));
+                            JsonObject values = readValues(collection, row);
+                            // Rows the caller is not allowed to read are skipped rather than failing the whole list
+                            if (!predicate.exact() && !rules.isAllowed(request, user, resourceVariable(collection, id, values)))
+                                continue;
+                            out.add(toRecord(parent, id, values));
                         }
                         return out;
                     });
@@ -259,17 +355,26 @@ public class RecordServiceImpl implements RecordService {
     }
 
     @Override
-    public Future<JsonObject> updateRecord(JsonObject record) {
+    public Future<JsonObject> updateRecord(JsonObject record, JsonObject principal) {
         dev.cloudeko.kama.record.v1.Record incoming = ResourceUtil.decodeRecord(record);
         String name = incoming.getName();
         if (name == null || name.isBlank())
             return Future.failedFuture("name required");
-        // No actual column updates for now; just check existence and return same
-        return getRecord(name);
+
+        int idx = name.lastIndexOf("/records/");
+        if (idx < 0)
+            return Future.failedFuture("Invalid name format");
+        String collectionName = name.substring(0, idx);
+        String id = name.substring(idx + "/records/".length());
+        // No actual column updates for now; just check existence and access and return same
+        return collectionService.getCollection(collectionName).compose(json -> {
+            Collection collection = ResourceUtil.decodeCollection(json);
+            return loadRecord(collection, id, "update", principal).map(values -> toRecord(collectionName, id, values));
+        });
     }
 
     @Override
-    public Future<Void> deleteRecord(String name) {
+    public Future<Void> deleteRecord(String name, JsonObject principal) {
         if (name == null || name.isBlank()) {
             return Future.failedFuture("name required");
         }
@@ -287,7 +392,10 @@ public class RecordServiceImpl implements RecordService {
             String tbl = tableNameFor(collection);
             String sql = "DELETE FROM " + tbl + " WHERE \"id\" = #{id}";
 
-            return SqlTemplate.forUpdate(client, sql).execute(Map.of("id", id)).compose(r -> r.rowCount() == 0 ? Future.failedFuture("Not found") : Future.succeededFuture());
+            return loadRecord(collection, id, "delete", principal)
+                    .compose(values -> Deadline.check())
+                    .compose(v -> SqlTemplate.forUpdate(client, sql).execute(Map.of("id", id)))
+                    .compose(r -> r.rowCount() == 0 ? Future.failedFuture("Not found") : Future.succeededFuture());
         });
     }
 }
@@ -0,0 +1,72 @@
+package dev.cloudeko.kama.database.rule;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import io.micrometer.core.instrument.Timer;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The compiled rules of a single collection version.
+ * <p>
+ * A request is denied as soon as a deny rule matches. Otherwise it is allowed when an allow rule matches, or when the
+ * collection declares no allow rules at all. Errors during evaluation are treated as a deny.
+ */
+public record CompiledRules(String collection, long version, List<CompiledRule> deny, List<CompiledRule> allow, boolean broken) {
+
+    private static final Logger LOGGER = Logger.getLogger(CompiledRules.class);
+
+    public CompiledRules {
+        deny = List.copyOf(deny);
+        allow = List.copyOf(allow);
+    }
+
+    public boolean isEmpty() {
+        return deny.isEmpty() && allow.isEmpty() && !broken;
+    }
+
+    public boolean isAllowed(Map<String, Object> request, Map<String, Object> user, Map<String, Object> resource) {
+        if (broken) {
+            return false;
+        }
+
+        Map<String, Object> variables = Map.of("request", request, "user", user, "resource", resource);
+        for (CompiledRule rule : deny) {
+            if (rule.matches(variables) != Boolean.FALSE) {
+                return false;
+            }
+        }
+
+        if (allow.isEmpty()) {
+            return true;
+        }
+        for (CompiledRule rule : allow) {
+            if (rule.matches(variables) == Boolean.TRUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public record CompiledRule(int index, String expression, CelAbstractSyntaxTree ast, CelRuntime.Program program, Timer timer) {
+
+        /**
+         * Evaluates the rule, returning {@code null} when evaluation failed.
+         */
+        Boolean matches(Map<String, Object> variables) {
+            long start = System.nanoTime();
+            try {
+                return (Boolean) program.eval(variables);
+            } catch (CelEvaluationException e) {
+                LOGGER.debugv("Rule {0} ({1}) failed to evaluate: {2}", index, expression, e.getMessage());
+                return null;
+            } finally {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
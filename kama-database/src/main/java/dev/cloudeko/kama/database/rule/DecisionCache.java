@@ -0,0 +1,138 @@
+package dev.cloudeko.kama.database.rule;
+
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, per-node cache of collection-level authorization decisions.
+ * <p>
+ * A decision is the {@link RulePushdown.Predicate} of the collection rules for one user and method. Constant
+ * predicates decide the request for every record of the collection, the others still have to be checked per row.
+ * Keys carry the roles version of the user and the version of the collection, so a changed input never hits an old
+ * entry. Broadcasts on {@link AuthorizationEvents} additionally drop the superseded entries right away instead of
+ * waiting for them to age out.
+ */
+public class DecisionCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DecisionCache.class);
+
+    public record Key(String userId, long rolesVersion, String collectionId, long collectionVersion, String method) {
+    }
+
+    private final Map<Key, RulePushdown.Predicate> entries;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter staleEvictions;
+    private final Counter sizeEvictions;
+
+    public DecisionCache(int maximumSize, MeterRegistry registry) {
+        this.hits = Counter.builder("kama.authorization.decisions")
+                .description("Authorization decision cache lookups")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("kama.authorization.decisions")
+                .description("Authorization decision cache lookups")
+                .tag("result", "miss")
+                .register(registry);
+        this.staleEvictions = Counter.builder("kama.authorization.decisions.evictions")
+                .description("Authorization decisions removed from the cache")
+                .tag("cause", "stale")
+                .register(registry);
+        this.sizeEvictions = Counter.builder("kama.authorization.decisions.evictions")
+                .description("Authorization decisions removed from the cache")
+                .tag("cause", "size")
+                .register(registry);
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, RulePushdown.Predicate> eldest) {
+                if (size() > maximumSize) {
+                    sizeEvictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        Gauge.builder("kama.authorization.decisions.size", this, DecisionCache::size)
+                .description("Authorization decisions currently cached")
+                .register(registry);
+    }
+
+    /**
+     * Subscribes to the invalidation broadcasts. Consumers registered from a verticle are removed when it is undeployed.
+     */
+    public void listen(EventBus eventBus) {
+        eventBus.<JsonObject>consumer(AuthorizationEvents.ROLES_CHANGED, message -> {
+            String userId = message.body().getString("user_id");
+            if (userId != null) {
+                invalidateUser(userId);
+            }
+        });
+        eventBus.<JsonObject>consumer(AuthorizationEvents.RULES_CHANGED, message -> {
+            String collectionId = message.body().getString("collection_id");
+            if (collectionId != null) {
+                invalidateCollection(collectionId);
+            }
+        });
+    }
+
+    public RulePushdown.Predicate get(Key key, Supplier<RulePushdown.Predicate> loader) {
+        synchronized (entries) {
+            RulePushdown.Predicate decision = entries.get(key);
+            if (decision != null) {
+                hits.increment();
+                return decision;
+            }
+        }
+
+        // Translation is pure, a concurrent miss for the same key only does the work twice
+        misses.increment();
+        RulePushdown.Predicate decision = loader.get();
+        synchronized (entries) {
+            entries.put(key, decision);
+        }
+        return decision;
+    }
+
+    public void invalidateUser(String userId) {
+        int removed = removeIf(key -> key.userId().equals(userId));
+        LOGGER.debugv("Dropped {0} cached decisions of user {1}", removed, userId);
+    }
+
+    public void invalidateCollection(String collectionId) {
+        int removed = removeIf(key -> key.collectionId().equals(collectionId));
+        LOGGER.debugv("Dropped {0} cached decisions of collection {1}", removed, collectionId);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private int removeIf(Predicate<Key> filter) {
+        int removed = 0;
+        synchronized (entries) {
+            for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext(); ) {
+                if (filter.test(it.next())) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        staleEvictions.increment(removed);
+        return removed;
+    }
+}
@@ -0,0 +1,167 @@
+package dev.cloudeko.kama.database.rule;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.CelValidationException;
+import dev.cel.common.types.MapType;
+import dev.cel.common.types.SimpleType;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.compiler.CelCompilerFactory;
+import dev.cel.parser.CelStandardMacro;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import dev.cel.runtime.CelRuntimeFactory;
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.Rule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles and evaluates the CEL rules attached to a {@link Collection}.
+ * <p>
+ * Rules are parsed and type-checked once per collection version and the resulting programs are cached, so a request
+ * only pays for evaluation. Deny rules are evaluated before allow rules and evaluation stops at the first match. Rules
+ * without a type are deny rules.
+ */
+public class RuleEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(RuleEngine.class);
+
+    private static final CelCompiler COMPILER = CelCompilerFactory.standardCelCompilerBuilder()
+            .setStandardMacros(CelStandardMacro.STANDARD_MACROS)
+            .addVar("resource", MapType.create(SimpleType.STRING, SimpleType.DYN))
+            .addVar("request", MapType.create(SimpleType.STRING, SimpleType.DYN))
+            .addVar("user", MapType.create(SimpleType.STRING, SimpleType.DYN))
+            .setResultType(SimpleType.BOOL)
+            .build();
+
+    private static final CelRuntime RUNTIME = CelRuntimeFactory.standardCelRuntimeBuilder().build();
+
+    private final Map<String, CompiledRules> cache = new ConcurrentHashMap<>();
+    private final MeterRegistry registry;
+
+    public RuleEngine() {
+        this(Metrics.globalRegistry);
+    }
+
+    public RuleEngine(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Parses and type-checks every rule of {@code collection} without caching the result.
+     *
+     * @throws IllegalArgumentException if a rule is not a valid boolean CEL expression
+     */
+    public static void validate(Collection collection) {
+        for (int i = 0; i < collection.getRulesCount(); i++) {
+            try {
+                COMPILER.compile(collection.getRules(i).getExpression()).getAst();
+            } catch (CelValidationException e) {
+                throw new IllegalArgumentException("Invalid rule " + i + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the compiled rules of {@code collection}, compiling them only when the collection version changed.
+     */
+    public CompiledRules compile(Collection collection) {
+        CompiledRules current = cache.get(collection.getId());
+        if (current != null && current.version() == collection.getVersion()) {
+            return current;
+        }
+        return cache.compute(collection.getId(), (id, existing) -> {
+            if (existing != null && existing.version() == collection.getVersion()) {
+                return existing;
+            }
+            return doCompile(collection);
+        });
+    }
+
+    public void invalidate(String collectionId) {
+        cache.remove(collectionId);
+    }
+
+    private CompiledRules doCompile(Collection collection) {
+        List<CompiledRules.CompiledRule> deny = new ArrayList<>();
+        List<CompiledRules.CompiledRule> allow = new ArrayList<>();
+        boolean broken = false;
+
+        for (int i = 0; i < collection.getRulesCount(); i++) {
+            Rule rule = collection.getRules(i);
+            // Only an explicit allow grants access, a rule without a type must fail closed
+            boolean isDeny = rule.getType() != Rule.RuleType.Type.TYPE_ALLOW;
+            // Tagged by type only, collections are created by clients and would grow the registry without bound
+            Timer timer = Timer.builder("kama.rule.evaluation")
+                    .description("Evaluation latency of a single collection rule")
+                    .tag("type", isDeny ? "deny" : "allow")
+                    .register(registry);
+            try {
+                CelAbstractSyntaxTree ast = COMPILER.compile(rule.getExpression()).getAst();
+                CelRuntime.Program program = RUNTIME.createProgram(ast);
+                CompiledRules.CompiledRule compiled = new CompiledRules.CompiledRule(i, rule.getExpression(), ast, program, timer);
+                (isDeny ? deny : allow).add(compiled);
+            } catch (CelValidationException | CelEvaluationException e) {
+                // Rules are validated on write, anything failing here is legacy data and must not grant access
+                LOGGER.errorv(e, "Failed to compile rule {0} of collection {1}", i, collection.getName());
+                broken = true;
+            }
+        }
+
+        LOGGER.debugv("Compiled {0} rules for collection {1} version {2}", collection.getRulesCount(), collection.getName(), collection.getVersion());
+        return new CompiledRules(collection.getName(), collection.getVersion(), deny, allow, broken);
+    }
+
+    /**
+     * Converts a JSON value into the representation expected by the CEL runtime: integers become {@code long},
+     * objects become maps and arrays become lists.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object toCel(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Long || value instanceof Double) {
+            return value;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float f) {
+            return f.doubleValue();
+        }
+        if (value instanceof JsonObject json) {
+            return toCel(json);
+        }
+        if (value instanceof Map<?, ?> map) {
+            return toCel(new JsonObject(new LinkedHashMap<>((Map<String, Object>) map)));
+        }
+        if (value instanceof JsonArray array) {
+            List<Object> list = new ArrayList<>(array.size());
+            for (Object item : array) {
+                list.add(toCel(item));
+            }
+            return list;
+        }
+        if (value instanceof List<?> list) {
+            return toCel(new JsonArray(new ArrayList<>(list)));
+        }
+        return String.valueOf(value);
+    }
+
+    public static Map<String, Object> toCel(JsonObject json) {
+        Map<String, Object> map = new HashMap<>();
+        if (json != null) {
+            for (Map.Entry<String, Object> entry : json) {
+                if (entry.getValue() != null) {
+                    map.put(entry.getKey(), toCel(entry.getValue()));
+                }
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,533 @@
+package dev.cloudeko.kama.database.rule;
+
+import dev.cel.common.ast.CelConstant;
+import dev.cel.common.ast.CelExpr;
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.CollectionField;
+
+import java.util.*;
+
+/**
+ * Rewrites the row-level parts of collection rules into a SQL predicate.
+ * <p>
+ * Every sub-expression that does not depend on {@code resource} is folded into a constant using the request and user
+ * of the call. Comparisons between {@code resource} fields and constants become SQL predicates on the record table.
+ * SQL three-valued logic is used as the counterpart of CEL error absorption: a missing value is {@code NULL} in SQL
+ * and an evaluation error in CEL, and both are absorbed the same way by {@code AND} and {@code OR}.
+ * <p>
+ * Parts that cannot be translated are approximated so that the resulting predicate never drops a row the rules would
+ * allow. When that happens the predicate is marked as inexact and the caller has to evaluate the compiled rules on
+ * every returned row as a residual check.
+ */
+public final class RulePushdown {
+
+    private static final Object RESOURCE = new Object();
+
+    /**
+     * A SQL predicate with its named parameters. A {@code null} sql means no filtering is needed, {@code exact} tells
+     * whether the predicate alone decides access.
+     */
+    public record Predicate(String sql, Map<String, Object> params, boolean exact, boolean none) {
+
+        public static Predicate all(boolean exact) {
+            return new Predicate(null, Map.of(), exact, false);
+        }
+    }
+
+    private record Column(String sql, Class<?> type) {
+    }
+
+    // A translated sub-expression: a constant, a resource column, an exact SQL predicate or unknown
+    private record Term(Object constant, Column column, String predicate, boolean known) {
+
+        static final Term UNKNOWN = new Term(null, null, null, false);
+
+        static Term constant(Object value) {
+            return new Term(value, null, null, true);
+        }
+
+        static Term column(Column column) {
+            return new Term(null, column, null, true);
+        }
+
+        static Term predicate(String sql) {
+            return new Term(null, null, sql, true);
+        }
+
+        boolean isConstant() {
+            return known && column == null && predicate == null;
+        }
+    }
+
+    // A translated condition, either a literal or a SQL fragment
+    private record Cond(Boolean literal, String sql, boolean exact) {
+
+        static Cond literal(boolean value, boolean exact) {
+            return new Cond(value, null, exact);
+        }
+
+        boolean is(boolean value) {
+            return literal != null && literal == value;
+        }
+    }
+
+    private final Map<String, Column> columns = new HashMap<>();
+    private final Map<String, Object> params = new LinkedHashMap<>();
+    private final String collectionName;
+
+    private RulePushdown(Collection collection) {
+        this.collectionName = collection.getName();
+        for (Map.Entry<String, CollectionField> entry : collection.getFieldsMap().entrySet()) {
+            Class<?> type = switch (entry.getValue().getTypeCase()) {
+                case IDENTIFIER_TYPE, STRING_TYPE, REFERENCE_TYPE -> String.class;
+                case INTEGER_TYPE -> Long.class;
+                case DOUBLE_TYPE -> Double.class;
+                case BOOL_TYPE -> Boolean.class;
+                default -> null;
+            };
+            if (type != null) {
+                columns.put(entry.getKey(), new Column("\"" + entry.getKey().replaceAll("[^A-Za-z0-9_]", "_") + "\"", type));
+            }
+        }
+    }
+
+    /**
+     * Builds the row filter for {@code rules} evaluated with the given request and user. The returned predicate keeps
+     * every row the rules allow, and only those rows when it is exact.
+     */
+    public static Predicate translate(CompiledRules rules, Collection collection, Map<String, Object> request, Map<String, Object> user) {
+        if (rules.broken()) {
+            return new Predicate(null, Map.of(), true, true);
+        }
+        if (rules.isEmpty()) {
+            return Predicate.all(true);
+        }
+
+        RulePushdown pushdown = new RulePushdown(collection);
+        Map<String, Object> env = new HashMap<>();
+        env.put("request", request);
+        env.put("user", user);
+
+        Cond filter = Cond.literal(true, true);
+        for (CompiledRules.CompiledRule rule : rules.deny()) {
+            // A deny rule only lets a row through when it evaluates to false, so use its lower bound
+            Cond lower = pushdown.condition(rule.ast().getExpr(), env, false);
+            filter = pushdown.and(filter, pushdown.isTrue(pushdown.not(lower)));
+        }
+
+        if (!rules.allow().isEmpty()) {
+            Cond any = Cond.literal(false, true);
+            for (CompiledRules.CompiledRule rule : rules.allow()) {
+                any = pushdown.or(any, pushdown.condition(rule.ast().getExpr(), env, true));
+            }
+            filter = pushdown.and(filter, pushdown.isTrue(any));
+        }
+
+        if (filter.literal() != null) {
+            return filter.literal() ? Predicate.all(filter.exact()) : new Predicate(null, Map.of(), filter.exact(), true);
+        }
+        return new Predicate(filter.sql(), Map.copyOf(pushdown.params), filter.exact(), false);
+    }
+
+    private String param(Object value) {
+        String name = "r" + params.size();
+        params.put(name, value);
+        return "#{" + name + "}";
+    }
+
+    private Cond and(Cond a, Cond b) {
+        boolean exact = a.exact() && b.exact();
+        if (a.is(false) || b.is(false)) {
+            return Cond.literal(false, exact);
+        }
+        if (a.is(true)) {
+            return new Cond(b.literal(), b.sql(), exact);
+        }
+        if (b.is(true)) {
+            return new Cond(a.literal(), a.sql(), exact);
+        }
+        return new Cond(null, "(" + a.sql() + " AND " + b.sql() + ")", exact);
+    }
+
+    private Cond or(Cond a, Cond b) {
+        boolean exact = a.exact() && b.exact();
+        if (a.is(true) || b.is(true)) {
+            return Cond.literal(true, exact);
+        }
+        if (a.is(false)) {
+            return new Cond(b.literal(), b.sql(), exact);
+        }
+        if (b.is(false)) {
+            return new Cond(a.literal(), a.sql(), exact);
+        }
+        return new Cond(null, "(" + a.sql() + " OR " + b.sql() + ")", exact);
+    }
+
+    private Cond not(Cond a) {
+        if (a.literal() != null) {
+            return Cond.literal(!a.literal(), a.exact());
+        }
+        return new Cond(null, "(NOT " + a.sql() + ")", a.exact());
+    }
+
+    // Collapses SQL NULL (a CEL error) to false
+    private Cond isTrue(Cond a) {
+        if (a.literal() != null) {
+            return a;
+        }
+        return new Cond(null, "COALESCE(" + a.sql() + ", FALSE)", a.exact());
+    }
+
+    /**
+     * Translates a boolean expression. With {@code upper} set the result is true whenever the expression is true,
+     * otherwise the result is only true when the expression is true.
+     */
+    private Cond condition(CelExpr expr, Map<String, Object> env, boolean upper) {
+        if (expr.exprKind().getKind() == CelExpr.ExprKind.Kind.CALL) {
+            String function = expr.call().function();
+            List<CelExpr> args = expr.call().args();
+            switch (function) {
+                case "_&&_" -> {
+                    return and(condition(args.get(0), env, upper), condition(args.get(1), env, upper));
+                }
+                case "_||_" -> {
+                    return or(condition(args.get(0), env, upper), condition(args.get(1), env, upper));
+                }
+                case "!_" -> {
+                    return not(condition(args.get(0), env, !upper));
+                }
+                default -> {
+                }
+            }
+        }
+
+        Term term = term(expr, env);
+        if (term.isConstant() && term.constant() instanceof Boolean b) {
+            return Cond.literal(b, true);
+        }
+        if (term.predicate() != null) {
+            return new Cond(null, term.predicate(), true);
+        }
+        if (term.column() != null && term.column().type() == Boolean.class) {
+            return new Cond(null, "(" + term.column().sql() + " = " + param(true) + ")", true);
+        }
+        return Cond.literal(upper, false);
+    }
+
+    private Term term(CelExpr expr, Map<String, Object> env) {
+        return switch (expr.exprKind().getKind()) {
+            case CONSTANT -> constant(expr.constant());
+            case IDENT -> {
+                String name = expr.ident().name();
+                if (env.containsKey(name)) {
+                    yield Term.constant(env.get(name));
+                }
+                yield "resource".equals(name) ? Term.constant(RESOURCE) : Term.UNKNOWN;
+            }
+            case SELECT -> select(expr, env);
+            case LIST -> {
+                List<Object> values = new ArrayList<>();
+                for (CelExpr element : expr.list().elements()) {
+                    Term item = term(element, env);
+                    if (!item.isConstant() || item.constant() == RESOURCE) {
+                        yield Term.UNKNOWN;
+                    }
+                    values.add(item.constant());
+                }
+                yield Term.constant(values);
+            }
+            case CALL -> call(expr, env);
+            case COMPREHENSION -> comprehension(expr, env);
+            default -> Term.UNKNOWN;
+        };
+    }
+
+    private static Term constant(CelConstant constant) {
+        return switch (constant.getKind()) {
+            case BOOLEAN_VALUE -> Term.constant(constant.booleanValue());
+            case INT64_VALUE -> Term.constant(constant.int64Value());
+            case DOUBLE_VALUE -> Term.constant(constant.doubleValue());
+            case STRING_VALUE -> Term.constant(constant.stringValue());
+            default -> Term.UNKNOWN;
+        };
+    }
+
+    private Term select(CelExpr expr, Map<String, Object> env) {
+        Term operand = term(expr.select().operand(), env);
+        String field = expr.select().field();
+        boolean testOnly = expr.select().testOnly();
+
+        if (operand.isConstant() && operand.constant() == RESOURCE) {
+            if ("collection".equals(field)) {
+                return Term.constant(testOnly ? Boolean.TRUE : collectionName);
+            }
+            Column column = columns.get(field);
+            if (column == null) {
+                return Term.UNKNOWN;
+            }
+            return testOnly ? Term.predicate("(" + column.sql() + " IS NOT NULL)") : Term.column(column);
+        }
+        if (operand.isConstant() && operand.constant() instanceof Map<?, ?> map) {
+            if (testOnly) {
+                return Term.constant(map.containsKey(field));
+            }
+            // Missing keys are evaluation errors in CEL, keep them out of the folded constants
+            return map.containsKey(field) ? Term.constant(map.get(field)) : Term.UNKNOWN;
+        }
+        return Term.UNKNOWN;
+    }
+
+    private Term call(CelExpr expr, Map<String, Object> env) {
+        String function = expr.call().function();
+        List<CelExpr> args = expr.call().args();
+
+        switch (function) {
+            case "_&&_", "_||_", "!_" -> {
+                // Only usable as a value when both bounds agree
+                Cond upper = condition(expr, env, true);
+                Cond lower = condition(expr, env, false);
+                if (!upper.exact() || !lower.exact()) {
+                    return Term.UNKNOWN;
+                }
+                return upper.literal() != null ? Term.constant(upper.literal()) : Term.predicate(upper.sql());
+            }
+            case "_==_", "_!=_", "_<_", "_<=_", "_>_", "_>=_" -> {
+                return compare(function, term(args.get(0), env), term(args.get(1), env));
+            }
+            case "@in" -> {
+                return in(term(args.get(0), env), term(args.get(1), env));
+            }
+            case "@not_strictly_false" -> {
+                Term value = term(args.get(0), env);
+                return value.isConstant() ? Term.constant(!Boolean.FALSE.equals(value.constant())) : Term.UNKNOWN;
+            }
+            case "_?_:_" -> {
+                Term condition = term(args.get(0), env);
+                if (condition.isConstant() && condition.constant() instanceof Boolean b) {
+                    return term(args.get(b ? 1 : 2), env);
+                }
+                return Term.UNKNOWN;
+            }
+            case "_+_" -> {
+                Term left = term(args.get(0), env);
+                Term right = term(args.get(1), env);
+                if (!left.isConstant() || !right.isConstant()) {
+                    return Term.UNKNOWN;
+                }
+                return add(left.constant(), right.constant());
+            }
+            case "size" -> {
+                Term value = term(expr.call().target().orElse(args.isEmpty() ? null : args.get(0)), env);
+                if (!value.isConstant()) {
+                    return Term.UNKNOWN;
+                }
+                if (value.constant() instanceof String s) {
+                    return Term.constant((long) s.codePointCount(0, s.length()));
+                }
+                if (value.constant() instanceof List<?> l) {
+                    return Term.constant((long) l.size());
+                }
+                if (value.constant() instanceof Map<?, ?> m) {
+                    return Term.constant((long) m.size());
+                }
+                return Term.UNKNOWN;
+            }
+            case "startsWith" -> {
+                if (expr.call().target().isEmpty() || args.size() != 1) {
+                    return Term.UNKNOWN;
+                }
+                Term target = term(expr.call().target().get(), env);
+                Term prefix = term(args.get(0), env);
+                if (!prefix.isConstant() || !(prefix.constant() instanceof String p)) {
+                    return Term.UNKNOWN;
+                }
+                if (target.isConstant() && target.constant() instanceof String s) {
+                    return Term.constant(s.startsWith(p));
+                }
+                // Databases count SUBSTR lengths in code points or in UTF-16 units, both agree without surrogate pairs. Other
+                // prefixes are left to the residual check
+                int length = p.codePointCount(0, p.length());
+                if (target.column() != null && target.column().type() == String.class && length == p.length()) {
+                    // SUBSTR keeps the comparison exact, LIKE is case-insensitive on some databases
+                    return Term.predicate("(SUBSTR(" + target.column().sql() + ", 1, " + length + ") = " + param(p) + ")");
+                }
+                return Term.UNKNOWN;
+            }
+            default -> {
+                return Term.UNKNOWN;
+            }
+        }
+    }
+
+    private Term compare(String function, Term left, Term right) {
+        if (!left.known() || !right.known() || left.constant() == RESOURCE || right.constant() == RESOURCE) {
+            return Term.UNKNOWN;
+        }
+
+        if (left.isConstant() && right.isConstant()) {
+            Object a = left.constant();
+            Object b = right.constant();
+            if (a == null || b == null || a.getClass() != b.getClass()) {
+                return Term.UNKNOWN;
+            }
+            if (function.equals("_==_")) {
+                return Term.constant(a.equals(b));
+            }
+            if (function.equals("_!=_")) {
+                return Term.constant(!a.equals(b));
+            }
+            if (!(a instanceof Comparable<?>) || a instanceof Boolean || a instanceof List<?> || a instanceof Map<?, ?>) {
+                return Term.UNKNOWN;
+            }
+            @SuppressWarnings("unchecked")
+            int cmp = ((Comparable<Object>) a).compareTo(b);
+            return Term.constant(switch (function) {
+                case "_<_" -> cmp < 0;
+                case "_<=_" -> cmp <= 0;
+                case "_>_" -> cmp > 0;
+                default -> cmp >= 0;
+            });
+        }
+
+        // Normalize to <column> <op> <value>
+        if (left.column() == null && right.column() != null) {
+            return compare(flip(function), right, left);
+        }
+        if (left.column() == null) {
+            return Term.UNKNOWN;
+        }
+
+        Column column = left.column();
+        String operand;
+        if (right.column() != null) {
+            if (right.column().type() != column.type()) {
+                return Term.UNKNOWN;
+            }
+            operand = right.column().sql();
+        } else if (right.isConstant() && right.constant() != null && right.constant().getClass() == column.type()) {
+            operand = param(right.constant());
+        } else {
+            return Term.UNKNOWN;
+        }
+
+        boolean ordering = !function.equals("_==_") && !function.equals("_!=_");
+        if (ordering && (column.type() == String.class || column.type() == Boolean.class)) {
+            // String ordering depends on the database collation
+            return Term.UNKNOWN;
+        }
+
+        String op = switch (function) {
+            case "_==_" -> "=";
+            case "_!=_" -> "<>";
+            case "_<_" -> "<";
+            case "_<=_" -> "<=";
+            case "_>_" -> ">";
+            default -> ">=";
+        };
+        return Term.predicate("(" + column.sql() + " " + op + " " + operand + ")");
+    }
+
+    private static String flip(String function) {
+        return switch (function) {
+            case "_<_" -> "_>_";
+            case "_<=_" -> "_>=_";
+            case "_>_" -> "_<_";
+            case "_>=_" -> "_<=_";
+            default -> function;
+        };
+    }
+
+    private Term in(Term element, Term container) {
+        if (!container.isConstant() || container.constant() == RESOURCE) {
+            return Term.UNKNOWN;
+        }
+        if (element.isConstant() && element.constant() != RESOURCE) {
+            if (container.constant() instanceof List<?> list) {
+                return Term.constant(list.contains(element.constant()));
+            }
+            if (container.constant() instanceof Map<?, ?> map) {
+                return Term.constant(map.containsKey(element.constant()));
+            }
+            return Term.UNKNOWN;
+        }
+        if (element.column() == null || !(container.constant() instanceof List<?> list)) {
+            return Term.UNKNOWN;
+        }
+        if (list.isEmpty()) {
+            return Term.constant(false);
+        }
+
+        List<String> values = new ArrayList<>();
+        for (Object value : list) {
+            if (value == null || value.getClass() != element.column().type()) {
+                return Term.UNKNOWN;
+            }
+            values.add(param(value));
+        }
+        return Term.predicate("(" + element.column().sql() + " IN (" + String.join(", ", values) + "))");
+    }
+
+    private static Term add(Object a, Object b) {
+        if (a instanceof Long x && b instanceof Long y) {
+            return Term.constant(x + y);
+        }
+        if (a instanceof Double x && b instanceof Double y) {
+            return Term.constant(x + y);
+        }
+        if (a instanceof String x && b instanceof String y) {
+            return Term.constant(x + y);
+        }
+        if (a instanceof List<?> x && b instanceof List<?> y) {
+            List<Object> out = new ArrayList<>(x);
+            out.addAll(y);
+            return Term.constant(out);
+        }
+        return Term.UNKNOWN;
+    }
+
+    // Evaluates macros such as exists/all over constant ranges, e.g. user.roles.exists(r, r == 'admin')
+    private Term comprehension(CelExpr expr, Map<String, Object> env) {
+        var comprehension = expr.comprehension();
+        Term range = term(comprehension.iterRange(), env);
+        if (!range.isConstant()) {
+            return Term.UNKNOWN;
+        }
+
+        java.util.Collection<?> items;
+        if (range.constant() instanceof List<?> list) {
+            items = list;
+        } else if (range.constant() instanceof Map<?, ?> map) {
+            items = map.keySet();
+        } else {
+            return Term.UNKNOWN;
+        }
+
+        Term accumulator = term(comprehension.accuInit(), env);
+        if (!accumulator.isConstant()) {
+            return Term.UNKNOWN;
+        }
+
+        Map<String, Object> scope = new HashMap<>(env);
+        for (Object item : items) {
+            scope.put(comprehension.iterVar(), item);
+            scope.put(comprehension.accuVar(), accumulator.constant());
+
+            Term condition = term(comprehension.loopCondition(), scope);
+            if (!condition.isConstant() || !(condition.constant() instanceof Boolean proceed)) {
+                return Term.UNKNOWN;
+            }
+            if (!proceed) {
+                break;
+            }
+
+            accumulator = term(comprehension.loopStep(), scope);
+            if (!accumulator.isConstant()) {
+                return Term.UNKNOWN;
+            }
+        }
+
+        scope.remove(comprehension.iterVar());
+        scope.put(comprehension.accuVar(), accumulator.constant());
+        return term(comprehension.result(), scope);
+    }
+}
@@ -0,0 +1,3 @@
+-- Schema version of each collection, incremented on every update. Compiled
+-- rules and other per-collection caches are keyed by (id, version).
+ALTER TABLE "collections_meta" ADD COLUMN "version" BIGINT DEFAULT 1 NOT NULL;
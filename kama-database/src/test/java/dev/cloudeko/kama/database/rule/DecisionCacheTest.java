@@ -0,0 +1,82 @@
+package dev.cloudeko.kama.database.rule;
+
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DecisionCacheTest {
+
+    private static final RulePushdown.Predicate ALLOW = RulePushdown.Predicate.all(true);
+
+    private static DecisionCache.Key key(String user, long rolesVersion, String collection, long collectionVersion) {
+        return new DecisionCache.Key(user, rolesVersion, collection, collectionVersion, "read");
+    }
+
+    @Test
+    void testHitsAndMisses() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DecisionCache cache = new DecisionCache(10, registry);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(key("alice", 1, "c1", 1), () -> { loads.incrementAndGet(); return ALLOW; });
+        cache.get(key("alice", 1, "c1", 1), () -> { loads.incrementAndGet(); return ALLOW; });
+        // A new roles version is a different decision
+        cache.get(key("alice", 2, "c1", 1), () -> { loads.incrementAndGet(); return ALLOW; });
+
+        assertEquals(2, loads.get());
+        assertEquals(1, registry.get("kama.authorization.decisions").tag("result", "hit").counter().count());
+        assertEquals(2, registry.get("kama.authorization.decisions").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void testBoundedSize() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DecisionCache cache = new DecisionCache(2, registry);
+
+        for (int i = 0; i < 5; i++) {
+            cache.get(key("user-" + i, 1, "c1", 1), () -> ALLOW);
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(3, registry.get("kama.authorization.decisions.evictions").tag("cause", "size").counter().count());
+    }
+
+    @Test
+    void testBroadcastsEvictStaleDecisions() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            DecisionCache cache = new DecisionCache(10, registry);
+            cache.listen(vertx.eventBus());
+
+            cache.get(key("alice", 1, "c1", 1), () -> ALLOW);
+            cache.get(key("alice", 1, "c2", 1), () -> ALLOW);
+            cache.get(key("bob", 1, "c1", 1), () -> ALLOW);
+
+            vertx.eventBus().publish(AuthorizationEvents.ROLES_CHANGED, new JsonObject().put("user_id", "alice"));
+            waitForSize(cache, 1);
+
+            vertx.eventBus().publish(AuthorizationEvents.RULES_CHANGED, new JsonObject().put("collection_id", "c1"));
+            waitForSize(cache, 0);
+
+            assertEquals(3, registry.get("kama.authorization.decisions.evictions").tag("cause", "stale").counter().count());
+        } finally {
+            vertx.close().await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void waitForSize(DecisionCache cache, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.size() != size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, cache.size());
+    }
+}
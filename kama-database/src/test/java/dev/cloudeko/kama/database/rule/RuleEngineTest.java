@@ -0,0 +1,84 @@
+package dev.cloudeko.kama.database.rule;
+
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.Rule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RuleEngineTest {
+
+    private static Collection collection(long version, Rule... rules) {
+        return Collection.newBuilder()
+                .setId("8d1b9b6a-2f5f-4d1f-8c2c-b5a9ad5e2f5e")
+                .setName("collections/8d1b9b6a-2f5f-4d1f-8c2c-b5a9ad5e2f5e")
+                .setVersion(version)
+                .addAllRules(List.of(rules))
+                .build();
+    }
+
+    private static Rule rule(Rule.RuleType.Type type, String expression) {
+        return Rule.newBuilder().setType(type).setExpression(expression).build();
+    }
+
+    @Test
+    void testCompiledRulesAreCachedPerVersion() {
+        RuleEngine engine = new RuleEngine(new SimpleMeterRegistry());
+        Collection v1 = collection(1, rule(Rule.RuleType.Type.TYPE_ALLOW, "user.id == 'alice'"));
+
+        CompiledRules first = engine.compile(v1);
+        assertSame(first, engine.compile(v1));
+
+        CompiledRules second = engine.compile(collection(2, rule(Rule.RuleType.Type.TYPE_ALLOW, "user.id == 'bob'")));
+        assertNotSame(first, second);
+        assertEquals(2, second.version());
+    }
+
+    @Test
+    void testDenyBeforeAllow() {
+        RuleEngine engine = new RuleEngine(new SimpleMeterRegistry());
+        CompiledRules rules = engine.compile(collection(1,
+                rule(Rule.RuleType.Type.TYPE_ALLOW, "user.roles.exists(r, r == 'admin')"),
+                rule(Rule.RuleType.Type.TYPE_DENY, "resource.locked == true")));
+
+        Map<String, Object> request = Map.of("method", "read");
+        Map<String, Object> admin = Map.of("id", "alice", "roles", List.of("admin"));
+        Map<String, Object> guest = Map.of("id", "bob", "roles", List.of());
+
+        assertTrue(rules.isAllowed(request, admin, Map.of("locked", false)));
+        assertFalse(rules.isAllowed(request, admin, Map.of("locked", true)));
+        assertFalse(rules.isAllowed(request, guest, Map.of("locked", false)));
+    }
+
+    @Test
+    void testUnspecifiedTypeDenies() {
+        RuleEngine engine = new RuleEngine(new SimpleMeterRegistry());
+        CompiledRules rules = engine.compile(collection(1,
+                Rule.newBuilder().setExpression("user.id == 'alice'").build()));
+
+        assertEquals(1, rules.deny().size());
+        assertTrue(rules.allow().isEmpty());
+        assertFalse(rules.isAllowed(Map.of(), Map.of("id", "alice"), Map.of()));
+        assertTrue(rules.isAllowed(Map.of(), Map.of("id", "bob"), Map.of()));
+    }
+
+    @Test
+    void testEvaluationErrorsDeny() {
+        RuleEngine engine = new RuleEngine(new SimpleMeterRegistry());
+        CompiledRules rules = engine.compile(collection(1, rule(Rule.RuleType.Type.TYPE_DENY, "resource.locked == true")));
+
+        assertTrue(rules.isAllowed(Map.of(), Map.of(), Map.of("locked", false)));
+        assertFalse(rules.isAllowed(Map.of(), Map.of(), Map.of()));
+    }
+
+    @Test
+    void testValidateRejectsInvalidRules() {
+        assertDoesNotThrow(() -> RuleEngine.validate(collection(1, rule(Rule.RuleType.Type.TYPE_ALLOW, "request.method == 'read'"))));
+        assertThrows(IllegalArgumentException.class, () -> RuleEngine.validate(collection(1, rule(Rule.RuleType.Type.TYPE_ALLOW, "request.method =="))));
+        assertThrows(IllegalArgumentException.class, () -> RuleEngine.validate(collection(1, rule(Rule.RuleType.Type.TYPE_ALLOW, "'not a boolean'"))));
+    }
+}
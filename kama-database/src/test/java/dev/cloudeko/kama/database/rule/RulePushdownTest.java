@@ -0,0 +1,95 @@
+package dev.cloudeko.kama.database.rule;
+
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.CollectionField;
+import dev.cloudeko.kama.collection.v1.Rule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RulePushdownTest {
+
+    private static final Map<String, Object> READ = Map.of("method", "read");
+    private static final Map<String, Object> ALICE = Map.of("id", "alice", "roles", List.of("editor"));
+    private static final Map<String, Object> ADMIN = Map.of("id", "root", "roles", List.of("admin"));
+
+    private static Collection collection(Rule... rules) {
+        return Collection.newBuilder()
+                .setId("3f0d5a8e-7f7a-4a53-9d55-f2b1c0a8b7e1")
+                .setName("collections/3f0d5a8e-7f7a-4a53-9d55-f2b1c0a8b7e1")
+                .setVersion(1)
+                .putFields("owner", CollectionField.newBuilder().setStringType("").build())
+                .putFields("priority", CollectionField.newBuilder().setIntegerType(0).build())
+                .putFields("tags", CollectionField.newBuilder().setStringType("").build())
+                .addAllRules(List.of(rules))
+                .build();
+    }
+
+    private static Rule rule(Rule.RuleType.Type type, String expression) {
+        return Rule.newBuilder().setType(type).setExpression(expression).build();
+    }
+
+    private static RulePushdown.Predicate translate(Collection collection, Map<String, Object> user) {
+        CompiledRules rules = new RuleEngine(new SimpleMeterRegistry()).compile(collection);
+        return RulePushdown.translate(rules, collection, READ, user);
+    }
+
+    @Test
+    void testUserAttributesAreFoldedIntoParameters() {
+        RulePushdown.Predicate predicate = translate(collection(rule(Rule.RuleType.Type.TYPE_ALLOW, "resource.owner == user.id")), ALICE);
+
+        assertTrue(predicate.exact());
+        assertEquals("COALESCE((\"owner\" = #{r0}), FALSE)", predicate.sql());
+        assertEquals(Map.of("r0", "alice"), predicate.params());
+    }
+
+    @Test
+    void testRowIndependentRulesBecomeConstants() {
+        Collection collection = collection(
+                rule(Rule.RuleType.Type.TYPE_ALLOW, "user.roles.exists(r, r == 'admin') || resource.owner == user.id"));
+
+        RulePushdown.Predicate admin = translate(collection, ADMIN);
+        assertTrue(admin.exact());
+        assertNull(admin.sql());
+        assertFalse(admin.none());
+
+        RulePushdown.Predicate nobody = translate(collection(rule(Rule.RuleType.Type.TYPE_ALLOW, "request.method == 'update'")), ALICE);
+        assertTrue(nobody.none());
+    }
+
+    @Test
+    void testDenyRulesKeepOnlyRowsEvaluatingToFalse() {
+        RulePushdown.Predicate predicate = translate(collection(
+                rule(Rule.RuleType.Type.TYPE_DENY, "resource.priority > 5 && !('admin' in user.roles)"),
+                rule(Rule.RuleType.Type.TYPE_ALLOW, "resource.owner in ['alice', 'bob']")), ALICE);
+
+        assertTrue(predicate.exact());
+        assertEquals("(COALESCE((NOT (\"priority\" > #{r0})), FALSE) AND COALESCE((\"owner\" IN (#{r1}, #{r2})), FALSE))", predicate.sql());
+        assertEquals(5L, predicate.params().get("r0"));
+    }
+
+    @Test
+    void testUntranslatablePartsRequireResidualCheck() {
+        RulePushdown.Predicate predicate = translate(collection(
+                rule(Rule.RuleType.Type.TYPE_ALLOW, "resource.owner == user.id && resource.tags.endsWith('public')")), ALICE);
+
+        // The owner comparison still narrows the scan, the suffix check is left to the residual evaluation
+        assertFalse(predicate.exact());
+        assertEquals("COALESCE((\"owner\" = #{r0}), FALSE)", predicate.sql());
+    }
+
+    @Test
+    void testPrefixesOutsideTheBasicPlaneRequireResidualCheck() {
+        RulePushdown.Predicate plain = translate(collection(rule(Rule.RuleType.Type.TYPE_ALLOW, "resource.tags.startsWith('pub')")), ALICE);
+        assertTrue(plain.exact());
+        assertEquals("COALESCE((SUBSTR(\"tags\", 1, 3) = #{r0}), FALSE)", plain.sql());
+
+        // Two UTF-16 units but one code point, the length SUBSTR expects depends on the database
+        RulePushdown.Predicate emoji = translate(collection(rule(Rule.RuleType.Type.TYPE_ALLOW, "resource.tags.startsWith('\uD83D\uDE00')")), ALICE);
+        assertFalse(emoji.exact());
+    }
+}
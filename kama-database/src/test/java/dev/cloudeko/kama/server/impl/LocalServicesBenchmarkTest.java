@@ -0,0 +1,115 @@
+package dev.cloudeko.kama.server.impl;
+
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.CollectionField;
+import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.common.MigrationVerticle;
+import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.database.CollectionService;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.serviceproxy.ServiceException;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the latency of {@link CollectionService#getCollection(String)} through the generated event-bus proxy and
+ * through a direct {@link LocalServices} binding. The comparison only runs with the {@code benchmark} profile.
+ */
+public class LocalServicesBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LocalServicesBenchmarkTest.class);
+
+    private static final String ADDRESS = "dev.cloudeko.kama.database.CollectionService";
+    private static final int WARMUP = 500;
+    private static final int ITERATIONS = 2_000;
+
+    private static Vertx vertx;
+    private static CollectionService proxy;
+    private static CollectionService local;
+    private static String collectionName;
+
+    @BeforeAll
+    static void setup() throws Exception {
+        vertx = Vertx.vertx();
+
+        DatabaseOptions options = new DatabaseOptions();
+        options.setUrl("jdbc:h2:mem:DB_LOCAL;DB_CLOSE_DELAY=-1;");
+
+        JsonObject database = new JsonObject().put("database", options.toJson());
+        vertx.deployVerticle(new MigrationVerticle(), new DeploymentOptions().setConfig(database)).await(5, TimeUnit.SECONDS);
+
+        CollectionService service = CollectionService.create(vertx, options);
+        new ServiceBinder(vertx).setAddress(ADDRESS).register(CollectionService.class, service);
+        LocalServices.register(vertx, ADDRESS, CollectionService.class, service);
+
+        proxy = CollectionService.createProxy(vertx, ADDRESS);
+        local = LocalServices.lookup(vertx, ADDRESS, CollectionService.class, address -> CollectionService.createProxy(vertx, address));
+
+        CollectionField field = CollectionField.newBuilder().setRequired(true).setStringType("").build();
+        Collection col = Collection.newBuilder()
+                .putFields("title", field)
+                .setDisplayName("Benchmark Collection")
+                .build();
+        JsonObject created = service.createCollection(ResourceUtil.encodeCollection(col)).await(5, TimeUnit.SECONDS);
+        collectionName = ResourceUtil.decodeCollection(created).getName();
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        if (vertx != null) {
+            vertx.close().await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testLookupFallsBackToProxy() {
+        CollectionService missing = LocalServices.lookup(vertx, "dev.cloudeko.kama.database.Missing", CollectionService.class, address -> proxy);
+        assertSame(proxy, missing);
+    }
+
+    @Test
+    void testFailuresMatchProxy() {
+        Throwable viaProxy = assertThrows(Exception.class, () -> proxy.getCollection("collections/missing").await(5, TimeUnit.SECONDS));
+        Throwable viaLocal = assertThrows(Exception.class, () -> local.getCollection("collections/missing").await(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(ServiceException.class, viaLocal);
+        assertEquals(viaProxy.getMessage(), viaLocal.getMessage());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void testLatencyComparison() throws Exception {
+        double proxyMicros = measure(() -> proxy.getCollection(collectionName));
+        double localMicros = measure(() -> local.getCollection(collectionName));
+
+        LOGGER.infov("getCollection latency: event-bus proxy {0} us/op, local binding {1} us/op", proxyMicros, localMicros);
+
+        // The binding skips encoding the call and the reply and the hop over the event bus
+        assertTrue(localMicros < proxyMicros, "Local binding " + localMicros + " us/op vs proxy " + proxyMicros + " us/op");
+    }
+
+    private static double measure(Supplier<Future<JsonObject>> call) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            call.get().await(5, TimeUnit.SECONDS);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.get().await(5, TimeUnit.SECONDS);
+        }
+        return (System.nanoTime() - start) / 1_000.0 / ITERATIONS;
+    }
+}
@@ -5,8 +5,10 @@ import dev.cloudeko.kama.collection.v1.CollectionField;
 import dev.cloudeko.kama.common.DatabaseOptions;
 import dev.cloudeko.kama.common.MigrationVerticle;
 import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.common.exception.PermissionDenied;
 import dev.cloudeko.kama.database.CollectionService;
 import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.collection.v1.Rule;
 import dev.cloudeko.kama.record.v1.Record;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
@@ -22,6 +24,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class RecordServiceImplTest {
 
+    private static final JsonObject ANONYMOUS = new JsonObject();
+
     private static Vertx vertx;
     private static CollectionService collectionService;
     private static RecordService recordService;
@@ -68,7 +72,7 @@ public class RecordServiceImplTest {
     @Test
     void testCreateGetListUpdateDeleteRecord() throws Exception {
         // Create
-        JsonObject created = recordService.createRecord(collectionName, baseRecord()).await(5, TimeUnit.SECONDS);
+        JsonObject created = recordService.createRecord(collectionName, baseRecord(), ANONYMOUS).await(5, TimeUnit.SECONDS);
         assertNotNull(created);
         Record createdProto = ResourceUtil.decodeRecord(created);
         assertNotNull(createdProto.getId());
@@ -77,29 +81,87 @@ public class RecordServiceImplTest {
         assertEquals(collectionName, createdProto.getCollection());
 
         // Get
-        JsonObject fetched = recordService.getRecord(createdProto.getName()).await(5, TimeUnit.SECONDS);
+        JsonObject fetched = recordService.getRecord(createdProto.getName(), ANONYMOUS).await(5, TimeUnit.SECONDS);
         Record fetchedProto = ResourceUtil.decodeRecord(fetched);
         assertEquals(createdProto.getId(), fetchedProto.getId());
         assertEquals(createdProto.getName(), fetchedProto.getName());
         assertEquals(collectionName, fetchedProto.getCollection());
 
         // List
-        List<JsonObject> list = recordService.listRecords(collectionName).await(5, TimeUnit.SECONDS);
+        List<JsonObject> list = recordService.listRecords(collectionName, ANONYMOUS).await(5, TimeUnit.SECONDS);
         assertTrue(list.stream().map(ResourceUtil::decodeRecord).anyMatch(r -> r.getId().equals(createdProto.getId())));
 
         // Update (no-op currently)
         Record updatedIn = Record.newBuilder(fetchedProto).build();
-        JsonObject updatedJson = recordService.updateRecord(ResourceUtil.encodeRecord(updatedIn)).await(5, TimeUnit.SECONDS);
+        JsonObject updatedJson = recordService.updateRecord(ResourceUtil.encodeRecord(updatedIn), ANONYMOUS).await(5, TimeUnit.SECONDS);
         Record updatedProto = ResourceUtil.decodeRecord(updatedJson);
         assertEquals(createdProto.getId(), updatedProto.getId());
         assertEquals(createdProto.getName(), updatedProto.getName());
 
         // Delete
-        recordService.deleteRecord(createdProto.getName()).await(5, TimeUnit.SECONDS);
+        recordService.deleteRecord(createdProto.getName(), ANONYMOUS).await(5, TimeUnit.SECONDS);
         try {
-            recordService.getRecord(createdProto.getName()).await(5, TimeUnit.SECONDS);
+            recordService.getRecord(createdProto.getName(), ANONYMOUS).await(5, TimeUnit.SECONDS);
             fail("Expected not found after delete");
         } catch (Exception ignored) {
         }
     }
+
+    @Test
+    void testRulesAreEnforced() throws Exception {
+        CollectionField field = CollectionField.newBuilder().setRequired(true).setStringType("").build();
+        Collection col = Collection.newBuilder()
+                .putFields("title", field)
+                .putFields("owner", CollectionField.newBuilder().setStringType("").build())
+                .setDisplayName("Ruled Collection")
+                .addRules(Rule.newBuilder().setType(Rule.RuleType.Type.TYPE_DENY).setExpression("resource.title == 'secret'"))
+                .addRules(Rule.newBuilder().setType(Rule.RuleType.Type.TYPE_ALLOW).setExpression("request.method == 'read' || resource.owner == user.id"))
+                .build();
+        String ruled = ResourceUtil.decodeCollection(collectionService.createCollection(ResourceUtil.encodeCollection(col)).await(5, TimeUnit.SECONDS)).getName();
+
+        JsonObject alice = new JsonObject().put("id", "alice");
+        JsonObject visible = ResourceUtil.encodeRecord(Record.newBuilder().setCollection(ruled).build())
+                .put("values", new JsonObject().put("title", "Hello").put("owner", "alice"));
+        JsonObject secret = ResourceUtil.encodeRecord(Record.newBuilder().setCollection(ruled).build())
+                .put("values", new JsonObject().put("title", "secret").put("owner", "alice"));
+
+        // Writes require ownership
+        assertThrows(PermissionDenied.class, () -> recordService.createRecord(ruled, visible, ANONYMOUS).await(5, TimeUnit.SECONDS));
+        Record created = ResourceUtil.decodeRecord(recordService.createRecord(ruled, visible, alice).await(5, TimeUnit.SECONDS));
+
+        // Deny rules take precedence over allow rules
+        assertThrows(PermissionDenied.class, () -> recordService.createRecord(ruled, secret, alice).await(5, TimeUnit.SECONDS));
+
+        List<JsonObject> list = recordService.listRecords(ruled, ANONYMOUS).await(5, TimeUnit.SECONDS);
+        assertEquals(1, list.size());
+        assertEquals(created.getName(), ResourceUtil.decodeRecord(list.get(0)).getName());
+
+        assertThrows(PermissionDenied.class, () -> recordService.deleteRecord(created.getName(), ANONYMOUS).await(5, TimeUnit.SECONDS));
+        recordService.deleteRecord(created.getName(), alice).await(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testListOnlyReturnsOwnedRecords() throws Exception {
+        Collection col = Collection.newBuilder()
+                .putFields("owner", CollectionField.newBuilder().setRequired(true).setStringType("").build())
+                .putFields("priority", CollectionField.newBuilder().setIntegerType(0).build())
+                .setDisplayName("Owned Collection")
+                .addRules(Rule.newBuilder().setType(Rule.RuleType.Type.TYPE_ALLOW).setExpression("resource.owner == user.id"))
+                .addRules(Rule.newBuilder().setType(Rule.RuleType.Type.TYPE_DENY).setExpression("resource.priority > 5 && !('admin' in user.roles)"))
+                .build();
+        String owned = ResourceUtil.decodeCollection(collectionService.createCollection(ResourceUtil.encodeCollection(col)).await(5, TimeUnit.SECONDS)).getName();
+
+        JsonObject alice = new JsonObject().put("id", "alice");
+        JsonObject bob = new JsonObject().put("id", "bob");
+        for (int i = 0; i < 3; i++) {
+            recordService.createRecord(owned, ResourceUtil.encodeRecord(Record.newBuilder().setCollection(owned).build())
+                    .put("values", new JsonObject().put("owner", "alice").put("priority", i)), alice).await(5, TimeUnit.SECONDS);
+        }
+        recordService.createRecord(owned, ResourceUtil.encodeRecord(Record.newBuilder().setCollection(owned).build())
+                .put("values", new JsonObject().put("owner", "bob").put("priority", 1)), bob).await(5, TimeUnit.SECONDS);
+
+        assertEquals(3, recordService.listRecords(owned, alice).await(5, TimeUnit.SECONDS).size());
+        assertEquals(1, recordService.listRecords(owned, bob).await(5, TimeUnit.SECONDS).size());
+        assertTrue(recordService.listRecords(owned, ANONYMOUS).await(5, TimeUnit.SECONDS).isEmpty());
+    }
 }
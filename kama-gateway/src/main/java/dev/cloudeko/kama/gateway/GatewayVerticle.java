@@ -0,0 +1,164 @@
+package dev.cloudeko.kama.gateway;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.TypeRegistry;
+import dev.cloudeko.kama.collection.v1.CollectionServerProto;
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import dev.cloudeko.kama.common.CollectionEvents;
+import dev.cloudeko.kama.gateway.auth.TokenVerifier;
+import dev.cloudeko.kama.gateway.cache.ResponseCache;
+import dev.cloudeko.kama.gateway.json.ProtoJsonReader;
+import dev.cloudeko.kama.gateway.json.ProtoJsonWriter;
+import dev.cloudeko.kama.gateway.limit.RateLimiter;
+import dev.cloudeko.kama.gateway.route.RouteTable;
+import dev.cloudeko.kama.gateway.upstream.GrpcUpstream;
+import dev.cloudeko.kama.identity.v1.IdentityServerProto;
+import dev.cloudeko.kama.record.v1.RecordServerProto;
+import dev.cloudeko.kama.server.ServerVerticle;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.VerticleBase;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Serves the kama gRPC API as REST/JSON, transcoding each request after the {@code google.api.http} rule of its method.
+ * <p>
+ * Configured with {@code host}, {@code port} (default {@value #DEFAULT_PORT}), {@code maxBodySize}, {@code upstream},
+ * see {@link GrpcUpstream}, and {@code compression}: responses of at least {@code minBytes} are compressed with gzip or
+ * deflate at {@code level} for clients that accept it.
+ * <p>
+ * Unauthenticated and over-quota calls are answered by the gateway itself. {@code auth} configures the
+ * {@link TokenVerifier}, {@code enabled} by default, with {@code anonymous} listing the methods callable without a
+ * token (by default sign-up, sign-in and the token endpoints). {@code rateLimit} configures the {@link RateLimiter} and
+ * {@code cache} the {@link ResponseCache}, both enabled by default.
+ */
+public class GatewayVerticle extends VerticleBase {
+
+    private static final Logger logger = Logger.getLogger(GatewayVerticle.class);
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    public static final List<String> DEFAULT_ANONYMOUS = List.of(
+            "cloudeko.kama.identity.v1.IdentityServer/CreateUser",
+            "cloudeko.kama.identity.v1.IdentityServer/AuthenticateUser",
+            "cloudeko.kama.identity.v1.IdentityServer/ResetPassword",
+            "cloudeko.kama.identity.v1.IdentityServer/RefreshToken",
+            "cloudeko.kama.identity.v1.IdentityServer/ValidateToken");
+
+    static final List<Descriptors.ServiceDescriptor> SERVICES = List.of(
+            CollectionServerProto.getDescriptor().findServiceByName("CollectionService"),
+            RecordServerProto.getDescriptor().findServiceByName("RecordService"),
+            IdentityServerProto.getDescriptor().findServiceByName("IdentityServer"));
+
+    private HttpServer httpServer;
+    private GrpcUpstream upstream;
+    private TokenVerifier verifier;
+
+    @Override
+    public Future<?> start() throws Exception {
+        JsonObject config = config();
+        String host = config.getString("host", "0.0.0.0");
+        int port = config.getInteger("port", DEFAULT_PORT);
+
+        RouteTable routes = RouteTable.of(SERVICES);
+        TypeRegistry.Builder registry = TypeRegistry.newBuilder();
+        for (Descriptors.ServiceDescriptor service : SERVICES) {
+            registry.add(service.getFile().getMessageTypes());
+        }
+
+        JsonObject upstreamConfig = config.getJsonObject("upstream", new JsonObject());
+        upstream = new GrpcUpstream(vertx, upstreamConfig);
+
+        JsonObject auth = config.getJsonObject("auth", new JsonObject());
+        Set<String> anonymous = new HashSet<>();
+        auth.getJsonArray("anonymous", new JsonArray(DEFAULT_ANONYMOUS)).forEach(method -> anonymous.add((String) method));
+        verifier = auth.getBoolean("enabled", true) ? new TokenVerifier(vertx, upstreamConfig, auth) : null;
+
+        // Shared by all gateway instances, quotas and cached responses do not depend on the connection
+        JsonObject rateLimit = config.getJsonObject("rateLimit", new JsonObject());
+        RateLimiter limiter = rateLimit.getBoolean("enabled", true) ? RateLimiter.shared(vertx, rateLimit, Metrics.globalRegistry) : null;
+        JsonObject cacheConfig = config.getJsonObject("cache", new JsonObject());
+        ResponseCache cache = cacheConfig.getBoolean("enabled", true) ? ResponseCache.shared(vertx, cacheConfig, Metrics.globalRegistry) : null;
+        if (cache != null) {
+            // Only published here when the server runs in the same Vert.x instance, otherwise entries expire
+            vertx.eventBus().<JsonObject>consumer(CollectionEvents.CHANGED, message -> cache.invalidate("/v1/collections"));
+        }
+        if (verifier != null || cache != null) {
+            // A changed password, a deleted user or an explicit revocation, the signatures of old tokens still verify
+            vertx.eventBus().<JsonObject>consumer(AuthorizationEvents.TOKENS_REVOKED, message -> {
+                String userId = message.body().getString("user_id");
+                if (verifier != null) {
+                    verifier.revoke(userId, message.body().getLong("not_before"));
+                }
+                if (cache != null) {
+                    cache.invalidateSubject(userId);
+                }
+            });
+        }
+
+        Transcoder transcoder = new Transcoder(routes, upstream, new ProtoJsonReader(), new ProtoJsonWriter(registry.build()),
+                config.getLong("maxBodySize", (long) DEFAULT_MAX_BODY_SIZE), verifier, Set.copyOf(anonymous), limiter, cache);
+
+        JsonObject compression = config.getJsonObject("compression", new JsonObject());
+        HttpServerOptions options = new HttpServerOptions()
+                .setHost(host)
+                .setPort(port)
+                .setCompressionSupported(compression.getBoolean("enabled", true))
+                .setCompressionLevel(compression.getInteger("level", 6))
+                .setCompressionContentSizeThreshold(compression.getInteger("minBytes", 1024));
+
+        httpServer = vertx.createHttpServer(options).requestHandler(transcoder);
+        return httpServer.listen()
+                .onSuccess(server -> logger.infov("Gateway started on {0}:{1,number,#} with {2} routes ({3})", host, port, routes.routes().size(), Thread.currentThread().getName()))
+                .onFailure(cause -> logger.errorv(cause, "Failed to start gateway"))
+                .mapEmpty();
+    }
+
+    /**
+     * Deploys {@code instances} gateway verticles from the config. With the {@code local} upstream mode the server is
+     * deployed first from the {@code server} config, in the same Vert.x instance, and the gateway calls it over loopback.
+     *
+     * @return the deployment ID of the gateway verticles
+     */
+    public static Future<String> deploy(Vertx vertx, JsonObject config) {
+        JsonObject upstream = config.getJsonObject("upstream", new JsonObject());
+        if (!"local".equals(upstream.getString("mode", "remote"))) {
+            return vertx.deployVerticle(GatewayVerticle::new, options(config));
+        }
+
+        JsonObject server = config.getJsonObject("server", new JsonObject());
+        JsonObject local = config.copy();
+        local.getJsonObject("upstream")
+                .put("host", "127.0.0.1")
+                .put("port", server.getInteger("port", 9000));
+        return ServerVerticle.deploy(vertx, server)
+                .compose(serverId -> vertx.deployVerticle(GatewayVerticle::new, options(local)));
+    }
+
+    private static DeploymentOptions options(JsonObject config) {
+        return new DeploymentOptions()
+                .setConfig(config)
+                .setInstances(config.getInteger("instances", 1));
+    }
+
+    @Override
+    public Future<?> stop() throws Exception {
+        Future<Void> httpFuture = httpServer != null ? httpServer.close() : Future.succeededFuture();
+        return httpFuture
+                .compose(v -> upstream != null ? upstream.close() : Future.succeededFuture())
+                .compose(v -> verifier != null ? verifier.close() : Future.succeededFuture())
+                .onSuccess(v -> logger.infov("Gateway stopped successfully"))
+                .onFailure(cause -> logger.errorv(cause, "Failed to stop gateway"));
+    }
+}
@@ -0,0 +1,333 @@
+package dev.cloudeko.kama.gateway;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import dev.cloudeko.kama.gateway.auth.TokenVerifier;
+import dev.cloudeko.kama.gateway.cache.ResponseCache;
+import dev.cloudeko.kama.gateway.json.ProtoJsonReader;
+import dev.cloudeko.kama.gateway.json.ProtoJsonWriter;
+import dev.cloudeko.kama.gateway.json.Scalars;
+import dev.cloudeko.kama.gateway.limit.RateLimiter;
+import dev.cloudeko.kama.gateway.route.FieldPaths;
+import dev.cloudeko.kama.gateway.route.Route;
+import dev.cloudeko.kama.gateway.route.RouteTable;
+import dev.cloudeko.kama.gateway.upstream.GrpcUpstream;
+import dev.cloudeko.kama.server.connect.ConnectGetHandler;
+import dev.cloudeko.kama.server.exception.GrpcException;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.GrpcStatus;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transcodes REST/JSON requests into unary gRPC calls and their responses back, following the routes of the
+ * {@link RouteTable}.
+ * <p>
+ * The request message is bound from the path variables, then the body and, unless the body is the whole message, the
+ * query string. Query parameters that name no field, or a field bound by the path or the body, are ignored. Failed
+ * calls are answered with the HTTP status of their gRPC status and a {@code google.rpc.Status} body.
+ * <p>
+ * Before anything reaches the server, bearer tokens are verified locally and calls without a valid one are turned away
+ * unless their method is in the {@code anonymous} set, where a token that fails verification is ignored. Callers are then rate limited, by token subject or else by address, and
+ * GET calls are served from the {@link ResponseCache} when possible. Each of these steps is optional.
+ */
+public class Transcoder implements Handler<HttpServerRequest> {
+
+    private static final Logger logger = Logger.getLogger(Transcoder.class);
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final RouteTable routes;
+    private final GrpcUpstream upstream;
+    private final ProtoJsonReader reader;
+    private final ProtoJsonWriter writer;
+    private final long maxBodySize;
+    private final TokenVerifier verifier;
+    private final Set<String> anonymous;
+    private final RateLimiter limiter;
+    private final ResponseCache cache;
+
+    /**
+     * @param verifier  verifies bearer tokens, or {@code null} to pass them on unchecked
+     * @param anonymous methods, as {@code package.Service/Method}, callable without a token when tokens are verified
+     * @param limiter   the rate limiter, or {@code null}
+     * @param cache     the GET response cache, or {@code null}
+     */
+    public Transcoder(RouteTable routes, GrpcUpstream upstream, ProtoJsonReader reader, ProtoJsonWriter writer, long maxBodySize,
+                      TokenVerifier verifier, Set<String> anonymous, RateLimiter limiter, ResponseCache cache) {
+        this.routes = routes;
+        this.upstream = upstream;
+        this.reader = reader;
+        this.writer = writer;
+        this.maxBodySize = maxBodySize;
+        this.verifier = verifier;
+        this.anonymous = anonymous;
+        this.limiter = limiter;
+        this.cache = cache;
+    }
+
+    @Override
+    public void handle(HttpServerRequest request) {
+        RouteTable.Match match = routes.match(request.method(), request.path());
+        if (match == null) {
+            error(request.response(), GrpcStatus.NOT_FOUND, "No route for " + request.method() + " " + request.path());
+            return;
+        }
+
+        if (match.route().bodyMode() != Route.BodyMode.NONE) {
+            if (contentLength(request) > maxBodySize) {
+                request.response().setStatusCode(413);
+                error(request.response(), GrpcStatus.INVALID_ARGUMENT, "Request body is larger than " + maxBodySize + " bytes");
+                return;
+            }
+            // The body is only read once the call is admitted
+            request.pause();
+        }
+
+        String token = bearer(request);
+        boolean open = anonymous.contains(match.route().path().substring(1));
+        if (verifier == null) {
+            admit(request, match, null);
+        } else if (token != null) {
+            verifier.verify(token)
+                    .onSuccess(claims -> admit(request, match, claims))
+                    .onFailure(err -> {
+                        // An expired token must not keep its holder from RefreshToken or logging in again
+                        if (open) {
+                            admit(request, match, null);
+                        } else {
+                            reject(request, err instanceof GrpcException e ? e.getStatus() : GrpcStatus.UNAUTHENTICATED, err.getMessage());
+                        }
+                    });
+        } else if (open) {
+            admit(request, match, null);
+        } else {
+            reject(request, GrpcStatus.UNAUTHENTICATED, "Missing bearer token");
+        }
+    }
+
+    private static String bearer(HttpServerRequest request) {
+        String authorization = request.getHeader("authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            return null;
+        }
+        return authorization.substring(BEARER_PREFIX.length()).trim();
+    }
+
+    /**
+     * Continues with a call that passed authentication, {@code claims} being {@code null} for anonymous callers.
+     */
+    private void admit(HttpServerRequest request, RouteTable.Match match, JsonObject claims) {
+        if (limiter != null) {
+            String client = claims != null ? "sub:" + claims.getString("sub") : "address:" + request.remoteAddress().hostAddress();
+            long waitNanos = limiter.acquire(client, System.nanoTime());
+            if (waitNanos > 0) {
+                request.response().putHeader("retry-after", String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999))));
+                reject(request, GrpcStatus.RESOURCE_EXHAUSTED, "Rate limit exceeded, retry later");
+                return;
+            }
+        }
+
+        Route route = match.route();
+        // Responses depend on who is asking, the subject and the version of its roles. Without verification the
+        // caller of a token is unknown, its responses are not cached.
+        String scope = claims != null ? ResponseCache.scope(claims.getString("sub", ""), claims.getValue("rv")) : bearer(request) == null ? "" : null;
+        if (cache != null && scope != null && route.httpMethod() == HttpMethod.GET) {
+            ResponseCache.Entry cached = cache.get(ResponseCache.key(scope, request.uri()), ResponseCache.root(request.path()), System.currentTimeMillis());
+            if (cached != null) {
+                send(request, cached);
+                return;
+            }
+        }
+
+        if (route.bodyMode() == Route.BodyMode.NONE) {
+            dispatch(request, match, null, scope);
+            return;
+        }
+        readBody(request, body -> dispatch(request, match, body, scope));
+    }
+
+    /**
+     * Reads the request body, at most {@code maxBodySize} bytes of it. A chunked or HTTP/2 body announces no length,
+     * it is answered with 413 as soon as it grows past the limit and the rest of it is discarded unread.
+     */
+    private void readBody(HttpServerRequest request, Handler<Buffer> handler) {
+        Buffer body = Buffer.buffer();
+        request.handler(chunk -> {
+            if (request.response().ended()) {
+                return;
+            }
+            if (body.length() + chunk.length() > maxBodySize) {
+                request.response().setStatusCode(413);
+                error(request.response(), GrpcStatus.INVALID_ARGUMENT, "Request body is larger than " + maxBodySize + " bytes");
+                return;
+            }
+            body.appendBuffer(chunk);
+        });
+        request.endHandler(v -> {
+            if (!request.response().ended()) {
+                handler.handle(body);
+            }
+        });
+        request.exceptionHandler(err -> request.response().reset());
+        request.resume();
+    }
+
+    private static long contentLength(HttpServerRequest request) {
+        try {
+            String length = request.getHeader("content-length");
+            return length != null ? Long.parseLong(length) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void dispatch(HttpServerRequest request, RouteTable.Match match, Buffer body, String scope) {
+        Route route = match.route();
+        Message message;
+        try {
+            message = bind(request, match, body);
+        } catch (IllegalArgumentException | IOException e) {
+            error(request.response(), GrpcStatus.INVALID_ARGUMENT, e.getMessage());
+            return;
+        }
+
+        String root = ResponseCache.root(request.path());
+        long generation = cache != null ? cache.generation(root) : 0;
+        upstream.call(route, message, request.headers())
+                .onSuccess(response -> {
+                    Buffer json = writer.write(response, route.responseBody(), Buffer.buffer(256));
+                    if (cache == null) {
+                        request.response().putHeader("content-type", "application/json").end(json);
+                    } else if (route.httpMethod() == HttpMethod.GET && scope != null) {
+                        send(request, cache.put(ResponseCache.key(scope, request.uri()), root, json, generation, System.currentTimeMillis()));
+                    } else if (route.httpMethod() == HttpMethod.GET) {
+                        request.response().putHeader("content-type", "application/json").end(json);
+                    } else {
+                        cache.invalidate(root);
+                        request.response().putHeader("content-type", "application/json").end(json);
+                    }
+                })
+                .onFailure(err -> {
+                    if (err instanceof GrpcException e) {
+                        error(request.response(), e.getStatus(), e.getMessage());
+                    } else {
+                        logger.errorv(err, "Failed to transcode {0}", route);
+                        error(request.response(), GrpcStatus.INTERNAL, "Internal error");
+                    }
+                });
+    }
+
+    private Message bind(HttpServerRequest request, RouteTable.Match match, Buffer body) throws IOException {
+        Route route = match.route();
+        Message.Builder builder = route.requestPrototype().newBuilderForType();
+
+        if (body != null && body.length() > 0) {
+            if (route.bodyMode() == Route.BodyMode.ALL) {
+                reader.merge(body, builder);
+            } else {
+                reader.mergeField(body, builder, route.body());
+            }
+        }
+
+        // Path variables win over the body, the name in the path is the resource the call acts on
+        for (int i = 0; i < route.variables().size(); i++) {
+            set(builder, route.variables().get(i), 0, List.of(match.variable(i)));
+        }
+
+        if (route.bodyMode() != Route.BodyMode.ALL) {
+            MultiMap params = request.params();
+            for (String name : params.names()) {
+                List<Descriptors.FieldDescriptor> fields = FieldPaths.tryResolve(builder.getDescriptorForType(), name);
+                if (fields != null && !route.variables().contains(fields) && (route.body() == null || fields.getFirst() != route.body())) {
+                    set(builder, fields, 0, params.getAll(name));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static void set(Message.Builder builder, List<Descriptors.FieldDescriptor> path, int index, List<String> values) {
+        Descriptors.FieldDescriptor field = path.get(index);
+        if (index == path.size() - 1) {
+            if (field.isRepeated()) {
+                for (String value : values) {
+                    builder.addRepeatedField(field, Scalars.parse(field, value));
+                }
+            } else {
+                builder.setField(field, Scalars.parse(field, values.getLast()));
+            }
+            return;
+        }
+
+        Message.Builder nested = builder.newBuilderForField(field);
+        if (builder.hasField(field)) {
+            nested.mergeFrom((Message) builder.getField(field));
+        }
+        set(nested, path, index + 1, values);
+        builder.setField(field, nested.build());
+    }
+
+    /**
+     * Answers a call that was not admitted, the rest of its body is discarded.
+     */
+    private static void reject(HttpServerRequest request, GrpcStatus status, String message) {
+        error(request.response(), status, message);
+        request.resume();
+    }
+
+    private static void send(HttpServerRequest request, ResponseCache.Entry entry) {
+        HttpServerResponse response = request.response()
+                .putHeader("etag", entry.etag())
+                // Cached per caller, revalidated on every use
+                .putHeader("cache-control", "private, no-cache");
+        if (ConnectGetHandler.matches(request.getHeader("if-none-match"), entry.etag())) {
+            response.setStatusCode(304).end();
+            return;
+        }
+        response.putHeader("content-type", "application/json").end(entry.body());
+    }
+
+    private static void error(HttpServerResponse response, GrpcStatus status, String message) {
+        if (response.getStatusCode() == 200) {
+            response.setStatusCode(httpStatus(status));
+        }
+        response.putHeader("content-type", "application/json")
+                .end(new JsonObject()
+                        .put("code", status.code)
+                        .put("message", message != null ? message : status.name())
+                        .put("details", new JsonArray())
+                        .encode());
+    }
+
+    /**
+     * The HTTP status of a gRPC status, as mapped by {@code google.rpc.Code}.
+     */
+    static int httpStatus(GrpcStatus status) {
+        return switch (status) {
+            case OK -> 200;
+            case CANCELLED -> 499;
+            case INVALID_ARGUMENT, FAILED_PRECONDITION, OUT_OF_RANGE -> 400;
+            case DEADLINE_EXCEEDED -> 504;
+            case NOT_FOUND -> 404;
+            case ALREADY_EXISTS, ABORTED -> 409;
+            case PERMISSION_DENIED -> 403;
+            case RESOURCE_EXHAUSTED -> 429;
+            case UNIMPLEMENTED -> 501;
+            case UNAVAILABLE -> 503;
+            case UNAUTHENTICATED -> 401;
+            default -> 500;
+        };
+    }
+}
@@ -0,0 +1,185 @@
+package dev.cloudeko.kama.gateway.auth;
+
+import dev.cloudeko.kama.server.exception.GrpcException;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.authentication.TokenCredentials;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.grpc.common.GrpcStatus;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Verifies bearer tokens locally, against the public signing keys the server publishes at {@value #JWKS_PATH}.
+ * <p>
+ * The keys are fetched on first use and refreshed in the background after {@code refreshSeconds} (default
+ * {@value #DEFAULT_REFRESH_SECONDS}), the cached keys keep verifying meanwhile. A token signed with a key that is not
+ * known yet, as right after a rotation, triggers a fetch as well. Fetches are at least {@code minRefreshSeconds}
+ * (default {@value #DEFAULT_MIN_REFRESH_SECONDS}) apart, so tokens with made-up key ids cannot flood the server.
+ * <p>
+ * A signature alone does not tell whether the tokens of a user were revoked. Like the identity service's token cache,
+ * the verifier keeps a not-before watermark per subject from {@link #revoke(String, long)} and rejects tokens issued
+ * before it. Watermarks are kept for {@code revocationRetentionSeconds} (default
+ * {@value #DEFAULT_REVOCATION_RETENTION_SECONDS}), well past the lifetime of the tokens they apply to.
+ * <p>
+ * Not thread safe, every gateway verticle has its own verifier.
+ */
+public class TokenVerifier {
+
+    private static final Logger logger = Logger.getLogger(TokenVerifier.class);
+
+    public static final String JWKS_PATH = "/.well-known/jwks.json";
+    public static final long DEFAULT_REFRESH_SECONDS = 300;
+    public static final long DEFAULT_MIN_REFRESH_SECONDS = 10;
+    public static final long DEFAULT_REVOCATION_RETENTION_SECONDS = 24 * 3600;
+
+    private record Keys(JWTAuth auth, Set<String> kids, long loadedAt) {
+    }
+
+    private final Vertx vertx;
+    private final HttpClient client;
+    private final long refreshMs;
+    private final long minRefreshMs;
+    private final long revocationRetentionSeconds;
+    private final Map<String, Long> notBefore = new HashMap<>();
+
+    private Keys keys;
+    private Future<Keys> loading;
+    private long lastFetch = Long.MIN_VALUE;
+
+    /**
+     * @param upstream the {@code host} and {@code port} of the server publishing the keys
+     */
+    public TokenVerifier(Vertx vertx, JsonObject upstream, JsonObject config) {
+        this.vertx = vertx;
+        this.client = vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost(upstream.getString("host", "127.0.0.1"))
+                .setDefaultPort(upstream.getInteger("port", 9000)));
+        this.refreshMs = config.getLong("refreshSeconds", DEFAULT_REFRESH_SECONDS) * 1000;
+        this.minRefreshMs = config.getLong("minRefreshSeconds", DEFAULT_MIN_REFRESH_SECONDS) * 1000;
+        this.revocationRetentionSeconds = config.getLong("revocationRetentionSeconds", DEFAULT_REVOCATION_RETENTION_SECONDS);
+    }
+
+    /**
+     * Verifies the signature and expiry of {@code token} and returns its claims. Fails with {@code UNAUTHENTICATED}
+     * for a token that does not verify or was revoked, or {@code UNAVAILABLE} when no keys could be fetched yet.
+     */
+    public Future<JsonObject> verify(String token) {
+        String kid;
+        try {
+            kid = kid(token);
+        } catch (IllegalArgumentException | DecodeException | ClassCastException e) {
+            return Future.failedFuture(new GrpcException("Malformed token", GrpcStatus.UNAUTHENTICATED));
+        }
+
+        long now = System.currentTimeMillis();
+        Keys current = keys;
+        if (current != null && current.kids().contains(kid)) {
+            if (now - current.loadedAt() >= refreshMs) {
+                load(now);
+            }
+            return authenticate(current, token).compose(this::checkRevoked);
+        }
+
+        return load(now).compose(loaded -> loaded.kids().contains(kid)
+                ? authenticate(loaded, token).compose(this::checkRevoked)
+                : Future.failedFuture(new GrpcException("Token signed with an unknown key", GrpcStatus.UNAUTHENTICATED)));
+    }
+
+    /**
+     * Rejects every token of {@code subject} issued before {@code notBeforeSeconds}. Like {@code iat} the watermark has
+     * a resolution of one second.
+     */
+    public void revoke(String subject, long notBeforeSeconds) {
+        notBefore.merge(subject, notBeforeSeconds, Math::max);
+        long now = System.currentTimeMillis() / 1000;
+        notBefore.values().removeIf(watermark -> watermark + revocationRetentionSeconds < now);
+    }
+
+    private Future<JsonObject> checkRevoked(JsonObject claims) {
+        Long watermark = notBefore.get(claims.getString("sub", ""));
+        if (watermark != null && claims.getLong("iat", 0L) < watermark) {
+            return Future.failedFuture(new GrpcException("Token revoked", GrpcStatus.UNAUTHENTICATED));
+        }
+        return Future.succeededFuture(claims);
+    }
+
+    private static Future<JsonObject> authenticate(Keys keys, String token) {
+        return keys.auth().authenticate(new TokenCredentials(token))
+                .map(User::principal)
+                .recover(err -> Future.failedFuture(new GrpcException("Invalid token: " + err.getMessage(), GrpcStatus.UNAUTHENTICATED)));
+    }
+
+    private Future<Keys> load(long now) {
+        if (loading != null) {
+            return loading;
+        }
+        if (now - lastFetch < minRefreshMs) {
+            return keys != null
+                    ? Future.succeededFuture(keys)
+                    : Future.failedFuture(new GrpcException("Signing keys unavailable", GrpcStatus.UNAVAILABLE));
+        }
+
+        lastFetch = now;
+        Future<Keys> fetch = client.request(HttpMethod.GET, JWKS_PATH)
+                .compose(HttpClientRequest::send)
+                .compose(response -> response.statusCode() == 200
+                        ? response.body()
+                        : Future.failedFuture("Unexpected status " + response.statusCode()))
+                .map(body -> build(body.toJsonObject(), now))
+                .onSuccess(loaded -> keys = loaded)
+                .onFailure(err -> logger.warnv(err, "Failed to fetch signing keys"))
+                .recover(err -> keys != null
+                        ? Future.succeededFuture(keys)
+                        : Future.failedFuture(new GrpcException("Signing keys unavailable", GrpcStatus.UNAVAILABLE, err)))
+                .onComplete(ar -> loading = null);
+        // A fetch that already completed must not stay registered as running
+        if (!fetch.isComplete()) {
+            loading = fetch;
+        }
+        return fetch;
+    }
+
+    private Keys build(JsonObject jwks, long now) {
+        JWTAuthOptions options = new JWTAuthOptions();
+        Set<String> kids = new HashSet<>();
+        JsonArray published = jwks.getJsonArray("keys", new JsonArray());
+        for (int i = 0; i < published.size(); i++) {
+            JsonObject key = published.getJsonObject(i);
+            options.addJwk(key);
+            kids.add(key.getString("kid"));
+        }
+        return new Keys(JWTAuth.create(vertx, options), kids, now);
+    }
+
+    /**
+     * The {@code kid} of the token's header, or an empty string when it has none.
+     */
+    private static String kid(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            throw new IllegalArgumentException("Not a JWT");
+        }
+        byte[] header = Base64.getUrlDecoder().decode(token.substring(0, dot));
+        return new JsonObject(new String(header, StandardCharsets.UTF_8)).getString("kid", "");
+    }
+
+    public Future<Void> close() {
+        return client.close();
+    }
+}
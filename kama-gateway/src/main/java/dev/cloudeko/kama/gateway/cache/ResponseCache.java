@@ -0,0 +1,182 @@
+package dev.cloudeko.kama.gateway.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded LRU of transcoded GET responses, keyed by the request URI and the auth scope of the caller. Every entry
+ * carries an entity tag, a digest of its body, so conditional requests are answered without a call to the server.
+ * <p>
+ * Entries live for at most {@code maxAgeMs} (default {@value #DEFAULT_MAX_AGE_MS}), which bounds how stale a response
+ * can get after a change the gateway does not see. Changes it does see invalidate a whole root, the first two segments
+ * of the path such as {@code /v1/collections}: each root has a generation, bumped on every change, and an entry only
+ * counts while it belongs to the current generation. A read that raced with a change is not cached, the generation it
+ * started with tells. The responses of one subject are dropped when its tokens are revoked. The cache is shared by all
+ * gateway verticles of a Vert.x instance.
+ */
+public class ResponseCache implements Shareable {
+
+    private static final String MAP_NAME = "dev.cloudeko.kama.gateway.cache.ResponseCache";
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    public static final long DEFAULT_MAX_AGE_MS = 5_000;
+    public static final int DEFAULT_MAX_ENTRY_BYTES = 256 * 1024;
+
+    /**
+     * A cached response body with its entity tag.
+     */
+    public record Entry(Buffer body, String etag, long storedAt, long generation) {
+    }
+
+    private final Map<String, Entry> entries;
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final long maxAgeMs;
+    private final int maxEntryBytes;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public ResponseCache(JsonObject config, MeterRegistry registry) {
+        int maxEntries = config.getInteger("maxEntries", DEFAULT_MAX_ENTRIES);
+        this.maxAgeMs = config.getLong("maxAgeMs", DEFAULT_MAX_AGE_MS);
+        this.maxEntryBytes = config.getInteger("maxEntryBytes", DEFAULT_MAX_ENTRY_BYTES);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.hits = Counter.builder("kama.gateway.cache")
+                .description("Response cache lookups")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("kama.gateway.cache")
+                .description("Response cache lookups")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("kama.gateway.cache.size", this, ResponseCache::size)
+                .description("Responses currently cached")
+                .register(registry);
+    }
+
+    /**
+     * Returns the cache of the Vert.x instance, created from {@code config} by the first verticle asking for it.
+     */
+    public static ResponseCache shared(Vertx vertx, JsonObject config, MeterRegistry registry) {
+        LocalMap<String, ResponseCache> map = vertx.sharedData().getLocalMap(MAP_NAME);
+        ResponseCache created = new ResponseCache(config, registry);
+        ResponseCache existing = map.putIfAbsent(MAP_NAME, created);
+        return existing != null ? existing : created;
+    }
+
+    public static String key(String scope, String uri) {
+        return scope + " " + uri;
+    }
+
+    /**
+     * The scope of the responses read with the claims of a token, the subject and the version of its roles.
+     */
+    public static String scope(String subject, Object rolesVersion) {
+        return subject + "." + rolesVersion;
+    }
+
+    /**
+     * The root a path belongs to, the unit of invalidation.
+     */
+    public static String root(String path) {
+        int first = path.indexOf('/', 1);
+        if (first < 0) {
+            return path;
+        }
+        int second = path.indexOf('/', first + 1);
+        int end = second < 0 ? path.length() : second;
+        // A custom verb is not part of the resource, /v1/users:batchGet reads the users
+        int colon = path.indexOf(':', first);
+        return path.substring(0, colon >= 0 && colon < end ? colon : end);
+    }
+
+    public long generation(String root) {
+        AtomicLong generation = generations.get(root);
+        return generation != null ? generation.get() : 0;
+    }
+
+    /**
+     * Returns the cached response for {@code key}, or {@code null} when there is none or it is out of date.
+     */
+    public Entry get(String key, String root, long nowMs) {
+        long generation = generation(root);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && (entry.generation() != generation || nowMs - entry.storedAt() >= maxAgeMs)) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry;
+        }
+    }
+
+    /**
+     * Caches a response read in {@code generation} of its root, unless the root changed since.
+     */
+    public Entry put(String key, String root, Buffer body, long generation, long nowMs) {
+        Entry entry = new Entry(body, etag(body), nowMs, generation);
+        if (body.length() > maxEntryBytes || maxAgeMs <= 0) {
+            return entry;
+        }
+        synchronized (entries) {
+            if (generation(root) == generation) {
+                entries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    public void invalidate(String root) {
+        generations.computeIfAbsent(root, r -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Drops the responses read by {@code subject}, whatever the version of its roles.
+     */
+    public void invalidateSubject(String subject) {
+        String prefix = subject + ".";
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    static String etag(Buffer body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body.getBytes());
+            return "\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
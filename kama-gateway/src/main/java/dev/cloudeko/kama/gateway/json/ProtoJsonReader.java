@@ -0,0 +1,293 @@
+package dev.cloudeko.kama.gateway.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads JSON into protobuf message builders following the proto3 JSON mapping, token by token from the request body.
+ * <p>
+ * Fields are looked up by their JSON and their proto names, unknown fields are rejected. Numbers are accepted as JSON
+ * numbers or strings, enums by name or number, {@code null} leaves a field unset. Malformed input fails with an
+ * {@link IllegalArgumentException} naming the offending field, or the {@link IOException} of the parser.
+ * {@code google.protobuf.Any} is not accepted in requests, its type may only follow its fields.
+ */
+public final class ProtoJsonReader {
+
+    private static final Map<Descriptors.Descriptor, Map<String, Descriptors.FieldDescriptor>> FIELDS = new ConcurrentHashMap<>();
+
+    /**
+     * Merges the JSON object in {@code json} into {@code builder}.
+     */
+    public void merge(Buffer json, Message.Builder builder) throws IOException {
+        try (JsonParser parser = ProtoJsonWriter.FACTORY.createParser(json.getBytes())) {
+            if (parser.nextToken() == null) {
+                throw new IllegalArgumentException("Empty JSON body");
+            }
+            readMessage(parser, builder);
+            if (parser.nextToken() != null) {
+                throw new IllegalArgumentException("Unexpected content after the JSON body");
+            }
+        }
+    }
+
+    /**
+     * Merges the JSON value of a single, possibly repeated, field into {@code builder}.
+     */
+    public void mergeField(Buffer json, Message.Builder builder, Descriptors.FieldDescriptor field) throws IOException {
+        try (JsonParser parser = ProtoJsonWriter.FACTORY.createParser(json.getBytes())) {
+            if (parser.nextToken() == null) {
+                throw new IllegalArgumentException("Empty JSON body");
+            }
+            readField(parser, builder, field);
+            if (parser.nextToken() != null) {
+                throw new IllegalArgumentException("Unexpected content after the JSON body");
+            }
+        }
+    }
+
+    private void readMessage(JsonParser parser, Message.Builder builder) throws IOException {
+        Descriptors.Descriptor type = builder.getDescriptorForType();
+        switch (type.getFullName()) {
+            case "google.protobuf.Timestamp" -> readTimestamp(parser, builder);
+            case "google.protobuf.Duration" -> readDuration(parser, builder);
+            case "google.protobuf.FieldMask" -> readFieldMask(parser, builder);
+            case "google.protobuf.Struct" -> readStruct(parser, builder);
+            case "google.protobuf.Value" -> readValue(parser, builder);
+            case "google.protobuf.ListValue" -> readListValue(parser, builder);
+            case "google.protobuf.Any" -> throw new IllegalArgumentException("google.protobuf.Any is not supported in requests");
+            case "google.protobuf.DoubleValue", "google.protobuf.FloatValue", "google.protobuf.Int64Value",
+                 "google.protobuf.UInt64Value", "google.protobuf.Int32Value", "google.protobuf.UInt32Value",
+                 "google.protobuf.BoolValue", "google.protobuf.StringValue", "google.protobuf.BytesValue" -> {
+                Descriptors.FieldDescriptor value = type.findFieldByNumber(1);
+                builder.setField(value, readSingle(parser, builder, value));
+            }
+            default -> readObject(parser, builder);
+        }
+    }
+
+    private void readObject(JsonParser parser, Message.Builder builder) throws IOException {
+        expect(parser, JsonToken.START_OBJECT, builder.getDescriptorForType().getFullName());
+        Map<String, Descriptors.FieldDescriptor> fields = fields(builder.getDescriptorForType());
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            Descriptors.FieldDescriptor field = fields.get(name);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field " + name + " of " + builder.getDescriptorForType().getFullName());
+            }
+            parser.nextToken();
+            readField(parser, builder, field);
+        }
+    }
+
+    private void readField(JsonParser parser, Message.Builder builder, Descriptors.FieldDescriptor field) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL && !isNullValue(field)) {
+            builder.clearField(field);
+            return;
+        }
+
+        if (field.isMapField()) {
+            expect(parser, JsonToken.START_OBJECT, field.getFullName());
+            Descriptors.FieldDescriptor key = field.getMessageType().findFieldByNumber(1);
+            Descriptors.FieldDescriptor value = field.getMessageType().findFieldByNumber(2);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                Message.Builder entry = builder.newBuilderForField(field);
+                entry.setField(key, Scalars.parse(key, parser.currentName()));
+                parser.nextToken();
+                entry.setField(value, readSingle(parser, entry, value));
+                builder.addRepeatedField(field, entry.build());
+            }
+        } else if (field.isRepeated()) {
+            expect(parser, JsonToken.START_ARRAY, field.getFullName());
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                builder.addRepeatedField(field, readSingle(parser, builder, field));
+            }
+        } else if (field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+            Message.Builder message = builder.newBuilderForField(field);
+            if (builder.hasField(field)) {
+                message.mergeFrom((Message) builder.getField(field));
+            }
+            readMessage(parser, message);
+            builder.setField(field, message.build());
+        } else {
+            builder.setField(field, readSingle(parser, builder, field));
+        }
+    }
+
+    private Object readSingle(JsonParser parser, Message.Builder builder, Descriptors.FieldDescriptor field) throws IOException {
+        JsonToken token = parser.currentToken();
+        try {
+            return switch (field.getJavaType()) {
+                case MESSAGE -> {
+                    Message.Builder message = builder.newBuilderForField(field);
+                    readMessage(parser, message);
+                    yield message.build();
+                }
+                case ENUM -> {
+                    if (token == JsonToken.VALUE_NULL) {
+                        yield field.getEnumType().findValueByNumber(0);
+                    }
+                    yield Scalars.parse(field, token == JsonToken.VALUE_NUMBER_INT ? parser.getText() : text(parser, field));
+                }
+                case BOOLEAN -> switch (token) {
+                    case VALUE_TRUE -> true;
+                    case VALUE_FALSE -> false;
+                    default -> throw new IllegalArgumentException("Expected a boolean for " + field.getFullName());
+                };
+                case STRING, BYTE_STRING -> Scalars.parse(field, text(parser, field));
+                default -> {
+                    // Numbers may be quoted, 64-bit integers usually are
+                    if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_STRING) {
+                        throw new IllegalArgumentException("Expected a number for " + field.getFullName());
+                    }
+                    yield Scalars.parse(field, parser.getText());
+                }
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + field.getFullName() + ": " + parser.getText(), e);
+        }
+    }
+
+    private void readTimestamp(JsonParser parser, Message.Builder builder) throws IOException {
+        Descriptors.Descriptor type = builder.getDescriptorForType();
+        try {
+            OffsetDateTime time = OffsetDateTime.parse(text(parser, type.findFieldByNumber(1)));
+            builder.setField(type.findFieldByNumber(1), time.toEpochSecond());
+            builder.setField(type.findFieldByNumber(2), time.getNano());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid timestamp: " + parser.getText(), e);
+        }
+    }
+
+    private void readDuration(JsonParser parser, Message.Builder builder) throws IOException {
+        Descriptors.Descriptor type = builder.getDescriptorForType();
+        String value = text(parser, type.findFieldByNumber(1));
+        if (!value.endsWith("s")) {
+            throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+        try {
+            BigDecimal duration = new BigDecimal(value.substring(0, value.length() - 1));
+            long seconds = duration.longValue();
+            int nanos = duration.subtract(BigDecimal.valueOf(seconds)).movePointRight(9).intValueExact();
+            builder.setField(type.findFieldByNumber(1), seconds);
+            builder.setField(type.findFieldByNumber(2), nanos);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid duration: " + value, e);
+        }
+    }
+
+    private void readFieldMask(JsonParser parser, Message.Builder builder) throws IOException {
+        Descriptors.FieldDescriptor paths = builder.getDescriptorForType().findFieldByNumber(1);
+        String value = text(parser, paths);
+        for (String path : value.split(",")) {
+            if (path.isEmpty()) {
+                continue;
+            }
+            StringBuilder snake = new StringBuilder(path.length() + 4);
+            for (char c : path.toCharArray()) {
+                if (Character.isUpperCase(c)) {
+                    snake.append('_').append(Character.toLowerCase(c));
+                } else {
+                    snake.append(c);
+                }
+            }
+            builder.addRepeatedField(paths, snake.toString());
+        }
+    }
+
+    private void readStruct(JsonParser parser, Message.Builder builder) throws IOException {
+        expect(parser, JsonToken.START_OBJECT, "google.protobuf.Struct");
+        Descriptors.FieldDescriptor fields = builder.getDescriptorForType().findFieldByNumber(1);
+        Descriptors.FieldDescriptor key = fields.getMessageType().findFieldByNumber(1);
+        Descriptors.FieldDescriptor value = fields.getMessageType().findFieldByNumber(2);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Message.Builder entry = builder.newBuilderForField(fields);
+            entry.setField(key, parser.currentName());
+            parser.nextToken();
+            Message.Builder element = entry.newBuilderForField(value);
+            readValue(parser, element);
+            entry.setField(value, element.build());
+            builder.addRepeatedField(fields, entry.build());
+        }
+    }
+
+    private void readListValue(JsonParser parser, Message.Builder builder) throws IOException {
+        expect(parser, JsonToken.START_ARRAY, "google.protobuf.ListValue");
+        Descriptors.FieldDescriptor values = builder.getDescriptorForType().findFieldByNumber(1);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            Message.Builder element = builder.newBuilderForField(values);
+            readValue(parser, element);
+            builder.addRepeatedField(values, element.build());
+        }
+    }
+
+    private void readValue(JsonParser parser, Message.Builder builder) throws IOException {
+        Descriptors.Descriptor type = builder.getDescriptorForType();
+        JsonToken token = parser.currentToken();
+        if (token == null) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        switch (token) {
+            case VALUE_NULL -> {
+                Descriptors.FieldDescriptor nullValue = type.findFieldByNumber(1);
+                builder.setField(nullValue, nullValue.getEnumType().findValueByNumber(0));
+            }
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> builder.setField(type.findFieldByNumber(2), parser.getDoubleValue());
+            case VALUE_STRING -> builder.setField(type.findFieldByNumber(3), parser.getText());
+            case VALUE_TRUE, VALUE_FALSE -> builder.setField(type.findFieldByNumber(4), token == JsonToken.VALUE_TRUE);
+            case START_OBJECT -> {
+                Descriptors.FieldDescriptor struct = type.findFieldByNumber(5);
+                Message.Builder element = builder.newBuilderForField(struct);
+                readStruct(parser, element);
+                builder.setField(struct, element.build());
+            }
+            case START_ARRAY -> {
+                Descriptors.FieldDescriptor list = type.findFieldByNumber(6);
+                Message.Builder element = builder.newBuilderForField(list);
+                readListValue(parser, element);
+                builder.setField(list, element.build());
+            }
+            default -> throw new IllegalArgumentException("Unexpected JSON token " + token);
+        }
+    }
+
+    private static boolean isNullValue(Descriptors.FieldDescriptor field) {
+        return field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE
+                && field.getMessageType().getFullName().equals("google.protobuf.Value")
+                && !field.isRepeated();
+    }
+
+    private static String text(JsonParser parser, Descriptors.FieldDescriptor field) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new IllegalArgumentException("Expected a string for " + field.getFullName());
+        }
+        return parser.getText();
+    }
+
+    private static void expect(JsonParser parser, JsonToken token, String name) {
+        if (parser.currentToken() != token) {
+            throw new IllegalArgumentException("Expected " + (token == JsonToken.START_OBJECT ? "an object" : "an array") + " for " + name);
+        }
+    }
+
+    private static Map<String, Descriptors.FieldDescriptor> fields(Descriptors.Descriptor type) {
+        return FIELDS.computeIfAbsent(type, t -> {
+            Map<String, Descriptors.FieldDescriptor> fields = new HashMap<>();
+            for (Descriptors.FieldDescriptor field : t.getFields()) {
+                fields.put(field.getName(), field);
+                fields.put(field.getJsonName(), field);
+            }
+            return fields;
+        });
+    }
+}
@@ -0,0 +1,324 @@
+package dev.cloudeko.kama.gateway.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.TypeRegistry;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes protobuf messages as JSON following the proto3 JSON mapping, straight from the message into a {@link Buffer}.
+ * <p>
+ * Fields are visited through their descriptors and written token by token, there is no intermediate JSON tree or
+ * string. Fields with default values are omitted, field names are the JSON names and 64-bit integers are strings, as
+ * {@code JsonFormat} does by default. Well-known types get their special representation, {@code Any} is resolved
+ * through the type registry.
+ */
+public final class ProtoJsonWriter {
+
+    static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final Set<String> WELL_KNOWN_TYPES = Set.of(
+            "google.protobuf.Any", "google.protobuf.Duration", "google.protobuf.Empty", "google.protobuf.FieldMask",
+            "google.protobuf.ListValue", "google.protobuf.Struct", "google.protobuf.Timestamp", "google.protobuf.Value",
+            "google.protobuf.DoubleValue", "google.protobuf.FloatValue", "google.protobuf.Int64Value",
+            "google.protobuf.UInt64Value", "google.protobuf.Int32Value", "google.protobuf.UInt32Value",
+            "google.protobuf.BoolValue", "google.protobuf.StringValue", "google.protobuf.BytesValue");
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final TypeRegistry registry;
+
+    public ProtoJsonWriter(TypeRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Writes {@code message}, or only its {@code field} when not {@code null}, appending to {@code buffer}.
+     */
+    public Buffer write(Message message, Descriptors.FieldDescriptor field, Buffer buffer) {
+        try (JsonGenerator generator = FACTORY.createGenerator(new BufferOutputStream(buffer), JsonEncoding.UTF8)) {
+            if (field != null) {
+                writeField(generator, field, message.getField(field));
+            } else {
+                writeMessage(generator, message);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer;
+    }
+
+    public Buffer write(Message message) {
+        return write(message, null, Buffer.buffer(256));
+    }
+
+    private void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        Descriptors.Descriptor type = message.getDescriptorForType();
+        switch (type.getFullName()) {
+            case "google.protobuf.Timestamp" -> generator.writeString(timestamp(longField(message, 1), intField(message, 2)));
+            case "google.protobuf.Duration" -> generator.writeString(duration(longField(message, 1), intField(message, 2)));
+            case "google.protobuf.FieldMask" -> generator.writeString(fieldMask(message));
+            case "google.protobuf.Struct" -> writeStruct(generator, message);
+            case "google.protobuf.Value" -> writeValue(generator, message);
+            case "google.protobuf.ListValue" -> writeListValue(generator, message);
+            case "google.protobuf.Any" -> writeAny(generator, message);
+            case "google.protobuf.DoubleValue", "google.protobuf.FloatValue", "google.protobuf.Int64Value",
+                 "google.protobuf.UInt64Value", "google.protobuf.Int32Value", "google.protobuf.UInt32Value",
+                 "google.protobuf.BoolValue", "google.protobuf.StringValue", "google.protobuf.BytesValue" -> {
+                Descriptors.FieldDescriptor value = type.findFieldByNumber(1);
+                writeSingle(generator, value, message.getField(value));
+            }
+            default -> {
+                generator.writeStartObject();
+                writeFields(generator, message);
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    private void writeFields(JsonGenerator generator, Message message) throws IOException {
+        for (Map.Entry<Descriptors.FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+            generator.writeFieldName(entry.getKey().getJsonName());
+            writeField(generator, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void writeField(JsonGenerator generator, Descriptors.FieldDescriptor field, Object value) throws IOException {
+        if (field.isMapField()) {
+            Descriptors.FieldDescriptor key = field.getMessageType().findFieldByNumber(1);
+            Descriptors.FieldDescriptor mapValue = field.getMessageType().findFieldByNumber(2);
+            generator.writeStartObject();
+            for (Object element : (List<?>) value) {
+                Message entry = (Message) element;
+                generator.writeFieldName(String.valueOf(mapKey(key, entry.getField(key))));
+                writeSingle(generator, mapValue, entry.getField(mapValue));
+            }
+            generator.writeEndObject();
+        } else if (field.isRepeated()) {
+            generator.writeStartArray();
+            for (Object element : (List<?>) value) {
+                writeSingle(generator, field, element);
+            }
+            generator.writeEndArray();
+        } else {
+            writeSingle(generator, field, value);
+        }
+    }
+
+    private static Object mapKey(Descriptors.FieldDescriptor key, Object value) {
+        return switch (key.getType()) {
+            case UINT32, FIXED32 -> Integer.toUnsignedLong((Integer) value);
+            case UINT64, FIXED64 -> Long.toUnsignedString((Long) value);
+            default -> value;
+        };
+    }
+
+    private void writeSingle(JsonGenerator generator, Descriptors.FieldDescriptor field, Object value) throws IOException {
+        switch (field.getType()) {
+            case INT32, SINT32, SFIXED32 -> generator.writeNumber((Integer) value);
+            case UINT32, FIXED32 -> generator.writeNumber(Integer.toUnsignedLong((Integer) value));
+            case INT64, SINT64, SFIXED64 -> generator.writeString(Long.toString((Long) value));
+            case UINT64, FIXED64 -> generator.writeString(Long.toUnsignedString((Long) value));
+            case FLOAT -> writeFloat(generator, (Float) value);
+            case DOUBLE -> writeDouble(generator, (Double) value);
+            case BOOL -> generator.writeBoolean((Boolean) value);
+            case STRING -> generator.writeString((String) value);
+            case BYTES -> generator.writeString(Base64.getEncoder().encodeToString(((ByteString) value).toByteArray()));
+            case ENUM -> {
+                Descriptors.EnumValueDescriptor enumValue = (Descriptors.EnumValueDescriptor) value;
+                if (enumValue.getType().getFullName().equals("google.protobuf.NullValue")) {
+                    generator.writeNull();
+                } else if (enumValue.getType().findValueByNumber(enumValue.getNumber()) == null) {
+                    // Unknown to this descriptor, only the number is known
+                    generator.writeNumber(enumValue.getNumber());
+                } else {
+                    generator.writeString(enumValue.getName());
+                }
+            }
+            case MESSAGE, GROUP -> writeMessage(generator, (Message) value);
+        }
+    }
+
+    private static void writeFloat(JsonGenerator generator, float value) throws IOException {
+        if (Float.isFinite(value)) {
+            generator.writeNumber(value);
+        } else {
+            writeDouble(generator, value);
+        }
+    }
+
+    private static void writeDouble(JsonGenerator generator, double value) throws IOException {
+        if (Double.isNaN(value)) {
+            generator.writeString("NaN");
+        } else if (Double.isInfinite(value)) {
+            generator.writeString(value > 0 ? "Infinity" : "-Infinity");
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    private void writeStruct(JsonGenerator generator, Message struct) throws IOException {
+        Descriptors.FieldDescriptor fields = struct.getDescriptorForType().findFieldByNumber(1);
+        Descriptors.FieldDescriptor key = fields.getMessageType().findFieldByNumber(1);
+        Descriptors.FieldDescriptor value = fields.getMessageType().findFieldByNumber(2);
+        generator.writeStartObject();
+        for (Object element : (List<?>) struct.getField(fields)) {
+            Message entry = (Message) element;
+            generator.writeFieldName((String) entry.getField(key));
+            writeValue(generator, (Message) entry.getField(value));
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeListValue(JsonGenerator generator, Message list) throws IOException {
+        Descriptors.FieldDescriptor values = list.getDescriptorForType().findFieldByNumber(1);
+        generator.writeStartArray();
+        for (Object element : (List<?>) list.getField(values)) {
+            writeValue(generator, (Message) element);
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeValue(JsonGenerator generator, Message value) throws IOException {
+        Map<Descriptors.FieldDescriptor, Object> kind = value.getAllFields();
+        if (kind.isEmpty()) {
+            generator.writeNull();
+            return;
+        }
+        Map.Entry<Descriptors.FieldDescriptor, Object> entry = kind.entrySet().iterator().next();
+        switch (entry.getKey().getNumber()) {
+            case 1 -> generator.writeNull();
+            case 2 -> writeDouble(generator, (Double) entry.getValue());
+            case 3 -> generator.writeString((String) entry.getValue());
+            case 4 -> generator.writeBoolean((Boolean) entry.getValue());
+            case 5 -> writeStruct(generator, (Message) entry.getValue());
+            case 6 -> writeListValue(generator, (Message) entry.getValue());
+            default -> throw new IllegalArgumentException("Unknown kind of google.protobuf.Value: " + entry.getKey().getName());
+        }
+    }
+
+    private void writeAny(JsonGenerator generator, Message any) throws IOException {
+        Descriptors.Descriptor type = any.getDescriptorForType();
+        String typeUrl = (String) any.getField(type.findFieldByNumber(1));
+        ByteString bytes = (ByteString) any.getField(type.findFieldByNumber(2));
+        if (typeUrl.isEmpty()) {
+            generator.writeStartObject();
+            generator.writeEndObject();
+            return;
+        }
+
+        Descriptors.Descriptor contentType;
+        try {
+            contentType = registry.getDescriptorForTypeUrl(typeUrl);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        if (contentType == null) {
+            throw new IllegalArgumentException("Cannot find type for url: " + typeUrl);
+        }
+        Message content = DynamicMessage.parseFrom(contentType, bytes);
+
+        generator.writeStartObject();
+        generator.writeStringField("@type", typeUrl);
+        if (isWellKnown(contentType)) {
+            generator.writeFieldName("value");
+            writeMessage(generator, content);
+        } else {
+            writeFields(generator, content);
+        }
+        generator.writeEndObject();
+    }
+
+    static boolean isWellKnown(Descriptors.Descriptor type) {
+        return WELL_KNOWN_TYPES.contains(type.getFullName());
+    }
+
+    static String timestamp(long seconds, int nanos) {
+        return TIMESTAMP.format(LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC)) + fraction(nanos) + "Z";
+    }
+
+    static String duration(long seconds, int nanos) {
+        boolean negative = seconds < 0 || nanos < 0;
+        return (negative ? "-" : "") + Math.abs(seconds) + fraction(Math.abs(nanos)) + "s";
+    }
+
+    private static String fraction(int nanos) {
+        if (nanos == 0) {
+            return "";
+        }
+        if (nanos % 1_000_000 == 0) {
+            return String.format(".%03d", nanos / 1_000_000);
+        }
+        if (nanos % 1_000 == 0) {
+            return String.format(".%06d", nanos / 1_000);
+        }
+        return String.format(".%09d", nanos);
+    }
+
+    private static String fieldMask(Message mask) {
+        List<?> paths = (List<?>) mask.getField(mask.getDescriptorForType().findFieldByNumber(1));
+        StringBuilder joined = new StringBuilder();
+        for (Object path : paths) {
+            if (!joined.isEmpty()) {
+                joined.append(',');
+            }
+            boolean upper = false;
+            for (char c : ((String) path).toCharArray()) {
+                if (c == '_') {
+                    upper = true;
+                } else {
+                    joined.append(upper ? Character.toUpperCase(c) : c);
+                    upper = false;
+                }
+            }
+        }
+        return joined.toString();
+    }
+
+    private static long longField(Message message, int number) {
+        return (Long) message.getField(message.getDescriptorForType().findFieldByNumber(number));
+    }
+
+    private static int intField(Message message, int number) {
+        return (Integer) message.getField(message.getDescriptorForType().findFieldByNumber(number));
+    }
+
+    /**
+     * Lets the generator write into a Vert.x buffer without copying through a byte array.
+     */
+    private static final class BufferOutputStream extends OutputStream {
+
+        private final Buffer buffer;
+
+        BufferOutputStream(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.appendByte((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.appendBytes(b, off, len);
+        }
+    }
+}
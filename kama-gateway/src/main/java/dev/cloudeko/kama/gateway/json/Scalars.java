@@ -0,0 +1,81 @@
+package dev.cloudeko.kama.gateway.json;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+
+import java.math.BigDecimal;
+import java.util.Base64;
+
+/**
+ * Converts the text of a scalar field, from a path variable, a query parameter, a map key or a JSON value, into the
+ * value protobuf expects for the field.
+ */
+public final class Scalars {
+
+    private Scalars() {
+    }
+
+    /**
+     * Parses {@code text} for {@code field}, throwing {@link IllegalArgumentException} when it does not fit the type.
+     */
+    public static Object parse(Descriptors.FieldDescriptor field, String text) {
+        try {
+            return switch (field.getType()) {
+                case INT32, SINT32, SFIXED32 -> Math.toIntExact(integral(text));
+                case UINT32, FIXED32 -> {
+                    long value = integral(text);
+                    if (value < 0 || value > 0xFFFFFFFFL) {
+                        throw new NumberFormatException("Out of range: " + text);
+                    }
+                    yield (int) value;
+                }
+                case INT64, SINT64, SFIXED64 -> integral(text);
+                case UINT64, FIXED64 -> Long.parseUnsignedLong(text.contains(".") || text.contains("e") || text.contains("E")
+                        ? new BigDecimal(text).toBigIntegerExact().toString()
+                        : text);
+                case FLOAT -> (float) floating(text);
+                case DOUBLE -> floating(text);
+                case BOOL -> switch (text) {
+                    case "true" -> true;
+                    case "false" -> false;
+                    default -> throw new IllegalArgumentException("Invalid boolean for " + field.getFullName() + ": " + text);
+                };
+                case STRING -> text;
+                case BYTES -> ByteString.copyFrom(text.indexOf('-') >= 0 || text.indexOf('_') >= 0
+                        ? Base64.getUrlDecoder().decode(text)
+                        : Base64.getDecoder().decode(text));
+                case ENUM -> {
+                    Descriptors.EnumValueDescriptor value = field.getEnumType().findValueByName(text);
+                    if (value == null && !text.isEmpty() && (Character.isDigit(text.charAt(0)) || text.charAt(0) == '-')) {
+                        value = field.getEnumType().findValueByNumber(Integer.parseInt(text));
+                    }
+                    if (value == null) {
+                        throw new IllegalArgumentException("Invalid value for " + field.getFullName() + ": " + text);
+                    }
+                    yield value;
+                }
+                case MESSAGE, GROUP -> throw new IllegalArgumentException(field.getFullName() + " is not a scalar field");
+            };
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid value for " + field.getFullName() + ": " + text, e);
+        }
+    }
+
+    private static long integral(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            // Exponent or fraction notation is fine as long as the value is integral
+            return new BigDecimal(text).longValueExact();
+        }
+    }
+
+    private static double floating(String text) {
+        return switch (text) {
+            case "NaN" -> Double.NaN;
+            case "Infinity" -> Double.POSITIVE_INFINITY;
+            case "-Infinity" -> Double.NEGATIVE_INFINITY;
+            default -> Double.parseDouble(text);
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package dev.cloudeko.kama.gateway.limit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-client token buckets, holding up to {@code burst} tokens refilled at {@code ratePerSecond}. Every call takes one
+ * token, a client with an empty bucket is turned away until the next token is due.
+ * <p>
+ * Clients are spread by hash over {@code stripes} independently locked stripes, so gateway verticles on different event
+ * loops rarely contend on the same lock. A stripe keeps at most its share of {@code maxClients} buckets and forgets the
+ * least recently seen client first, a forgotten client starts over with a full bucket. The limiter is shared by all
+ * gateway verticles of a Vert.x instance, a client's quota does not depend on the connection it uses.
+ */
+public class RateLimiter implements Shareable {
+
+    private static final String MAP_NAME = "dev.cloudeko.kama.gateway.limit.RateLimiter";
+
+    public static final double DEFAULT_RATE_PER_SECOND = 100;
+    public static final int DEFAULT_BURST = 200;
+    public static final int DEFAULT_STRIPES = 16;
+    public static final int DEFAULT_MAX_CLIENTS = 100_000;
+
+    /**
+     * Tokens are counted in nanoseconds of refill, one token being {@code interval} nanoseconds, so refills are exact.
+     */
+    private static final class Bucket {
+
+        long credit;
+        long updatedAt;
+    }
+
+    private static final class Stripe extends LinkedHashMap<String, Bucket> {
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final long interval;
+    private final long capacity;
+    private final Counter rejected;
+
+    public RateLimiter(JsonObject config, MeterRegistry registry) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, config.getInteger("stripes", DEFAULT_STRIPES)) * 2 - 1);
+        int clientsPerStripe = Math.max(1, config.getInteger("maxClients", DEFAULT_MAX_CLIENTS) / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(clientsPerStripe);
+        }
+        this.interval = Math.max(1, Math.round(1_000_000_000d / config.getDouble("ratePerSecond", DEFAULT_RATE_PER_SECOND)));
+        this.capacity = interval * Math.max(1, config.getInteger("burst", DEFAULT_BURST));
+        this.rejected = Counter.builder("kama.gateway.rate.limit.rejections")
+                .description("Calls turned away because the client ran out of quota")
+                .register(registry);
+    }
+
+    /**
+     * Returns the limiter of the Vert.x instance, created from {@code config} by the first verticle asking for it.
+     */
+    public static RateLimiter shared(Vertx vertx, JsonObject config, MeterRegistry registry) {
+        LocalMap<String, RateLimiter> map = vertx.sharedData().getLocalMap(MAP_NAME);
+        RateLimiter created = new RateLimiter(config, registry);
+        RateLimiter existing = map.putIfAbsent(MAP_NAME, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Takes a token from the bucket of {@code client}.
+     *
+     * @return {@code 0} when the call is admitted, otherwise the nanoseconds until the next token is due
+     */
+    public long acquire(String client, long nowNanos) {
+        int hash = client.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(client);
+            if (bucket == null) {
+                bucket = new Bucket();
+                bucket.credit = capacity;
+                bucket.updatedAt = nowNanos;
+                stripe.put(client, bucket);
+            } else if (nowNanos > bucket.updatedAt) {
+                long elapsed = nowNanos - bucket.updatedAt;
+                bucket.credit = elapsed >= capacity - bucket.credit ? capacity : bucket.credit + elapsed;
+                bucket.updatedAt = nowNanos;
+            }
+
+            if (bucket.credit >= interval) {
+                bucket.credit -= interval;
+                return 0;
+            }
+            rejected.increment();
+            return interval - bucket.credit;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package dev.cloudeko.kama.gateway.route;
+
+import com.google.protobuf.Descriptors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves dotted field paths such as {@code collection.name}, as used by path variables and query parameters.
+ */
+public final class FieldPaths {
+
+    private FieldPaths() {
+    }
+
+    /**
+     * Returns the fields along {@code path}, or throws if a part is unknown or descends into a non-message field.
+     */
+    public static List<Descriptors.FieldDescriptor> resolve(Descriptors.Descriptor type, String path) {
+        List<Descriptors.FieldDescriptor> fields = tryResolve(type, path);
+        if (fields == null) {
+            throw new IllegalArgumentException("Unknown field path of " + type.getFullName() + ": " + path);
+        }
+        return fields;
+    }
+
+    /**
+     * Like {@link #resolve}, accepting JSON names too, and returning {@code null} when the path does not resolve.
+     */
+    public static List<Descriptors.FieldDescriptor> tryResolve(Descriptors.Descriptor type, String path) {
+        List<Descriptors.FieldDescriptor> fields = new ArrayList<>();
+        Descriptors.Descriptor current = type;
+        for (String part : path.split("\\.", -1)) {
+            if (current == null) {
+                return null;
+            }
+            Descriptors.FieldDescriptor field = current.findFieldByName(part);
+            if (field == null) {
+                field = findByJsonName(current, part);
+            }
+            if (field == null) {
+                return null;
+            }
+            fields.add(field);
+            current = field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE && !field.isRepeated()
+                    ? field.getMessageType()
+                    : null;
+        }
+        return List.copyOf(fields);
+    }
+
+    private static Descriptors.FieldDescriptor findByJsonName(Descriptors.Descriptor type, String name) {
+        for (Descriptors.FieldDescriptor field : type.getFields()) {
+            if (field.getJsonName().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
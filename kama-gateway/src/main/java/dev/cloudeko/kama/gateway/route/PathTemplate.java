@@ -0,0 +1,143 @@
+package dev.cloudeko.kama.gateway.route;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed {@code google.api.http} path template, such as {@code /v1/{name=collections/*}:archive}.
+ * <p>
+ * The template is flattened into one matcher per path segment, a literal, {@code *} for one segment or {@code **} for
+ * the rest of the path. Variables remember the range of segments they capture, {@code {name}} being short for
+ * {@code {name=*}}. The verb is kept apart, it is matched against the text after the last colon of the path.
+ */
+public final class PathTemplate {
+
+    static final String WILDCARD = "*";
+    static final String DOUBLE_WILDCARD = "**";
+
+    private final String template;
+    private final List<String> segments;
+    private final List<Variable> variables;
+    private final String verb;
+
+    private PathTemplate(String template, List<String> segments, List<Variable> variables, String verb) {
+        this.template = template;
+        this.segments = segments;
+        this.variables = variables;
+        this.verb = verb;
+    }
+
+    /**
+     * A variable bound to segments {@code start} up to {@code end} (exclusive), {@code end} is {@code -1} when the
+     * variable captures the rest of the path.
+     */
+    public record Variable(String fieldPath, int start, int end) {
+    }
+
+    public static PathTemplate parse(String template) {
+        if (template == null || !template.startsWith("/")) {
+            throw new IllegalArgumentException("Path template must start with '/': " + template);
+        }
+
+        String path = template.substring(1);
+        String verb = null;
+        int colon = verbColon(path);
+        if (colon >= 0) {
+            verb = path.substring(colon + 1);
+            path = path.substring(0, colon);
+            if (verb.isEmpty()) {
+                throw new IllegalArgumentException("Empty verb in path template: " + template);
+            }
+        }
+
+        List<String> segments = new ArrayList<>();
+        List<Variable> variables = new ArrayList<>();
+        int i = 0;
+        while (i <= path.length()) {
+            if (i < path.length() && path.charAt(i) == '{') {
+                int close = path.indexOf('}', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed variable in path template: " + template);
+                }
+                String variable = path.substring(i + 1, close);
+                int equals = variable.indexOf('=');
+                String fieldPath = equals < 0 ? variable : variable.substring(0, equals);
+                String pattern = equals < 0 ? WILDCARD : variable.substring(equals + 1);
+                if (fieldPath.isEmpty() || pattern.isEmpty() || pattern.indexOf('{') >= 0) {
+                    throw new IllegalArgumentException("Invalid variable in path template: " + template);
+                }
+
+                int start = segments.size();
+                for (String segment : pattern.split("/", -1)) {
+                    segments.add(segment);
+                }
+                int end = segments.getLast().equals(DOUBLE_WILDCARD) ? -1 : segments.size();
+                variables.add(new Variable(fieldPath, start, end));
+                i = close + 1;
+            } else {
+                int slash = path.indexOf('/', i);
+                int next = slash < 0 ? path.length() : slash;
+                segments.add(path.substring(i, next));
+                i = next;
+            }
+
+            if (i < path.length() && path.charAt(i) != '/') {
+                throw new IllegalArgumentException("A variable must span whole segments: " + template);
+            }
+            i++;
+        }
+
+        for (int s = 0; s < segments.size(); s++) {
+            String segment = segments.get(s);
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Empty segment in path template: " + template);
+            }
+            if (segment.equals(DOUBLE_WILDCARD) && s != segments.size() - 1) {
+                throw new IllegalArgumentException("'**' must be the last segment of a path template: " + template);
+            }
+            if (!segment.equals(WILDCARD) && !segment.equals(DOUBLE_WILDCARD) && segment.matches(".*[{}*].*")) {
+                throw new IllegalArgumentException("Invalid segment " + segment + " in path template: " + template);
+            }
+        }
+
+        return new PathTemplate(template, List.copyOf(segments), List.copyOf(variables), verb);
+    }
+
+    /**
+     * The colon introducing the verb, the last one outside of a variable.
+     */
+    private static int verbColon(String path) {
+        int depth = 0;
+        int colon = -1;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == ':' && depth == 0) {
+                colon = i;
+            } else if (c == '/') {
+                colon = -1;
+            }
+        }
+        return colon;
+    }
+
+    public List<String> segments() {
+        return segments;
+    }
+
+    public List<Variable> variables() {
+        return variables;
+    }
+
+    public String verb() {
+        return verb;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -0,0 +1,83 @@
+package dev.cloudeko.kama.gateway.route;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import io.vertx.core.http.HttpMethod;
+
+import java.util.List;
+
+/**
+ * One HTTP binding of a unary gRPC method, resolved once from its {@code google.api.http} rule.
+ *
+ * @param body         the request field the body is read into with {@link BodyMode#FIELD}
+ * @param responseBody the response field written as the body, {@code null} for the whole response message
+ * @param variables    the request fields bound by the path, in the order of {@link PathTemplate#variables()}
+ */
+public record Route(HttpMethod httpMethod,
+                    PathTemplate template,
+                    Descriptors.MethodDescriptor method,
+                    String path,
+                    BodyMode bodyMode,
+                    Descriptors.FieldDescriptor body,
+                    Descriptors.FieldDescriptor responseBody,
+                    List<List<Descriptors.FieldDescriptor>> variables,
+                    Message requestPrototype,
+                    Message responsePrototype) {
+
+    public enum BodyMode {
+        /**
+         * No body, the request message is bound from the path and the query string.
+         */
+        NONE,
+        /**
+         * The body is the whole request message.
+         */
+        ALL,
+        /**
+         * The body is one field of the request message, other fields come from the path and the query string.
+         */
+        FIELD
+    }
+
+    public static Route create(HttpMethod httpMethod, PathTemplate template, Descriptors.MethodDescriptor method, String body, String responseBody) {
+        Descriptors.Descriptor input = method.getInputType();
+        Descriptors.Descriptor output = method.getOutputType();
+
+        BodyMode bodyMode = body == null || body.isEmpty() ? BodyMode.NONE : body.equals("*") ? BodyMode.ALL : BodyMode.FIELD;
+        Descriptors.FieldDescriptor bodyField = null;
+        if (bodyMode == BodyMode.FIELD) {
+            bodyField = input.findFieldByName(body);
+            if (bodyField == null) {
+                throw new IllegalArgumentException("Body must be a top-level field of " + input.getFullName() + ": " + body);
+            }
+        }
+
+        Descriptors.FieldDescriptor responseField = null;
+        if (responseBody != null && !responseBody.isEmpty()) {
+            responseField = output.findFieldByName(responseBody);
+            if (responseField == null) {
+                throw new IllegalArgumentException("Unknown response field of " + output.getFullName() + ": " + responseBody);
+            }
+        }
+
+        List<List<Descriptors.FieldDescriptor>> variables = template.variables().stream()
+                .map(variable -> FieldPaths.resolve(input, variable.fieldPath()))
+                .toList();
+        for (int i = 0; i < variables.size(); i++) {
+            Descriptors.FieldDescriptor leaf = variables.get(i).getLast();
+            if (leaf.isRepeated() || leaf.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+                throw new IllegalArgumentException("Path variable must bind a singular scalar field: " + template.variables().get(i).fieldPath());
+            }
+        }
+
+        String path = "/" + method.getService().getFullName() + "/" + method.getName();
+        return new Route(httpMethod, template, method, path, bodyMode, bodyField, responseField, variables,
+                DynamicMessage.getDefaultInstance(input), DynamicMessage.getDefaultInstance(output));
+    }
+
+    @Override
+    public String toString() {
+        return httpMethod + " " + template + " -> " + method.getFullName();
+    }
+}
@@ -0,0 +1,217 @@
+package dev.cloudeko.kama.gateway.route;
+
+import com.google.api.AnnotationsProto;
+import com.google.api.HttpRule;
+import com.google.protobuf.Descriptors;
+import io.vertx.core.http.HttpMethod;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HTTP routes of a set of gRPC services, compiled from their {@code google.api.http} rules into one segment trie per
+ * HTTP method.
+ * <p>
+ * Matching walks the trie once per request, literal segments win over {@code *} which wins over {@code **}, so the
+ * cost does not grow with the number of routes. Streaming methods and methods without a rule get no route.
+ */
+public final class RouteTable {
+
+    private final Map<HttpMethod, Node> roots = new HashMap<>();
+    private final List<Route> routes = new ArrayList<>();
+
+    /**
+     * A matched route and the percent-decoded segments of the request path, without the verb.
+     */
+    public record Match(Route route, String[] segments) {
+
+        /**
+         * Returns the value of the {@code index}th path variable of the route.
+         */
+        public String variable(int index) {
+            PathTemplate.Variable variable = route.template().variables().get(index);
+            int end = variable.end() < 0 ? segments.length : variable.end();
+            return end == variable.start() + 1 ? segments[variable.start()] : String.join("/", List.of(segments).subList(variable.start(), end));
+        }
+    }
+
+    public static RouteTable of(List<Descriptors.ServiceDescriptor> services) {
+        RouteTable table = new RouteTable();
+        for (Descriptors.ServiceDescriptor service : services) {
+            for (Descriptors.MethodDescriptor method : service.getMethods()) {
+                if (method.isClientStreaming() || method.isServerStreaming() || !method.getOptions().hasExtension(AnnotationsProto.http)) {
+                    continue;
+                }
+                HttpRule rule = method.getOptions().getExtension(AnnotationsProto.http);
+                table.add(method, rule);
+                for (HttpRule additional : rule.getAdditionalBindingsList()) {
+                    table.add(method, additional);
+                }
+            }
+        }
+        return table;
+    }
+
+    private void add(Descriptors.MethodDescriptor method, HttpRule rule) {
+        HttpMethod httpMethod;
+        String template;
+        switch (rule.getPatternCase()) {
+            case GET -> {
+                httpMethod = HttpMethod.GET;
+                template = rule.getGet();
+            }
+            case PUT -> {
+                httpMethod = HttpMethod.PUT;
+                template = rule.getPut();
+            }
+            case POST -> {
+                httpMethod = HttpMethod.POST;
+                template = rule.getPost();
+            }
+            case DELETE -> {
+                httpMethod = HttpMethod.DELETE;
+                template = rule.getDelete();
+            }
+            case PATCH -> {
+                httpMethod = HttpMethod.PATCH;
+                template = rule.getPatch();
+            }
+            case CUSTOM -> {
+                httpMethod = HttpMethod.valueOf(rule.getCustom().getKind());
+                template = rule.getCustom().getPath();
+            }
+            default -> throw new IllegalArgumentException("HTTP rule of " + method.getFullName() + " has no pattern");
+        }
+
+        add(Route.create(httpMethod, PathTemplate.parse(template), method, rule.getBody(), rule.getResponseBody()));
+    }
+
+    void add(Route route) {
+        Node node = roots.computeIfAbsent(route.httpMethod(), m -> new Node());
+        for (String segment : route.template().segments()) {
+            node = switch (segment) {
+                case PathTemplate.WILDCARD -> node.wildcard != null ? node.wildcard : (node.wildcard = new Node());
+                case PathTemplate.DOUBLE_WILDCARD -> node.doubleWildcard != null ? node.doubleWildcard : (node.doubleWildcard = new Node());
+                default -> node.literals.computeIfAbsent(segment, s -> new Node());
+            };
+        }
+
+        String verb = route.template().verb() != null ? route.template().verb() : "";
+        Route existing = node.routes.putIfAbsent(verb, route);
+        if (existing != null) {
+            throw new IllegalStateException("Conflicting routes: " + existing + " and " + route);
+        }
+        routes.add(route);
+    }
+
+    public List<Route> routes() {
+        return List.copyOf(routes);
+    }
+
+    /**
+     * Finds the route of a request, or returns {@code null} when no route matches.
+     */
+    public Match match(HttpMethod method, String path) {
+        Node root = roots.get(method);
+        if (root == null || path == null || !path.startsWith("/")) {
+            return null;
+        }
+
+        String[] raw = path.substring(1).split("/", -1);
+        String last = raw[raw.length - 1];
+        int colon = last.lastIndexOf(':');
+        if (colon >= 0) {
+            String[] segments = decode(raw, last.substring(0, colon));
+            if (segments != null) {
+                Route route = match(root, segments, 0, decode(last.substring(colon + 1)));
+                if (route != null) {
+                    return new Match(route, segments);
+                }
+            }
+        }
+
+        String[] segments = decode(raw, last);
+        if (segments == null) {
+            return null;
+        }
+        Route route = match(root, segments, 0, "");
+        return route != null ? new Match(route, segments) : null;
+    }
+
+    private static Route match(Node node, String[] segments, int index, String verb) {
+        if (index == segments.length) {
+            Route route = node.routes.get(verb);
+            if (route == null && node.doubleWildcard != null) {
+                route = node.doubleWildcard.routes.get(verb);
+            }
+            return route;
+        }
+
+        Node literal = node.literals.get(segments[index]);
+        if (literal != null) {
+            Route route = match(literal, segments, index + 1, verb);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (node.wildcard != null && !segments[index].isEmpty()) {
+            Route route = match(node.wildcard, segments, index + 1, verb);
+            if (route != null) {
+                return route;
+            }
+        }
+        return node.doubleWildcard != null ? node.doubleWildcard.routes.get(verb) : null;
+    }
+
+    private static String[] decode(String[] raw, String last) {
+        String[] segments = new String[raw.length];
+        for (int i = 0; i < raw.length; i++) {
+            segments[i] = decode(i == raw.length - 1 ? last : raw[i]);
+            if (segments[i] == null) {
+                return null;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Percent-decodes a path segment, unlike form decoding a {@code +} stays a {@code +}. Returns {@code null} for a
+     * malformed escape.
+     */
+    static String decode(String segment) {
+        if (segment.indexOf('%') < 0) {
+            return segment;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c != '%') {
+                bytes.writeBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            if (i + 2 >= segment.length()) {
+                return null;
+            }
+            int high = Character.digit(segment.charAt(i + 1), 16);
+            int low = Character.digit(segment.charAt(i + 2), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes.write(high << 4 | low);
+            i += 2;
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> literals = new HashMap<>();
+        private final Map<String, Route> routes = new HashMap<>(2);
+        private Node wildcard;
+        private Node doubleWildcard;
+    }
+}
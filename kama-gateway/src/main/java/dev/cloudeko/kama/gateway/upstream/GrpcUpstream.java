@@ -0,0 +1,115 @@
+package dev.cloudeko.kama.gateway.upstream;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import dev.cloudeko.kama.gateway.route.Route;
+import dev.cloudeko.kama.server.exception.GrpcException;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.GrpcStatus;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Calls the unary gRPC methods of a kama server over a pool of HTTP/2 connections.
+ * <p>
+ * Calls are multiplexed as streams over at most {@code maxConnections} connections (default
+ * {@value #DEFAULT_MAX_CONNECTIONS}), opened with prior knowledge so there is no upgrade round trip. Every call carries
+ * a {@code grpc-timeout} of {@code timeoutMs} (default {@value #DEFAULT_TIMEOUT_MS}), and the credentials and trace
+ * context of the HTTP request it was transcoded from. Failures complete with a {@link GrpcException} holding the status
+ * of the call, or {@code UNAVAILABLE} when the server could not be reached.
+ */
+public class GrpcUpstream {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final int DEFAULT_TIMEOUT_MS = 30_000;
+
+    private static final List<String> FORWARDED_HEADERS = List.of("authorization", "traceparent", "tracestate");
+
+    private final HttpClient client;
+    private final String timeout;
+
+    public GrpcUpstream(Vertx vertx, JsonObject config) {
+        this.client = vertx.createHttpClient(new HttpClientOptions()
+                        .setProtocolVersion(HttpVersion.HTTP_2)
+                        .setHttp2ClearTextUpgrade(false)
+                        .setDefaultHost(config.getString("host", "127.0.0.1"))
+                        .setDefaultPort(config.getInteger("port", 9000)),
+                new PoolOptions().setHttp2MaxSize(config.getInteger("maxConnections", DEFAULT_MAX_CONNECTIONS)));
+        this.timeout = config.getInteger("timeoutMs", DEFAULT_TIMEOUT_MS) + "m";
+    }
+
+    public Future<Message> call(Route route, Message request, MultiMap headers) {
+        byte[] message = request.toByteArray();
+        Buffer frame = Buffer.buffer(5 + message.length)
+                .appendByte((byte) 0)
+                .appendInt(message.length)
+                .appendBytes(message);
+
+        return client.request(HttpMethod.POST, route.path())
+                .compose(call -> {
+                    call.putHeader("content-type", "application/grpc")
+                            .putHeader("te", "trailers")
+                            .putHeader("grpc-timeout", timeout);
+                    for (String name : FORWARDED_HEADERS) {
+                        String value = headers.get(name);
+                        if (value != null) {
+                            call.putHeader(name, value);
+                        }
+                    }
+                    return call.send(frame);
+                })
+                .compose(response -> response.body().compose(body -> decode(route, response, body)))
+                .recover(err -> Future.failedFuture(err instanceof GrpcException
+                        ? err
+                        : new GrpcException("Upstream unavailable", GrpcStatus.UNAVAILABLE, err)));
+    }
+
+    private static Future<Message> decode(Route route, HttpClientResponse response, Buffer body) {
+        // Trailers-only responses carry the status in the headers
+        String status = response.getTrailer("grpc-status");
+        if (status == null) {
+            status = response.getHeader("grpc-status");
+        }
+        if (status == null) {
+            return Future.failedFuture(new GrpcException("Upstream answered HTTP " + response.statusCode(), GrpcStatus.UNKNOWN));
+        }
+        if (!"0".equals(status)) {
+            String message = response.getTrailer("grpc-message");
+            if (message == null) {
+                message = response.getHeader("grpc-message");
+            }
+            GrpcStatus code;
+            try {
+                code = GrpcStatus.valueOf(Integer.parseInt(status));
+            } catch (RuntimeException e) {
+                code = GrpcStatus.UNKNOWN;
+            }
+            return Future.failedFuture(new GrpcException(message != null ? URLDecoder.decode(message.replace("+", "%2B"), StandardCharsets.UTF_8) : code.name(), code));
+        }
+
+        if (body.length() < 5 || body.getByte(0) != 0 || body.getInt(1) != body.length() - 5) {
+            return Future.failedFuture(new GrpcException("Malformed upstream response", GrpcStatus.INTERNAL));
+        }
+        try {
+            return Future.succeededFuture(route.responsePrototype().getParserForType().parseFrom(body.getBytes(5, body.length())));
+        } catch (InvalidProtocolBufferException e) {
+            return Future.failedFuture(new GrpcException("Malformed upstream response", GrpcStatus.INTERNAL, e));
+        }
+    }
+
+    public Future<Void> close() {
+        return client.close();
+    }
+}
@@ -0,0 +1,305 @@
+package dev.cloudeko.kama.gateway;
+
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import dev.cloudeko.kama.identity.token.TokenSigner;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.jdbcclient.JDBCConnectOptions;
+import io.vertx.jdbcclient.JDBCPool;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GatewayTest {
+
+    private static Vertx vertx;
+    private static HttpClient client;
+    private static String token;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        int gatewayPort = freePort();
+        JsonObject config = new JsonObject()
+                .put("host", "127.0.0.1")
+                .put("port", gatewayPort)
+                .put("upstream", new JsonObject().put("mode", "local"))
+                .put("server", new JsonObject()
+                        .put("host", "127.0.0.1")
+                        .put("port", freePort())
+                        .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_GATEWAY;DB_CLOSE_DELAY=-1;"))
+                        .put("hashing", new JsonObject().put("cost", 4)));
+        GatewayVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("127.0.0.1")
+                .setDefaultPort(gatewayPort)
+                .setDecompressionSupported(false));
+
+        JsonObject owner = new JsonObject().put("email", "owner@example.com").put("password", "password123");
+        assertEquals(200, send(HttpMethod.POST, "/v1/users", owner.toBuffer(), null).await(5, TimeUnit.SECONDS).status);
+        token = send(HttpMethod.POST, "/v1/users:authenticate", owner.toBuffer(), null).await(5, TimeUnit.SECONDS).json().getString("token");
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        if (vertx != null) {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testCollectionLifecycle() throws Exception {
+        JsonObject collection = new JsonObject()
+                .put("displayName", "Gateway Collection")
+                .put("fields", new JsonObject().put("title", new JsonObject().put("required", true).put("stringType", "")));
+        Response created = send(HttpMethod.POST, "/v1/collections", collection.toBuffer()).await(5, TimeUnit.SECONDS);
+        assertEquals(200, created.status, created.body.toString());
+        assertEquals("application/json", created.response.getHeader("content-type"));
+        String name = created.json().getString("name");
+        assertTrue(name.startsWith("collections/"));
+        // 64-bit integers are strings in the JSON mapping
+        assertEquals("1", created.json().getString("version"));
+
+        Response get = send(HttpMethod.GET, "/v1/" + name, null).await(5, TimeUnit.SECONDS);
+        assertEquals(200, get.status);
+        assertEquals("Gateway Collection", get.json().getString("displayName"));
+        assertTrue(get.json().getJsonObject("fields").containsKey("title"));
+
+        // The name in the path wins over the one in the body
+        JsonObject update = collection.copy().put("name", "collections/other").put("displayName", "Renamed");
+        Response patched = send(HttpMethod.PATCH, "/v1/" + name, update.toBuffer()).await(5, TimeUnit.SECONDS);
+        assertEquals(200, patched.status, patched.body.toString());
+        assertEquals(name, patched.json().getString("name"));
+        assertEquals("Renamed", patched.json().getString("displayName"));
+        assertEquals("2", patched.json().getString("version"));
+
+        Response list = send(HttpMethod.GET, "/v1/collections?pageSize=10&unknown=1", null).await(5, TimeUnit.SECONDS);
+        assertEquals(200, list.status);
+        JsonArray collections = list.json().getJsonArray("collections");
+        assertTrue(collections.stream().anyMatch(c -> name.equals(((JsonObject) c).getString("name"))));
+
+        assertEquals(200, send(HttpMethod.DELETE, "/v1/" + name, null).await(5, TimeUnit.SECONDS).status);
+    }
+
+    @Test
+    void testUsersAndTokens() throws Exception {
+        JsonObject user = new JsonObject()
+                .put("email", "gateway@example.com")
+                .put("password", "password123")
+                .put("display_name", "Gateway User");
+        Response created = send(HttpMethod.POST, "/v1/users", user.toBuffer(), null).await(5, TimeUnit.SECONDS);
+        assertEquals(200, created.status, created.body.toString());
+        assertEquals("Gateway User", created.json().getString("displayName"));
+
+        JsonObject credentials = new JsonObject().put("email", "gateway@example.com").put("password", "password123");
+        Response authenticated = send(HttpMethod.POST, "/v1/users:authenticate", credentials.toBuffer(), null).await(5, TimeUnit.SECONDS);
+        assertEquals(200, authenticated.status, authenticated.body.toString());
+        String userToken = authenticated.json().getString("token");
+        assertNotNull(userToken);
+
+        Response validated = send(HttpMethod.POST, "/v1/tokens:validate", new JsonObject().put("token", userToken).toBuffer(), null).await(5, TimeUnit.SECONDS);
+        assertEquals(200, validated.status);
+        assertTrue(validated.json().getBoolean("valid"));
+    }
+
+    @Test
+    void testCannotMintTokensForOtherUsers() throws Exception {
+        JsonObject other = new JsonObject().put("email", "victim@example.com").put("password", "password123");
+        Response created = send(HttpMethod.POST, "/v1/users", other.toBuffer(), null).await(5, TimeUnit.SECONDS);
+        assertEquals(200, created.status, created.body.toString());
+        String name = created.json().getString("name");
+
+        // The owner holds a valid token, that must not be enough to act as another user
+        Response minted = send(HttpMethod.POST, "/v1/" + name + ":generateToken", new JsonObject().toBuffer()).await(5, TimeUnit.SECONDS);
+        assertEquals(404, minted.status, minted.body.toString());
+        assertNull(minted.json().getString("token"));
+    }
+
+    @Test
+    void testRevokedTokensAreRejected() throws Exception {
+        JsonObject credentials = new JsonObject().put("email", "revoked@example.com").put("password", "password123");
+        String name = send(HttpMethod.POST, "/v1/users", credentials.toBuffer(), null).await(5, TimeUnit.SECONDS).json().getString("name");
+        String revoked = send(HttpMethod.POST, "/v1/users:authenticate", credentials.toBuffer(), null).await(5, TimeUnit.SECONDS).json().getString("token");
+        assertEquals(200, send(HttpMethod.GET, "/v1/" + name, null, revoked).await(5, TimeUnit.SECONDS).status);
+
+        // As published by the identity service, a watermark after the second the token was issued in
+        long notBefore = System.currentTimeMillis() / 1000 + 1;
+        vertx.eventBus().publish(AuthorizationEvents.TOKENS_REVOKED, new JsonObject()
+                .put("user_id", name.substring(name.indexOf('/') + 1))
+                .put("not_before", notBefore));
+
+        // The event reaches the gateway verticles asynchronously
+        Response rejected = send(HttpMethod.GET, "/v1/" + name, null, revoked).await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 50 && rejected.status != 401; i++) {
+            Thread.sleep(100);
+            rejected = send(HttpMethod.GET, "/v1/" + name, null, revoked).await(5, TimeUnit.SECONDS);
+        }
+        assertEquals(401, rejected.status, rejected.body.toString());
+        assertEquals(16, rejected.json().getInteger("code"));
+        // Other users are not affected
+        assertEquals(200, send(HttpMethod.GET, "/v1/collections", null).await(5, TimeUnit.SECONDS).status);
+    }
+
+    @Test
+    void testErrors() throws Exception {
+        Response unknown = send(HttpMethod.GET, "/v1/unknown", null).await(5, TimeUnit.SECONDS);
+        assertEquals(404, unknown.status);
+        assertEquals(5, unknown.json().getInteger("code"));
+
+        Response malformed = send(HttpMethod.POST, "/v1/collections", Buffer.buffer("{\"displayName\": ")).await(5, TimeUnit.SECONDS);
+        assertEquals(400, malformed.status);
+        assertEquals(3, malformed.json().getInteger("code"));
+
+        Response unknownField = send(HttpMethod.POST, "/v1/users", Buffer.buffer("{\"nickname\": \"x\"}"), null).await(5, TimeUnit.SECONDS);
+        assertEquals(400, unknownField.status);
+        assertTrue(unknownField.json().getString("message").contains("nickname"));
+
+        Response tooLarge = send(HttpMethod.POST, "/v1/users", Buffer.buffer(new byte[GatewayVerticle.DEFAULT_MAX_BODY_SIZE + 1])).await(5, TimeUnit.SECONDS);
+        assertEquals(413, tooLarge.status);
+
+        // Without a content-length the body is counted while it is read
+        Response tooLargeChunked = client.request(HttpMethod.POST, "/v1/users")
+                .compose(request -> {
+                    request.setChunked(true).putHeader("content-type", "application/json");
+                    request.write(Buffer.buffer(new byte[GatewayVerticle.DEFAULT_MAX_BODY_SIZE]));
+                    request.end(Buffer.buffer(new byte[1024]));
+                    return request.response();
+                })
+                .compose(response -> response.body().map(b -> new Response(response, response.statusCode(), b)))
+                .await(5, TimeUnit.SECONDS);
+        assertEquals(413, tooLargeChunked.status);
+    }
+
+    @Test
+    void testRejectsUnauthenticatedCalls() throws Exception {
+        Response missing = send(HttpMethod.GET, "/v1/collections", null, null).await(5, TimeUnit.SECONDS);
+        assertEquals(401, missing.status);
+        assertEquals(16, missing.json().getInteger("code"));
+
+        assertEquals(401, send(HttpMethod.GET, "/v1/collections", null, "not-a-token").await(5, TimeUnit.SECONDS).status);
+
+        // A well-formed token with a tampered signature
+        String forged = token.substring(0, token.lastIndexOf('.') + 1) + "c2lnbmF0dXJl";
+        assertEquals(401, send(HttpMethod.GET, "/v1/collections", null, forged).await(5, TimeUnit.SECONDS).status);
+
+        Response body = send(HttpMethod.POST, "/v1/collections", new JsonObject().put("displayName", "Anonymous").toBuffer(), null).await(5, TimeUnit.SECONDS);
+        assertEquals(401, body.status);
+    }
+
+    @Test
+    void testExpiredTokenCanStillRefresh() throws Exception {
+        JsonObject credentials = new JsonObject().put("email", "owner@example.com").put("password", "password123");
+        String refreshToken = send(HttpMethod.POST, "/v1/users:authenticate", credentials.toBuffer(), null)
+                .await(5, TimeUnit.SECONDS).json().getString("refreshToken");
+
+        // Signed with the server's own key, but a minute past its expiry
+        Pool pool = JDBCPool.pool(vertx, new JDBCConnectOptions().setJdbcUrl("jdbc:h2:mem:DB_GATEWAY;DB_CLOSE_DELAY=-1;"), new PoolOptions().setMaxSize(1));
+        long now = System.currentTimeMillis() / 1000;
+        String expired = new TokenSigner(vertx, pool, TokenSigner.DEFAULT_ALGORITHM, TokenSigner.DEFAULT_ROTATION_SECONDS, 3600)
+                .sign(new JsonObject().put("sub", "expired").put("iat", now - 3660).put("exp", now - 60))
+                .await(5, TimeUnit.SECONDS);
+
+        assertEquals(401, send(HttpMethod.GET, "/v1/collections", null, expired).await(5, TimeUnit.SECONDS).status);
+
+        Response refreshed = send(HttpMethod.POST, "/v1/tokens:refresh", new JsonObject().put("refreshToken", refreshToken).toBuffer(), expired)
+                .await(5, TimeUnit.SECONDS);
+        assertEquals(200, refreshed.status, refreshed.body.toString());
+        assertNotNull(refreshed.json().getString("token"));
+    }
+
+    @Test
+    void testCachesGetResponses() throws Exception {
+        JsonObject collection = new JsonObject()
+                .put("displayName", "Cached Collection")
+                .put("fields", new JsonObject().put("title", new JsonObject().put("stringType", "")));
+        String name = send(HttpMethod.POST, "/v1/collections", collection.toBuffer()).await(5, TimeUnit.SECONDS).json().getString("name");
+
+        Response first = send(HttpMethod.GET, "/v1/" + name, null).await(5, TimeUnit.SECONDS);
+        assertEquals(200, first.status);
+        String etag = first.response.getHeader("etag");
+        assertNotNull(etag);
+
+        Response revalidated = client.request(HttpMethod.GET, "/v1/" + name)
+                .compose(request -> request
+                        .putHeader("authorization", "Bearer " + token)
+                        .putHeader("if-none-match", etag)
+                        .send())
+                .compose(response -> response.body().map(body -> new Response(response, response.statusCode(), body)))
+                .await(5, TimeUnit.SECONDS);
+        assertEquals(304, revalidated.status);
+        assertEquals(0, revalidated.body.length());
+
+        // An update through the gateway drops the cached read
+        collection.put("displayName", "Changed Collection");
+        assertEquals(200, send(HttpMethod.PATCH, "/v1/" + name, collection.toBuffer()).await(5, TimeUnit.SECONDS).status);
+        Response changed = send(HttpMethod.GET, "/v1/" + name, null).await(5, TimeUnit.SECONDS);
+        assertEquals("Changed Collection", changed.json().getString("displayName"));
+        assertNotEquals(etag, changed.response.getHeader("etag"));
+    }
+
+    @Test
+    void testCompressesLargeResponses() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            JsonObject collection = new JsonObject()
+                    .put("displayName", "Compressed Collection " + i)
+                    .put("fields", new JsonObject().put("title", new JsonObject().put("stringType", "")));
+            assertEquals(200, send(HttpMethod.POST, "/v1/collections", collection.toBuffer()).await(5, TimeUnit.SECONDS).status);
+        }
+
+        Response list = client.request(HttpMethod.GET, "/v1/collections")
+                .compose(request -> request
+                        .putHeader("authorization", "Bearer " + token)
+                        .putHeader("accept-encoding", "gzip")
+                        .send())
+                .compose(response -> response.body().map(body -> new Response(response, response.statusCode(), body)))
+                .await(5, TimeUnit.SECONDS);
+        assertEquals(200, list.status);
+        assertEquals("gzip", list.response.getHeader("content-encoding"));
+    }
+
+    private record Response(HttpClientResponse response, int status, Buffer body) {
+
+        JsonObject json() {
+            return body.toJsonObject();
+        }
+    }
+
+    private static Future<Response> send(HttpMethod method, String uri, Buffer body) {
+        return send(method, uri, body, token);
+    }
+
+    private static Future<Response> send(HttpMethod method, String uri, Buffer body, String bearer) {
+        return client.request(method, uri)
+                .compose(request -> {
+                    if (bearer != null) {
+                        request.putHeader("authorization", "Bearer " + bearer);
+                    }
+                    if (body == null) {
+                        return request.send();
+                    }
+                    return request.putHeader("content-type", "application/json").send(body);
+                })
+                .compose(response -> response.body().map(b -> new Response(response, response.statusCode(), b)));
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
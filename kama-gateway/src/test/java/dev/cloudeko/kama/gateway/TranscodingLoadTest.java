@@ -0,0 +1,104 @@
+package dev.cloudeko.kama.gateway;
+
+import dev.cloudeko.kama.collection.v1.GetCollectionRequest;
+import dev.cloudeko.kama.common.LoadHarness.Load;
+import dev.cloudeko.kama.common.LoadHarness.Outcome;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static dev.cloudeko.kama.common.LoadHarness.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads the same collection with GetCollection over gRPC straight from the server and as {@code GET /v1/collections/*}
+ * through the gateway, to measure what transcoding adds on top of the call itself. Only runs with the
+ * {@code benchmark} profile.
+ */
+@Tag("benchmark")
+class TranscodingLoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(TranscodingLoadTest.class);
+
+    private static final int CONNECTIONS = 8;
+    private static final int CONCURRENCY = 64;
+    private static final long WARMUP_MS = 1_000;
+    private static final long DURATION_MS = 3_000;
+
+    @Test
+    void testTranscodingOverhead() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int serverPort = freePort();
+            int gatewayPort = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", gatewayPort)
+                    .put("upstream", new JsonObject().put("mode", "local").put("maxConnections", CONNECTIONS))
+                    // Only the transcoding is measured, every call goes to the server
+                    .put("auth", new JsonObject().put("enabled", false))
+                    .put("rateLimit", new JsonObject().put("enabled", false))
+                    .put("cache", new JsonObject().put("enabled", false))
+                    .put("server", new JsonObject()
+                            .put("host", "127.0.0.1")
+                            .put("port", serverPort)
+                            .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_TRANSCODING;DB_CLOSE_DELAY=-1;"))
+                            .put("hashing", new JsonObject().put("cost", 4)));
+            GatewayVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            HttpClient rest = vertx.createHttpClient(new HttpClientOptions()
+                            .setDefaultHost("127.0.0.1")
+                            .setDefaultPort(gatewayPort),
+                    new PoolOptions().setHttp1MaxSize(CONCURRENCY));
+            JsonObject collection = new JsonObject()
+                    .put("displayName", "Transcoding Collection")
+                    .put("fields", new JsonObject()
+                            .put("title", new JsonObject().put("required", true).put("stringType", ""))
+                            .put("price", new JsonObject().put("doubleType", 0))
+                            .put("stock", new JsonObject().put("integerType", 0)));
+            String name = rest.request(HttpMethod.POST, "/v1/collections")
+                    .compose(request -> request.putHeader("content-type", "application/json").send(collection.toBuffer()))
+                    .compose(HttpClientResponse::body)
+                    .await(5, TimeUnit.SECONDS)
+                    .toJsonObject()
+                    .getString("name");
+
+            HttpClient server = grpcClient(vertx, serverPort, CONNECTIONS);
+            Buffer get = frame(GetCollectionRequest.newBuilder().setName(name).build().toByteArray());
+
+            Supplier<Future<Outcome>> direct = () -> grpc(server, "/cloudeko.kama.collection.v1.CollectionService/GetCollection", get);
+            Supplier<Future<Outcome>> transcoded = () -> rest.request(HttpMethod.GET, "/v1/" + name)
+                    .compose(HttpClientRequest::send)
+                    .compose(response -> response.body().map(b -> response.statusCode() == 200 ? Outcome.OK : Outcome.FAILED));
+
+            Load directLoad = measure(direct);
+            Load transcodedLoad = measure(transcoded);
+
+            LOGGER.infov("gRPC GetCollection: {0} calls/s, p50 {1,number,#.##} ms, p99 {2,number,#.##} ms",
+                    directLoad.throughput(), directLoad.percentile(0.5), directLoad.percentile(0.99));
+            LOGGER.infov("REST GET through the gateway: {0} calls/s, p50 {1,number,#.##} ms, p99 {2,number,#.##} ms",
+                    transcodedLoad.throughput(), transcodedLoad.percentile(0.5), transcodedLoad.percentile(0.99));
+
+            assertEquals(0, directLoad.failed.get() + transcodedLoad.failed.get() + directLoad.rejected.get() + transcodedLoad.rejected.get());
+            assertTrue(transcodedLoad.throughput() > 0);
+            // Every transcoded call makes the same gRPC call to the server, on top of parsing and writing JSON
+            assertTrue(directLoad.throughput() > transcodedLoad.throughput(),
+                    "Direct " + directLoad.throughput() + " calls/s vs transcoded " + transcodedLoad.throughput() + " calls/s");
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static Load measure(Supplier<Future<Outcome>> call) throws InterruptedException {
+        run(CONCURRENCY, WARMUP_MS, call);
+        return run(CONCURRENCY, DURATION_MS, call);
+    }
+}
@@ -0,0 +1,93 @@
+package dev.cloudeko.kama.gateway.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    private static final String ROOT = "/v1/collections";
+
+    @Test
+    void testRoots() {
+        assertEquals("/v1/collections", ResponseCache.root("/v1/collections"));
+        assertEquals("/v1/collections", ResponseCache.root("/v1/collections/abc/records/r1"));
+        assertEquals("/v1/users", ResponseCache.root("/v1/users:batchGet"));
+        assertEquals("/v1/users", ResponseCache.root("/v1/users/u1:changePassword"));
+    }
+
+    @Test
+    void testEntriesAreScopedAndExpire() {
+        ResponseCache cache = new ResponseCache(new JsonObject().put("maxAgeMs", 1_000), new SimpleMeterRegistry());
+        String key = ResponseCache.key("user-1.3", "/v1/collections/abc");
+        ResponseCache.Entry stored = cache.put(key, ROOT, Buffer.buffer("{}"), cache.generation(ROOT), 0);
+
+        assertSame(stored, cache.get(key, ROOT, 999));
+        assertNull(cache.get(ResponseCache.key("user-2.1", "/v1/collections/abc"), ROOT, 999));
+        assertNull(cache.get(key, ROOT, 1_000));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testChangesInvalidateTheirRoot() {
+        ResponseCache cache = new ResponseCache(new JsonObject(), new SimpleMeterRegistry());
+        String key = ResponseCache.key("", "/v1/collections/abc");
+        String user = ResponseCache.key("", "/v1/users/u1");
+        cache.put(key, ROOT, Buffer.buffer("{}"), cache.generation(ROOT), 0);
+        cache.put(user, "/v1/users", Buffer.buffer("{}"), cache.generation("/v1/users"), 0);
+
+        long before = cache.generation(ROOT);
+        cache.invalidate(ROOT);
+        assertNull(cache.get(key, ROOT, 0));
+        assertNotNull(cache.get(user, "/v1/users", 0));
+
+        // A read that started before the change is not cached
+        cache.put(key, ROOT, Buffer.buffer("{}"), before, 0);
+        assertNull(cache.get(key, ROOT, 0));
+    }
+
+    @Test
+    void testRevokedSubjectLosesItsResponses() {
+        ResponseCache cache = new ResponseCache(new JsonObject(), new SimpleMeterRegistry());
+        String revoked = ResponseCache.key(ResponseCache.scope("user-1", 3), "/v1/collections/abc");
+        String older = ResponseCache.key(ResponseCache.scope("user-1", 2), "/v1/collections/abc");
+        String other = ResponseCache.key(ResponseCache.scope("user-10", 3), "/v1/collections/abc");
+        for (String key : new String[]{revoked, older, other}) {
+            cache.put(key, ROOT, Buffer.buffer("{}"), cache.generation(ROOT), 0);
+        }
+
+        cache.invalidateSubject("user-1");
+
+        assertNull(cache.get(revoked, ROOT, 0));
+        assertNull(cache.get(older, ROOT, 0));
+        assertNotNull(cache.get(other, ROOT, 0));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(new JsonObject().put("maxEntries", 2), new SimpleMeterRegistry());
+        cache.put("a", ROOT, Buffer.buffer("a"), 0, 0);
+        cache.put("b", ROOT, Buffer.buffer("b"), 0, 0);
+        assertNotNull(cache.get("a", ROOT, 0));
+        cache.put("c", ROOT, Buffer.buffer("c"), 0, 0);
+
+        assertNotNull(cache.get("a", ROOT, 0));
+        assertNull(cache.get("b", ROOT, 0));
+        assertNotNull(cache.get("c", ROOT, 0));
+    }
+
+    @Test
+    void testTagsFollowTheBody() {
+        ResponseCache cache = new ResponseCache(new JsonObject(), new SimpleMeterRegistry());
+        ResponseCache.Entry first = cache.put("a", ROOT, Buffer.buffer("{\"v\":1}"), 0, 0);
+        ResponseCache.Entry same = cache.put("b", ROOT, Buffer.buffer("{\"v\":1}"), 0, 0);
+        ResponseCache.Entry changed = cache.put("c", ROOT, Buffer.buffer("{\"v\":2}"), 0, 0);
+
+        assertEquals(first.etag(), same.etag());
+        assertNotEquals(first.etag(), changed.etag());
+        assertTrue(first.etag().startsWith("\"") && first.etag().endsWith("\""));
+    }
+}
@@ -0,0 +1,103 @@
+package dev.cloudeko.kama.gateway.json;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Message;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.TypeRegistry;
+import com.google.protobuf.Value;
+import com.google.protobuf.util.JsonFormat;
+import dev.cloudeko.kama.collection.v1.ArrayType;
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.CollectionField;
+import dev.cloudeko.kama.collection.v1.Rule;
+import dev.cloudeko.kama.record.v1.Record;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProtoJsonTest {
+
+    private static final ProtoJsonWriter WRITER = new ProtoJsonWriter(TypeRegistry.getEmptyTypeRegistry());
+    private static final ProtoJsonReader READER = new ProtoJsonReader();
+
+    private static final Collection COLLECTION = Collection.newBuilder()
+            .setId("8d1b9b6a-2f5f-4d1f-8c2c-b5a9ad5e2f5e")
+            .setName("collections/products")
+            .setDisplayName("Products \"and\" ünïcode")
+            .setVersion(Long.MAX_VALUE)
+            .putFields("title", CollectionField.newBuilder().setRequired(true).setStringType("").build())
+            .putFields("count", CollectionField.newBuilder().setIntegerType(-42).build())
+            .putFields("price", CollectionField.newBuilder().setDoubleType(0.1).build())
+            .putFields("blob", CollectionField.newBuilder().setBytesType(ByteString.copyFrom(new byte[]{0, -1, 42})).build())
+            .putFields("at", CollectionField.newBuilder().setTimestampType(Timestamp.newBuilder().setSeconds(1_700_000_000).setNanos(120_000_000)).build())
+            .putFields("tags", CollectionField.newBuilder().setArrayType(ArrayType.newBuilder()
+                    .addValues(CollectionField.newBuilder().setBoolType(false))).build())
+            .addRules(Rule.newBuilder().setExpression("auth.id != ''").setType(Rule.RuleType.Type.TYPE_DENY))
+            .build();
+
+    private static final Record RECORD = Record.newBuilder()
+            .setName("collections/products/records/1")
+            .setCollection("collections/products")
+            .setValues(Struct.newBuilder()
+                    .putFields("title", Value.newBuilder().setStringValue("Lamp").build())
+                    .putFields("price", Value.newBuilder().setNumberValue(19.5).build())
+                    .putFields("stock", Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+                    .putFields("colors", Value.newBuilder().setListValue(ListValue.newBuilder()
+                            .addValues(Value.newBuilder().setStringValue("red"))
+                            .addValues(Value.newBuilder().setBoolValue(true))).build()))
+            .setCreateTime(Timestamp.newBuilder().setSeconds(0).setNanos(1))
+            .build();
+
+    @Test
+    void testWritesLikeJsonFormat() throws Exception {
+        for (Message message : new Message[]{COLLECTION, RECORD, Collection.getDefaultInstance()}) {
+            JsonObject expected = new JsonObject(JsonFormat.printer().print(message));
+            assertEquals(expected, new JsonObject(WRITER.write(message)), message.getDescriptorForType().getFullName());
+            // Dynamic messages, as decoded from upstream responses, are written the same way
+            DynamicMessage dynamic = DynamicMessage.parseFrom(message.getDescriptorForType(), message.toByteString());
+            assertEquals(expected, new JsonObject(WRITER.write(dynamic)));
+        }
+    }
+
+    @Test
+    void testReadsWhatJsonFormatWrites() throws Exception {
+        for (Message message : new Message[]{COLLECTION, RECORD}) {
+            Message.Builder builder = DynamicMessage.newBuilder(message.getDescriptorForType());
+            READER.merge(Buffer.buffer(JsonFormat.printer().print(message)), builder);
+            assertEquals(message, message.getParserForType().parseFrom(builder.build().toByteString()));
+
+            // Proto field names are accepted as well
+            Message.Builder generated = message.newBuilderForType();
+            READER.merge(Buffer.buffer(JsonFormat.printer().preservingProtoFieldNames().print(message)), generated);
+            assertEquals(message, generated.build());
+        }
+    }
+
+    @Test
+    void testReadsLenientScalars() throws Exception {
+        Collection.Builder builder = Collection.newBuilder();
+        READER.merge(Buffer.buffer("""
+                {"version": 7, "displayName": null, "rules": [{"type": 2}],
+                 "fields": {"n": {"integerType": "1e3", "doubleType": null}}}"""), builder);
+        assertEquals(7, builder.getVersion());
+        assertEquals(Rule.RuleType.Type.TYPE_DENY, builder.getRules(0).getType());
+        assertEquals(1000, builder.getFieldsOrThrow("n").getIntegerType());
+    }
+
+    @Test
+    void testRejectsMalformedInput() {
+        assertThrows(IllegalArgumentException.class, () -> READER.merge(Buffer.buffer("{\"unknown\": 1}"), Collection.newBuilder()));
+        assertThrows(IllegalArgumentException.class, () -> READER.merge(Buffer.buffer("{\"version\": \"x\"}"), Collection.newBuilder()));
+        assertThrows(IllegalArgumentException.class, () -> READER.merge(Buffer.buffer("{\"version\": 1.5}"), Collection.newBuilder()));
+        assertThrows(IllegalArgumentException.class, () -> READER.merge(Buffer.buffer("{\"rules\": [{\"type\": \"TYPE_NOPE\"}]}"), Collection.newBuilder()));
+        assertThrows(IllegalArgumentException.class, () -> READER.merge(Buffer.buffer("[]"), Collection.newBuilder()));
+        assertThrows(IllegalArgumentException.class, () -> READER.merge(Buffer.buffer("{} {}"), Collection.newBuilder()));
+        assertThrows(Exception.class, () -> READER.merge(Buffer.buffer("{\"name\": "), Collection.newBuilder()));
+    }
+}
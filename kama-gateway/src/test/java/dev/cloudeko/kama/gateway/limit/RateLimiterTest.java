@@ -0,0 +1,55 @@
+package dev.cloudeko.kama.gateway.limit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    @Test
+    void testBurstThenRefill() {
+        RateLimiter limiter = new RateLimiter(new JsonObject().put("ratePerSecond", 10.0).put("burst", 5), new SimpleMeterRegistry());
+        long now = 0;
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.acquire("a", now));
+        }
+        long wait = limiter.acquire("a", now);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), wait);
+
+        // One token every 100 ms, never more than the burst
+        assertEquals(0, limiter.acquire("a", now + wait));
+        assertTrue(limiter.acquire("a", now + wait) > 0);
+        now += TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.acquire("a", now));
+        }
+        assertTrue(limiter.acquire("a", now) > 0);
+    }
+
+    @Test
+    void testClientsHaveTheirOwnBuckets() {
+        RateLimiter limiter = new RateLimiter(new JsonObject().put("ratePerSecond", 1.0).put("burst", 1), new SimpleMeterRegistry());
+
+        assertEquals(0, limiter.acquire("a", 0));
+        assertTrue(limiter.acquire("a", 0) > 0);
+        assertEquals(0, limiter.acquire("b", 0));
+    }
+
+    @Test
+    void testForgetsLeastRecentlySeenClients() {
+        RateLimiter limiter = new RateLimiter(new JsonObject().put("ratePerSecond", 1.0).put("burst", 1).put("stripes", 1).put("maxClients", 2),
+                new SimpleMeterRegistry());
+
+        assertEquals(0, limiter.acquire("a", 0));
+        assertEquals(0, limiter.acquire("b", 0));
+        assertEquals(0, limiter.acquire("c", 0));
+        // Evicted to make room for c, a starts over with a full bucket while c is still empty
+        assertEquals(0, limiter.acquire("a", 0));
+        assertTrue(limiter.acquire("c", 0) > 0);
+    }
+}
@@ -0,0 +1,78 @@
+package dev.cloudeko.kama.gateway.route;
+
+import dev.cloudeko.kama.collection.v1.CollectionServerProto;
+import dev.cloudeko.kama.identity.v1.IdentityServerProto;
+import dev.cloudeko.kama.record.v1.RecordServerProto;
+import io.vertx.core.http.HttpMethod;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteTableTest {
+
+    private static final RouteTable ROUTES = RouteTable.of(List.of(
+            CollectionServerProto.getDescriptor().findServiceByName("CollectionService"),
+            RecordServerProto.getDescriptor().findServiceByName("RecordService"),
+            IdentityServerProto.getDescriptor().findServiceByName("IdentityServer")));
+
+    @Test
+    void testParsesTemplates() {
+        PathTemplate template = PathTemplate.parse("/v1/{name=collections/*/records/*}:archive");
+        assertEquals(List.of("v1", "collections", "*", "records", "*"), template.segments());
+        assertEquals(List.of(new PathTemplate.Variable("name", 1, 5)), template.variables());
+        assertEquals("archive", template.verb());
+
+        PathTemplate rest = PathTemplate.parse("/v1/{parent}/files/{path=**}");
+        assertEquals(List.of(new PathTemplate.Variable("parent", 1, 2), new PathTemplate.Variable("path", 3, -1)), rest.variables());
+        assertNull(rest.verb());
+
+        assertThrows(IllegalArgumentException.class, () -> PathTemplate.parse("v1/collections"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplate.parse("/v1/**/collections"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplate.parse("/v1/{name=collections/*"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplate.parse("/v1/x{name}"));
+    }
+
+    @Test
+    void testMatchesRoutes() {
+        RouteTable.Match get = ROUTES.match(HttpMethod.GET, "/v1/collections/abc");
+        assertEquals("GetCollection", get.route().method().getName());
+        assertEquals("collections/abc", get.variable(0));
+
+        assertEquals("ListCollections", ROUTES.match(HttpMethod.GET, "/v1/collections").route().method().getName());
+        assertEquals("DeleteCollection", ROUTES.match(HttpMethod.DELETE, "/v1/collections/abc").route().method().getName());
+
+        RouteTable.Match record = ROUTES.match(HttpMethod.GET, "/v1/collections/abc/records/r%201");
+        assertEquals("GetRecord", record.route().method().getName());
+        assertEquals("collections/abc/records/r 1", record.variable(0));
+        assertEquals("ListRecords", ROUTES.match(HttpMethod.GET, "/v1/collections/abc/records").route().method().getName());
+    }
+
+    @Test
+    void testMatchesVerbs() {
+        // A literal segment wins over a variable, users:batchGet is not the user named batchGet
+        assertEquals("BatchGetUsers", ROUTES.match(HttpMethod.GET, "/v1/users:batchGet").route().method().getName());
+        assertEquals("AuthenticateUser", ROUTES.match(HttpMethod.POST, "/v1/users:authenticate").route().method().getName());
+
+        RouteTable.Match change = ROUTES.match(HttpMethod.POST, "/v1/users/u1:changePassword");
+        assertEquals("ChangePassword", change.route().method().getName());
+        assertEquals("users/u1", change.variable(0));
+        assertEquals("GetUser", ROUTES.match(HttpMethod.GET, "/v1/users/u1").route().method().getName());
+    }
+
+    @Test
+    void testRejectsUnknownPaths() {
+        assertNull(ROUTES.match(HttpMethod.GET, "/v1/unknown"));
+        assertNull(ROUTES.match(HttpMethod.PUT, "/v1/collections/abc"));
+        assertNull(ROUTES.match(HttpMethod.GET, "/v1/collections/"));
+        assertNull(ROUTES.match(HttpMethod.GET, "/v1/collections/a/b"));
+        assertNull(ROUTES.match(HttpMethod.POST, "/v1/users/u1:unknownVerb"));
+        assertNull(ROUTES.match(HttpMethod.GET, "/v1/collections/%zz"));
+    }
+
+    @Test
+    void testSkipsStreamingMethods() {
+        assertTrue(ROUTES.routes().stream().noneMatch(route -> route.method().getName().equals("ImportUsers")));
+    }
+}
@@ -1,8 +1,16 @@
 package dev.cloudeko.kama.identity;
 
+import dev.cloudeko.kama.common.BlockingMode;
 import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.LocalServices;
 import dev.cloudeko.kama.common.MigrationVerticle;
+import dev.cloudeko.kama.identity.hash.HashCalibration;
+import dev.cloudeko.kama.identity.hash.PasswordHasher;
+import dev.cloudeko.kama.identity.impl.UserServiceImpl;
+import dev.cloudeko.kama.identity.token.TokenCache;
+import io.micrometer.core.instrument.Metrics;
 import io.vertx.core.Future;
+import io.vertx.core.ThreadingModel;
 import io.vertx.core.VerticleBase;
 import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.json.JsonObject;
@@ -13,7 +21,8 @@ public class IdentityVerticle extends VerticleBase {
 
     private static final Logger LOGGER = Logger.getLogger(IdentityVerticle.class);
 
-    private UserService userService;
+    private PasswordHasher hasher;
+    private UserServiceImpl userService;
     private MessageConsumer<JsonObject> userServiceBinder;
 
     @Override
@@ -22,14 +31,29 @@ public class IdentityVerticle extends VerticleBase {
 
         DatabaseOptions databaseOptions = new DatabaseOptions(config().getJsonObject("database"));
 
-        // Run database migrations first
-        return deployMigrations(databaseOptions)
-            .compose(v -> {
+        JsonObject hashing = config().getJsonObject("hashing", new JsonObject());
+
+        // Run database migrations first unless the deployer already did, calibrating the hash cost blocks for a few hashes
+        Future<Void> migrated = config().getBoolean("migrate", true) ? deployMigrations(databaseOptions) : Future.succeededFuture();
+        return migrated
+            .compose(v -> vertx.executeBlocking(() -> HashCalibration.calibrate(hashing)))
+            .compose(algorithm -> {
                 // Create and register services
-                userService = UserService.create(vertx, databaseOptions);
+                hasher = new PasswordHasher(vertx, algorithm, databaseOptions.getBlockingMode(),
+                    hashing.getInteger("poolSize", PasswordHasher.DEFAULT_POOL_SIZE),
+                    hashing.getInteger("queueLimit", PasswordHasher.DEFAULT_QUEUE_LIMIT),
+                    Metrics.globalRegistry);
+
+                userService = new UserServiceImpl(vertx, databaseOptions, hasher,
+                    new TokenCache(TokenCache.DEFAULT_MAXIMUM_SIZE, Metrics.globalRegistry), config());
+                // A service that cannot sign tokens must not take calls
+                return userService.ready();
+            })
+            .compose(v -> {
                 userServiceBinder = new ServiceBinder(vertx)
                     .setAddress("dev.cloudeko.kama.identity.UserService")
                     .register(UserService.class, userService);
+                LocalServices.register(vertx, "dev.cloudeko.kama.identity.UserService", UserService.class, userService);
 
                 LOGGER.info("Identity Verticle started successfully");
                 return Future.succeededFuture();
@@ -39,13 +63,21 @@ public class IdentityVerticle extends VerticleBase {
     @Override
     public Future<?> stop() {
         LOGGER.info("Stopping Identity Verticle");
-        
+        LocalServices.unregister(vertx, "dev.cloudeko.kama.identity.UserService");
+
         if (userServiceBinder != null) {
+            // Stop taking calls first, then write the session changes still held in memory
             return userServiceBinder.unregister()
+                .compose(v -> userService.close())
+                .compose(v -> hasher.close())
                 .onSuccess(v -> LOGGER.info("Identity Verticle stopped successfully"))
                 .onFailure(err -> LOGGER.error("Failed to stop Identity Verticle", err));
         }
-        
+        if (hasher != null) {
+            // Started but never registered, the signing keys did not load
+            return hasher.close();
+        }
+
         return Future.succeededFuture();
     }
 
@@ -56,8 +88,12 @@ public class IdentityVerticle extends VerticleBase {
             .put("database", JsonObject.mapFrom(databaseOptions))
             .put("migrationsLocation", "db/migration");
             
+        // Flyway blocks, it must not run on an event loop
+        ThreadingModel threadingModel = databaseOptions.getBlockingMode() == BlockingMode.VIRTUAL
+            ? ThreadingModel.VIRTUAL_THREAD
+            : ThreadingModel.WORKER;
         return vertx.deployVerticle(new MigrationVerticle(), 
-            new io.vertx.core.DeploymentOptions().setConfig(migrationConfig))
+            new io.vertx.core.DeploymentOptions().setConfig(migrationConfig).setThreadingModel(threadingModel))
             .compose(deploymentId -> {
                 LOGGER.info("Identity migrations completed");
                 return Future.succeededFuture();
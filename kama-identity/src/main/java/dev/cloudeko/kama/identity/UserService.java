@@ -4,6 +4,7 @@ import io.vertx.codegen.annotations.ProxyGen;
 import io.vertx.codegen.annotations.VertxGen;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import dev.cloudeko.kama.common.DatabaseOptions;
 import dev.cloudeko.kama.identity.impl.UserServiceImpl;
@@ -24,17 +25,39 @@ public interface UserService {
 
     Future<JsonObject> createUser(String email, String password, String displayName);
 
-    Future<JsonObject> authenticateUser(String email, String password);
+    /**
+     * Creates a batch of users, each entry holding {@code email}, {@code display_name} and either a plain
+     * {@code password} or a bcrypt {@code password_hash}. Returns {@code {"results": [...]}} in the order of
+     * {@code users}, each result either {@code {"id": ...}} or {@code {"error": {"code": ..., "message": ...}}} with a
+     * gRPC status code name, a failing entry does not affect the others.
+     */
+    Future<JsonObject> importUsers(JsonArray users);
+
+    /**
+     * Verifies the credentials of a user. Fails with {@code ResourceExhausted} while the email or the client address is
+     * throttled after too many attempts, {@code clientAddress} may be {@code null} when unknown.
+     */
+    Future<JsonObject> authenticateUser(String email, String password, String clientAddress);
 
     Future<JsonObject> getUserById(String userId);
 
+    /**
+     * Looks up several users at once and returns {@code {"users": [...]}} in the order of {@code userIds}, with
+     * {@code null} in place of users that do not exist. Profiles may be served from a cache for a few seconds.
+     */
+    Future<JsonObject> batchGetUsers(List<String> userIds);
+
     Future<JsonObject> getUserByEmail(String email);
 
     Future<JsonObject> updateUser(String userId, JsonObject updates);
 
     Future<Void> deleteUser(String userId);
 
-    Future<List<JsonObject>> listUsers(int limit, int offset);
+    /**
+     * Returns one page of users, newest first, as {@code {"users": [...], "next_page_token": ...}}. The filter and
+     * token syntax are described in {@code UserListQuery}.
+     */
+    Future<JsonObject> listUsers(int pageSize, String pageToken, String filter);
 
     Future<JsonObject> resetPassword(String email);
 
@@ -42,5 +65,28 @@ public interface UserService {
 
     Future<JsonObject> generateJwtToken(String userId);
 
+    /**
+     * Starts a login session and returns an access token bound to it together with its refresh token.
+     */
+    Future<JsonObject> createSession(String userId);
+
+    /**
+     * Exchanges a refresh token for a new access token and a new refresh token, the presented one is used up.
+     */
+    Future<JsonObject> refreshJwtToken(String refreshToken);
+
     Future<JsonObject> validateJwtToken(String token);
+
+    Future<Void> revokeTokens(String userId);
+
+    /**
+     * Returns the public token signing keys as a JWKS document, {@code {"keys": [...]}}.
+     */
+    Future<JsonObject> getJwks();
+
+    Future<JsonObject> getUserRoles(String userId);
+
+    Future<JsonObject> assignRole(String userId, String role);
+
+    Future<JsonObject> revokeRole(String userId, String role);
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package dev.cloudeko.kama.identity.hash;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Argon2id using the pure-Java implementation of Bouncy Castle. Hashes are encoded in the PHC string format,
+ * {@code $argon2id$v=19$m=<memory>,t=<iterations>,p=<parallelism>$<salt>$<hash>}.
+ */
+public class Argon2idAlgorithm implements PasswordAlgorithm {
+
+    public static final String ID = "argon2id";
+
+    public static final int DEFAULT_MEMORY_KIB = 19 * 1024;
+    public static final int MIN_ITERATIONS = 2;
+    public static final int MAX_ITERATIONS = 64;
+
+    private static final String PREFIX = "$argon2id$";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final int memoryKib;
+    private final int iterations;
+    private final int parallelism;
+
+    public Argon2idAlgorithm(int memoryKib, int iterations, int parallelism) {
+        if (memoryKib < 8 * parallelism || iterations < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("Invalid argon2id parameters: m=" + memoryKib + ", t=" + iterations + ", p=" + parallelism);
+        }
+        this.memoryKib = memoryKib;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    public int memoryKib() {
+        return memoryKib;
+    }
+
+    public int iterations() {
+        return iterations;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public String id() {
+        return ID;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(password, salt, memoryKib, iterations, parallelism, HASH_LENGTH);
+        return PREFIX + "v=19$m=" + memoryKib + ",t=" + iterations + ",p=" + parallelism
+                + "$" + ENCODER.encodeToString(salt) + "$" + ENCODER.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(String password, String encoded) {
+        Encoded parsed = parse(encoded);
+        byte[] actual = derive(password, parsed.salt(), parsed.memoryKib(), parsed.iterations(), parsed.parallelism(), parsed.hash().length);
+        return MessageDigest.isEqual(actual, parsed.hash());
+    }
+
+    @Override
+    public boolean supports(String encoded) {
+        return encoded.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean needsRehash(String encoded) {
+        Encoded parsed = parse(encoded);
+        return parsed.memoryKib() < memoryKib || parsed.iterations() < iterations || parsed.parallelism() != parallelism;
+    }
+
+    @Override
+    public String toString() {
+        return ID + "(m=" + memoryKib + ", t=" + iterations + ", p=" + parallelism + ")";
+    }
+
+    private static byte[] derive(String password, byte[] salt, int memoryKib, int iterations, int parallelism, int length) {
+        Argon2Parameters parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withMemoryAsKB(memoryKib)
+                .withIterations(iterations)
+                .withParallelism(parallelism)
+                .withSalt(salt)
+                .build();
+
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(parameters);
+
+        byte[] out = new byte[length];
+        generator.generateBytes(password.getBytes(StandardCharsets.UTF_8), out);
+        return out;
+    }
+
+    private record Encoded(int memoryKib, int iterations, int parallelism, byte[] salt, byte[] hash) {
+    }
+
+    private static Encoded parse(String encoded) {
+        // ["", "argon2id", "v=19", "m=..,t=..,p=..", salt, hash]
+        String[] parts = encoded.split("\\$");
+        if (parts.length != 6 || !ID.equals(parts[1]) || !"v=19".equals(parts[2])) {
+            throw new IllegalArgumentException("Invalid argon2id hash");
+        }
+
+        int memory = 0, iterations = 0, parallelism = 0;
+        for (String parameter : parts[3].split(",")) {
+            int value = Integer.parseInt(parameter.substring(2));
+            switch (parameter.substring(0, 2)) {
+                case "m=" -> memory = value;
+                case "t=" -> iterations = value;
+                case "p=" -> parallelism = value;
+                default -> throw new IllegalArgumentException("Invalid argon2id hash");
+            }
+        }
+        return new Encoded(memory, iterations, parallelism, DECODER.decode(parts[4]), DECODER.decode(parts[5]));
+    }
+}
@@ -0,0 +1,59 @@
+package dev.cloudeko.kama.identity.hash;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+public class BCryptAlgorithm implements PasswordAlgorithm {
+
+    public static final String ID = "bcrypt";
+
+    /**
+     * The lowest cost calibration picks unless the hashing config sets {@code minCost}.
+     */
+    public static final int MIN_COST = 10;
+    public static final int MAX_COST = 31;
+
+    private final int cost;
+
+    public BCryptAlgorithm(int cost) {
+        if (cost < 4 || cost > MAX_COST) {
+            throw new IllegalArgumentException("Invalid bcrypt cost: " + cost);
+        }
+        this.cost = cost;
+    }
+
+    public int cost() {
+        return cost;
+    }
+
+    @Override
+    public String id() {
+        return ID;
+    }
+
+    @Override
+    public String hash(String password) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(cost));
+    }
+
+    @Override
+    public boolean verify(String password, String encoded) {
+        // jBCrypt only reads $2a$, the other revisions differ in bugs of other implementations, not in the hash
+        return BCrypt.checkpw(password, encoded.startsWith("$2a$") ? encoded : "$2a$" + encoded.substring(4));
+    }
+
+    @Override
+    public boolean supports(String encoded) {
+        return encoded.startsWith("$2a$") || encoded.startsWith("$2b$") || encoded.startsWith("$2y$");
+    }
+
+    @Override
+    public boolean needsRehash(String encoded) {
+        // $2a$10$...
+        return Integer.parseInt(encoded.substring(4, 6)) < cost;
+    }
+
+    @Override
+    public String toString() {
+        return ID + "(cost=" + cost + ")";
+    }
+}
@@ -0,0 +1,84 @@
+package dev.cloudeko.kama.identity.hash;
+
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.util.function.IntFunction;
+
+/**
+ * Picks the strongest work factor whose hashing time fits a latency budget on the current hardware.
+ * <p>
+ * Calibration hashes a sample password with increasing work factors and stops before the first one that exceeds the
+ * budget. It blocks for up to a few budgets and must run on a worker thread. The minimum, {@code minCost} or
+ * {@code minIterations} in the config, is used even when it is slower than the budget, security never drops below it.
+ */
+public final class HashCalibration {
+
+    private static final Logger LOGGER = Logger.getLogger(HashCalibration.class);
+
+    public static final long DEFAULT_BUDGET_MS = 100;
+
+    private static final String SAMPLE = "calibration-sample-password";
+    private static final int SAMPLES = 2;
+
+    private HashCalibration() {
+    }
+
+    /**
+     * Calibrates the algorithm named by {@code algorithm} in the hashing config, either {@code bcrypt} (default) or
+     * {@code argon2id}. A fixed {@code cost} or {@code iterations} in the config skips calibration.
+     */
+    public static PasswordAlgorithm calibrate(JsonObject config) {
+        String algorithm = config.getString("algorithm", BCryptAlgorithm.ID);
+        long budgetMs = config.getLong("budgetMs", DEFAULT_BUDGET_MS);
+
+        PasswordAlgorithm calibrated;
+        if (Argon2idAlgorithm.ID.equals(algorithm)) {
+            int memoryKib = config.getInteger("memoryKib", Argon2idAlgorithm.DEFAULT_MEMORY_KIB);
+            int parallelism = config.getInteger("parallelism", 1);
+            calibrated = config.containsKey("iterations")
+                    ? new Argon2idAlgorithm(memoryKib, config.getInteger("iterations"), parallelism)
+                    : calibrate(t -> new Argon2idAlgorithm(memoryKib, t, parallelism),
+                    config.getInteger("minIterations", Argon2idAlgorithm.MIN_ITERATIONS), Argon2idAlgorithm.MAX_ITERATIONS, budgetMs);
+        } else if (BCryptAlgorithm.ID.equals(algorithm)) {
+            calibrated = config.containsKey("cost")
+                    ? new BCryptAlgorithm(config.getInteger("cost"))
+                    : calibrate(BCryptAlgorithm::new, config.getInteger("minCost", BCryptAlgorithm.MIN_COST), BCryptAlgorithm.MAX_COST, budgetMs);
+        } else {
+            throw new IllegalArgumentException("Unknown password hashing algorithm: " + algorithm);
+        }
+
+        LOGGER.infov("Using password hashing {0} for a budget of {1} ms", calibrated, budgetMs);
+        return calibrated;
+    }
+
+    static <T extends PasswordAlgorithm> T calibrate(IntFunction<T> factory, int min, int max, long budgetMs) {
+        T selected = factory.apply(min);
+        long elapsed = measure(selected);
+        if (elapsed > budgetMs) {
+            LOGGER.warnv("Minimum password hashing work factor {0} takes {1} ms, above the budget of {2} ms", selected, elapsed, budgetMs);
+            return selected;
+        }
+
+        for (int factor = min + 1; factor <= max; factor++) {
+            T candidate = factory.apply(factor);
+            elapsed = measure(candidate);
+            LOGGER.debugv("Password hashing {0} takes {1} ms", candidate, elapsed);
+            if (elapsed > budgetMs) {
+                break;
+            }
+            selected = candidate;
+        }
+        return selected;
+    }
+
+    private static long measure(PasswordAlgorithm algorithm) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            algorithm.hash(SAMPLE);
+            best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+        }
+        return best;
+    }
+}
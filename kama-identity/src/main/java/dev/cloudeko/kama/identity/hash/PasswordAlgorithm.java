@@ -0,0 +1,29 @@
+package dev.cloudeko.kama.identity.hash;
+
+/**
+ * A password hashing algorithm with a fixed work factor.
+ * <p>
+ * Implementations are blocking and must only be called from {@link PasswordHasher}, which runs them on a worker pool.
+ * Encoded hashes carry their own parameters, so any instance can verify hashes produced with a different work factor.
+ */
+public interface PasswordAlgorithm {
+
+    /**
+     * Returns the identifier of the algorithm, e.g. {@code bcrypt}.
+     */
+    String id();
+
+    String hash(String password);
+
+    boolean verify(String password, String encoded);
+
+    /**
+     * Whether {@code encoded} was produced by this algorithm, regardless of its work factor.
+     */
+    boolean supports(String encoded);
+
+    /**
+     * Whether {@code encoded} was produced with a weaker work factor than this instance uses.
+     */
+    boolean needsRehash(String encoded);
+}
@@ -0,0 +1,185 @@
+package dev.cloudeko.kama.identity.hash;
+
+import dev.cloudeko.kama.common.BlockingExecutor;
+import dev.cloudeko.kama.common.BlockingMode;
+import dev.cloudeko.kama.common.Deadline;
+import dev.cloudeko.kama.common.exception.ResourceExhausted;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs password hashing on a dedicated, bounded worker pool, or on at most as many virtual threads with
+ * {@link BlockingMode#VIRTUAL}.
+ * <p>
+ * A single hash takes tens of milliseconds and must never run on an event loop. Calls beyond the pool size wait in a
+ * queue of limited depth, anything past that fails immediately with {@link ResourceExhausted}, so a login burst turns
+ * into fast rejections instead of unbounded latency for every caller. Calls whose deadline passed while they were queued
+ * are dropped without hashing.
+ * <p>
+ * New hashes always use the configured {@link PasswordAlgorithm}, while stored hashes of any known algorithm can still
+ * be verified.
+ * <p>
+ * Every call is recorded as a span of the current trace, covering its time in the queue and the hash itself, through
+ * the global OpenTelemetry instance, which records nothing unless tracing was installed before the hasher is created.
+ */
+public class PasswordHasher {
+
+    public static final String POOL_NAME = "kama-password-hashing";
+    public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int DEFAULT_QUEUE_LIMIT = 256;
+
+    private final PasswordAlgorithm algorithm;
+    private final List<PasswordAlgorithm> known;
+    private final BlockingExecutor executor;
+    private final int poolSize;
+    private final int capacity;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Timer hashTimer;
+    private final Timer verifyTimer;
+    private final Counter rejected;
+    private final Tracer tracer;
+    private final MeterRegistry registry;
+    private final Gauge queueGauge;
+
+    public PasswordHasher(Vertx vertx) {
+        this(vertx, new BCryptAlgorithm(BCryptAlgorithm.MIN_COST), DEFAULT_POOL_SIZE, DEFAULT_QUEUE_LIMIT, Metrics.globalRegistry);
+    }
+
+    public PasswordHasher(Vertx vertx, int poolSize, int queueLimit, MeterRegistry registry) {
+        this(vertx, new BCryptAlgorithm(BCryptAlgorithm.MIN_COST), poolSize, queueLimit, registry);
+    }
+
+    public PasswordHasher(Vertx vertx, PasswordAlgorithm algorithm, int poolSize, int queueLimit, MeterRegistry registry) {
+        this(vertx, algorithm, BlockingMode.WORKER, poolSize, queueLimit, registry);
+    }
+
+    public PasswordHasher(Vertx vertx, PasswordAlgorithm algorithm, BlockingMode mode, int poolSize, int queueLimit, MeterRegistry registry) {
+        this.algorithm = algorithm;
+        // Verification reads the parameters from the stored hash, default instances are enough for other algorithms
+        this.known = List.of(algorithm,
+                new BCryptAlgorithm(BCryptAlgorithm.MIN_COST),
+                new Argon2idAlgorithm(Argon2idAlgorithm.DEFAULT_MEMORY_KIB, Argon2idAlgorithm.MIN_ITERATIONS, 1));
+        this.executor = new BlockingExecutor(vertx, POOL_NAME, mode, poolSize, registry);
+        this.poolSize = poolSize;
+        this.capacity = poolSize + queueLimit;
+
+        this.hashTimer = Timer.builder("kama.identity.hashing.duration")
+                .description("Time spent computing password hashes")
+                .tag("operation", "hash")
+                .tag("algorithm", algorithm.id())
+                .register(registry);
+        this.verifyTimer = Timer.builder("kama.identity.hashing.duration")
+                .description("Time spent computing password hashes")
+                .tag("operation", "verify")
+                .register(registry);
+        this.rejected = Counter.builder("kama.identity.hashing.rejected")
+                .description("Password hashing calls rejected because the queue was full")
+                .register(registry);
+
+        this.tracer = GlobalOpenTelemetry.getTracer("dev.cloudeko.kama.identity");
+
+        // The time calls spend queued is kama.blocking.wait of the executor
+        this.registry = registry;
+        this.queueGauge = Gauge.builder("kama.identity.hashing.queue", pending, AtomicInteger::get)
+                .description("Password hashing calls queued or running")
+                .register(registry);
+    }
+
+    public PasswordAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    public Future<String> hash(String password) {
+        return submit("password.hash", algorithm, hashTimer, () -> algorithm.hash(password));
+    }
+
+    public Future<Boolean> verify(String password, String encoded) {
+        PasswordAlgorithm verifier = algorithmFor(encoded);
+        if (verifier == null) {
+            return Future.failedFuture(new IllegalArgumentException("Unknown password hash format"));
+        }
+        return submit("password.verify", verifier, verifyTimer, () -> verifier.verify(password, encoded));
+    }
+
+    /**
+     * Whether {@code encoded} uses another algorithm or a weaker work factor than the configured one. Cheap enough to
+     * call on the event loop.
+     */
+    public boolean needsRehash(String encoded) {
+        return !algorithm.supports(encoded) || algorithm.needsRehash(encoded);
+    }
+
+    /**
+     * Returns the number of hashes that can run at the same time.
+     */
+    public int poolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Returns the number of calls that are queued or running.
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    public Future<Void> close() {
+        registry.remove(queueGauge);
+        return executor.close();
+    }
+
+    private PasswordAlgorithm algorithmFor(String encoded) {
+        for (PasswordAlgorithm candidate : known) {
+            if (candidate.supports(encoded)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private <T> Future<T> submit(String operation, PasswordAlgorithm used, Timer timer, Callable<T> task) {
+        // Started on the caller's thread, where the current context carries the trace of the request
+        Span span = tracer.spanBuilder(operation)
+                .setAttribute("kama.hashing.algorithm", used.id())
+                .startSpan();
+
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            rejected.increment();
+            span.setStatus(StatusCode.ERROR, "Queue full");
+            span.end();
+            return Future.failedFuture(new ResourceExhausted("Password hashing capacity exhausted"));
+        }
+
+        Deadline deadline = Deadline.current();
+        return executor.<T>execute(() -> {
+            span.addEvent("dequeued");
+            // Nobody is waiting for the result anymore, the thread is better spent on the next caller
+            if (deadline != null && deadline.expired()) {
+                throw deadline.exceeded();
+            }
+            return timer.recordCallable(task);
+        }).onComplete(ar -> {
+            pending.decrementAndGet();
+            if (ar.failed()) {
+                span.recordException(ar.cause());
+                span.setStatus(StatusCode.ERROR);
+            }
+            span.end();
+        });
+    }
+}
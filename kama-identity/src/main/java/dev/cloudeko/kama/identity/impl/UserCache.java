@@ -0,0 +1,93 @@
+package dev.cloudeko.kama.identity.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of user profiles for batch lookups, each entry is served for a short time only.
+ * <p>
+ * Writes on this node drop the entry right away, writes on other nodes are seen once it expired. Callers get a copy
+ * they may modify.
+ */
+final class UserCache {
+
+    static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+    static final long DEFAULT_TTL_MS = 5_000;
+
+    private record Entry(JsonObject user, long expiresAt) {
+    }
+
+    private final long ttlMs;
+    private final Map<String, Entry> entries;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    UserCache(int maximumSize, long ttlMs, MeterRegistry registry) {
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maximumSize;
+            }
+        };
+
+        this.hits = Counter.builder("kama.identity.users.cache")
+                .description("User profile cache lookups")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("kama.identity.users.cache")
+                .description("User profile cache lookups")
+                .tag("result", "miss")
+                .register(registry);
+
+        Gauge.builder("kama.identity.users.cache.size", this, UserCache::size)
+                .description("User profiles currently cached")
+                .register(registry);
+    }
+
+    /**
+     * Returns a copy of the cached profile, or {@code null} when it is not cached or expired.
+     */
+    JsonObject get(String userId, long nowMs) {
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && entry.expiresAt() <= nowMs) {
+                entries.remove(userId);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.user().copy();
+        }
+    }
+
+    void put(String userId, JsonObject user, long nowMs) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(userId, new Entry(user.copy(), nowMs + ttlMs));
+        }
+    }
+
+    void invalidate(String userId) {
+        synchronized (entries) {
+            entries.remove(userId);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package dev.cloudeko.kama.identity.impl;
+
+import dev.cloudeko.kama.common.exception.ResourceExhausted;
+import dev.cloudeko.kama.identity.hash.PasswordHasher;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Creates users in bulk, one batch of an ImportUsers stream at a time.
+ * <p>
+ * Plain passwords are hashed on the password hashing pool with at most half of its threads taken by imports, across all
+ * batches, so logins keep being served during an import. Pre-hashed bcrypt passwords from a migration are stored as
+ * they are and upgraded on the first login like any outdated hash.
+ * <p>
+ * A batch is inserted in one transaction. When that fails, typically over an email registered concurrently, its rows
+ * are inserted one by one so only the offending ones are reported. Every entry gets a result, either {@code {"id": ...}}
+ * or {@code {"error": {"code": ..., "message": ...}}} with a gRPC status code name.
+ */
+final class UserImporter {
+
+    private static final Logger LOGGER = Logger.getLogger(UserImporter.class);
+
+    private static final Pattern BCRYPT = Pattern.compile("\\$2[aby]\\$(0[4-9]|[12][0-9]|3[01])\\$[./A-Za-z0-9]{53}");
+
+    private static final String INSERT = "INSERT INTO \"users\" (\"id\", \"email\", \"password_hash\", \"display_name\", \"create_time\", \"update_time\") " +
+            "VALUES (#{id}, #{email}, #{password_hash}, #{display_name}, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)";
+
+    private static final class Pending {
+        final int index;
+        final String email;
+        final String displayName;
+        final String password;
+        String passwordHash;
+
+        Pending(int index, String email, String displayName, String password, String passwordHash) {
+            this.index = index;
+            this.email = email;
+            this.displayName = displayName;
+            this.password = password;
+            this.passwordHash = passwordHash;
+        }
+    }
+
+    private final Pool client;
+    private final PasswordHasher hasher;
+    private final int parallelism;
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int active;
+
+    UserImporter(Pool client, PasswordHasher hasher) {
+        this.client = client;
+        this.hasher = hasher;
+        this.parallelism = Math.max(1, hasher.poolSize() / 2);
+    }
+
+    Future<JsonArray> importBatch(JsonArray users) {
+        JsonObject[] results = new JsonObject[users.size()];
+        Map<String, Pending> byEmail = new LinkedHashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            Pending pending = validate(i, users.getValue(i), results);
+            if (pending == null) {
+                continue;
+            }
+            if (byEmail.putIfAbsent(pending.email, pending) != null) {
+                results[i] = error("ALREADY_EXISTS", "Email appears more than once in the batch: " + pending.email);
+            }
+        }
+
+        // Known emails are rejected before their passwords cost a hash
+        return existingEmails(byEmail.keySet())
+                .compose(existing -> {
+                    List<Pending> accepted = new ArrayList<>();
+                    for (Pending pending : byEmail.values()) {
+                        if (existing.contains(pending.email)) {
+                            results[pending.index] = error("ALREADY_EXISTS", "User already exists: " + pending.email);
+                        } else {
+                            accepted.add(pending);
+                        }
+                    }
+                    return hashAll(accepted, results);
+                })
+                .compose(hashed -> insert(hashed, results))
+                .map(v -> new JsonArray(Arrays.asList((Object[]) results)));
+    }
+
+    private static Pending validate(int index, Object value, JsonObject[] results) {
+        if (!(value instanceof JsonObject user)) {
+            results[index] = error("INVALID_ARGUMENT", "Entry is not an object");
+            return null;
+        }
+
+        String email = user.getString("email");
+        String password = user.getString("password");
+        String passwordHash = user.getString("password_hash");
+        if (email == null || email.isBlank() || email.indexOf('@') < 1) {
+            results[index] = error("INVALID_ARGUMENT", "A valid email is required");
+            return null;
+        }
+        if ((password == null || password.isEmpty()) == (passwordHash == null || passwordHash.isEmpty())) {
+            results[index] = error("INVALID_ARGUMENT", "Exactly one of password or password_hash is required");
+            return null;
+        }
+        if (passwordHash != null && !passwordHash.isEmpty()) {
+            if (!BCRYPT.matcher(passwordHash).matches()) {
+                results[index] = error("INVALID_ARGUMENT", "password_hash is not a bcrypt hash");
+                return null;
+            }
+            // The revisions differ only in bugs of other implementations, the verifier reads $2a$
+            passwordHash = "$2a$" + passwordHash.substring(4);
+            password = null;
+        }
+        return new Pending(index, email.trim(), user.getString("display_name"), password, passwordHash);
+    }
+
+    private Future<Set<String>> existingEmails(Collection<String> emails) {
+        if (emails.isEmpty()) {
+            return Future.succeededFuture(Set.of());
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        StringJoiner placeholders = new StringJoiner(", ");
+        for (String email : emails) {
+            String param = "email" + params.size();
+            params.put(param, email);
+            placeholders.add("#{" + param + "}");
+        }
+        String sql = "SELECT \"email\" FROM \"users\" WHERE \"email\" IN (" + placeholders + ")";
+        return SqlTemplate.forQuery(client, sql)
+                .execute(params)
+                .map(rowSet -> {
+                    Set<String> existing = new HashSet<>();
+                    for (Row row : rowSet) {
+                        existing.add(row.getString("email"));
+                    }
+                    return existing;
+                });
+    }
+
+    private Future<List<Pending>> hashAll(List<Pending> accepted, JsonObject[] results) {
+        List<Future<Void>> hashes = new ArrayList<>();
+        for (Pending pending : accepted) {
+            if (pending.passwordHash != null) {
+                continue;
+            }
+            hashes.add(hash(pending.password)
+                    .<Void>map(hash -> {
+                        pending.passwordHash = hash;
+                        return null;
+                    })
+                    .otherwise(err -> {
+                        results[pending.index] = err instanceof ResourceExhausted
+                                ? error("RESOURCE_EXHAUSTED", err.getMessage())
+                                : error("INTERNAL", "Failed to hash password");
+                        return null;
+                    }));
+        }
+        return Future.join(hashes).map(v -> accepted.stream()
+                .filter(pending -> results[pending.index] == null)
+                .toList());
+    }
+
+    private Future<String> hash(String password) {
+        Promise<String> promise = Promise.promise();
+        Runnable task = () -> hasher.hash(password).onComplete(ar -> {
+            release();
+            promise.handle(ar);
+        });
+
+        boolean run;
+        synchronized (this) {
+            run = active < parallelism;
+            if (run) {
+                active++;
+            } else {
+                waiting.add(task);
+            }
+        }
+        if (run) {
+            task.run();
+        }
+        return promise.future();
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                active--;
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    private Future<Void> insert(List<Pending> rows, JsonObject[] results) {
+        if (rows.isEmpty()) {
+            return Future.succeededFuture();
+        }
+
+        List<Map<String, Object>> params = new ArrayList<>(rows.size());
+        for (Pending pending : rows) {
+            params.add(params(pending));
+        }
+        return client.withTransaction(conn -> SqlTemplate.forUpdate(conn, INSERT).executeBatch(params))
+                .<Void>map(result -> {
+                    for (int i = 0; i < rows.size(); i++) {
+                        results[rows.get(i).index] = new JsonObject().put("id", params.get(i).get("id"));
+                    }
+                    return null;
+                })
+                .recover(err -> {
+                    LOGGER.debugv(err, "Batch insert of {0} users failed, inserting them one by one", rows.size());
+                    List<Future<Void>> inserts = new ArrayList<>(rows.size());
+                    for (int i = 0; i < rows.size(); i++) {
+                        inserts.add(insertOne(rows.get(i), params.get(i), results));
+                    }
+                    return Future.join(inserts).mapEmpty();
+                });
+    }
+
+    private Future<Void> insertOne(Pending pending, Map<String, Object> params, JsonObject[] results) {
+        return SqlTemplate.forUpdate(client, INSERT)
+                .execute(params)
+                .<Void>map(result -> {
+                    results[pending.index] = new JsonObject().put("id", params.get("id"));
+                    return null;
+                })
+                .otherwise(err -> {
+                    results[pending.index] = isConstraintViolation(err)
+                            ? error("ALREADY_EXISTS", "User already exists: " + pending.email)
+                            : error("INTERNAL", "Failed to insert user");
+                    return null;
+                });
+    }
+
+    private static Map<String, Object> params(Pending pending) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("id", UUID.randomUUID().toString());
+        params.put("email", pending.email);
+        params.put("password_hash", pending.passwordHash);
+        params.put("display_name", pending.displayName);
+        return params;
+    }
+
+    private static boolean isConstraintViolation(Throwable err) {
+        for (Throwable cause = err; cause != null; cause = cause.getCause()) {
+            // SQLSTATE class 23 is an integrity constraint violation in every database
+            if (cause instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static JsonObject error(String code, String message) {
+        return new JsonObject().put("error", new JsonObject()
+                .put("code", code)
+                .put("message", message));
+    }
+}
@@ -0,0 +1,160 @@
+package dev.cloudeko.kama.identity.impl;
+
+import dev.cloudeko.kama.common.exception.InvalidArgument;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Translates a ListUsers filter and page token into a keyset query over {@code (create_time, id)}.
+ * <p>
+ * The filter is a conjunction of {@code field = value} terms joined by {@code AND}: {@code email = "prefix*"} (a
+ * trailing {@code *} matches a prefix, otherwise the email must match exactly), {@code active = true|false} and
+ * {@code email_verified = true|false}. An {@code AND} inside a quoted value is part of the value. All terms become SQL
+ * predicates.
+ * <p>
+ * A page token is the position of the last user returned, base64 encoded. The next page starts strictly after it in
+ * {@code create_time DESC, id DESC} order. The position is also given as a plain upper bound on {@code create_time},
+ * so a page costs one range scan of the {@code (create_time, id)} index however deep it is, even on databases that do
+ * not turn the {@code OR} into a range. Tokens are bound to the filter they were issued for.
+ */
+final class UserListQuery {
+
+    private static final Pattern TERM = Pattern.compile("\\s*(email|active|email_verified)\\s*=\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|true|false)\\s*");
+    private static final Pattern AND = Pattern.compile("\\s+AND\\s+");
+
+    static final String COLUMNS = "\"id\", \"email\", \"display_name\", \"create_time\", \"update_time\"";
+
+    private final String filter;
+    private final List<String> predicates = new ArrayList<>();
+    private final Map<String, Object> params = new HashMap<>();
+
+    private UserListQuery(String filter) {
+        this.filter = filter;
+    }
+
+    static UserListQuery parse(String filter, String pageToken) {
+        String normalized = filter == null ? "" : filter.trim();
+        UserListQuery query = new UserListQuery(normalized);
+        if (!normalized.isEmpty()) {
+            for (String term : terms(normalized)) {
+                query.addTerm(term);
+            }
+        }
+        if (pageToken != null && !pageToken.isEmpty()) {
+            query.addPosition(pageToken);
+        }
+        return query;
+    }
+
+    /**
+     * Returns the query for one page, fetching one row more than {@code limit} to tell whether another page follows.
+     */
+    String sql() {
+        String where = predicates.isEmpty() ? "" : " WHERE " + String.join(" AND ", predicates);
+        return "SELECT " + COLUMNS + " FROM \"users\"" + where + " ORDER BY \"create_time\" DESC, \"id\" DESC LIMIT #{limit}";
+    }
+
+    Map<String, Object> params(int limit) {
+        Map<String, Object> all = new HashMap<>(params);
+        all.put("limit", limit + 1);
+        return all;
+    }
+
+    /**
+     * Returns the token of the page after the user at {@code createTime} and {@code id}.
+     */
+    String nextPageToken(LocalDateTime createTime, String id) {
+        JsonObject position = new JsonObject()
+                .put("t", createTime.toString())
+                .put("i", id)
+                .put("f", filter.hashCode());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.encode().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void addTerm(String term) {
+        Matcher matcher = TERM.matcher(term);
+        if (!matcher.matches()) {
+            throw new InvalidArgument("Unsupported filter term: " + term.trim());
+        }
+
+        String field = matcher.group(1);
+        String value = matcher.group(2);
+        if (field.equals("email")) {
+            if (!value.startsWith("\"")) {
+                throw new InvalidArgument("email must be compared to a string");
+            }
+            String email = value.substring(1, value.length() - 1).replaceAll("\\\\(.)", "$1");
+            if (email.endsWith("*")) {
+                predicates.add("\"email\" LIKE #{email} ESCAPE '!'");
+                params.put("email", escapeLike(email.substring(0, email.length() - 1)) + "%");
+            } else {
+                predicates.add("\"email\" = #{email}");
+                params.put("email", email);
+            }
+            return;
+        }
+
+        if (value.startsWith("\"")) {
+            throw new InvalidArgument(field + " must be compared to true or false");
+        }
+        predicates.add("\"" + field + "\" = #{" + field + "}");
+        params.put(field, Boolean.parseBoolean(value));
+    }
+
+    private void addPosition(String pageToken) {
+        int filterHash;
+        try {
+            JsonObject position = new JsonObject(new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8));
+            params.put("after_time", LocalDateTime.parse(position.getString("t")));
+            params.put("after_id", Objects.requireNonNull(position.getString("i")));
+            filterHash = position.getInteger("f", 0);
+        } catch (IllegalArgumentException | DecodeException | DateTimeParseException | NullPointerException | ClassCastException e) {
+            throw new InvalidArgument("Invalid page token");
+        }
+        if (filterHash != filter.hashCode()) {
+            throw new InvalidArgument("Page token was issued for a different filter");
+        }
+        predicates.add("\"create_time\" <= #{after_time}");
+        predicates.add("(\"create_time\" < #{after_time} OR (\"create_time\" = #{after_time} AND \"id\" < #{after_id}))");
+    }
+
+    /**
+     * Splits {@code filter} on the {@code AND}s outside of quoted values. An unterminated quote runs to the end and
+     * fails as a term.
+     */
+    static List<String> terms(String filter) {
+        List<String> terms = new ArrayList<>();
+        Matcher and = AND.matcher(filter);
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < filter.length(); i++) {
+            char c = filter.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (Character.isWhitespace(c) && and.region(i, filter.length()).lookingAt()) {
+                terms.add(filter.substring(start, i));
+                start = and.end();
+                i = start - 1;
+            }
+        }
+        terms.add(filter.substring(start));
+        return terms;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+}
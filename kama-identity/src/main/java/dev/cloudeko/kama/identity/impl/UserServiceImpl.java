@@ -1,24 +1,33 @@
 package dev.cloudeko.kama.identity.impl;
 
+import dev.cloudeko.kama.common.AuthorizationEvents;
 import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.exception.InvalidArgument;
+import dev.cloudeko.kama.common.exception.ResourceExhausted;
 import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.hash.PasswordHasher;
+import dev.cloudeko.kama.identity.role.PermissionCache;
+import dev.cloudeko.kama.identity.role.PermissionSet;
+import dev.cloudeko.kama.identity.session.SessionStore;
+import dev.cloudeko.kama.identity.throttle.LoginThrottle;
+import dev.cloudeko.kama.identity.token.TokenCache;
+import dev.cloudeko.kama.identity.token.TokenSigner;
+import io.micrometer.core.instrument.Metrics;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.auth.PubSecKeyOptions;
-import io.vertx.ext.auth.authentication.TokenCredentials;
-import io.vertx.ext.auth.jwt.JWTAuth;
-import io.vertx.ext.auth.jwt.JWTAuthOptions;
 import io.vertx.jdbcclient.JDBCConnectOptions;
 import io.vertx.jdbcclient.JDBCPool;
+import io.vertx.sqlclient.Pool;
 import io.vertx.sqlclient.PoolOptions;
 import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.SqlClient;
 import io.vertx.sqlclient.templates.SqlTemplate;
 import org.jboss.logging.Logger;
-import org.mindrot.jbcrypt.BCrypt;
 
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
 
@@ -26,57 +35,171 @@ public class UserServiceImpl implements UserService {
 
     private static final Logger LOGGER = Logger.getLogger(UserServiceImpl.class);
 
-    private final SqlClient client;
-    private final JWTAuth jwtAuth;
+    private static final long TOKEN_TTL_SECONDS = 3600;
+    private static final long TOKEN_SWEEP_INTERVAL_MS = 60_000;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final String INVALID_CREDENTIALS = "Invalid credentials";
+
+    private final Vertx vertx;
+    private final Pool client;
+    private final TokenSigner signer;
+    private final PasswordHasher hasher;
+    private final TokenCache tokenCache;
+    private final SessionStore sessions;
+    private final PermissionCache permissions;
+    private final LoginThrottle throttle;
+    private final UserCache userCache;
+    private final UserImporter importer;
 
     public UserServiceImpl(Vertx vertx, DatabaseOptions databaseOptions) {
+        this(vertx, databaseOptions, new PasswordHasher(vertx));
+    }
+
+    public UserServiceImpl(Vertx vertx, DatabaseOptions databaseOptions, PasswordHasher hasher) {
+        this(vertx, databaseOptions, hasher, new TokenCache(TokenCache.DEFAULT_MAXIMUM_SIZE, Metrics.globalRegistry));
+    }
+
+    public UserServiceImpl(Vertx vertx, DatabaseOptions databaseOptions, PasswordHasher hasher, TokenCache tokenCache) {
+        this(vertx, databaseOptions, hasher, tokenCache, new JsonObject());
+    }
+
+    /**
+     * @param config identity settings: {@code tokens} with the signing key {@code algorithm} ({@code ES256} or
+     *               {@code EdDSA}), {@code rotationSeconds}, the {@code keyEncryptionSecret} private keys are stored
+     *               with and the refresh token lifetime {@code refreshTtlSeconds}, and
+     *               {@code throttling} with the login limits of {@link LoginThrottle}, and {@code users} with the
+     *               {@code cacheTtlMs} of profiles served to batch lookups ({@code 0} disables the cache)
+     */
+    public UserServiceImpl(Vertx vertx, DatabaseOptions databaseOptions, PasswordHasher hasher, TokenCache tokenCache, JsonObject config) {
+        this.vertx = vertx;
+        this.hasher = hasher;
+        this.tokenCache = tokenCache;
+        this.throttle = new LoginThrottle(config.getJsonObject("throttling", new JsonObject()), Metrics.globalRegistry);
+
+        this.userCache = new UserCache(UserCache.DEFAULT_MAXIMUM_SIZE,
+                config.getJsonObject("users", new JsonObject()).getLong("cacheTtlMs", UserCache.DEFAULT_TTL_MS),
+                Metrics.globalRegistry);
+
+        JsonObject tokens = config.getJsonObject("tokens", new JsonObject());
+
         JDBCConnectOptions connect = new JDBCConnectOptions()
                 .setJdbcUrl(databaseOptions.getUrl())
                 .setUser(databaseOptions.getUsername())
-                .setPassword(databaseOptions.getPassword());
-        PoolOptions opts = new PoolOptions().setMaxSize(5);
+                .setPassword(databaseOptions.getPassword())
+                .setQueryTimeout(databaseOptions.getQueryTimeout());
+        PoolOptions opts = new PoolOptions().setMaxSize(databaseOptions.getMaxPoolSize()).setName("kama-identity");
         this.client = JDBCPool.pool(vertx, connect, opts);
+        this.importer = new UserImporter(client, hasher);
 
-        // Configure JWT authentication
-        this.jwtAuth = JWTAuth.create(vertx, new JWTAuthOptions()
-                .addPubSecKey(new PubSecKeyOptions()
-                        .setAlgorithm("HS256")
-                        .setBuffer("secret-key"))); // TODO: Load from config
+        // Retired keys must keep verifying for as long as the tokens they signed are valid
+        this.signer = new TokenSigner(vertx, client,
+                tokens.getString("algorithm", TokenSigner.DEFAULT_ALGORITHM),
+                tokens.getLong("rotationSeconds", TokenSigner.DEFAULT_ROTATION_SECONDS),
+                TOKEN_TTL_SECONDS,
+                tokens.getString("keyEncryptionSecret"));
+        this.sessions = new SessionStore(vertx, client,
+                tokens.getLong("refreshTtlSeconds", SessionStore.DEFAULT_TTL_SECONDS),
+                SessionStore.DEFAULT_CACHE_SIZE,
+                Metrics.globalRegistry);
+        this.permissions = new PermissionCache(client, PermissionCache.DEFAULT_MAXIMUM_SIZE, Metrics.globalRegistry);
+        permissions.listen(vertx.eventBus());
+
+        vertx.setPeriodic(TOKEN_SWEEP_INTERVAL_MS, id -> {
+            long now = System.currentTimeMillis() / 1000;
+            tokenCache.evictExpired(now, TOKEN_TTL_SECONDS);
+            permissions.evictWatermarks(now, TOKEN_TTL_SECONDS);
+        });
+        vertx.eventBus().<JsonObject>consumer(AuthorizationEvents.TOKENS_REVOKED, message -> {
+            tokenCache.revoke(message.body().getString("user_id"), message.body().getLong("not_before"));
+            sessions.evictUser(message.body().getString("user_id"));
+        });
     }
 
     @Override
     public Future<JsonObject> createUser(String email, String password, String displayName) {
         String userId = UUID.randomUUID().toString();
-        String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
 
         String sql = "INSERT INTO \"users\" (\"id\", \"email\", \"password_hash\", \"display_name\", \"create_time\", \"update_time\") VALUES (#{id}, #{email}, #{password_hash}, #{display_name}, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)";
-        Map<String, Object> params = Map.of(
-                "id", userId,
-                "email", email,
-                "password_hash", hashedPassword,
-                "display_name", displayName
-        );
 
-        return SqlTemplate.forUpdate(client, sql)
-                .execute(params)
+        return hasher.hash(password)
+                .compose(hashedPassword -> {
+                    Map<String, Object> params = Map.of(
+                            "id", userId,
+                            "email", email,
+                            "password_hash", hashedPassword,
+                            "display_name", displayName
+                    );
+                    return SqlTemplate.forUpdate(client, sql).execute(params);
+                })
                 .compose(result -> getUserById(userId))
                 .onFailure(err -> LOGGER.error("Failed to create user", err));
     }
 
     @Override
-    public Future<JsonObject> authenticateUser(String email, String password) {
+    public Future<JsonObject> authenticateUser(String email, String password, String clientAddress) {
+        // Throttled attempts are turned away before they cost a query or a hash
+        long waitMs = throttle.acquire(email, clientAddress);
+        if (waitMs > 0) {
+            return Future.failedFuture(new ResourceExhausted("Too many login attempts, retry in " + Math.max(1, waitMs / 1000) + " s"));
+        }
+
         return getUserByEmail(email)
+                // An unknown email is a wrong credential like a wrong password, and reads the same to the caller
+                .recover(err -> "User not found".equals(err.getMessage())
+                        ? Future.failedFuture(INVALID_CREDENTIALS)
+                        : Future.failedFuture(err))
                 .compose(user -> {
                     String storedHash = user.getString("password_hash");
-                    if (BCrypt.checkpw(password, storedHash)) {
-                        user.remove("password_hash");
-                        return Future.succeededFuture(user);
-                    } else {
-                        return Future.failedFuture("Invalid credentials");
+                    return hasher.verify(password, storedHash)
+                            .compose(matches -> {
+                                if (!matches) {
+                                    return Future.failedFuture(INVALID_CREDENTIALS);
+                                }
+                                user.remove("password_hash");
+                                if (!hasher.needsRehash(storedHash)) {
+                                    return Future.succeededFuture(user);
+                                }
+                                return rehash(user.getString("id"), password, storedHash).map(user);
+                            });
+                })
+                .onComplete(ar -> {
+                    // Database errors, a full hashing queue or a passed deadline say nothing about the credentials
+                    if (ar.succeeded() || INVALID_CREDENTIALS.equals(ar.cause().getMessage())) {
+                        throttle.complete(email, ar.succeeded());
                     }
                 });
     }
 
+    @Override
+    public Future<JsonObject> importUsers(JsonArray users) {
+        if (users.size() > MAX_BATCH_SIZE) {
+            return Future.failedFuture(new InvalidArgument("At most " + MAX_BATCH_SIZE + " users can be imported at once"));
+        }
+        return importer.importBatch(users)
+                .map(results -> new JsonObject().put("results", results))
+                .onFailure(err -> LOGGER.error("Failed to import users", err));
+    }
+
+    /**
+     * Replaces an outdated password hash after a successful login, the plain password is only known at that point.
+     * Failures are logged and never fail the login.
+     */
+    private Future<Void> rehash(String userId, String password, String storedHash) {
+        // Only replace the hash that was verified, a concurrent password change wins
+        String sql = "UPDATE \"users\" SET \"password_hash\" = #{password_hash} WHERE \"id\" = #{id} AND \"password_hash\" = #{old_hash}";
+        return hasher.hash(password)
+                .compose(newHash -> SqlTemplate.forUpdate(client, sql)
+                        .execute(Map.of("password_hash", newHash, "id", userId, "old_hash", storedHash)))
+                .<Void>map(result -> {
+                    LOGGER.debugv("Rehashed password of user {0} with {1}", userId, hasher.algorithm());
+                    return null;
+                })
+                .otherwise(err -> {
+                    LOGGER.warnv(err, "Failed to rehash password of user {0}", userId);
+                    return null;
+                });
+    }
+
     @Override
     public Future<JsonObject> getUserById(String userId) {
         String sql = "SELECT \"id\", \"email\", \"display_name\", \"create_time\", \"update_time\" FROM \"users\" WHERE \"id\" = #{id}";
@@ -87,18 +210,77 @@ public class UserServiceImpl implements UserService {
                     if (!it.hasNext()) {
                         return Future.failedFuture("User not found");
                     }
-                    Row row = it.next();
-                    JsonObject user = new JsonObject()
-                            .put("id", row.getString("id"))
-                            .put("email", row.getString("email"))
-                            .put("display_name", row.getString("display_name"))
-                            .put("create_time", row.getLocalDateTime("create_time").toInstant(ZoneOffset.UTC))
-                            .put("update_time", row.getLocalDateTime("update_time").toInstant(ZoneOffset.UTC));
-                    return Future.succeededFuture(user);
+                    return withRoles(user(it.next()));
                 })
                 .onFailure(err -> LOGGER.error("Failed to query user", err));
     }
 
+    @Override
+    public Future<JsonObject> batchGetUsers(List<String> userIds) {
+        if (userIds.size() > MAX_BATCH_SIZE) {
+            return Future.failedFuture(new InvalidArgument("At most " + MAX_BATCH_SIZE + " users can be requested at once"));
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, JsonObject> found = new HashMap<>();
+        Map<String, Object> params = new HashMap<>();
+        StringJoiner placeholders = new StringJoiner(", ");
+        for (String userId : new LinkedHashSet<>(userIds)) {
+            JsonObject cached = userCache.get(userId, now);
+            if (cached != null) {
+                found.put(userId, cached);
+                continue;
+            }
+            String param = "id" + params.size();
+            params.put(param, userId);
+            placeholders.add("#{" + param + "}");
+        }
+
+        // Everything not cached is read in a single query
+        Future<Void> loaded = Future.succeededFuture();
+        if (!params.isEmpty()) {
+            String sql = "SELECT " + UserListQuery.COLUMNS + " FROM \"users\" WHERE \"id\" IN (" + placeholders + ")";
+            loaded = SqlTemplate.forQuery(client, sql)
+                    .execute(params)
+                    .map(rowSet -> {
+                        for (Row row : rowSet) {
+                            JsonObject user = user(row);
+                            userCache.put(user.getString("id"), user, now);
+                            found.put(user.getString("id"), user);
+                        }
+                        return null;
+                    });
+        }
+
+        // Roles are not cached with the profile, they come from the permission cache which follows role changes. A
+        // cached user deleted on another node has none and is reported missing
+        return loaded
+                .compose(v -> Future.all(List.copyOf(found.values()).stream()
+                        .map(user -> withRoles(user).otherwise(err -> found.remove(user.getString("id"))))
+                        .toList()))
+                .map(v -> {
+                    JsonArray users = new JsonArray();
+                    for (String userId : userIds) {
+                        users.add(found.get(userId));
+                    }
+                    return new JsonObject().put("users", users);
+                })
+                .onFailure(err -> LOGGER.error("Failed to query users", err));
+    }
+
+    private Future<JsonObject> withRoles(JsonObject user) {
+        return permissions.get(user.getString("id")).map(entry -> user.put("roles", entry.permissions().rolesJson()));
+    }
+
+    private static JsonObject user(Row row) {
+        return new JsonObject()
+                .put("id", row.getString("id"))
+                .put("email", row.getString("email"))
+                .put("display_name", row.getString("display_name"))
+                .put("create_time", row.getLocalDateTime("create_time").toInstant(ZoneOffset.UTC))
+                .put("update_time", row.getLocalDateTime("update_time").toInstant(ZoneOffset.UTC));
+    }
+
     @Override
     public Future<JsonObject> getUserByEmail(String email) {
         String sql = "SELECT \"id\", \"email\", \"password_hash\", \"display_name\", \"create_time\", \"update_time\" FROM \"users\" WHERE \"email\" = #{email}";
@@ -140,9 +322,12 @@ public class UserServiceImpl implements UserService {
         sql.append(" WHERE \"id\" = #{id}");
         params.put("id", userId);
 
+        // Dropped again once written, a batch lookup running meanwhile may have cached the old profile
+        userCache.invalidate(userId);
         return SqlTemplate.forUpdate(client, sql.toString())
                 .execute(params)
                 .compose(result -> {
+                    userCache.invalidate(userId);
                     if (result.rowCount() == 0) {
                         return Future.failedFuture("User not found");
                     }
@@ -154,33 +339,51 @@ public class UserServiceImpl implements UserService {
     @Override
     public Future<Void> deleteUser(String userId) {
         String sql = "DELETE FROM \"users\" WHERE \"id\" = #{id}";
+        userCache.invalidate(userId);
         return SqlTemplate.forUpdate(client, sql)
                 .execute(Map.of("id", userId))
                 .compose(result -> {
+                    userCache.invalidate(userId);
                     if (result.rowCount() == 0) {
                         return Future.failedFuture("User not found");
                     }
-                    return Future.<Void> succeededFuture();
+                    return revokeTokens(userId);
                 })
                 .onFailure(err -> LOGGER.error("Failed to delete user", err));
     }
 
     @Override
-    public Future<List<JsonObject>> listUsers(int limit, int offset) {
-        String sql = "SELECT \"id\", \"email\", \"display_name\", \"create_time\", \"update_time\" FROM \"users\" ORDER BY \"create_time\" DESC LIMIT #{limit} OFFSET #{offset}";
-        return SqlTemplate.forQuery(client, sql)
-                .execute(Map.of("limit", limit, "offset", offset))
+    public Future<JsonObject> listUsers(int pageSize, String pageToken, String filter) {
+        UserListQuery query;
+        try {
+            query = UserListQuery.parse(filter, pageToken);
+        } catch (InvalidArgument e) {
+            return Future.failedFuture(e);
+        }
+
+        return SqlTemplate.forQuery(client, query.sql())
+                .execute(query.params(pageSize))
                 .map(rowSet -> {
-                    List<JsonObject> users = new ArrayList<>();
+                    JsonArray users = new JsonArray();
+                    LocalDateTime lastCreateTime = null;
+                    String nextPageToken = null;
                     for (Row row : rowSet) {
+                        if (users.size() == pageSize) {
+                            // One row more than requested, the next page starts after the last user returned
+                            nextPageToken = query.nextPageToken(lastCreateTime, users.getJsonObject(pageSize - 1).getString("id"));
+                            break;
+                        }
+                        lastCreateTime = row.getLocalDateTime("create_time");
                         users.add(new JsonObject()
                                 .put("id", row.getString("id"))
                                 .put("email", row.getString("email"))
                                 .put("display_name", row.getString("display_name"))
-                                .put("create_time", row.getLocalDateTime("create_time").toInstant(ZoneOffset.UTC))
+                                .put("create_time", lastCreateTime.toInstant(ZoneOffset.UTC))
                                 .put("update_time", row.getLocalDateTime("update_time").toInstant(ZoneOffset.UTC)));
                     }
-                    return users;
+                    return new JsonObject()
+                            .put("users", users)
+                            .put("next_page_token", nextPageToken);
                 })
                 .onFailure(err -> LOGGER.error("Failed to list users", err));
     }
@@ -198,14 +401,9 @@ public class UserServiceImpl implements UserService {
         return getUserById(userId)
                 .compose(user -> {
                     return getUserByEmail(user.getString("email"))
-                            .compose(userWithHash -> {
-                                String storedHash = userWithHash.getString("password_hash");
-                                if (!BCrypt.checkpw(oldPassword, storedHash)) {
-                                    return Future.failedFuture("Invalid old password");
-                                }
-
-                                String newHash = BCrypt.hashpw(newPassword, BCrypt.gensalt());
-
+                            .compose(userWithHash -> hasher.verify(oldPassword, userWithHash.getString("password_hash")))
+                            .compose(matches -> matches ? hasher.hash(newPassword) : Future.<String>failedFuture("Invalid old password"))
+                            .compose(newHash -> {
                                 String sql = "UPDATE \"users\" SET \"password_hash\" = #{password_hash}, \"update_time\" = CURRENT_TIMESTAMP WHERE \"id\" = #{id}";
                                 Map<String, Object> params = Map.of(
                                         "password_hash", newHash,
@@ -214,7 +412,8 @@ public class UserServiceImpl implements UserService {
 
                                 return SqlTemplate.forUpdate(client, sql)
                                         .execute(params)
-                                        .map(result -> new JsonObject().put("message", "Password changed successfully"))
+                                        .compose(result -> revokeTokens(userId))
+                                        .map(v -> new JsonObject().put("message", "Password changed successfully"))
                                         .onFailure(err -> LOGGER.error("Failed to change password", err));
                             });
                 });
@@ -222,33 +421,216 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public Future<JsonObject> generateJwtToken(String userId) {
-        JsonObject claims = new JsonObject()
-                .put("sub", userId)
-                .put("iat", System.currentTimeMillis() / 1000)
-                .put("exp", (System.currentTimeMillis() / 1000) + 3600); // 1 hour expiry
+        return generateJwtToken(userId, null);
+    }
 
-        String token = jwtAuth.generateToken(claims);
+    private Future<JsonObject> generateJwtToken(String userId, String sessionId) {
+        // Roles and their version travel in the token, verifiers need no lookup while the version is current. Unknown
+        // users get a token without roles.
+        return permissions.get(userId)
+                .otherwise(err -> new PermissionCache.Entry(PermissionSet.EMPTY, 0))
+                .compose(entry -> {
+                    long now = System.currentTimeMillis() / 1000;
+                    JsonObject claims = new JsonObject()
+                            .put("sub", userId)
+                            .put("iat", now)
+                            .put("exp", now + TOKEN_TTL_SECONDS)
+                            .put("roles", entry.permissions().rolesJson())
+                            .put("rv", entry.version());
+                    if (sessionId != null) {
+                        claims.put("sid", sessionId);
+                    }
+                    return signer.sign(claims);
+                })
+                .map(token -> new JsonObject()
+                        .put("token", token)
+                        .put("expires_in", TOKEN_TTL_SECONDS));
+    }
 
-        return Future.succeededFuture(new JsonObject()
-                .put("token", token)
-                .put("expires_in", 3600));
+    @Override
+    public Future<JsonObject> createSession(String userId) {
+        return sessions.create(userId)
+                .compose(issued -> sessionTokens(issued))
+                .onFailure(err -> LOGGER.error("Failed to create session", err));
+    }
+
+    @Override
+    public Future<JsonObject> refreshJwtToken(String refreshToken) {
+        // No password check and no user lookup, the session row proves the earlier login
+        return sessions.rotate(refreshToken).compose(this::sessionTokens);
+    }
+
+    private Future<JsonObject> sessionTokens(SessionStore.Issued issued) {
+        return generateJwtToken(issued.session().userId(), issued.session().id())
+                .map(token -> token
+                        .put("user_id", issued.session().userId())
+                        .put("session_id", issued.session().id())
+                        .put("refresh_token", issued.token())
+                        .put("refresh_expires_in", issued.session().expiresAt() - System.currentTimeMillis() / 1000));
     }
 
     @Override
     public Future<JsonObject> validateJwtToken(String token) {
-        return Future.future(promise -> {
-            jwtAuth.authenticate(new TokenCredentials(token))
-                    .onSuccess(user -> {
-                        JsonObject userInfo = user.principal();
-                        promise.complete(new JsonObject()
-                                .put("valid", true)
-                                .put("user_id", userInfo.getString("sub")));
-                    })
-                    .onFailure(err -> {
-                        promise.complete(new JsonObject()
+        // Repeated tokens skip parsing and signature verification until they expire or get revoked
+        String digest = TokenCache.digest(token);
+        TokenCache.Entry cached = tokenCache.get(digest, System.currentTimeMillis() / 1000);
+        if (cached != null) {
+            touchSession(cached.claims());
+            // Resolving stale roles can still fail, for instance for a user deleted since
+            return validToken(cached.claims())
+                    .otherwise(err -> new JsonObject()
+                            .put("valid", false)
+                            .put("error", err.getMessage()));
+        }
+
+        return signer.verify(token)
+                .compose(userInfo -> {
+                    String userId = userInfo.getString("sub");
+                    long issuedAt = userInfo.getLong("iat", 0L);
+                    if (tokenCache.isRevoked(userId, issuedAt)) {
+                        return Future.succeededFuture(new JsonObject()
                                 .put("valid", false)
-                                .put("error", err.getMessage()));
-                    });
-        });
+                                .put("error", "Token revoked"));
+                    }
+
+                    tokenCache.put(digest, new TokenCache.Entry(userId, issuedAt, userInfo.getLong("exp", issuedAt + TOKEN_TTL_SECONDS), userInfo));
+                    touchSession(userInfo);
+                    return validToken(userInfo);
+                })
+                .otherwise(err -> new JsonObject()
+                        .put("valid", false)
+                        .put("error", err.getMessage()));
+    }
+
+    /**
+     * Answers with the roles embedded in the token while their version is current, a token issued before a role
+     * change gets the roles resolved again.
+     */
+    private Future<JsonObject> validToken(JsonObject claims) {
+        String userId = claims.getString("sub");
+        JsonArray roles = claims.getJsonArray("roles");
+        Long version = claims.getLong("rv");
+        if (roles != null && version != null && permissions.isCurrent(userId, version)) {
+            return Future.succeededFuture(validToken(userId, roles, version));
+        }
+        return permissions.get(userId)
+                .map(entry -> validToken(userId, entry.permissions().rolesJson(), entry.version()));
+    }
+
+    private static JsonObject validToken(String userId, JsonArray roles, long version) {
+        return new JsonObject()
+                .put("valid", true)
+                .put("user_id", userId)
+                .put("roles", roles)
+                .put("roles_version", version);
+    }
+
+    // Tokens minted for a session keep its last use and expiry current, written to the database in batches
+    private void touchSession(JsonObject claims) {
+        String sessionId = claims.getString("sid");
+        if (sessionId != null) {
+            sessions.touch(sessionId);
+        }
+    }
+
+    @Override
+    public Future<Void> revokeTokens(String userId) {
+        long notBefore = System.currentTimeMillis() / 1000;
+        // Apply locally before broadcasting so the caller observes the revocation right away
+        tokenCache.revoke(userId, notBefore);
+        vertx.eventBus().publish(AuthorizationEvents.TOKENS_REVOKED, new JsonObject()
+                .put("user_id", userId)
+                .put("not_before", notBefore));
+        // Otherwise a revoked user would simply refresh
+        return sessions.revokeAll(userId);
+    }
+
+    /**
+     * Completes once the service can sign tokens, fails when the signing keys could not be loaded.
+     */
+    public Future<Void> ready() {
+        return signer.ready();
+    }
+
+    /**
+     * Writes pending session changes, called when the service is undeployed.
+     */
+    public Future<Void> close() {
+        return sessions.close();
+    }
+
+    @Override
+    public Future<JsonObject> getJwks() {
+        return signer.jwks();
+    }
+
+    @Override
+    public Future<JsonObject> getUserRoles(String userId) {
+        return permissions.get(userId)
+                .map(entry -> new JsonObject()
+                        .put("user_id", userId)
+                        .put("roles", entry.permissions().rolesJson())
+                        .put("permissions", entry.permissions().permissionsJson())
+                        .put("roles_version", entry.version()))
+                .onFailure(err -> LOGGER.error("Failed to query user roles", err));
+    }
+
+    @Override
+    public Future<JsonObject> assignRole(String userId, String role) {
+        String sql = "INSERT INTO \"user_role_assignments\" (\"id\", \"user_id\", \"role_id\", \"assigned_at\") " +
+                "SELECT #{id}, #{user_id}, #{role_id}, CURRENT_TIMESTAMP WHERE NOT EXISTS " +
+                "(SELECT 1 FROM \"user_role_assignments\" WHERE \"user_id\" = #{user_id} AND \"role_id\" = #{role_id})";
+
+        return client.withTransaction(conn -> incrementRolesVersion(conn, userId)
+                        .compose(v -> findOrCreateRole(conn, role))
+                        .compose(roleId -> SqlTemplate.forUpdate(conn, sql)
+                                .execute(Map.of("id", UUID.randomUUID().toString(), "user_id", userId, "role_id", roleId))))
+                .compose(result -> rolesChanged(userId))
+                .onFailure(err -> LOGGER.error("Failed to assign role", err));
+    }
+
+    @Override
+    public Future<JsonObject> revokeRole(String userId, String role) {
+        String sql = "DELETE FROM \"user_role_assignments\" WHERE \"user_id\" = #{user_id} AND \"role_id\" IN " +
+                "(SELECT \"id\" FROM \"user_roles\" WHERE \"name\" = #{name})";
+
+        return client.withTransaction(conn -> incrementRolesVersion(conn, userId)
+                        .compose(v -> SqlTemplate.forUpdate(conn, sql).execute(Map.of("user_id", userId, "name", role))))
+                .compose(result -> rolesChanged(userId))
+                .onFailure(err -> LOGGER.error("Failed to revoke role", err));
+    }
+
+    private Future<Void> incrementRolesVersion(SqlClient conn, String userId) {
+        String sql = "UPDATE \"users\" SET \"roles_version\" = \"roles_version\" + 1, \"update_time\" = CURRENT_TIMESTAMP WHERE \"id\" = #{id}";
+        return SqlTemplate.forUpdate(conn, sql)
+                .execute(Map.of("id", userId))
+                .compose(result -> result.rowCount() == 0 ? Future.failedFuture("User not found") : Future.succeededFuture());
+    }
+
+    private Future<String> findOrCreateRole(SqlClient conn, String role) {
+        return SqlTemplate.forQuery(conn, "SELECT \"id\" FROM \"user_roles\" WHERE \"name\" = #{name}")
+                .execute(Map.of("name", role))
+                .compose(rs -> {
+                    Iterator<Row> it = rs.iterator();
+                    if (it.hasNext()) {
+                        return Future.succeededFuture(it.next().getString("id"));
+                    }
+
+                    String roleId = UUID.randomUUID().toString();
+                    String sql = "INSERT INTO \"user_roles\" (\"id\", \"name\", \"create_time\", \"update_time\") VALUES (#{id}, #{name}, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)";
+                    return SqlTemplate.forUpdate(conn, sql)
+                            .execute(Map.of("id", roleId, "name", role))
+                            .map(result -> roleId);
+                });
+    }
+
+    private Future<JsonObject> rolesChanged(String userId) {
+        // Cached permission sets and authorization decisions are keyed by the roles version, drop the superseded ones
+        // on every node. The new version marks tokens carrying older roles.
+        permissions.forget(userId);
+        return getUserRoles(userId)
+                .onSuccess(roles -> vertx.eventBus().publish(AuthorizationEvents.ROLES_CHANGED, new JsonObject()
+                        .put("user_id", userId)
+                        .put("roles_version", roles.getLong("roles_version"))));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,190 @@
+package dev.cloudeko.kama.identity.role;
+
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.templates.SqlTemplate;
+
+import java.util.*;
+
+/**
+ * A bounded cache of the resolved {@link PermissionSet} of each user, together with the roles version it was read at.
+ * <p>
+ * Tokens embed the roles and the version, so a token is only as current as the version in it. Role changes are
+ * broadcast with the new version, which is kept as a watermark for the lifetime of a token: a token carrying an older
+ * version is detected without a database lookup and its roles are resolved again.
+ */
+public class PermissionCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    public record Entry(PermissionSet permissions, long version) {
+    }
+
+    private record Watermark(long version, long changedAt) {
+    }
+
+    private final Pool client;
+    private final Map<String, Entry> entries;
+    private final Map<String, Watermark> latest = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public PermissionCache(Pool client, int maximumSize, MeterRegistry registry) {
+        this.client = client;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maximumSize;
+            }
+        };
+
+        this.hits = Counter.builder("kama.identity.permissions.cache")
+                .description("Resolved permission set lookups")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("kama.identity.permissions.cache")
+                .description("Resolved permission set lookups")
+                .tag("result", "miss")
+                .register(registry);
+
+        Gauge.builder("kama.identity.permissions.cache.size", this, PermissionCache::size)
+                .description("Users with a cached permission set")
+                .register(registry);
+    }
+
+    /**
+     * Subscribes to role change broadcasts. Consumers registered from a verticle are removed when it is undeployed.
+     */
+    public void listen(EventBus eventBus) {
+        eventBus.<JsonObject>consumer(AuthorizationEvents.ROLES_CHANGED, message -> {
+            String userId = message.body().getString("user_id");
+            if (userId != null) {
+                invalidate(userId, message.body().getLong("roles_version", 0L));
+            }
+        });
+    }
+
+    /**
+     * Returns the permissions of {@code userId}, reading roles and their permissions in one query on a miss. Fails
+     * when the user does not exist.
+     */
+    public Future<Entry> get(String userId) {
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                hits.increment();
+                return Future.succeededFuture(entry);
+            }
+        }
+        misses.increment();
+        return load(userId).map(entry -> {
+            synchronized (entries) {
+                // A concurrent change may have raised the watermark after the query ran
+                if (isCurrentLocked(userId, entry.version())) {
+                    entries.put(userId, entry);
+                }
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * Whether roles read at {@code version} are still current as far as this node knows, without a database lookup.
+     */
+    public boolean isCurrent(String userId, long version) {
+        synchronized (entries) {
+            return isCurrentLocked(userId, version);
+        }
+    }
+
+    /**
+     * Records that the roles of {@code userId} changed to {@code version}, cached sets read before are dropped.
+     */
+    public void invalidate(String userId, long version) {
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && entry.version() < version) {
+                entries.remove(userId);
+            }
+            Watermark previous = latest.get(userId);
+            if (previous == null || previous.version() < version) {
+                latest.put(userId, new Watermark(version, System.currentTimeMillis() / 1000));
+            }
+        }
+    }
+
+    /**
+     * Drops the cached set of {@code userId} so the next lookup reads it again.
+     */
+    public void forget(String userId) {
+        synchronized (entries) {
+            entries.remove(userId);
+        }
+    }
+
+    /**
+     * Forgets watermarks older than {@code maxLifetimeSeconds}, no token issued before them can still be valid.
+     */
+    public void evictWatermarks(long nowSeconds, long maxLifetimeSeconds) {
+        synchronized (entries) {
+            latest.values().removeIf(watermark -> watermark.changedAt() + maxLifetimeSeconds < nowSeconds);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private boolean isCurrentLocked(String userId, long version) {
+        Entry entry = entries.get(userId);
+        if (entry != null && entry.version() > version) {
+            return false;
+        }
+        Watermark watermark = latest.get(userId);
+        return watermark == null || watermark.version() <= version;
+    }
+
+    private Future<Entry> load(String userId) {
+        String sql = "SELECT u.\"roles_version\", r.\"name\", r.\"permissions\" FROM \"users\" u " +
+                "LEFT JOIN \"user_role_assignments\" a ON a.\"user_id\" = u.\"id\" " +
+                "LEFT JOIN \"user_roles\" r ON r.\"id\" = a.\"role_id\" " +
+                "WHERE u.\"id\" = #{id}";
+        return SqlTemplate.forQuery(client, sql)
+                .execute(Map.of("id", userId))
+                .compose(rs -> {
+                    Iterator<Row> it = rs.iterator();
+                    if (!it.hasNext()) {
+                        return Future.failedFuture("User not found");
+                    }
+                    long version = 0;
+                    List<String> roles = new ArrayList<>();
+                    List<String> permissions = new ArrayList<>();
+                    while (it.hasNext()) {
+                        Row row = it.next();
+                        version = row.getLong("roles_version");
+                        if (row.getString("name") != null) {
+                            roles.add(row.getString("name"));
+                        }
+                        // Stored as a JSON array of strings
+                        String granted = row.getString("permissions");
+                        if (granted != null && !granted.isBlank()) {
+                            for (Object permission : new JsonArray(granted)) {
+                                permissions.add(String.valueOf(permission));
+                            }
+                        }
+                    }
+                    return Future.succeededFuture(new Entry(PermissionSet.of(roles, permissions), version));
+                });
+    }
+}
@@ -0,0 +1,96 @@
+package dev.cloudeko.kama.identity.role;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, interned set of role names and the permissions they grant.
+ * <p>
+ * Users with the same roles share one instance and every name is a canonical string, so a cache holding thousands
+ * of users costs little more than the distinct role combinations. Lookups use sorted arrays, which stay compact and
+ * are faster than hashing for the handful of entries a user has.
+ */
+public final class PermissionSet {
+
+    public static final PermissionSet EMPTY = new PermissionSet(new String[0], new String[0]);
+
+    private static final Map<PermissionSet, PermissionSet> CANONICAL = new ConcurrentHashMap<>();
+    private static final Map<String, String> NAMES = new ConcurrentHashMap<>();
+
+    private final String[] roles;
+    private final String[] permissions;
+    private final int hash;
+
+    private PermissionSet(String[] roles, String[] permissions) {
+        this.roles = roles;
+        this.permissions = permissions;
+        this.hash = 31 * Arrays.hashCode(roles) + Arrays.hashCode(permissions);
+    }
+
+    /**
+     * Returns the shared instance for the given roles and permissions, duplicates are ignored.
+     */
+    public static PermissionSet of(Collection<String> roles, Collection<String> permissions) {
+        if (roles.isEmpty() && permissions.isEmpty()) {
+            return EMPTY;
+        }
+        PermissionSet set = new PermissionSet(canonical(roles), canonical(permissions));
+        return CANONICAL.computeIfAbsent(set, key -> key);
+    }
+
+    public boolean hasRole(String role) {
+        return Arrays.binarySearch(roles, role) >= 0;
+    }
+
+    public boolean hasPermission(String permission) {
+        return Arrays.binarySearch(permissions, permission) >= 0;
+    }
+
+    public List<String> roles() {
+        return List.of(roles);
+    }
+
+    public List<String> permissions() {
+        return List.of(permissions);
+    }
+
+    public JsonArray rolesJson() {
+        return new JsonArray(roles());
+    }
+
+    public JsonArray permissionsJson() {
+        return new JsonArray(permissions());
+    }
+
+    private static String[] canonical(Collection<String> names) {
+        return names.stream()
+                .filter(Objects::nonNull)
+                .map(name -> NAMES.computeIfAbsent(name, key -> key))
+                .distinct()
+                .sorted()
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PermissionSet other)) {
+            return false;
+        }
+        return hash == other.hash && Arrays.equals(roles, other.roles) && Arrays.equals(permissions, other.permissions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionSet{roles=" + Arrays.toString(roles) + ", permissions=" + Arrays.toString(permissions) + "}";
+    }
+}
@@ -0,0 +1,57 @@
+package dev.cloudeko.kama.identity.session;
+
+/**
+ * A login session held in memory. Expiry and last use change on every use and reach the database in batches.
+ */
+public final class Session {
+
+    private final String id;
+    private final String userId;
+    private volatile String digest;
+    private volatile long expiresAt;
+    private volatile long lastSeen;
+
+    Session(String id, String userId, String digest, long expiresAt, long lastSeen) {
+        this.id = id;
+        this.userId = userId;
+        this.digest = digest;
+        this.expiresAt = expiresAt;
+        this.lastSeen = lastSeen;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String userId() {
+        return userId;
+    }
+
+    public long expiresAt() {
+        return expiresAt;
+    }
+
+    public long lastSeen() {
+        return lastSeen;
+    }
+
+    String digest() {
+        return digest;
+    }
+
+    void digest(String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Records a use at {@code nowSeconds} and slides the expiry, never shortening it.
+     */
+    void touch(long nowSeconds, long ttlSeconds) {
+        lastSeen = nowSeconds;
+        expiresAt = Math.max(expiresAt, nowSeconds + ttlSeconds);
+    }
+
+    boolean isExpired(long nowSeconds) {
+        return expiresAt <= nowSeconds;
+    }
+}
@@ -0,0 +1,380 @@
+package dev.cloudeko.kama.identity.session;
+
+import dev.cloudeko.kama.identity.token.TokenCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import org.jboss.logging.Logger;
+
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Login sessions in {@code user_sessions}, each with an opaque, single-use refresh token.
+ * <p>
+ * Only the SHA-256 digest of a token is stored, so a leaked table does not leak usable tokens. Creating a session,
+ * rotating its token and revoking it are written right away, rotation is conditional on the old digest so two
+ * concurrent refreshes with the same token cannot both succeed.
+ * <p>
+ * Active sessions are kept in memory, spread over shards by token digest so lookups, sweeps and flushes of one shard
+ * do not contend with the others. Every use slides the expiry and records the last use in memory only, changed
+ * sessions are written to {@code expires_at} and {@code last_seen} in one batch per shard every flush interval. Stopping flushes what is left, a crash loses at
+ * most one interval of last-use updates, never a session or a rotation.
+ * <p>
+ * The sweeper deletes expired and revoked rows with a single statement.
+ */
+public class SessionStore {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionStore.class);
+
+    public static final long DEFAULT_TTL_SECONDS = 30 * 24 * 3600;
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 5_000;
+    public static final long DEFAULT_SWEEP_INTERVAL_MS = 600_000;
+
+    private static final int SHARDS = 16;
+    private static final int TOKEN_BYTES = 32;
+
+    /**
+     * A freshly issued refresh token and the session it belongs to.
+     */
+    public record Issued(String token, Session session) {
+    }
+
+    private static final class Shard {
+        final Map<String, Session> byDigest = new ConcurrentHashMap<>();
+        final Set<Session> dirty = ConcurrentHashMap.newKeySet();
+    }
+
+    private final Vertx vertx;
+    private final Pool client;
+    private final long ttlSeconds;
+    private final long flushIntervalMs;
+    private final int shardCapacity;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final Map<String, Session> byId = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final LongSupplier clock;
+    private final long flushTimer;
+    private final long sweepTimer;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter swept;
+    private final DistributionSummary flushBatches;
+
+    public SessionStore(Vertx vertx, Pool client, long ttlSeconds, int cacheSize, MeterRegistry registry) {
+        this(vertx, client, ttlSeconds, cacheSize, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_SWEEP_INTERVAL_MS, registry);
+    }
+
+    public SessionStore(Vertx vertx, Pool client, long ttlSeconds, int cacheSize, long flushIntervalMs, long sweepIntervalMs, MeterRegistry registry) {
+        this(vertx, client, ttlSeconds, cacheSize, flushIntervalMs, sweepIntervalMs, System::currentTimeMillis, registry);
+    }
+
+    SessionStore(Vertx vertx, Pool client, long ttlSeconds, int cacheSize, long flushIntervalMs, long sweepIntervalMs,
+                 LongSupplier clock, MeterRegistry registry) {
+        this.vertx = vertx;
+        this.clock = clock;
+        this.client = client;
+        this.ttlSeconds = ttlSeconds;
+        this.flushIntervalMs = flushIntervalMs;
+        this.shardCapacity = Math.max(1, cacheSize / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+
+        this.hits = Counter.builder("kama.identity.sessions.cache")
+                .description("Session lookups by refresh token")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("kama.identity.sessions.cache")
+                .description("Session lookups by refresh token")
+                .tag("result", "miss")
+                .register(registry);
+        this.swept = Counter.builder("kama.identity.sessions.swept")
+                .description("Expired or revoked session rows deleted")
+                .register(registry);
+        this.flushBatches = DistributionSummary.builder("kama.identity.sessions.flush")
+                .description("Sessions written per write-behind batch")
+                .register(registry);
+
+        Gauge.builder("kama.identity.sessions.cache.size", byId, Map::size)
+                .description("Sessions currently held in memory")
+                .register(registry);
+        Gauge.builder("kama.identity.sessions.dirty", this, SessionStore::dirty)
+                .description("Sessions with changes not yet written")
+                .register(registry);
+
+        this.flushTimer = vertx.setPeriodic(flushIntervalMs, id -> flush());
+        this.sweepTimer = vertx.setPeriodic(sweepIntervalMs, id -> sweep());
+    }
+
+    public long ttlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * Starts a new session for {@code userId}.
+     */
+    public Future<Issued> create(String userId) {
+        String token = newToken();
+        String digest = TokenCache.digest(token);
+        long now = nowSeconds();
+        Session session = new Session(UUID.randomUUID().toString(), userId, digest, now + ttlSeconds, now);
+
+        String sql = "INSERT INTO \"user_sessions\" (\"id\", \"user_id\", \"session_token\", \"expires_at\", \"last_seen\", \"active\", \"create_time\", \"update_time\") " +
+                "VALUES (#{id}, #{user_id}, #{session_token}, #{expires_at}, #{last_seen}, TRUE, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)";
+        return SqlTemplate.forUpdate(client, sql)
+                .execute(Map.of(
+                        "id", session.id(),
+                        "user_id", userId,
+                        "session_token", digest,
+                        "expires_at", toDateTime(session.expiresAt()),
+                        "last_seen", toDateTime(now)))
+                .map(result -> {
+                    cache(session);
+                    return new Issued(token, session);
+                });
+    }
+
+    /**
+     * Exchanges {@code token} for a new refresh token of the same session and slides its expiry. Fails when the token
+     * is unknown, was already used, or its session expired or was revoked.
+     */
+    public Future<Issued> rotate(String token) {
+        String digest = TokenCache.digest(token);
+        return find(digest).compose(session -> {
+            long now = nowSeconds();
+            if (session == null || session.isExpired(now)) {
+                return Future.failedFuture("Invalid refresh token");
+            }
+
+            String next = newToken();
+            String nextDigest = TokenCache.digest(next);
+            long expiresAt = Math.max(session.expiresAt(), now + ttlSeconds);
+            String sql = "UPDATE \"user_sessions\" SET \"session_token\" = #{next}, \"expires_at\" = #{expires_at}, \"last_seen\" = #{last_seen}, " +
+                    "\"update_time\" = CURRENT_TIMESTAMP WHERE \"id\" = #{id} AND \"session_token\" = #{current} AND \"active\" = TRUE";
+            return SqlTemplate.forUpdate(client, sql)
+                    .execute(Map.of("next", nextDigest, "expires_at", toDateTime(expiresAt), "last_seen", toDateTime(now),
+                            "id", session.id(), "current", digest))
+                    .compose(result -> {
+                        // A concurrent rotation of the same token won, it already cached the session under its new token
+                        if (result.rowCount() == 0) {
+                            return Future.failedFuture("Invalid refresh token");
+                        }
+                        uncache(session);
+                        session.digest(nextDigest);
+                        session.touch(now, ttlSeconds);
+                        cache(session);
+                        return Future.succeededFuture(new Issued(next, session));
+                    });
+        });
+    }
+
+    /**
+     * Records a use of a session held in memory, for example by an access token carrying its id. Returns {@code null}
+     * for sessions that are not in memory or expired, callers must not treat that as revoked.
+     */
+    public Session touch(String sessionId) {
+        Session session = byId.get(sessionId);
+        long now = nowSeconds();
+        if (session == null || session.isExpired(now)) {
+            return null;
+        }
+        if (session.lastSeen() != now) {
+            session.touch(now, ttlSeconds);
+            shard(session.digest()).dirty.add(session);
+        }
+        return session;
+    }
+
+    /**
+     * Ends every session of {@code userId}.
+     */
+    public Future<Void> revokeAll(String userId) {
+        evictUser(userId);
+        String sql = "UPDATE \"user_sessions\" SET \"active\" = FALSE, \"update_time\" = CURRENT_TIMESTAMP WHERE \"user_id\" = #{user_id} AND \"active\" = TRUE";
+        return SqlTemplate.forUpdate(client, sql)
+                .execute(Map.of("user_id", userId))
+                .mapEmpty();
+    }
+
+    /**
+     * Drops sessions of {@code userId} from memory, for revocations that happened on another node.
+     */
+    public void evictUser(String userId) {
+        for (Session session : byId.values()) {
+            if (session.userId().equals(userId)) {
+                uncache(session);
+            }
+        }
+    }
+
+    /**
+     * Writes the expiry and last use of every changed session, one batch per shard. Sessions of a failed batch stay
+     * dirty and are retried with the next flush.
+     */
+    public Future<Void> flush() {
+        String sql = "UPDATE \"user_sessions\" SET \"expires_at\" = #{expires_at}, \"last_seen\" = #{last_seen} WHERE \"id\" = #{id} AND \"active\" = TRUE";
+
+        List<Future<?>> batches = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard.dirty.isEmpty()) {
+                continue;
+            }
+
+            List<Session> drained = new ArrayList<>();
+            for (Iterator<Session> it = shard.dirty.iterator(); it.hasNext(); ) {
+                drained.add(it.next());
+                it.remove();
+            }
+
+            List<Map<String, Object>> params = new ArrayList<>(drained.size());
+            for (Session session : drained) {
+                params.add(Map.of(
+                        "id", session.id(),
+                        "expires_at", toDateTime(session.expiresAt()),
+                        "last_seen", toDateTime(session.lastSeen())));
+            }
+
+            flushBatches.record(drained.size());
+            batches.add(SqlTemplate.forUpdate(client, sql)
+                    .executeBatch(params)
+                    .onFailure(err -> {
+                        LOGGER.warnv(err, "Failed to write {0} sessions, retrying with the next flush", drained.size());
+                        shard.dirty.addAll(drained);
+                    }));
+        }
+        return Future.join(batches).mapEmpty();
+    }
+
+    /**
+     * Drops expired sessions from memory, trims shards above their capacity and deletes expired or revoked rows.
+     */
+    public Future<Void> sweep() {
+        long now = nowSeconds();
+        for (Shard shard : shards) {
+            for (Session session : shard.byDigest.values()) {
+                if (session.isExpired(now)) {
+                    uncache(session);
+                }
+            }
+            trim(shard);
+        }
+
+        // Other nodes write slid expiries behind as well, leave them a few intervals before a row counts as expired
+        long grace = Math.max(1, flushIntervalMs * 3 / 1000);
+        String sql = "DELETE FROM \"user_sessions\" WHERE \"expires_at\" < #{cutoff} OR \"active\" = FALSE";
+        return flush()
+                .compose(v -> SqlTemplate.forUpdate(client, sql).execute(Map.of("cutoff", toDateTime(now - grace))))
+                .<Void>map(result -> {
+                    swept.increment(result.rowCount());
+                    LOGGER.debugv("Deleted {0} expired or revoked sessions", result.rowCount());
+                    return null;
+                })
+                .onFailure(err -> LOGGER.warn("Failed to sweep sessions", err));
+    }
+
+    /**
+     * Stops the timers and writes all pending changes.
+     */
+    public Future<Void> close() {
+        vertx.cancelTimer(flushTimer);
+        vertx.cancelTimer(sweepTimer);
+        return flush();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    int dirty() {
+        int dirty = 0;
+        for (Shard shard : shards) {
+            dirty += shard.dirty.size();
+        }
+        return dirty;
+    }
+
+    private Future<Session> find(String digest) {
+        Session cached = shard(digest).byDigest.get(digest);
+        if (cached != null) {
+            hits.increment();
+            return Future.succeededFuture(cached);
+        }
+        misses.increment();
+
+        // Served by the unique index on session_token
+        String sql = "SELECT \"id\", \"user_id\", \"expires_at\", \"last_seen\" FROM \"user_sessions\" WHERE \"session_token\" = #{session_token} AND \"active\" = TRUE";
+        return SqlTemplate.forQuery(client, sql)
+                .execute(Map.of("session_token", digest))
+                .map(rows -> {
+                    Iterator<Row> it = rows.iterator();
+                    if (!it.hasNext()) {
+                        return null;
+                    }
+                    Row row = it.next();
+                    long expiresAt = row.getLocalDateTime("expires_at").toEpochSecond(ZoneOffset.UTC);
+                    LocalDateTime lastSeen = row.getLocalDateTime("last_seen");
+                    return new Session(row.getString("id"), row.getString("user_id"), digest, expiresAt,
+                            lastSeen != null ? lastSeen.toEpochSecond(ZoneOffset.UTC) : 0);
+                });
+    }
+
+    private void cache(Session session) {
+        Shard shard = shard(session.digest());
+        shard.byDigest.put(session.digest(), session);
+        byId.put(session.id(), session);
+        if (shard.byDigest.size() > shardCapacity) {
+            trim(shard);
+        }
+    }
+
+    private void uncache(Session session) {
+        Shard shard = shard(session.digest());
+        shard.byDigest.remove(session.digest(), session);
+        byId.remove(session.id(), session);
+        // Pending changes are still written, the flush skips revoked rows
+    }
+
+    // Evicts the least recently used sessions that have nothing left to write
+    private void trim(Shard shard) {
+        int excess = shard.byDigest.size() - shardCapacity;
+        if (excess <= 0) {
+            return;
+        }
+        shard.byDigest.values().stream()
+                .filter(session -> !shard.dirty.contains(session))
+                .sorted(Comparator.comparingLong(Session::lastSeen))
+                .limit(excess)
+                .forEach(this::uncache);
+    }
+
+    private Shard shard(String digest) {
+        return shards[(digest.hashCode() & 0x7fffffff) % SHARDS];
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private long nowSeconds() {
+        return clock.getAsLong() / 1000;
+    }
+
+    private static LocalDateTime toDateTime(long epochSeconds) {
+        return LocalDateTime.ofEpochSecond(epochSeconds, 0, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,284 @@
+package dev.cloudeko.kama.identity.throttle;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Rejects login attempts for emails and client addresses that recently saw too many of them, before any database or
+ * hashing work is done.
+ * <p>
+ * Attempts are counted in sliding windows, approximated from the count of the current and the previous fixed window.
+ * <p>
+ * Per email only failed attempts count, and a successful login clears them. Failures are kept per normalized email, in a
+ * bounded LRU of at most {@code maxEmails} entries, so one account's success never clears another account's lockout.
+ * Per address every attempt counts. Addresses are hashed onto a fixed number of stripes updated with compare-and-set, so
+ * memory stays constant however many addresses an attacker uses, at the price of colliding addresses sharing a counter.
+ * <p>
+ * Once a window is over its limit every further attempt has to wait a delay that doubles with each attempt over the
+ * limit, up to a maximum.
+ */
+public class LoginThrottle {
+
+    public static final int DEFAULT_EMAIL_LIMIT = 5;
+    public static final long DEFAULT_EMAIL_WINDOW_MS = 300_000;
+    public static final int DEFAULT_ADDRESS_LIMIT = 100;
+    public static final long DEFAULT_ADDRESS_WINDOW_MS = 60_000;
+    public static final long DEFAULT_BASE_DELAY_MS = 1_000;
+    public static final long DEFAULT_MAX_DELAY_MS = 900_000;
+    public static final int DEFAULT_MAX_EMAILS = 100_000;
+
+    private static final int STRIPES = 4096;
+    private static final int EMAIL_STRIPES = 64;
+    private static final int MAX_SHIFT = 30;
+
+    private final Failures emails;
+    private final Stripes addresses;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final LongSupplier clock;
+
+    private final Counter admitted;
+    private final Counter throttledByEmail;
+    private final Counter throttledByAddress;
+
+    public LoginThrottle(JsonObject config, MeterRegistry registry) {
+        this(config.getInteger("emailLimit", DEFAULT_EMAIL_LIMIT),
+                config.getLong("emailWindowMs", DEFAULT_EMAIL_WINDOW_MS),
+                config.getInteger("addressLimit", DEFAULT_ADDRESS_LIMIT),
+                config.getLong("addressWindowMs", DEFAULT_ADDRESS_WINDOW_MS),
+                config.getLong("baseDelayMs", DEFAULT_BASE_DELAY_MS),
+                config.getLong("maxDelayMs", DEFAULT_MAX_DELAY_MS),
+                config.getInteger("maxEmails", DEFAULT_MAX_EMAILS),
+                System::currentTimeMillis,
+                registry);
+    }
+
+    LoginThrottle(int emailLimit, long emailWindowMs, int addressLimit, long addressWindowMs, long baseDelayMs, long maxDelayMs,
+                  int maxEmails, LongSupplier clock, MeterRegistry registry) {
+        this.emails = new Failures(emailLimit, emailWindowMs, maxEmails);
+        this.addresses = new Stripes(addressLimit, addressWindowMs);
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.clock = clock;
+
+        this.admitted = Counter.builder("kama.identity.login.attempts")
+                .description("Login attempts by throttling outcome")
+                .tag("result", "admitted")
+                .register(registry);
+        this.throttledByEmail = Counter.builder("kama.identity.login.attempts")
+                .description("Login attempts by throttling outcome")
+                .tag("result", "throttled")
+                .tag("key", "email")
+                .register(registry);
+        this.throttledByAddress = Counter.builder("kama.identity.login.attempts")
+                .description("Login attempts by throttling outcome")
+                .tag("result", "throttled")
+                .tag("key", "address")
+                .register(registry);
+    }
+
+    /**
+     * Admits or rejects an attempt. Returns {@code 0} when admitted, otherwise the milliseconds until the next attempt
+     * would be considered. Admitted attempts count against the address right away.
+     */
+    public long acquire(String email, String address) {
+        long now = clock.getAsLong();
+
+        long emailWait = emails.waitMs(emailKey(email), now, baseDelayMs, maxDelayMs);
+        if (emailWait > 0) {
+            throttledByEmail.increment();
+            return emailWait;
+        }
+        if (address != null) {
+            int stripe = addresses.stripe(address);
+            long addressWait = addresses.waitMs(stripe, now, baseDelayMs, maxDelayMs);
+            if (addressWait > 0) {
+                throttledByAddress.increment();
+                return addressWait;
+            }
+            addresses.increment(stripe, now);
+        }
+
+        admitted.increment();
+        return 0;
+    }
+
+    /**
+     * Records the outcome of an admitted attempt. A success clears the failures counted for the email, a failure must
+     * only be reported for wrong credentials.
+     */
+    public void complete(String email, boolean succeeded) {
+        String key = emailKey(email);
+        if (succeeded) {
+            emails.reset(key);
+        } else {
+            emails.increment(key, clock.getAsLong());
+        }
+    }
+
+    private static String emailKey(String email) {
+        return email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static long delayMs(double count, int limit, long lastAttempt, long now, long baseDelayMs, long maxDelayMs) {
+        if (count < limit) {
+            return 0;
+        }
+        int excess = (int) Math.min(count - limit, MAX_SHIFT);
+        long delay = Math.min(baseDelayMs << excess, maxDelayMs);
+        return Math.max(0, lastAttempt + delay - now);
+    }
+
+    /**
+     * Sliding-window failure counters per email, on independently locked LRU stripes. A stripe keeps at most its share
+     * of {@code maxEmails} entries and forgets the least recently seen email first.
+     */
+    private static final class Failures {
+
+        private static final class Window {
+
+            long window;
+            long count;
+            long previous;
+            long lastAttempt;
+        }
+
+        private final int limit;
+        private final long windowMs;
+        private final LinkedHashMap<String, Window>[] stripes;
+
+        @SuppressWarnings("unchecked")
+        Failures(int limit, long windowMs, int maxEmails) {
+            this.limit = limit;
+            this.windowMs = windowMs;
+            int capacity = Math.max(1, maxEmails / EMAIL_STRIPES);
+            this.stripes = new LinkedHashMap[EMAIL_STRIPES];
+            for (int i = 0; i < EMAIL_STRIPES; i++) {
+                stripes[i] = new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                        return size() > capacity;
+                    }
+                };
+            }
+        }
+
+        private LinkedHashMap<String, Window> stripe(String key) {
+            int hash = key.hashCode();
+            return stripes[(hash ^ (hash >>> 16)) & (EMAIL_STRIPES - 1)];
+        }
+
+        void increment(String key, long now) {
+            long window = now / windowMs;
+            LinkedHashMap<String, Window> stripe = stripe(key);
+            synchronized (stripe) {
+                Window entry = stripe.computeIfAbsent(key, k -> new Window());
+                if (entry.window != window) {
+                    entry.previous = entry.window == window - 1 ? entry.count : 0;
+                    entry.window = window;
+                    entry.count = 0;
+                }
+                entry.count++;
+                entry.lastAttempt = Math.max(entry.lastAttempt, now);
+            }
+        }
+
+        void reset(String key) {
+            LinkedHashMap<String, Window> stripe = stripe(key);
+            synchronized (stripe) {
+                stripe.remove(key);
+            }
+        }
+
+        long waitMs(String key, long now, long baseDelayMs, long maxDelayMs) {
+            long window = now / windowMs;
+            double elapsed = (double) (now % windowMs) / windowMs;
+            LinkedHashMap<String, Window> stripe = stripe(key);
+            synchronized (stripe) {
+                Window entry = stripe.get(key);
+                if (entry == null) {
+                    return 0;
+                }
+                double count;
+                if (entry.window == window) {
+                    count = entry.previous * (1 - elapsed) + entry.count;
+                } else if (entry.window == window - 1) {
+                    count = entry.count * (1 - elapsed);
+                } else {
+                    return 0;
+                }
+                return delayMs(count, limit, entry.lastAttempt, now, baseDelayMs, maxDelayMs);
+            }
+        }
+    }
+
+    /**
+     * Sliding-window counters on a fixed number of stripes. The current window index and its count are packed into one
+     * long so both change in a single compare-and-set.
+     */
+    private static final class Stripes {
+
+        private static final long COUNT_MASK = 0xffffffffL;
+
+        private final int limit;
+        private final long windowMs;
+        private final AtomicLongArray current = new AtomicLongArray(STRIPES);
+        private final AtomicLongArray previous = new AtomicLongArray(STRIPES);
+        private final AtomicLongArray lastAttempt = new AtomicLongArray(STRIPES);
+
+        Stripes(int limit, long windowMs) {
+            this.limit = limit;
+            this.windowMs = windowMs;
+        }
+
+        int stripe(String key) {
+            int hash = key.hashCode();
+            hash ^= hash >>> 16;
+            return hash & (STRIPES - 1);
+        }
+
+        void increment(int stripe, long now) {
+            long window = now / windowMs;
+            while (true) {
+                long packed = current.get(stripe);
+                long packedWindow = packed >>> 32;
+                long count = packed & COUNT_MASK;
+                long next = packedWindow == window ? (window << 32) | Math.min(count + 1, COUNT_MASK) : (window << 32) | 1;
+                if (current.compareAndSet(stripe, packed, next)) {
+                    if (packedWindow != window) {
+                        // A racing roll-over may overwrite this with the same value, the estimate only needs to be close
+                        previous.set(stripe, packedWindow == window - 1 ? count : 0);
+                    }
+                    break;
+                }
+            }
+            lastAttempt.accumulateAndGet(stripe, now, Math::max);
+        }
+
+        long waitMs(int stripe, long now, long baseDelayMs, long maxDelayMs) {
+            return delayMs(estimate(stripe, now), limit, lastAttempt.get(stripe), now, baseDelayMs, maxDelayMs);
+        }
+
+        private double estimate(int stripe, long now) {
+            long window = now / windowMs;
+            double elapsed = (double) (now % windowMs) / windowMs;
+            long packed = current.get(stripe);
+            long packedWindow = packed >>> 32;
+            long count = packed & COUNT_MASK;
+            if (packedWindow == window) {
+                return previous.get(stripe) * (1 - elapsed) + count;
+            }
+            if (packedWindow == window - 1) {
+                return count * (1 - elapsed);
+            }
+            return 0;
+        }
+    }
+}
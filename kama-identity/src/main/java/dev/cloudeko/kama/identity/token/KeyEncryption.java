@@ -0,0 +1,86 @@
+package dev.cloudeko.kama.identity.token;
+
+import io.vertx.core.json.JsonObject;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Encrypts the private halves of signing keys before they are stored, with AES-256-GCM under a key derived from a
+ * configured secret. The {@code kid} is authenticated along with the key, a ciphertext copied to another row does not
+ * decrypt.
+ * <p>
+ * Without a secret keys are stored as plain JSON. Stored keys of either kind are read, so a secret can be introduced on
+ * a running deployment, keys created before stay readable until they are rotated out.
+ */
+final class KeyEncryption {
+
+    private static final String PREFIX = "v1:";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param secret a random secret of at least 32 bytes, or {@code null} to store keys unencrypted
+     */
+    KeyEncryption(String secret) {
+        if (secret == null || secret.isEmpty()) {
+            this.key = null;
+            return;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(("kama-signing-keys:" + secret).getBytes(StandardCharsets.UTF_8));
+            this.key = new SecretKeySpec(digest, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    boolean enabled() {
+        return key != null;
+    }
+
+    String seal(String kid, JsonObject privateJwk) {
+        if (key == null) {
+            return privateJwk.encode();
+        }
+        try {
+            byte[] iv = new byte[IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(kid.getBytes(StandardCharsets.UTF_8));
+            byte[] sealed = cipher.doFinal(privateJwk.encode().getBytes(StandardCharsets.UTF_8));
+            return PREFIX + Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt signing key " + kid, e);
+        }
+    }
+
+    JsonObject open(String kid, String stored) {
+        if (!stored.startsWith(PREFIX)) {
+            return new JsonObject(stored);
+        }
+        if (key == null) {
+            throw new IllegalStateException("Signing key " + kid + " is encrypted, but no key encryption secret is configured");
+        }
+        try {
+            byte[] sealed = Base64.getDecoder().decode(stored.substring(PREFIX.length()));
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_BYTES));
+            cipher.updateAAD(kid.getBytes(StandardCharsets.UTF_8));
+            return new JsonObject(new String(cipher.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES), StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to decrypt signing key " + kid + ", the key encryption secret differs", e);
+        }
+    }
+}
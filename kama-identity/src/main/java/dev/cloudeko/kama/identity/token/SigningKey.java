@@ -0,0 +1,102 @@
+package dev.cloudeko.kama.identity.token;
+
+import io.vertx.core.json.JsonObject;
+
+import java.math.BigInteger;
+import java.security.*;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.EdECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * A token signing key as a pair of JSON Web Keys. Only the public half is ever published, from creation on, while the
+ * key only signs from {@code activatesAt} on.
+ */
+public record SigningKey(String kid, String algorithm, JsonObject privateJwk, JsonObject publicJwk, long createdAt, long activatesAt,
+                         Long retiredAt) {
+
+    public static final String ES256 = "ES256";
+    public static final String EDDSA = "EdDSA";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    /**
+     * Returns whether the key may sign at {@code now}, epoch seconds.
+     */
+    public boolean isActive(long now) {
+        return retiredAt == null && activatesAt <= now;
+    }
+
+    /**
+     * Returns whether the key is published but does not sign yet at {@code now}, epoch seconds.
+     */
+    public boolean isPending(long now) {
+        return retiredAt == null && activatesAt > now;
+    }
+
+    /**
+     * Returns this key, signing from {@code activatesAt} instead.
+     */
+    public SigningKey activatingAt(long activatesAt) {
+        return new SigningKey(kid, algorithm, privateJwk, publicJwk, createdAt, activatesAt, retiredAt);
+    }
+
+    /**
+     * Generates a new key for {@code algorithm}, either {@code ES256} (P-256) or {@code EdDSA} (Ed25519).
+     */
+    public static SigningKey generate(String algorithm) {
+        String kid = UUID.randomUUID().toString();
+        try {
+            JsonObject publicJwk;
+            JsonObject privateJwk;
+            if (ES256.equals(algorithm)) {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+                KeyPair pair = generator.generateKeyPair();
+                ECPublicKey publicKey = (ECPublicKey) pair.getPublic();
+
+                publicJwk = new JsonObject()
+                        .put("kty", "EC")
+                        .put("crv", "P-256")
+                        .put("x", encode(publicKey.getW().getAffineX()))
+                        .put("y", encode(publicKey.getW().getAffineY()));
+                privateJwk = publicJwk.copy().put("d", encode(((ECPrivateKey) pair.getPrivate()).getS()));
+            } else if (EDDSA.equals(algorithm)) {
+                KeyPair pair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+                // The X.509 encoding of an Ed25519 key is a fixed 12 byte prefix followed by the raw key
+                byte[] encoded = pair.getPublic().getEncoded();
+                byte[] raw = Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length);
+                byte[] secret = ((EdECPrivateKey) pair.getPrivate()).getBytes().orElseThrow();
+
+                publicJwk = new JsonObject()
+                        .put("kty", "OKP")
+                        .put("crv", "Ed25519")
+                        .put("x", ENCODER.encodeToString(raw));
+                privateJwk = publicJwk.copy().put("d", ENCODER.encodeToString(secret));
+            } else {
+                throw new IllegalArgumentException("Unsupported signing algorithm: " + algorithm);
+            }
+
+            for (JsonObject jwk : new JsonObject[]{publicJwk, privateJwk}) {
+                jwk.put("kid", kid).put("alg", algorithm).put("use", "sig");
+            }
+            long now = System.currentTimeMillis() / 1000;
+            return new SigningKey(kid, algorithm, privateJwk, publicJwk, now, now, null);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate " + algorithm + " key", e);
+        }
+    }
+
+    // Fixed length, unsigned big-endian coordinates as required by RFC 7518
+    private static String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, out, 32 - length, length);
+        return ENCODER.encodeToString(out);
+    }
+}
@@ -0,0 +1,165 @@
+package dev.cloudeko.kama.identity.token;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A bounded cache of verified JWTs, keyed by the SHA-256 digest of the token.
+ * <p>
+ * Entries are dropped once their {@code exp} has passed, so a cached token is never accepted longer than a fully
+ * verified one would be. Revoking a user sets a not-before watermark: tokens of that user issued before it are removed
+ * from the cache and rejected on later verifications as well.
+ */
+public class TokenCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    /**
+     * The verified claims of a token.
+     */
+    public record Entry(String userId, long issuedAt, long expiresAt, JsonObject claims) {
+    }
+
+    private final int maximumSize;
+    private final Map<String, Entry> entries;
+    private final Map<String, Long> notBefore = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter expired;
+    private final Counter revoked;
+    private final Counter sizeEvictions;
+
+    public TokenCache(int maximumSize, MeterRegistry registry) {
+        this.maximumSize = maximumSize;
+        this.hits = Counter.builder("kama.identity.tokens.cache")
+                .description("Verified token cache lookups")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("kama.identity.tokens.cache")
+                .description("Verified token cache lookups")
+                .tag("result", "miss")
+                .register(registry);
+        this.expired = Counter.builder("kama.identity.tokens.cache.evictions")
+                .description("Verified tokens removed from the cache")
+                .tag("cause", "expired")
+                .register(registry);
+        this.revoked = Counter.builder("kama.identity.tokens.cache.evictions")
+                .description("Verified tokens removed from the cache")
+                .tag("cause", "revoked")
+                .register(registry);
+        this.sizeEvictions = Counter.builder("kama.identity.tokens.cache.evictions")
+                .description("Verified tokens removed from the cache")
+                .tag("cause", "size")
+                .register(registry);
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > TokenCache.this.maximumSize) {
+                    sizeEvictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        Gauge.builder("kama.identity.tokens.cache.size", this, TokenCache::size)
+                .description("Verified tokens currently cached")
+                .register(registry);
+    }
+
+    public static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached claims of a token, or {@code null} when the token was not verified before or expired.
+     */
+    public Entry get(String digest, long nowSeconds) {
+        synchronized (entries) {
+            Entry entry = entries.get(digest);
+            if (entry != null && entry.expiresAt() <= nowSeconds) {
+                entries.remove(digest);
+                expired.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry;
+        }
+    }
+
+    public void put(String digest, Entry entry) {
+        if (maximumSize <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(digest, entry);
+        }
+    }
+
+    /**
+     * Whether a token of {@code userId} issued at {@code issuedAt} was revoked.
+     */
+    public boolean isRevoked(String userId, long issuedAt) {
+        synchronized (entries) {
+            Long watermark = notBefore.get(userId);
+            return watermark != null && issuedAt < watermark;
+        }
+    }
+
+    /**
+     * Rejects every token of {@code userId} issued before {@code notBeforeSeconds}. Like {@code iat} the watermark has
+     * second precision, tokens issued within the same second stay valid.
+     */
+    public void revoke(String userId, long notBeforeSeconds) {
+        synchronized (entries) {
+            notBefore.merge(userId, notBeforeSeconds, Math::max);
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (entry.userId().equals(userId) && entry.issuedAt() < notBeforeSeconds) {
+                    it.remove();
+                    revoked.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes expired tokens, and watermarks older than {@code maxLifetimeSeconds} as no token they apply to can still
+     * be valid.
+     */
+    public void evictExpired(long nowSeconds, long maxLifetimeSeconds) {
+        synchronized (entries) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().expiresAt() <= nowSeconds) {
+                    it.remove();
+                    expired.increment();
+                }
+            }
+            notBefore.values().removeIf(watermark -> watermark + maxLifetimeSeconds < nowSeconds);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
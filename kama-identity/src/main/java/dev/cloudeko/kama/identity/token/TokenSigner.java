@@ -0,0 +1,319 @@
+package dev.cloudeko.kama.identity.token;
+
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.authentication.TokenCredentials;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs and verifies access tokens with asymmetric keys stored in the {@code signing_keys} table.
+ * <p>
+ * Every token carries the {@code kid} of the key that signed it. Keys are rotated after the configured interval, the
+ * previous key is retired but still verifies tokens for {@code verifySeconds}, so tokens stay valid across a rotation.
+ * The public halves are published as a JWKS document, other services can verify tokens locally with cached keys. A
+ * scheduled rotation publishes the next key {@value #JWKS_MAX_AGE_SECONDS} seconds, one JWKS cache lifetime, before it
+ * starts signing, so a verifier holding a cached document never sees a token signed by a key it does not know.
+ * <p>
+ * All nodes share the table. The node that rotates broadcasts {@link AuthorizationEvents#KEYS_ROTATED}, the others
+ * also reload on a timer in case they missed it. Nodes starting on an empty table create the first key under a lock, so
+ * exactly one of them does.
+ * <p>
+ * Private keys are stored encrypted when a key encryption secret is configured, see {@link KeyEncryption}. Without one
+ * anyone who can read the table can sign tokens, which is only acceptable where the database is as trusted as the
+ * service itself, a warning is logged on start.
+ */
+public class TokenSigner {
+
+    private static final Logger LOGGER = Logger.getLogger(TokenSigner.class);
+
+    public static final String DEFAULT_ALGORITHM = SigningKey.ES256;
+    public static final long DEFAULT_ROTATION_SECONDS = 7 * 24 * 3600;
+
+    /**
+     * How long verifiers may cache the JWKS document.
+     */
+    public static final long JWKS_MAX_AGE_SECONDS = 300;
+
+    private static final long REFRESH_INTERVAL_MS = 300_000;
+
+    private record KeySet(SigningKey active, SigningKey next, List<SigningKey> keys, JWTAuth auth, JsonObject jwks) {
+    }
+
+    private final Vertx vertx;
+    private final Pool client;
+    private final String algorithm;
+    private final long rotationSeconds;
+    private final long verifySeconds;
+    private final KeyEncryption encryption;
+    private final Future<Void> ready;
+
+    private volatile KeySet keySet;
+    private volatile String scheduledKid;
+
+    /**
+     * Creates a signer that stores private keys unencrypted.
+     */
+    public TokenSigner(Vertx vertx, Pool client, String algorithm, long rotationSeconds, long verifySeconds) {
+        this(vertx, client, algorithm, rotationSeconds, verifySeconds, null);
+    }
+
+    /**
+     * @param algorithm           {@code ES256} or {@code EdDSA}, used for keys created from now on
+     * @param rotationSeconds     age after which the active key is replaced
+     * @param verifySeconds       how long a retired key keeps verifying, at least the token lifetime
+     * @param keyEncryptionSecret secret the private keys are encrypted with, {@code null} stores them unencrypted
+     */
+    public TokenSigner(Vertx vertx, Pool client, String algorithm, long rotationSeconds, long verifySeconds, String keyEncryptionSecret) {
+        if (!SigningKey.ES256.equals(algorithm) && !SigningKey.EDDSA.equals(algorithm)) {
+            throw new IllegalArgumentException("Unsupported signing algorithm: " + algorithm);
+        }
+
+        this.vertx = vertx;
+        this.client = client;
+        this.algorithm = algorithm;
+        this.rotationSeconds = rotationSeconds;
+        this.verifySeconds = verifySeconds;
+        this.encryption = new KeyEncryption(keyEncryptionSecret);
+        if (!encryption.enabled()) {
+            LOGGER.warn("No key encryption secret configured, private signing keys are stored unencrypted");
+        }
+        this.ready = refresh();
+
+        vertx.setPeriodic(REFRESH_INTERVAL_MS, id -> refresh());
+        vertx.eventBus().<JsonObject>consumer(AuthorizationEvents.KEYS_ROTATED, message -> refresh());
+    }
+
+    /**
+     * Completes once the signing keys are loaded, fails when the first load failed.
+     */
+    public Future<Void> ready() {
+        return ready;
+    }
+
+    public Future<String> sign(JsonObject claims) {
+        return current().map(keys -> keys.auth().generateToken(claims, new JWTOptions().setAlgorithm(keys.active().algorithm())));
+    }
+
+    /**
+     * Verifies the signature and expiry of {@code token} and returns its claims.
+     */
+    public Future<JsonObject> verify(String token) {
+        return current().compose(keys -> keys.auth().authenticate(new TokenCredentials(token)))
+                .map(user -> user.principal());
+    }
+
+    /**
+     * Returns the public keys that currently verify tokens as a JWKS document.
+     */
+    public Future<JsonObject> jwks() {
+        return current().map(KeySet::jwks);
+    }
+
+    /**
+     * Activates a new key right away, for example after a key was compromised.
+     */
+    public Future<Void> rotate() {
+        SigningKey key = SigningKey.generate(algorithm);
+        long now = key.createdAt();
+
+        String retire = "UPDATE \"signing_keys\" SET \"retired_at\" = #{now} WHERE \"retired_at\" IS NULL AND \"kid\" <> #{kid}";
+
+        return client.withTransaction(conn -> insert(conn, key)
+                        .compose(result -> SqlTemplate.forUpdate(conn, retire).execute(Map.of("now", now, "kid", key.kid()))))
+                .compose(result -> load())
+                .map(loaded -> {
+                    LOGGER.infov("Activated {0} signing key {1}", key.algorithm(), key.kid());
+                    vertx.eventBus().publish(AuthorizationEvents.KEYS_ROTATED, new JsonObject().put("kid", key.kid()));
+                    return null;
+                });
+    }
+
+    /**
+     * Creates the first key unless another node did so meanwhile. The lock row serializes nodes that start together,
+     * the ones waiting find the key once the first committed.
+     */
+    private Future<Void> bootstrap() {
+        SigningKey key = SigningKey.generate(algorithm);
+
+        String lock = "SELECT \"name\" FROM \"signing_key_locks\" WHERE \"name\" = 'bootstrap' FOR UPDATE";
+        String active = "SELECT COUNT(*) AS \"active\" FROM \"signing_keys\" WHERE \"retired_at\" IS NULL AND \"activates_at\" <= #{now}";
+
+        return client.withTransaction(conn -> conn.query(lock).execute()
+                        .compose(locked -> SqlTemplate.forQuery(conn, active).execute(Map.of("now", key.createdAt())))
+                        .compose(rows -> rows.iterator().next().getLong("active") > 0
+                                ? Future.succeededFuture(false)
+                                : insert(conn, key).map(true)))
+                .compose(created -> load().map(loaded -> {
+                    if (created) {
+                        LOGGER.infov("Activated {0} signing key {1}", key.algorithm(), key.kid());
+                        vertx.eventBus().publish(AuthorizationEvents.KEYS_ROTATED, new JsonObject().put("kid", key.kid()));
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * Publishes a new key that starts signing one JWKS cache lifetime from now.
+     */
+    private Future<Void> schedule() {
+        SigningKey key = SigningKey.generate(algorithm);
+        SigningKey next = key.activatingAt(key.createdAt() + JWKS_MAX_AGE_SECONDS);
+
+        return client.withTransaction(conn -> insert(conn, next))
+                .compose(result -> load())
+                .map(loaded -> {
+                    LOGGER.infov("Published {0} signing key {1}, signing from {2,number,#}", next.algorithm(), next.kid(), next.activatesAt());
+                    vertx.eventBus().publish(AuthorizationEvents.KEYS_ROTATED, new JsonObject().put("kid", next.kid()));
+                    return null;
+                });
+    }
+
+    /**
+     * Retires every key that signed before {@code active}, it took over once its activation time passed.
+     */
+    private Future<Void> retireBefore(SigningKey active) {
+        String retire = "UPDATE \"signing_keys\" SET \"retired_at\" = #{now} WHERE \"retired_at\" IS NULL AND \"kid\" <> #{kid} AND \"activates_at\" <= #{activates_at}";
+        return SqlTemplate.forUpdate(client, retire)
+                .execute(Map.of("now", System.currentTimeMillis() / 1000, "kid", active.kid(), "activates_at", active.activatesAt()))
+                .compose(result -> load())
+                .map(loaded -> {
+                    LOGGER.infov("Activated {0} signing key {1}", active.algorithm(), active.kid());
+                    return null;
+                });
+    }
+
+    private Future<Void> insert(SqlConnection conn, SigningKey key) {
+        String insert = "INSERT INTO \"signing_keys\" (\"kid\", \"algorithm\", \"private_jwk\", \"public_jwk\", \"created_at\", \"activates_at\") VALUES (#{kid}, #{algorithm}, #{private_jwk}, #{public_jwk}, #{created_at}, #{activates_at})";
+        String purge = "DELETE FROM \"signing_keys\" WHERE \"retired_at\" < #{cutoff}";
+
+        return SqlTemplate.forUpdate(conn, insert)
+                .execute(Map.of(
+                        "kid", key.kid(),
+                        "algorithm", key.algorithm(),
+                        "private_jwk", encryption.seal(key.kid(), key.privateJwk()),
+                        "public_jwk", key.publicJwk().encode(),
+                        "created_at", key.createdAt(),
+                        "activates_at", key.activatesAt()))
+                .compose(result -> SqlTemplate.forUpdate(conn, purge).execute(Map.of("cutoff", key.createdAt() - verifySeconds)))
+                .mapEmpty();
+    }
+
+    private Future<KeySet> current() {
+        KeySet current = keySet;
+        if (current != null) {
+            return Future.succeededFuture(current);
+        }
+        // The verticle does not start without keys, a later reload that finds none keeps the previous ones
+        return ready.compose(v -> keySet != null ? Future.succeededFuture(keySet) : Future.failedFuture(new IllegalStateException("No signing key loaded")));
+    }
+
+    private Future<Void> refresh() {
+        return load()
+                .compose(keys -> {
+                    SigningKey active = keys.active();
+                    // Nothing signs, no verifier can have cached a key that is missing
+                    if (active == null) {
+                        return bootstrap();
+                    }
+
+                    long now = System.currentTimeMillis() / 1000;
+                    Future<Void> retired = superseded(keys, now) ? retireBefore(active) : Future.succeededFuture();
+                    SigningKey next = keys.next();
+                    boolean due = !active.algorithm().equals(algorithm) || active.activatesAt() + rotationSeconds - JWKS_MAX_AGE_SECONDS <= now;
+                    if (due && (next == null || !next.algorithm().equals(algorithm))) {
+                        return retired.compose(v -> schedule());
+                    }
+                    return retired;
+                })
+                .onFailure(err -> LOGGER.error("Failed to load signing keys", err));
+    }
+
+    /**
+     * Returns whether a key older than the active one still counts as signing.
+     */
+    private static boolean superseded(KeySet keys, long now) {
+        for (SigningKey key : keys.keys()) {
+            if (key != keys.active() && key.isActive(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Future<KeySet> load() {
+        String sql = "SELECT \"kid\", \"algorithm\", \"private_jwk\", \"public_jwk\", \"created_at\", \"activates_at\", \"retired_at\" FROM \"signing_keys\" " +
+                "WHERE \"retired_at\" IS NULL OR \"retired_at\" >= #{cutoff} ORDER BY \"activates_at\" DESC, \"created_at\" DESC";
+        return SqlTemplate.forQuery(client, sql)
+                .execute(Map.of("cutoff", System.currentTimeMillis() / 1000 - verifySeconds))
+                .map(rows -> {
+                    List<SigningKey> keys = new ArrayList<>();
+                    for (Row row : rows) {
+                        String kid = row.getString("kid");
+                        keys.add(new SigningKey(
+                                kid,
+                                row.getString("algorithm"),
+                                encryption.open(kid, row.getString("private_jwk")),
+                                new JsonObject(row.getString("public_jwk")),
+                                row.getLong("created_at"),
+                                row.getLong("activates_at"),
+                                row.getLong("retired_at")));
+                    }
+
+                    KeySet loaded = build(keys, System.currentTimeMillis() / 1000);
+                    if (loaded.active() != null) {
+                        keySet = loaded;
+                    }
+                    activateLater(loaded.next());
+                    return loaded;
+                });
+    }
+
+    /**
+     * Reloads when {@code next} starts signing, once per key.
+     */
+    private void activateLater(SigningKey next) {
+        if (next == null || next.kid().equals(scheduledKid)) {
+            return;
+        }
+        scheduledKid = next.kid();
+        long delayMs = Math.max(1, next.activatesAt() * 1000 - System.currentTimeMillis());
+        vertx.setTimer(delayMs, id -> refresh());
+    }
+
+    private KeySet build(List<SigningKey> keys, long now) {
+        // Keys are ordered newest activation first
+        SigningKey active = keys.stream().filter(key -> key.isActive(now)).findFirst().orElse(null);
+        SigningKey next = keys.stream().filter(key -> key.isPending(now)).findFirst().orElse(null);
+
+        // Signing picks the first key registered for an algorithm, so the private key of the active one goes first.
+        // The next key is published and verifies, but signs nothing before it activates
+        JWTAuthOptions options = new JWTAuthOptions();
+        JsonArray published = new JsonArray();
+        if (active != null) {
+            options.addJwk(active.privateJwk());
+            published.add(active.publicJwk());
+        }
+        for (SigningKey key : keys) {
+            if (key != active) {
+                options.addJwk(key.publicJwk());
+                published.add(key.publicJwk());
+            }
+        }
+
+        return new KeySet(active, next, keys, active != null ? JWTAuth.create(vertx, options) : null, new JsonObject().put("keys", published));
+    }
+}
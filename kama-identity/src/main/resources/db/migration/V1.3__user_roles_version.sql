@@ -0,0 +1,3 @@
+-- Incremented whenever roles are assigned to or revoked from a user, so cached authorization decisions can be
+-- keyed by the roles a user had when they were made
+ALTER TABLE "users" ADD COLUMN "roles_version" BIGINT DEFAULT 1 NOT NULL;
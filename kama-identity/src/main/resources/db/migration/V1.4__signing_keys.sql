@@ -0,0 +1,13 @@
+-- Asymmetric keys used to sign access tokens. The newest key that is not retired signs new tokens, retired keys are
+-- kept to verify tokens issued before the rotation until those expire. Times are epoch seconds like the token claims.
+CREATE TABLE "signing_keys"
+(
+    "kid"         VARCHAR(64) PRIMARY KEY,
+    "algorithm"   VARCHAR(16) NOT NULL,
+    "private_jwk" TEXT        NOT NULL,
+    "public_jwk"  TEXT        NOT NULL,
+    "created_at"  BIGINT      NOT NULL,
+    "retired_at"  BIGINT
+);
+
+CREATE INDEX "idx_signing_keys_created_at" ON "signing_keys" ("created_at");
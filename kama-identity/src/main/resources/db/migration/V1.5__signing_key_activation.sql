@@ -0,0 +1,7 @@
+-- A rotated key is published before it signs, verifiers that cache the JWKS document learn it first. Keys sign from
+-- "activates_at" on, existing keys signed from their creation.
+ALTER TABLE "signing_keys" ADD COLUMN "activates_at" BIGINT NOT NULL DEFAULT 0;
+
+UPDATE "signing_keys" SET "activates_at" = "created_at";
+
+CREATE INDEX "idx_signing_keys_activates_at" ON "signing_keys" ("activates_at");
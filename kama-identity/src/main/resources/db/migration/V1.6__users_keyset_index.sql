@@ -0,0 +1,5 @@
+-- ListUsers pages in (create_time, id) order, one index serves both the order and the position of a page token. It
+-- covers every lookup the create_time index served.
+CREATE INDEX "idx_users_create_time_id" ON "users" ("create_time", "id");
+
+DROP INDEX "idx_users_create_time";
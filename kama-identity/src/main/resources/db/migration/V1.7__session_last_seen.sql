@@ -0,0 +1,4 @@
+-- Uses of a session are written behind as "last_seen", "update_time" stays the time of its last rotation or revocation
+ALTER TABLE "user_sessions" ADD COLUMN "last_seen" TIMESTAMP;
+
+UPDATE "user_sessions" SET "last_seen" = "update_time";
@@ -0,0 +1,8 @@
+-- Rows locked while signing keys are created, nodes starting on an empty "signing_keys" table take the "bootstrap" row
+-- so only one of them creates the first key.
+CREATE TABLE "signing_key_locks"
+(
+    "name" VARCHAR(64) PRIMARY KEY
+);
+
+INSERT INTO "signing_key_locks" ("name") VALUES ('bootstrap');
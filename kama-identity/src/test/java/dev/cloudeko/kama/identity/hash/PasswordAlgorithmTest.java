@@ -0,0 +1,64 @@
+package dev.cloudeko.kama.identity.hash;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordAlgorithmTest {
+
+    // Small parameters keep the tests fast, production values come from calibration
+    private static final Argon2idAlgorithm ARGON2ID = new Argon2idAlgorithm(1024, 2, 1);
+
+    @Test
+    void testArgon2idRoundTrip() {
+        String encoded = ARGON2ID.hash("password123");
+
+        assertTrue(encoded.startsWith("$argon2id$v=19$m=1024,t=2,p=1$"));
+        assertTrue(ARGON2ID.supports(encoded));
+        assertTrue(ARGON2ID.verify("password123", encoded));
+        assertFalse(ARGON2ID.verify("password124", encoded));
+        assertNotEquals(encoded, ARGON2ID.hash("password123"));
+    }
+
+    @Test
+    void testBCryptVerifiesEveryRevision() {
+        BCryptAlgorithm bcrypt = new BCryptAlgorithm(4);
+        String encoded = bcrypt.hash("password123");
+        assertTrue(encoded.startsWith("$2a$"));
+
+        for (String revision : new String[]{"$2b$", "$2y$"}) {
+            String other = revision + encoded.substring(4);
+            assertTrue(bcrypt.supports(other));
+            assertTrue(bcrypt.verify("password123", other));
+            assertFalse(bcrypt.verify("password124", other));
+        }
+    }
+
+    @Test
+    void testNeedsRehash() {
+        String bcrypt = new BCryptAlgorithm(4).hash("password123");
+        assertFalse(new BCryptAlgorithm(4).needsRehash(bcrypt));
+        assertTrue(new BCryptAlgorithm(5).needsRehash(bcrypt));
+        assertFalse(ARGON2ID.supports(bcrypt));
+
+        String argon2 = ARGON2ID.hash("password123");
+        assertFalse(ARGON2ID.needsRehash(argon2));
+        assertTrue(new Argon2idAlgorithm(1024, 3, 1).needsRehash(argon2));
+        assertTrue(new Argon2idAlgorithm(2048, 2, 1).needsRehash(argon2));
+    }
+
+    @Test
+    void testCalibrationStaysWithinBounds() {
+        BCryptAlgorithm generous = HashCalibration.calibrate(BCryptAlgorithm::new, 4, 6, Long.MAX_VALUE);
+        assertEquals(6, generous.cost());
+
+        // A budget nothing fits still uses the minimum
+        BCryptAlgorithm strict = HashCalibration.calibrate(BCryptAlgorithm::new, 4, 6, -1);
+        assertEquals(4, strict.cost());
+
+        // The configured minimum wins over the budget
+        PasswordAlgorithm configured = HashCalibration.calibrate(new JsonObject().put("minCost", 5).put("budgetMs", -1));
+        assertEquals(5, ((BCryptAlgorithm) configured).cost());
+    }
+}
@@ -0,0 +1,95 @@
+package dev.cloudeko.kama.identity.hash;
+
+import dev.cloudeko.kama.common.exception.ResourceExhausted;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Fires a burst of hashing calls from an event loop and checks that the loop keeps serving timers while the burst is
+ * processed, and that calls beyond the queue limit are rejected right away.
+ */
+class PasswordHasherLoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(PasswordHasherLoadTest.class);
+
+    private static final int POOL_SIZE = 2;
+    private static final int QUEUE_LIMIT = 8;
+    private static final int BURST = 50;
+    private static final long TICK_MS = 5;
+
+    private Vertx vertx;
+    private SimpleMeterRegistry registry;
+    private PasswordHasher hasher;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        registry = new SimpleMeterRegistry();
+        hasher = new PasswordHasher(vertx, POOL_SIZE, QUEUE_LIMIT, registry);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        vertx.close().await(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testEventLoopStaysResponsiveDuringBurst() throws Exception {
+        AtomicLong maxLagMs = new AtomicLong();
+        CompletableFuture<List<Future<String>>> submitted = new CompletableFuture<>();
+
+        vertx.runOnContext(v -> {
+            // Measure how late a periodic timer fires on the same event loop while the burst is running
+            long[] last = {System.nanoTime()};
+            vertx.setPeriodic(TICK_MS, id -> {
+                long now = System.nanoTime();
+                maxLagMs.accumulateAndGet(TimeUnit.NANOSECONDS.toMillis(now - last[0]) - TICK_MS, Math::max);
+                last[0] = now;
+            });
+
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < BURST; i++) {
+                results.add(hasher.hash("password-" + i));
+            }
+            submitted.complete(results);
+        });
+
+        List<Future<String>> results = submitted.get(5, TimeUnit.SECONDS);
+        Future.join(results).otherwiseEmpty().await(60, TimeUnit.SECONDS);
+
+        long succeeded = results.stream().filter(Future::succeeded).count();
+        long rejected = results.stream().filter(f -> f.cause() instanceof ResourceExhausted).count();
+
+        LOGGER.infov("Hashed {0}, rejected {1}, max event-loop lag {2} ms, mean hash {3} ms", succeeded, rejected, maxLagMs.get(),
+                registry.get("kama.identity.hashing.duration").tag("operation", "hash").timer().mean(TimeUnit.MILLISECONDS));
+
+        assertEquals(POOL_SIZE + QUEUE_LIMIT, succeeded);
+        assertEquals(BURST - POOL_SIZE - QUEUE_LIMIT, rejected);
+        assertEquals(rejected, (long) registry.get("kama.identity.hashing.rejected").counter().count());
+        assertEquals(0, hasher.pending());
+
+        // Hashing inline would block the loop for the whole burst, several hundred milliseconds
+        assertTrue(maxLagMs.get() < 100, "Event loop lagged " + maxLagMs.get() + " ms");
+    }
+
+    @Test
+    void testVerify() throws Exception {
+        String hash = hasher.hash("secret").await(5, TimeUnit.SECONDS);
+
+        assertTrue(hasher.verify("secret", hash).await(5, TimeUnit.SECONDS));
+        assertFalse(hasher.verify("other", hash).await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,49 @@
+package dev.cloudeko.kama.identity.impl;
+
+import dev.cloudeko.kama.common.exception.InvalidArgument;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserListQueryTest {
+
+    @Test
+    void testAndInsideQuotesIsPartOfTheValue() {
+        assertEquals(List.of("email = \"sales AND support*\"", "active = true"),
+                UserListQuery.terms("email = \"sales AND support*\" AND active = true"));
+        assertEquals(List.of("email = \"a\\\" AND b\"", "email_verified = false"),
+                UserListQuery.terms("email = \"a\\\" AND b\" AND email_verified = false"));
+
+        UserListQuery query = UserListQuery.parse("email = \"sales AND support*\" AND active = true", null);
+        Map<String, Object> params = query.params(10);
+        assertEquals("sales AND support%", params.get("email"));
+        assertEquals(true, params.get("active"));
+        assertEquals(11, params.get("limit"));
+    }
+
+    @Test
+    void testMalformedFiltersAreRejected() {
+        assertThrows(InvalidArgument.class, () -> UserListQuery.parse("email = \"unterminated AND active = true", null));
+        assertThrows(InvalidArgument.class, () -> UserListQuery.parse("active = true AND", null));
+        assertThrows(InvalidArgument.class, () -> UserListQuery.parse("active = true AND display_name = \"x\"", null));
+    }
+
+    @Test
+    void testPageStartsAfterTheTokenPosition() {
+        String filter = "active = true";
+        String token = UserListQuery.parse(filter, null).nextPageToken(LocalDateTime.of(2025, 1, 2, 3, 4, 5), "user-1");
+
+        UserListQuery next = UserListQuery.parse(filter, token);
+        // The plain bound comes first, it is the range the (create_time, id) index scans
+        assertTrue(next.sql().contains("WHERE \"active\" = #{active} AND \"create_time\" <= #{after_time} AND (\"create_time\" < #{after_time}"), next.sql());
+        assertEquals(LocalDateTime.of(2025, 1, 2, 3, 4, 5), next.params(10).get("after_time"));
+        assertEquals("user-1", next.params(10).get("after_id"));
+
+        assertThrows(InvalidArgument.class, () -> UserListQuery.parse("active = false", token));
+        assertThrows(InvalidArgument.class, () -> UserListQuery.parse(filter, "not-a-token"));
+    }
+}
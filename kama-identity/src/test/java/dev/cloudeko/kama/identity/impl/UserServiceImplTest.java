@@ -1,17 +1,34 @@
 package dev.cloudeko.kama.identity.impl;
 
+import dev.cloudeko.kama.common.AuthorizationEvents;
 import dev.cloudeko.kama.common.DatabaseOptions;
 import dev.cloudeko.kama.common.MigrationVerticle;
+import dev.cloudeko.kama.common.exception.InvalidArgument;
 import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.hash.Argon2idAlgorithm;
+import dev.cloudeko.kama.identity.hash.PasswordHasher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.jdbcclient.JDBCConnectOptions;
+import io.vertx.jdbcclient.JDBCPool;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Tuple;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mindrot.jbcrypt.BCrypt;
 
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -20,13 +37,16 @@ import static org.junit.jupiter.api.Assertions.*;
 @ExtendWith(VertxExtension.class)
 class UserServiceImplTest {
 
+    private Vertx vertx;
+    private DatabaseOptions options;
     private UserService userService;
 
     @BeforeEach
     void setUp(Vertx vertx) throws TimeoutException {
         vertx = Vertx.vertx();
+        this.vertx = vertx;
 
-        DatabaseOptions options = new DatabaseOptions();
+        options = new DatabaseOptions();
         options.setUrl("jdbc:h2:mem:DB;DB_CLOSE_DELAY=-1;");
 
         JsonObject database = new JsonObject().put("database", options.toJson());
@@ -52,7 +72,7 @@ class UserServiceImplTest {
     @Test
     void testAuthenticateUser(VertxTestContext testContext) {
         userService.createUser("auth@example.com", "password123", "Auth User")
-            .compose(user -> userService.authenticateUser("auth@example.com", "password123"))
+            .compose(user -> userService.authenticateUser("auth@example.com", "password123", null))
             .onComplete(testContext.succeeding(user -> testContext.verify(() -> {
                 assertNotNull(user);
                 assertEquals("auth@example.com", user.getString("email"));
@@ -89,4 +109,195 @@ class UserServiceImplTest {
                 testContext.completeNow();
             })));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testRefreshTokenIsSingleUse(VertxTestContext testContext) {
+        userService.createUser("refresh@example.com", "password123", "Refresh User")
+            .compose(user -> userService.createSession(user.getString("id"))
+                .compose(issued -> userService.refreshJwtToken(issued.getString("refresh_token"))
+                    .compose(refreshed -> {
+                        assertEquals(user.getString("id"), refreshed.getString("user_id"));
+                        assertNotEquals(issued.getString("refresh_token"), refreshed.getString("refresh_token"));
+                        return userService.validateJwtToken(refreshed.getString("token"))
+                            .map(validation -> {
+                                assertTrue(validation.getBoolean("valid"));
+                                return refreshed;
+                            });
+                    })
+                    // Replaying the used token must fail, its replacement stays usable
+                    .compose(refreshed -> userService.refreshJwtToken(issued.getString("refresh_token"))
+                        .transform(replay -> {
+                            assertTrue(replay.failed());
+                            return userService.refreshJwtToken(refreshed.getString("refresh_token"));
+                        })))
+                .compose(refreshed -> userService.revokeTokens(user.getString("id")).map(refreshed))
+                .compose(refreshed -> userService.refreshJwtToken(refreshed.getString("refresh_token"))))
+            .onComplete(testContext.failing(err -> testContext.verify(() -> {
+                assertEquals("Invalid refresh token", err.getMessage());
+                testContext.completeNow();
+            })));
+    }
+
+    @Test
+    void testListUsersWithKeysetPages() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            userService.createUser("page-" + i + "@example.com", "password123", "Page User " + i).await(5, TimeUnit.SECONDS);
+        }
+
+        String filter = "email = \"page-*\" AND active = true";
+        Set<String> seen = new HashSet<>();
+        String pageToken = "";
+        int pages = 0;
+        do {
+            JsonObject page = userService.listUsers(2, pageToken, filter).await(5, TimeUnit.SECONDS);
+            for (Object user : page.getJsonArray("users")) {
+                assertTrue(seen.add(((JsonObject) user).getString("email")));
+            }
+            pageToken = page.getString("next_page_token");
+            pages++;
+        } while (pageToken != null);
+
+        assertEquals(5, seen.size());
+        assertEquals(3, pages);
+
+        assertTrue(userService.listUsers(10, "", "email = \"page-*\" AND active = false").await(5, TimeUnit.SECONDS)
+            .getJsonArray("users").isEmpty());
+
+        Throwable invalid = userService.listUsers(10, "", "display_name = \"x\"").transform(Future::succeededFuture).await(5, TimeUnit.SECONDS).cause();
+        assertInstanceOf(InvalidArgument.class, invalid);
+    }
+
+    @Test
+    void testBatchGetUsersKeepsRequestOrder() throws Exception {
+        String first = userService.createUser("batch-1@example.com", "password123", "Batch One").await(5, TimeUnit.SECONDS).getString("id");
+        String second = userService.createUser("batch-2@example.com", "password123", "Batch Two").await(5, TimeUnit.SECONDS).getString("id");
+
+        JsonArray users = userService.batchGetUsers(List.of(second, "missing", first, second)).await(5, TimeUnit.SECONDS).getJsonArray("users");
+        assertEquals(4, users.size());
+        assertEquals("batch-2@example.com", users.getJsonObject(0).getString("email"));
+        assertNull(users.getValue(1));
+        assertEquals("batch-1@example.com", users.getJsonObject(2).getString("email"));
+        assertEquals(second, users.getJsonObject(3).getString("id"));
+        assertTrue(users.getJsonObject(0).getJsonArray("roles").isEmpty());
+
+        // Cached profiles still carry the current roles
+        userService.assignRole(second, "editor").await(5, TimeUnit.SECONDS);
+        users = userService.batchGetUsers(List.of(second)).await(5, TimeUnit.SECONDS).getJsonArray("users");
+        assertEquals(new JsonArray().add("editor"), users.getJsonObject(0).getJsonArray("roles"));
+
+        // Served from the cache, but a local update must not be hidden by it
+        userService.updateUser(first, new JsonObject().put("display_name", "Renamed")).await(5, TimeUnit.SECONDS);
+        users = userService.batchGetUsers(List.of(first)).await(5, TimeUnit.SECONDS).getJsonArray("users");
+        assertEquals("Renamed", users.getJsonObject(0).getString("display_name"));
+    }
+
+    @Test
+    void testImportUsersReportsEachRow() throws Exception {
+        userService.createUser("taken@example.com", "password123", "Taken").await(5, TimeUnit.SECONDS);
+        String migrated = "$2b$" + BCrypt.hashpw("migrated-password", BCrypt.gensalt(4)).substring(4);
+
+        JsonArray users = new JsonArray()
+            .add(new JsonObject().put("email", "import-1@example.com").put("password", "password123").put("display_name", "Import One"))
+            .add(new JsonObject().put("email", "import-2@example.com").put("password_hash", migrated))
+            .add(new JsonObject().put("email", "taken@example.com").put("password", "password123"))
+            .add(new JsonObject().put("email", "import-1@example.com").put("password", "password123"))
+            .add(new JsonObject().put("email", "import-3@example.com").put("password_hash", "plain-text"));
+
+        JsonArray results = userService.importUsers(users).await(10, TimeUnit.SECONDS).getJsonArray("results");
+        assertEquals(5, results.size());
+        assertNotNull(results.getJsonObject(0).getString("id"));
+        assertNotNull(results.getJsonObject(1).getString("id"));
+        assertEquals("ALREADY_EXISTS", results.getJsonObject(2).getJsonObject("error").getString("code"));
+        assertEquals("ALREADY_EXISTS", results.getJsonObject(3).getJsonObject("error").getString("code"));
+        assertEquals("INVALID_ARGUMENT", results.getJsonObject(4).getJsonObject("error").getString("code"));
+
+        // Both the freshly hashed and the migrated password work
+        userService.authenticateUser("import-1@example.com", "password123", null).await(5, TimeUnit.SECONDS);
+        JsonObject user = userService.authenticateUser("import-2@example.com", "migrated-password", null).await(5, TimeUnit.SECONDS);
+        assertEquals(results.getJsonObject(1).getString("id"), user.getString("id"));
+    }
+
+    @Test
+    void testAssignAndRevokeRoles(VertxTestContext testContext) {
+        userService.createUser("roles@example.com", "password123", "Roles User")
+            .compose(user -> userService.getUserRoles(user.getString("id"))
+                .compose(initial -> userService.assignRole(user.getString("id"), "editor")
+                    .compose(assigned -> userService.assignRole(user.getString("id"), "editor"))
+                    .compose(assigned -> userService.revokeRole(user.getString("id"), "missing"))
+                    .map(assigned -> {
+                        assertEquals(new JsonArray().add("editor"), assigned.getJsonArray("roles"));
+                        assertTrue(assigned.getLong("roles_version") > initial.getLong("roles_version"));
+                        return assigned;
+                    }))
+                .compose(assigned -> userService.revokeRole(user.getString("id"), "editor")))
+            .onComplete(testContext.succeeding(revoked -> testContext.verify(() -> {
+                assertTrue(revoked.getJsonArray("roles").isEmpty());
+                testContext.completeNow();
+            })));
+    }
+
+    @Test
+    void testTokenCarriesCurrentRoles(VertxTestContext testContext) {
+        userService.createUser("claims@example.com", "password123", "Claims User")
+            .compose(user -> userService.assignRole(user.getString("id"), "editor")
+                .compose(assigned -> userService.generateJwtToken(user.getString("id")))
+                .compose(token -> {
+                    String payload = token.getString("token").split("\\.")[1];
+                    JsonObject claims = new JsonObject(new String(Base64.getUrlDecoder().decode(payload)));
+                    assertEquals(new JsonArray().add("editor"), claims.getJsonArray("roles"));
+                    assertNotNull(claims.getLong("rv"));
+                    // A role change makes the roles in the token stale, validation resolves them again
+                    return userService.assignRole(user.getString("id"), "admin")
+                        .compose(assigned -> userService.validateJwtToken(token.getString("token")));
+                }))
+            .onComplete(testContext.succeeding(validation -> testContext.verify(() -> {
+                assertTrue(validation.getBoolean("valid"));
+                assertEquals(new JsonArray().add("admin").add("editor"), validation.getJsonArray("roles"));
+                testContext.completeNow();
+            })));
+    }
+
+    @Test
+    void testCachedTokenOfRemovedUserIsInvalid() throws Exception {
+        String userId = userService.createUser("removed@example.com", "password123", "Removed User").await(5, TimeUnit.SECONDS).getString("id");
+        String token = userService.generateJwtToken(userId).await(5, TimeUnit.SECONDS).getString("token");
+        assertTrue(userService.validateJwtToken(token).await(5, TimeUnit.SECONDS).getBoolean("valid"));
+
+        // Removed behind the service's back while another node changed its roles, the cached token must resolve its
+        // roles again and finds no user
+        Pool pool = JDBCPool.pool(vertx, new JDBCConnectOptions().setJdbcUrl(options.getUrl()), new PoolOptions().setMaxSize(1));
+        try {
+            pool.preparedQuery("DELETE FROM \"users\" WHERE \"id\" = ?").execute(Tuple.of(userId)).await(5, TimeUnit.SECONDS);
+        } finally {
+            pool.close().await(5, TimeUnit.SECONDS);
+        }
+        vertx.eventBus().publish(AuthorizationEvents.ROLES_CHANGED, new JsonObject().put("user_id", userId).put("roles_version", 1_000L));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        JsonObject validation;
+        do {
+            validation = userService.validateJwtToken(token).await(5, TimeUnit.SECONDS);
+        } while (validation.getBoolean("valid") && System.currentTimeMillis() < deadline);
+        assertFalse(validation.getBoolean("valid"));
+        assertEquals("User not found", validation.getString("error"));
+    }
+
+    @Test
+    void testOutdatedHashIsReplacedOnLogin(VertxTestContext testContext) {
+        PasswordHasher argon2 = new PasswordHasher(vertx, new Argon2idAlgorithm(1024, 2, 1), 2, 16, new SimpleMeterRegistry());
+        UserService upgraded = new UserServiceImpl(vertx, options, argon2);
+
+        userService.createUser("rehash@example.com", "password123", "Rehash User")
+            .compose(user -> upgraded.authenticateUser("rehash@example.com", "password123", null))
+            .compose(user -> upgraded.getUserByEmail("rehash@example.com"))
+            .compose(user -> {
+                assertTrue(user.getString("password_hash").startsWith("$argon2id$"));
+                // Both the old and the new service accept the upgraded hash
+                return userService.authenticateUser("rehash@example.com", "password123", null);
+            })
+            .onComplete(testContext.succeeding(user -> testContext.verify(() -> {
+                assertEquals("rehash@example.com", user.getString("email"));
+                testContext.completeNow();
+            })));
+    }
+}
@@ -0,0 +1,31 @@
+package dev.cloudeko.kama.identity.role;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PermissionSetTest {
+
+    @Test
+    void testEqualSetsAreShared() {
+        PermissionSet first = PermissionSet.of(List.of("editor", "viewer"), List.of("records.read", "records.write"));
+        PermissionSet second = PermissionSet.of(List.of(new String("viewer"), "editor", "editor"), List.of("records.write", "records.read"));
+
+        assertSame(first, second);
+        assertSame(first.roles().get(0), second.roles().get(0));
+        assertSame(PermissionSet.EMPTY, PermissionSet.of(List.of(), List.of()));
+    }
+
+    @Test
+    void testLookups() {
+        PermissionSet set = PermissionSet.of(List.of("viewer"), List.of("records.read"));
+
+        assertTrue(set.hasRole("viewer"));
+        assertFalse(set.hasRole("editor"));
+        assertTrue(set.hasPermission("records.read"));
+        assertFalse(set.hasPermission("records.write"));
+        assertEquals(List.of("viewer"), set.roles());
+    }
+}
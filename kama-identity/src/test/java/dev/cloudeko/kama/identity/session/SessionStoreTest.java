@@ -0,0 +1,149 @@
+package dev.cloudeko.kama.identity.session;
+
+import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.MigrationVerticle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.jdbcclient.JDBCConnectOptions;
+import io.vertx.jdbcclient.JDBCPool;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionStoreTest {
+
+    private static final long TTL_SECONDS = 3600;
+    // Long enough that only explicit flushes write during a test
+    private static final long INTERVAL_MS = 3_600_000;
+
+    private Vertx vertx;
+    private Pool client;
+    private SimpleMeterRegistry registry;
+    private SessionStore store;
+    private String userId;
+    private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        registry = new SimpleMeterRegistry();
+
+        DatabaseOptions options = new DatabaseOptions().setUrl("jdbc:h2:mem:DB_SESSIONS;DB_CLOSE_DELAY=-1;");
+        vertx.deployVerticle(new MigrationVerticle(), new DeploymentOptions().setConfig(new JsonObject().put("database", options.toJson())))
+                .await(5, TimeUnit.SECONDS);
+
+        client = JDBCPool.pool(vertx, new JDBCConnectOptions().setJdbcUrl(options.getUrl()), new PoolOptions().setMaxSize(2));
+        userId = UUID.randomUUID().toString();
+        client.preparedQuery("INSERT INTO \"users\" (\"id\", \"email\", \"password_hash\", \"create_time\", \"update_time\") VALUES (?, ?, 'x', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)")
+                .execute(Tuple.of(userId, userId + "@example.com"))
+                .await(5, TimeUnit.SECONDS);
+
+        store = new SessionStore(vertx, client, TTL_SECONDS, 1_000, INTERVAL_MS, INTERVAL_MS, now::get, registry);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        vertx.close().await(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testUsesAreWrittenInOneBatch() throws Exception {
+        Session first = store.create(userId).await(5, TimeUnit.SECONDS).session();
+        Session second = store.create(userId).await(5, TimeUnit.SECONDS).session();
+        long created = storedExpiry(first.id());
+        LocalDateTime updated = stored(first.id(), "update_time");
+
+        // A second later the uses slide the expiry
+        now.addAndGet(1_000);
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(store.touch(first.id()));
+            assertNotNull(store.touch(second.id()));
+        }
+
+        assertEquals(2, store.dirty());
+        assertEquals(created, storedExpiry(first.id()), "Uses must not be written before the flush");
+
+        store.flush().await(5, TimeUnit.SECONDS);
+
+        assertEquals(0, store.dirty());
+        assertEquals(first.expiresAt(), storedExpiry(first.id()));
+        assertTrue(first.expiresAt() > created);
+        assertEquals(first.lastSeen(), stored(first.id(), "last_seen").toEpochSecond(ZoneOffset.UTC));
+        assertEquals(updated, stored(first.id(), "update_time"), "Uses are not changes to the session");
+        assertEquals(2, registry.get("kama.identity.sessions.flush").summary().totalAmount(), 0.0);
+    }
+
+    @Test
+    void testCloseFlushesPendingUses() throws Exception {
+        Session session = store.create(userId).await(5, TimeUnit.SECONDS).session();
+        now.addAndGet(1_000);
+        store.touch(session.id());
+
+        store.close().await(5, TimeUnit.SECONDS);
+
+        assertEquals(session.expiresAt(), storedExpiry(session.id()));
+    }
+
+    @Test
+    void testSweepDeletesRevokedSessions() throws Exception {
+        SessionStore.Issued issued = store.create(userId).await(5, TimeUnit.SECONDS);
+        store.revokeAll(userId).await(5, TimeUnit.SECONDS);
+
+        assertNull(store.touch(issued.session().id()));
+        store.sweep().await(5, TimeUnit.SECONDS);
+
+        assertEquals(0, count());
+        assertNull(store.rotate(issued.token()).otherwiseEmpty().await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testLosingConcurrentRotationKeepsTheWinner() throws Exception {
+        SessionStore.Issued issued = store.create(userId).await(5, TimeUnit.SECONDS);
+
+        Future<SessionStore.Issued> first = store.rotate(issued.token());
+        Future<SessionStore.Issued> second = store.rotate(issued.token());
+        Future.join(first, second).otherwiseEmpty().await(5, TimeUnit.SECONDS);
+        assertTrue(first.succeeded() ^ second.succeeded(), "Exactly one rotation wins");
+
+        // The session stays cached under the token of the winner
+        SessionStore.Issued winner = first.succeeded() ? first.result() : second.result();
+        assertNotNull(store.touch(issued.session().id()));
+        double hits = registry.get("kama.identity.sessions.cache").tag("result", "hit").counter().count();
+        assertNotNull(store.rotate(winner.token()).await(5, TimeUnit.SECONDS));
+        assertEquals(hits + 1, registry.get("kama.identity.sessions.cache").tag("result", "hit").counter().count());
+    }
+
+    private long storedExpiry(String sessionId) throws Exception {
+        return stored(sessionId, "expires_at").toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private LocalDateTime stored(String sessionId, String column) throws Exception {
+        Row row = client.preparedQuery("SELECT \"" + column + "\" FROM \"user_sessions\" WHERE \"id\" = ?")
+                .execute(Tuple.of(sessionId))
+                .await(5, TimeUnit.SECONDS)
+                .iterator().next();
+        return row.getLocalDateTime(column);
+    }
+
+    private long count() throws Exception {
+        return client.preparedQuery("SELECT COUNT(*) AS \"total\" FROM \"user_sessions\" WHERE \"user_id\" = ?")
+                .execute(Tuple.of(userId))
+                .await(5, TimeUnit.SECONDS)
+                .iterator().next().getLong("total");
+    }
+}
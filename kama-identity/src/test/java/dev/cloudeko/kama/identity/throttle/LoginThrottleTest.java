@@ -0,0 +1,101 @@
+package dev.cloudeko.kama.identity.throttle;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoginThrottleTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private LoginThrottle throttle(int emailLimit, int addressLimit) {
+        return new LoginThrottle(emailLimit, 60_000, addressLimit, 60_000, 1_000, 8_000, 1_000, clock::get, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void testFailuresBackOffExponentially() {
+        LoginThrottle throttle = throttle(3, 1000);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1"));
+            throttle.complete("alice@example.com", false);
+        }
+        assertEquals(1_000, throttle.acquire("alice@example.com", "10.0.0.2"));
+        assertEquals(1_000, throttle.acquire("ALICE@example.com ", "10.0.0.3"));
+        assertEquals(0, throttle.acquire("bob@example.com", "10.0.0.1"));
+
+        clock.set(1_000);
+        assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1"));
+        throttle.complete("alice@example.com", false);
+        assertEquals(2_000, throttle.acquire("alice@example.com", "10.0.0.1"));
+
+        clock.set(3_000);
+        assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1"));
+        throttle.complete("alice@example.com", false);
+        assertEquals(4_000, throttle.acquire("alice@example.com", "10.0.0.1"));
+    }
+
+    @Test
+    void testDelayIsCapped() {
+        LoginThrottle throttle = throttle(1, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            throttle.complete("alice@example.com", false);
+        }
+        assertEquals(8_000, throttle.acquire("alice@example.com", null));
+    }
+
+    @Test
+    void testSuccessClearsFailures() {
+        LoginThrottle throttle = throttle(2, 1000);
+
+        throttle.complete("alice@example.com", false);
+        throttle.complete("alice@example.com", false);
+        assertTrue(throttle.acquire("alice@example.com", null) > 0);
+
+        throttle.complete("alice@example.com", true);
+        assertEquals(0, throttle.acquire("alice@example.com", null));
+    }
+
+    @Test
+    void testSuccessOnlyClearsItsOwnEmail() {
+        LoginThrottle throttle = throttle(2, 1000);
+
+        throttle.complete("victim@example.com", false);
+        throttle.complete("victim@example.com", false);
+        assertTrue(throttle.acquire("victim@example.com", null) > 0);
+
+        // Whatever stripe or bucket the attacker's own account shares with the victim
+        for (int i = 0; i < 10_000; i++) {
+            throttle.complete("attacker" + i + "@example.com", true);
+        }
+        assertTrue(throttle.acquire("victim@example.com", null) > 0);
+    }
+
+    @Test
+    void testFailuresExpireWithTheWindow() {
+        LoginThrottle throttle = throttle(2, 1000);
+
+        throttle.complete("alice@example.com", false);
+        throttle.complete("alice@example.com", false);
+        assertTrue(throttle.acquire("alice@example.com", null) > 0);
+
+        clock.set(120_000);
+        assertEquals(0, throttle.acquire("alice@example.com", null));
+    }
+
+    @Test
+    void testAddressCountsEveryAttempt() {
+        LoginThrottle throttle = throttle(5, 2);
+
+        assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1"));
+        assertEquals(0, throttle.acquire("bob@example.com", "10.0.0.1"));
+        assertEquals(1_000, throttle.acquire("carol@example.com", "10.0.0.1"));
+
+        assertEquals(0, throttle.acquire("carol@example.com", "10.0.0.2"));
+        assertEquals(0, throttle.acquire("carol@example.com", null));
+    }
+}
@@ -0,0 +1,129 @@
+package dev.cloudeko.kama.identity.token;
+
+import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.MigrationVerticle;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.hash.PasswordHasher;
+import dev.cloudeko.kama.identity.impl.UserServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares ValidateToken throughput for a handful of repeated tokens with and without the verified-token cache. The
+ * comparison only runs with the {@code benchmark} profile.
+ */
+class TokenCacheBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(TokenCacheBenchmarkTest.class);
+
+    private static final int TOKENS = 8;
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 20_000;
+
+    private Vertx vertx;
+    private SimpleMeterRegistry registry;
+    private UserService cached;
+    private UserService uncached;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        registry = new SimpleMeterRegistry();
+
+        DatabaseOptions options = new DatabaseOptions().setUrl("jdbc:h2:mem:DB_TOKENS;DB_CLOSE_DELAY=-1;");
+        vertx.deployVerticle(new MigrationVerticle(), new DeploymentOptions().setConfig(new JsonObject().put("database", options.toJson())))
+                .await(5, TimeUnit.SECONDS);
+
+        // Let the first instance create the signing key so both share it
+        PasswordHasher hasher = new PasswordHasher(vertx, 1, 1, registry);
+        cached = new UserServiceImpl(vertx, options, hasher, new TokenCache(TokenCache.DEFAULT_MAXIMUM_SIZE, registry));
+        cached.getJwks().await(5, TimeUnit.SECONDS);
+        uncached = new UserServiceImpl(vertx, options, hasher, new TokenCache(0, new SimpleMeterRegistry()));
+        uncached.getJwks().await(5, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        vertx.close().await(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void testThroughput() throws Exception {
+        List<String> tokens = tokens();
+
+        double withoutCache = measure(uncached, tokens);
+        double withCache = measure(cached, tokens);
+
+        LOGGER.infov("ValidateToken: {0} ops/s without cache, {1} ops/s with cache", Math.round(withoutCache), Math.round(withCache));
+
+        // A hit skips the signature check, which dominates a validation
+        assertTrue(withCache > withoutCache, "With cache " + Math.round(withCache) + " ops/s vs " + Math.round(withoutCache) + " ops/s without");
+    }
+
+    @Test
+    void testRepeatedTokensHitTheCache() throws Exception {
+        List<String> tokens = tokens();
+        for (int i = 0; i < WARMUP; i++) {
+            assertTrue(cached.validateJwtToken(tokens.get(i % tokens.size())).await(5, TimeUnit.SECONDS).getBoolean("valid"));
+        }
+
+        double hits = registry.get("kama.identity.tokens.cache").tag("result", "hit").counter().count();
+        double misses = registry.get("kama.identity.tokens.cache").tag("result", "miss").counter().count();
+        assertEquals(TOKENS, misses);
+        assertEquals(WARMUP - TOKENS, hits);
+    }
+
+    @Test
+    void testRevokedTokensAreRejected() throws Exception {
+        String token = cached.generateJwtToken("revoked-user").await(5, TimeUnit.SECONDS).getString("token");
+        assertTrue(cached.validateJwtToken(token).await(5, TimeUnit.SECONDS).getBoolean("valid"));
+
+        // Let a second pass so the watermark lies after the token's iat
+        Thread.sleep(1_100);
+        cached.revokeTokens("revoked-user").await(5, TimeUnit.SECONDS);
+
+        JsonObject validation = cached.validateJwtToken(token).await(5, TimeUnit.SECONDS);
+        assertFalse(validation.getBoolean("valid"));
+        assertEquals("Token revoked", validation.getString("error"));
+
+        String fresh = cached.generateJwtToken("revoked-user").await(5, TimeUnit.SECONDS).getString("token");
+        assertTrue(cached.validateJwtToken(fresh).await(5, TimeUnit.SECONDS).getBoolean("valid"));
+    }
+
+    private List<String> tokens() {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < TOKENS; i++) {
+            tokens.add(cached.generateJwtToken("user-" + i).await(5, TimeUnit.SECONDS).getString("token"));
+        }
+        return tokens;
+    }
+
+    private static double measure(UserService service, List<String> tokens) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            assertTrue(service.validateJwtToken(tokens.get(i % tokens.size())).await(5, TimeUnit.SECONDS).getBoolean("valid"));
+        }
+
+        long start = System.nanoTime();
+        List<Future<JsonObject>> batch = new ArrayList<>();
+        for (int i = 0; i < ITERATIONS; i++) {
+            batch.add(service.validateJwtToken(tokens.get(i % tokens.size())));
+        }
+        Future.all(batch).await(30, TimeUnit.SECONDS);
+        return ITERATIONS / ((System.nanoTime() - start) / 1_000_000_000.0);
+    }
+}
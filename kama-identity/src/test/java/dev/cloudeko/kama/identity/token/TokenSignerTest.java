@@ -0,0 +1,181 @@
+package dev.cloudeko.kama.identity.token;
+
+import dev.cloudeko.kama.common.AuthorizationEvents;
+import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.MigrationVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.jdbcclient.JDBCConnectOptions;
+import io.vertx.jdbcclient.JDBCPool;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenSignerTest {
+
+    private static final long TTL_SECONDS = 3600;
+
+    private Vertx vertx;
+    private Pool client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vertx = Vertx.vertx();
+
+        DatabaseOptions options = new DatabaseOptions().setUrl("jdbc:h2:mem:DB_SIGNING;DB_CLOSE_DELAY=-1;");
+        vertx.deployVerticle(new MigrationVerticle(), new DeploymentOptions().setConfig(new JsonObject().put("database", options.toJson())))
+                .await(5, TimeUnit.SECONDS);
+
+        client = JDBCPool.pool(vertx, new JDBCConnectOptions().setJdbcUrl(options.getUrl()), new PoolOptions().setMaxSize(2));
+        client.query("DELETE FROM \"signing_keys\"").execute().await(5, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        vertx.close().await(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testTokensCarryKidOfPublishedKey() throws Exception {
+        TokenSigner signer = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+
+        String token = signer.sign(claims("user-1")).await(5, TimeUnit.SECONDS);
+        JsonObject header = header(token);
+        assertEquals("ES256", header.getString("alg"));
+
+        JsonArray keys = signer.jwks().await(5, TimeUnit.SECONDS).getJsonArray("keys");
+        assertEquals(1, keys.size());
+        assertEquals(header.getString("kid"), keys.getJsonObject(0).getString("kid"));
+        assertFalse(keys.getJsonObject(0).containsKey("d"), "Private key material must not be published");
+
+        assertEquals("user-1", signer.verify(token).await(5, TimeUnit.SECONDS).getString("sub"));
+    }
+
+    @Test
+    void testRetiredKeyStillVerifies() throws Exception {
+        TokenSigner signer = new TokenSigner(vertx, client, SigningKey.EDDSA, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+
+        String before = signer.sign(claims("user-2")).await(5, TimeUnit.SECONDS);
+        signer.rotate().await(5, TimeUnit.SECONDS);
+        String after = signer.sign(claims("user-2")).await(5, TimeUnit.SECONDS);
+
+        assertEquals("EdDSA", header(after).getString("alg"));
+        assertNotEquals(header(before).getString("kid"), header(after).getString("kid"));
+        assertEquals(2, signer.jwks().await(5, TimeUnit.SECONDS).getJsonArray("keys").size());
+
+        assertEquals("user-2", signer.verify(before).await(5, TimeUnit.SECONDS).getString("sub"));
+        assertEquals("user-2", signer.verify(after).await(5, TimeUnit.SECONDS).getString("sub"));
+    }
+
+    @Test
+    void testOtherNodesShareTheActiveKey() throws Exception {
+        TokenSigner first = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+        first.jwks().await(5, TimeUnit.SECONDS);
+        TokenSigner second = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+
+        String token = first.sign(claims("user-3")).await(5, TimeUnit.SECONDS);
+        assertEquals("user-3", second.verify(token).await(5, TimeUnit.SECONDS).getString("sub"));
+    }
+
+    @Test
+    void testNodesStartingTogetherCreateOneKey() throws Exception {
+        TokenSigner first = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+        TokenSigner second = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+        first.ready().await(5, TimeUnit.SECONDS);
+        second.ready().await(5, TimeUnit.SECONDS);
+
+        assertEquals(1, client.query("SELECT \"kid\" FROM \"signing_keys\"").execute().await(5, TimeUnit.SECONDS).size());
+        assertEquals(header(first.sign(claims("user-6")).await(5, TimeUnit.SECONDS)).getString("kid"),
+                header(second.sign(claims("user-6")).await(5, TimeUnit.SECONDS)).getString("kid"));
+    }
+
+    @Test
+    void testPrivateKeysAreStoredEncrypted() throws Exception {
+        TokenSigner signer = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS, "secret-1");
+        String token = signer.sign(claims("user-7")).await(5, TimeUnit.SECONDS);
+
+        String stored = client.query("SELECT \"private_jwk\" FROM \"signing_keys\"").execute()
+                .await(5, TimeUnit.SECONDS).iterator().next().getString("private_jwk");
+        assertFalse(stored.contains("\"d\""), "Private key material must not be stored in the clear");
+
+        // Another node with the same secret reads the key, one with another secret or none fails to start
+        TokenSigner same = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS, "secret-1");
+        assertEquals("user-7", same.verify(token).await(5, TimeUnit.SECONDS).getString("sub"));
+        TokenSigner other = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS, "secret-2");
+        assertThrows(Exception.class, () -> other.ready().await(5, TimeUnit.SECONDS));
+        TokenSigner none = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+        assertThrows(Exception.class, () -> none.ready().await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testNextKeyIsPublishedBeforeItSigns() throws Exception {
+        // Due for rotation as soon as it is created, the next key is published right after the first one
+        TokenSigner signer = new TokenSigner(vertx, client, SigningKey.ES256, TokenSigner.JWKS_MAX_AGE_SECONDS, TTL_SECONDS);
+        signer.ready().await(5, TimeUnit.SECONDS);
+        JsonArray keys = await(() -> signer.jwks().await(5, TimeUnit.SECONDS).getJsonArray("keys"), published -> published.size() == 2);
+
+        String before = signer.sign(claims("user-4")).await(5, TimeUnit.SECONDS);
+        String active = header(before).getString("kid");
+        String next = keys.getJsonObject(0).getString("kid").equals(active) ? keys.getJsonObject(1).getString("kid") : keys.getJsonObject(0).getString("kid");
+        assertNotEquals(active, next);
+
+        // Once its activation time passed the next key signs and the previous one is retired, but still verifies
+        client.preparedQuery("UPDATE \"signing_keys\" SET \"activates_at\" = ? WHERE \"kid\" = ?")
+                .execute(Tuple.of(System.currentTimeMillis() / 1000 - 1, next))
+                .await(5, TimeUnit.SECONDS);
+        vertx.eventBus().publish(AuthorizationEvents.KEYS_ROTATED, new JsonObject().put("kid", next));
+        String after = await(() -> signer.sign(claims("user-4")).await(5, TimeUnit.SECONDS), token -> header(token).getString("kid").equals(next));
+
+        assertEquals("user-4", signer.verify(before).await(5, TimeUnit.SECONDS).getString("sub"));
+        assertEquals("user-4", signer.verify(after).await(5, TimeUnit.SECONDS).getString("sub"));
+        assertNotNull(client.query("SELECT \"retired_at\" FROM \"signing_keys\" WHERE \"kid\" = '" + active + "'").execute()
+                .await(5, TimeUnit.SECONDS).iterator().next().getLong("retired_at"));
+    }
+
+    @Test
+    void testStartFailsWithoutKeys() {
+        // No migrations ran, the signing_keys table is missing
+        Pool empty = JDBCPool.pool(vertx, new JDBCConnectOptions().setJdbcUrl("jdbc:h2:mem:DB_SIGNING_EMPTY;DB_CLOSE_DELAY=-1;"), new PoolOptions().setMaxSize(1));
+        TokenSigner signer = new TokenSigner(vertx, empty, SigningKey.ES256, TokenSigner.DEFAULT_ROTATION_SECONDS, TTL_SECONDS);
+
+        assertThrows(Exception.class, () -> signer.ready().await(5, TimeUnit.SECONDS));
+        Exception failure = assertThrows(Exception.class, () -> signer.sign(claims("user-5")).await(5, TimeUnit.SECONDS));
+        assertFalse(failure instanceof NullPointerException, failure.toString());
+    }
+
+    /**
+     * Polls {@code value} until it satisfies {@code condition}, for changes made by the asynchronous key refresh.
+     */
+    private static <T> T await(Supplier<T> value, Predicate<T> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (true) {
+            T current = value.get();
+            if (condition.test(current) || System.currentTimeMillis() > deadline) {
+                assertTrue(condition.test(current), "Condition not met: " + current);
+                return current;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static JsonObject claims(String userId) {
+        long now = System.currentTimeMillis() / 1000;
+        return new JsonObject().put("sub", userId).put("iat", now).put("exp", now + TTL_SECONDS);
+    }
+
+    private static JsonObject header(String token) {
+        return new JsonObject(new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.')))));
+    }
+}
@@ -1,10 +1,26 @@
 package dev.cloudeko.kama.platform;
 
+import dev.cloudeko.kama.common.BlockingMode;
+import dev.cloudeko.kama.gateway.GatewayVerticle;
+import dev.cloudeko.kama.gateway.cache.ResponseCache;
+import dev.cloudeko.kama.gateway.limit.RateLimiter;
+import dev.cloudeko.kama.identity.hash.BCryptAlgorithm;
+import dev.cloudeko.kama.identity.hash.PasswordHasher;
 import dev.cloudeko.kama.server.ServerVerticle;
-import io.vertx.core.DeploymentOptions;
+import dev.cloudeko.kama.server.compression.ResponseCompression;
+import dev.cloudeko.kama.server.metrics.ServerMetrics;
+import dev.cloudeko.kama.server.tracing.Tracing;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxBuilder;
 import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.micrometer.MicrometerMetricsFactory;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.tracing.opentelemetry.OpenTelemetryTracingFactory;
 import org.jboss.logging.Logger;
 
 public class Main {
@@ -12,52 +28,142 @@ public class Main {
     private static final Logger logger = Logger.getLogger(Main.class);
 
     public static void main(String[] args) {
+        // Size everything from the available cores, each setting can be overridden
+        int cores = Runtime.getRuntime().availableProcessors();
+        int eventLoops = getIntProperty("KAMA_EVENT_LOOPS", 2 * cores);
+        int instances = Math.min(getIntProperty("KAMA_SERVER_INSTANCES", cores), eventLoops);
+        int dbPoolSize = getIntProperty("KAMA_DB_POOL_SIZE", Math.max(5, cores));
+        // JDBC calls and migrations run on worker threads, three services each hold a pool of connections. On virtual
+        // threads they leave the worker pool to everything else
+        BlockingMode blockingMode = BlockingMode.valueOf(getProperty("KAMA_BLOCKING_MODE", "worker").toUpperCase());
+        int workerPoolSize = getIntProperty("KAMA_WORKER_POOL_SIZE",
+                blockingMode == BlockingMode.VIRTUAL ? 20 : Math.max(20, 3 * dbPoolSize + 4));
+
         // Configure Vert.x
         VertxOptions vertxOptions = new VertxOptions()
-                .setEventLoopPoolSize(4)
-                .setWorkerPoolSize(20);
+                .setEventLoopPoolSize(eventLoops)
+                .setWorkerPoolSize(workerPoolSize);
+
+        JsonObject metrics = new JsonObject()
+                .put("enabled", Boolean.parseBoolean(getProperty("KAMA_METRICS_ENABLED", "true")))
+                .put("path", getProperty("KAMA_METRICS_PATH", ServerMetrics.DEFAULT_PATH))
+                // Scraped on an admin address, never on the public API port
+                .put("host", getProperty("KAMA_METRICS_HOST", ServerMetrics.DEFAULT_HOST))
+                .put("port", getIntProperty("KAMA_METRICS_PORT", ServerMetrics.DEFAULT_PORT))
+                .put("percentiles", getDoublesProperty("KAMA_METRICS_PERCENTILES"));
+
+        JsonObject tracing = new JsonObject()
+                .put("enabled", Boolean.parseBoolean(getProperty("KAMA_TRACING_ENABLED", "false")))
+                .put("exporter", getProperty("KAMA_TRACING_EXPORTER", "otlp"))
+                .put("endpoint", getProperty("KAMA_TRACING_ENDPOINT", Tracing.DEFAULT_ENDPOINT))
+                .put("file", getProperty("KAMA_TRACING_FILE", Tracing.DEFAULT_FILE))
+                .put("sampleRatio", getDoubleProperty("KAMA_TRACING_SAMPLE_RATIO", Tracing.DEFAULT_SAMPLE_RATIO));
 
-        // Create Vert.x instance
-        Vertx vertx = Vertx.vertx(vertxOptions);
+        // Create Vert.x instance, with metrics its SQL pools report queue and wait times to the same registry
+        VertxBuilder builder = Vertx.builder();
+        if (metrics.getBoolean("enabled")) {
+            PrometheusMeterRegistry prometheus = ServerMetrics.install(metrics);
+            vertxOptions.setMetricsOptions(new MicrometerMetricsOptions().setEnabled(true));
+            builder.withMetrics(new MicrometerMetricsFactory(prometheus));
+        }
+        // Installed before any service starts, they look up the global tracer once
+        OpenTelemetrySdk openTelemetry = tracing.getBoolean("enabled") ? Tracing.install(tracing) : null;
+        if (openTelemetry != null) {
+            builder.withTracer(new OpenTelemetryTracingFactory(openTelemetry));
+        }
+        Vertx vertx = builder.with(vertxOptions).build();
 
         // Configuration
         JsonObject config = new JsonObject()
                 .put("port", getIntProperty("KAMA_PORT", 9000))
                 .put("host", getProperty("KAMA_HOST", "0.0.0.0"))
+                .put("instances", instances)
                 .put("database", new JsonObject()
                         .put("url", getProperty("KAMA_DB_URL", "jdbc:sqlite:kama-platform/src/main/resources/kama.db"))
                         .put("user", getProperty("KAMA_DB_USER", ""))
                         .put("password", getProperty("KAMA_DB_PASSWORD", ""))
-                        .put("driver", getProperty("KAMA_DB_DRIVER", "org.sqlite.JDBC")));
+                        .put("driver", getProperty("KAMA_DB_DRIVER", "org.sqlite.JDBC"))
+                        .put("maxPoolSize", dbPoolSize)
+                        .put("queryTimeout", getIntProperty("KAMA_DB_QUERY_TIMEOUT_SECONDS", 30))
+                        .put("blockingMode", blockingMode.name()))
+                .put("hashing", new JsonObject()
+                        .put("algorithm", getProperty("KAMA_HASH_ALGORITHM", "bcrypt"))
+                        .put("budgetMs", getIntProperty("KAMA_HASH_BUDGET_MS", 100))
+                        .put("minCost", getIntProperty("KAMA_HASH_MIN_COST", BCryptAlgorithm.MIN_COST))
+                        .put("poolSize", getIntProperty("KAMA_HASH_POOL_SIZE", PasswordHasher.DEFAULT_POOL_SIZE))
+                        .put("queueLimit", getIntProperty("KAMA_HASH_QUEUE_LIMIT", PasswordHasher.DEFAULT_QUEUE_LIMIT)))
+                .put("tokens", new JsonObject()
+                        .put("algorithm", getProperty("KAMA_TOKEN_ALGORITHM", "ES256"))
+                        .put("rotationSeconds", getIntProperty("KAMA_TOKEN_ROTATION_HOURS", 168) * 3600L)
+                        .put("keyEncryptionSecret", getProperty("KAMA_TOKEN_KEY_SECRET", null)))
+                .put("compression", new JsonObject()
+                        .put("minBytes", getIntProperty("KAMA_COMPRESSION_MIN_BYTES", ResponseCompression.DEFAULT_MIN_BYTES))
+                        .put("zstd", Boolean.parseBoolean(getProperty("KAMA_COMPRESSION_ZSTD", "true"))))
+                .put("metrics", metrics)
+                .put("limits", new JsonObject()
+                        .put("enabled", Boolean.parseBoolean(getProperty("KAMA_LIMITS_ENABLED", "true")))
+                        .put("initialLimit", getIntProperty("KAMA_LIMIT_INITIAL", 4 * dbPoolSize))
+                        .put("maxLimit", getIntProperty("KAMA_LIMIT_MAX", 1000)))
+                .put("throttling", new JsonObject()
+                        .put("emailLimit", getIntProperty("KAMA_LOGIN_EMAIL_LIMIT", 5))
+                        .put("addressLimit", getIntProperty("KAMA_LOGIN_ADDRESS_LIMIT", 100)))
+                .put("users", new JsonObject()
+                        .put("cacheTtlMs", getIntProperty("KAMA_USER_CACHE_TTL_MS", 5_000)));
 
-        // Deployment options
-        DeploymentOptions deploymentOptions = new DeploymentOptions()
-                .setConfig(config)
-                .setInstances(1);
+        // The REST/JSON gateway calls the server over loopback, its instances share the event loops
+        JsonObject gateway = new JsonObject()
+                .put("enabled", Boolean.parseBoolean(getProperty("KAMA_GATEWAY_ENABLED", "false")))
+                .put("host", config.getString("host"))
+                .put("port", getIntProperty("KAMA_GATEWAY_PORT", GatewayVerticle.DEFAULT_PORT))
+                .put("instances", instances)
+                .put("upstream", new JsonObject()
+                        .put("host", "127.0.0.1")
+                        .put("port", config.getInteger("port")))
+                .put("auth", new JsonObject()
+                        .put("enabled", Boolean.parseBoolean(getProperty("KAMA_GATEWAY_AUTH_ENABLED", "true"))))
+                .put("rateLimit", new JsonObject()
+                        .put("enabled", Boolean.parseBoolean(getProperty("KAMA_GATEWAY_RATE_LIMIT_ENABLED", "true")))
+                        .put("ratePerSecond", getDoubleProperty("KAMA_GATEWAY_RATE_LIMIT", RateLimiter.DEFAULT_RATE_PER_SECOND))
+                        .put("burst", getIntProperty("KAMA_GATEWAY_RATE_LIMIT_BURST", RateLimiter.DEFAULT_BURST)))
+                .put("cache", new JsonObject()
+                        .put("enabled", Boolean.parseBoolean(getProperty("KAMA_GATEWAY_CACHE_ENABLED", "true")))
+                        .put("maxEntries", getIntProperty("KAMA_GATEWAY_CACHE_ENTRIES", ResponseCache.DEFAULT_MAX_ENTRIES))
+                        .put("maxAgeMs", getIntProperty("KAMA_GATEWAY_CACHE_MAX_AGE_MS", (int) ResponseCache.DEFAULT_MAX_AGE_MS)));
 
         logger.infov("Starting Kama Server...");
         logger.infov("Configuration:");
         logger.infov("  Host: {0}", config.getString("host"));
         logger.infov("  Port: {0}", config.getInteger("port"));
         logger.infov("  Database URL: {0}", config.getJsonObject("database").getString("url"));
+        if (gateway.getBoolean("enabled")) {
+            logger.infov("  Gateway port: {0}", gateway.getInteger("port"));
+        }
+        logger.infov("  Event loops: {0}, server instances: {1}, worker threads: {2}, database connections per service: {3}, blocking mode: {4}",
+                eventLoops, instances, workerPoolSize, dbPoolSize, blockingMode);
 
-        // Deploy the server verticle
-        vertx.deployVerticle(new ServerVerticle(), deploymentOptions).onComplete(result -> {
-            if (result.succeeded()) {
-                logger.infov("Kama Server started successfully!");
-                logger.infov("Deployment ID: {0}", result.result());
-
-                // Add shutdown hook
-                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                    logger.infov("Shutting down Kama Server...");
-                    vertx.close();
-                }));
-            } else {
-                logger.errorv(result.cause(), "Failed to start Kama Server");
-                vertx.close();
-                System.exit(1);
-            }
-        });
+        // Deploy the services once and the server verticle on several event loops
+        ServerVerticle.deploy(vertx, config)
+                .compose(id -> gateway.getBoolean("enabled") ? GatewayVerticle.deploy(vertx, gateway).map(id) : Future.succeededFuture(id))
+                .onComplete(result -> {
+                    if (result.succeeded()) {
+                        logger.infov("Kama Server started successfully!");
+                        logger.infov("Deployment ID: {0}", result.result());
+
+                        // Add shutdown hook
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            logger.infov("Shutting down Kama Server...");
+                            vertx.close().await();
+                            if (openTelemetry != null) {
+                                // Exports the spans still buffered
+                                openTelemetry.close();
+                            }
+                        }));
+                    } else {
+                        logger.errorv(result.cause(), "Failed to start Kama Server");
+                        vertx.close();
+                        System.exit(1);
+                    }
+                });
     }
 
     private static String getProperty(String key, String defaultValue) {
@@ -68,6 +174,29 @@ public class Main {
         return value != null ? value : defaultValue;
     }
 
+    private static JsonArray getDoublesProperty(String key) {
+        JsonArray values = new JsonArray();
+        for (String value : getProperty(key, "").split(",")) {
+            try {
+                if (!value.isBlank()) {
+                    values.add(Double.parseDouble(value.trim()));
+                }
+            } catch (NumberFormatException e) {
+                logger.warnv("Ignoring invalid value {0} of {1}", value, key);
+            }
+        }
+        return values;
+    }
+
+    private static double getDoubleProperty(String key, double defaultValue) {
+        String value = getProperty(key, String.valueOf(defaultValue));
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     private static int getIntProperty(String key, int defaultValue) {
         String value = getProperty(key, String.valueOf(defaultValue));
         try {
@@ -30,6 +30,6 @@ public class MainVerticle extends VerticleBase {
         DeploymentOptions databaseOptions = new DeploymentOptions()
                 .setConfig(new JsonObject().put("database", options.toJson()));
 
-        return vertx.deployVerticle(ServerVerticle::new, databaseOptions).compose(_ -> vertx.deployVerticle(WebVerticle::new, webOptions));
+        return ServerVerticle.deploy(vertx, databaseOptions.getConfig()).compose(_ -> vertx.deployVerticle(WebVerticle::new, webOptions));
     }
 }
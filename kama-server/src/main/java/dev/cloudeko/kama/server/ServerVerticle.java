@@ -1,21 +1,37 @@
 package dev.cloudeko.kama.server;
 
-import dev.cloudeko.kama.common.DatabaseOptions;
-import dev.cloudeko.kama.common.MigrationVerticle;
+import dev.cloudeko.kama.common.Deadline;
+import dev.cloudeko.kama.common.LocalServices;
 import dev.cloudeko.kama.database.CollectionService;
-import dev.cloudeko.kama.database.DatabaseVerticle;
+import dev.cloudeko.kama.database.CollectionServiceVertxEBProxy;
 import dev.cloudeko.kama.database.RecordService;
-import dev.cloudeko.kama.identity.IdentityVerticle;
+import dev.cloudeko.kama.database.RecordServiceVertxEBProxy;
 import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.UserServiceVertxEBProxy;
+import dev.cloudeko.kama.identity.token.TokenSigner;
+import dev.cloudeko.kama.server.compression.ResponseCompression;
+import dev.cloudeko.kama.server.connect.CollectionReadCache;
+import dev.cloudeko.kama.server.connect.ConnectGetHandler;
+import dev.cloudeko.kama.server.deadline.Deadlines;
 import dev.cloudeko.kama.server.impl.GrpcCollectionServiceImpl;
 import dev.cloudeko.kama.server.impl.GrpcRecordServiceImpl;
 import dev.cloudeko.kama.server.impl.GrpcIdentityServiceImpl;
+import dev.cloudeko.kama.server.limit.LoadShedder;
+import dev.cloudeko.kama.server.metrics.RpcMetrics;
+import dev.cloudeko.kama.server.metrics.ServerMetrics;
+import dev.cloudeko.kama.server.metrics.ServiceCallMetrics;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.VerticleBase;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.GrpcStatus;
 import io.vertx.grpc.server.GrpcServer;
 import io.vertx.grpc.server.GrpcServerOptions;
 import org.jboss.logging.Logger;
@@ -24,7 +40,10 @@ public class ServerVerticle extends VerticleBase {
 
     private static final Logger logger = Logger.getLogger(ServerVerticle.class);
 
+    private static final String JWKS_PATH = "/.well-known/jwks.json";
+
     private HttpServer httpServer;
+    private HttpServer metricsServer;
     private GrpcServer grpcServer;
 
     @Override
@@ -33,24 +52,58 @@ public class ServerVerticle extends VerticleBase {
         JsonObject config = config();
         int port = config.getInteger("port", 9000);
         String host = config.getString("host", "0.0.0.0");
-        DatabaseOptions dbOptions = new DatabaseOptions(config.getJsonObject("database", new JsonObject()));
-
-        DeploymentOptions databaseOptions = new DeploymentOptions()
-                .setConfig(new JsonObject().put("database", dbOptions.toJson()));
-
-        // Deploy migration verticle first
-        return Future.all(
-                vertx.deployVerticle(new MigrationVerticle(), databaseOptions),
-                vertx.deployVerticle(DatabaseVerticle.class, databaseOptions),
-                vertx.deployVerticle(IdentityVerticle.class, databaseOptions)
-        ).compose(migrationResult -> {
-            return startGrpcServer(host, port, dbOptions);
-        });
+        boolean localServices = config.getBoolean("localServices", true);
+
+        JsonObject metrics = config.getJsonObject("metrics", new JsonObject());
+        if (metrics.getBoolean("enabled", true)) {
+            ServerMetrics.install(metrics);
+        }
+
+        // The services are deployed once by deploy(), every instance only serves the API. The scrape endpoint is only
+        // served on a port of its own, never next to the API
+        Future<Void> started = startGrpcServer(host, port, localServices);
+        if (ServerMetrics.prometheus() == null || !metrics.containsKey("port")) {
+            return started;
+        }
+        return started.compose(v -> ServerMetrics.serve(vertx, metrics))
+                .onSuccess(server -> {
+                    metricsServer = server;
+                    logger.infov("Metrics served on {0}:{1,number,#}", metrics.getString("host", ServerMetrics.DEFAULT_HOST), server.actualPort());
+                });
     }
 
-    private Future<Void> startGrpcServer(String host, int port, DatabaseOptions dbOptions) {
-        // Create gRPC server options
-        GrpcServerOptions grpcOptions = new GrpcServerOptions();
+    /**
+     * Deploys the services once, then {@code instances} server verticles from the config. All instances listen on the
+     * same port, Vert.x spreads the incoming connections across them, each on its own event loop.
+     *
+     * @return the deployment ID of both, undeploying it stops the server verticles and the services
+     */
+    public static Future<String> deploy(Vertx vertx, JsonObject config) {
+        return vertx.deployVerticle(new Deployment(), new DeploymentOptions().setConfig(config));
+    }
+
+    /**
+     * Holds the services and the server verticles as its children, so they are undeployed with it.
+     */
+    private static final class Deployment extends VerticleBase {
+
+        @Override
+        public Future<?> start() {
+            DeploymentOptions servicesOptions = new DeploymentOptions().setConfig(config());
+            DeploymentOptions serverOptions = new DeploymentOptions()
+                    .setConfig(config())
+                    .setInstances(config().getInteger("instances", 1));
+
+            return vertx.deployVerticle(new ServicesVerticle(), servicesOptions)
+                    .compose(servicesId -> vertx.deployVerticle(ServerVerticle::new, serverOptions)
+                            // Do not leave the services running without a server in front of them
+                            .recover(err -> vertx.undeploy(servicesId).transform(v -> Future.failedFuture(err))));
+        }
+    }
+
+    private Future<Void> startGrpcServer(String host, int port, boolean localServices) {
+        // Create gRPC server options, calls still running at their deadline are answered with DEADLINE_EXCEEDED
+        GrpcServerOptions grpcOptions = new GrpcServerOptions().setScheduleDeadlineAutomatically(true);
 
         // Create HTTP server options for CORS and gRPC-Web
         HttpServerOptions httpOptions = new HttpServerOptions()
@@ -60,19 +113,56 @@ public class ServerVerticle extends VerticleBase {
         // Create the gRPC server
         grpcServer = GrpcServer.server(vertx, grpcOptions);
 
-        CollectionService collectionServiceProxy = CollectionService.createProxy(vertx, "dev.cloudeko.kama.database.CollectionService");
-        RecordService recordServiceProxy = RecordService.createProxy(vertx, "dev.cloudeko.kama.database.RecordService");
-        UserService userServiceProxy = UserService.createProxy(vertx, "dev.cloudeko.kama.identity.UserService");
+        // Bind directly to colocated services, event-bus proxies are only used when a service is deployed elsewhere.
+        // Either way calls are bounded by the deadline of the gRPC call making them.
+        CollectionService collectionServiceProxy = localServices
+                ? Deadlines.local(CollectionService.class, LocalServices.lookup(vertx, "dev.cloudeko.kama.database.CollectionService", CollectionService.class, address -> CollectionService.createProxy(vertx, address)))
+                : Deadlines.remote(CollectionService.class, options -> new CollectionServiceVertxEBProxy(vertx, "dev.cloudeko.kama.database.CollectionService", options));
+        RecordService recordServiceProxy = localServices
+                ? Deadlines.local(RecordService.class, LocalServices.lookup(vertx, "dev.cloudeko.kama.database.RecordService", RecordService.class, address -> RecordService.createProxy(vertx, address)))
+                : Deadlines.remote(RecordService.class, options -> new RecordServiceVertxEBProxy(vertx, "dev.cloudeko.kama.database.RecordService", options));
+        UserService userServiceProxy = localServices
+                ? Deadlines.local(UserService.class, LocalServices.lookup(vertx, "dev.cloudeko.kama.identity.UserService", UserService.class, address -> UserService.createProxy(vertx, address)))
+                : Deadlines.remote(UserService.class, options -> new UserServiceVertxEBProxy(vertx, "dev.cloudeko.kama.identity.UserService", options));
+
+        PrometheusMeterRegistry prometheus = ServerMetrics.prometheus();
+        if (prometheus != null) {
+            collectionServiceProxy = ServiceCallMetrics.instrument(CollectionService.class, collectionServiceProxy, "collection", Metrics.globalRegistry);
+            recordServiceProxy = ServiceCallMetrics.instrument(RecordService.class, recordServiceProxy, "record", Metrics.globalRegistry);
+            userServiceProxy = ServiceCallMetrics.instrument(UserService.class, userServiceProxy, "identity", Metrics.globalRegistry);
+        }
 
         // Create service implementations
         GrpcCollectionServiceImpl collectionService = new GrpcCollectionServiceImpl(collectionServiceProxy);
-        GrpcRecordServiceImpl recordService = new GrpcRecordServiceImpl(recordServiceProxy);
+        GrpcRecordServiceImpl recordService = new GrpcRecordServiceImpl(recordServiceProxy, userServiceProxy);
         GrpcIdentityServiceImpl identityService = new GrpcIdentityServiceImpl(userServiceProxy);
 
-        // Register services with gRPC server
-        collectionService.bind(grpcServer);
-        recordService.bind(grpcServer);
-        identityService.bind(grpcServer);
+        // Register services with gRPC server, large responses are compressed for clients that accept it
+        ResponseCompression compression = new ResponseCompression(config().getJsonObject("compression", new JsonObject()), Metrics.globalRegistry);
+        GrpcServer compressingServer = compression.wrap(grpcServer);
+        collectionService.bind(compressingServer);
+        recordService.bind(compressingServer);
+        identityService.bind(compressingServer);
+
+        RpcMetrics rpcMetrics = new RpcMetrics(Metrics.globalRegistry);
+        rpcMetrics.register(collectionService.descriptor());
+        rpcMetrics.register(recordService.descriptor());
+        rpcMetrics.register(identityService.descriptor());
+
+        // Calls beyond what the services can take are turned away early, shared by all server instances
+        JsonObject limits = config().getJsonObject("limits", new JsonObject());
+        LoadShedder loadShedder = limits.getBoolean("enabled", true) ? LoadShedder.shared(vertx, limits, Metrics.globalRegistry) : null;
+        if (loadShedder != null) {
+            loadShedder.register(collectionService.descriptor());
+            loadShedder.register(recordService.descriptor());
+            loadShedder.register(identityService.descriptor());
+        }
+        UserService userService = userServiceProxy;
+
+        // Collection reads are also served as cacheable Connect GET requests, kept until a collection changes
+        CollectionReadCache collectionCache = new CollectionReadCache(collectionServiceProxy);
+        collectionCache.subscribe(vertx.eventBus());
+        ConnectGetHandler connectGet = new ConnectGetHandler(collectionCache, config().getJsonObject("connect", new JsonObject()));
 
         // Create HTTP server
         httpServer = vertx.createHttpServer(httpOptions);
@@ -83,7 +173,8 @@ public class ServerVerticle extends VerticleBase {
             request.response()
                     .putHeader("Access-Control-Allow-Origin", "*")
                     .putHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
-                    .putHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, grpc-timeout, grpc-encoding, grpc-accept-encoding, x-grpc-web, x-user-agent");
+                    .putHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, grpc-timeout, grpc-encoding, grpc-accept-encoding, x-grpc-web, x-user-agent, connect-protocol-version, If-None-Match")
+                    .putHeader("Access-Control-Expose-Headers", "ETag");
 
             // Handle preflight requests
             if ("OPTIONS".equals(request.method().name())) {
@@ -91,6 +182,47 @@ public class ServerVerticle extends VerticleBase {
                 return;
             }
 
+            // Public signing keys, lets other services verify tokens without calling ValidateToken
+            if ("GET".equals(request.method().name()) && JWKS_PATH.equals(request.path())) {
+                serveJwks(request, userService);
+                return;
+            }
+
+            if (connectGet.handles(request)) {
+                connectGet.handle(request);
+                return;
+            }
+
+            // Every request is served on its own context, the deadline is visible to everything the call does
+            Deadline deadline = Deadline.fromTimeout(request.getHeader("grpc-timeout"));
+            if (deadline != null) {
+                deadline.attach(Vertx.currentContext());
+            }
+            Handler<Void> call = prometheus != null ? rpcMetrics.track(request) : null;
+
+            // A call that is late before it starts would only delay the calls that can still make it
+            if (deadline != null && deadline.expired()) {
+                reject(request, call, GrpcStatus.DEADLINE_EXCEEDED, "Deadline exceeded");
+                return;
+            }
+            Handler<Void> permit = loadShedder != null ? loadShedder.acquire(request.path(), request.response()) : LoadShedder.UNLIMITED;
+            if (permit == null) {
+                reject(request, call, GrpcStatus.RESOURCE_EXHAUSTED, "Server overloaded, retry later");
+                return;
+            }
+
+            Handler<Void> done = v -> {
+                // Closed before the response was ended, the client is gone and the remaining work is wasted
+                if (deadline != null && !request.response().ended()) {
+                    deadline.cancel();
+                }
+                permit.handle(null);
+                if (call != null) {
+                    call.handle(null);
+                }
+            };
+            request.response().endHandler(done).closeHandler(done);
+
             // Route to gRPC server
             grpcServer.handle(request);
         });
@@ -98,7 +230,7 @@ public class ServerVerticle extends VerticleBase {
         // Start the HTTP server
         return httpServer.listen()
                 .onSuccess(server -> {
-                    logger.infov("HTTP server started on {0}:{1,number,#}", host, port);
+                    logger.infov("HTTP server started on {0}:{1,number,#} ({2})", host, port, Thread.currentThread().getName());
                     logger.infov("Available services:");
                     logger.infov("  - cloudeko.kama.collection.v1.CollectionService");
                     logger.infov("  - cloudeko.kama.record.v1.RecordService");
@@ -108,8 +240,39 @@ public class ServerVerticle extends VerticleBase {
                 .mapEmpty();
     }
 
+    /**
+     * Answers a call with a trailers-only response, without handing it to the gRPC server.
+     */
+    private static void reject(HttpServerRequest request, Handler<Void> call, GrpcStatus status, String message) {
+        if (call != null) {
+            request.response().endHandler(call).closeHandler(call);
+        }
+        String contentType = request.getHeader("content-type");
+        request.response()
+                .putHeader("content-type", contentType != null ? contentType : "application/grpc")
+                .putHeader("grpc-status", String.valueOf(status.code))
+                .putHeader("grpc-message", message)
+                .end();
+    }
+
+    private void serveJwks(HttpServerRequest request, UserService userService) {
+        userService.getJwks()
+                .onSuccess(jwks -> request.response()
+                        .putHeader("Content-Type", "application/jwk-set+json")
+                        // A rotated key is published this long before it signs, verifiers always know it in time
+                        .putHeader("Cache-Control", "public, max-age=" + TokenSigner.JWKS_MAX_AGE_SECONDS)
+                        .end(jwks.encode()))
+                .onFailure(cause -> {
+                    logger.errorv(cause, "Failed to load signing keys");
+                    request.response().setStatusCode(503).end();
+                });
+    }
+
     @Override
     public Future<?> stop() throws Exception {
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
         Future<Void> httpFuture = httpServer != null ? httpServer.close() : Future.succeededFuture();
 
         return httpFuture
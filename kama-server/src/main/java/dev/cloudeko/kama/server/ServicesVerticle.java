@@ -0,0 +1,77 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.common.BlockingMode;
+import dev.cloudeko.kama.common.DatabaseOptions;
+import dev.cloudeko.kama.common.Deadline;
+import dev.cloudeko.kama.common.MigrationVerticle;
+import dev.cloudeko.kama.common.PinningMonitor;
+import dev.cloudeko.kama.database.DatabaseVerticle;
+import dev.cloudeko.kama.identity.IdentityVerticle;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.ThreadingModel;
+import io.vertx.core.VerticleBase;
+import io.vertx.core.eventbus.DeliveryContext;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+/**
+ * Runs the database migrations and deploys the services behind the gRPC API, exactly once per Vert.x instance.
+ * <p>
+ * The services are undeployed together with this verticle.
+ * <p>
+ * With {@link BlockingMode#VIRTUAL} the migrations and the services run on virtual thread contexts, so the JDBC
+ * statements, migrations and hashes they run block virtual threads instead of taking the shared worker pool.
+ */
+public class ServicesVerticle extends VerticleBase {
+
+    private static final Logger logger = Logger.getLogger(ServicesVerticle.class);
+
+    private final Handler<DeliveryContext<Object>> deadlines = Deadline::intercept;
+
+    @Override
+    public Future<?> start() {
+        JsonObject config = config();
+        DatabaseOptions dbOptions = new DatabaseOptions(config.getJsonObject("database", new JsonObject()));
+
+        boolean virtual = dbOptions.getBlockingMode() == BlockingMode.VIRTUAL;
+        if (virtual) {
+            PinningMonitor.install(Metrics.globalRegistry, PinningMonitor.DEFAULT_THRESHOLD);
+        }
+
+        DeploymentOptions databaseOptions = new DeploymentOptions()
+                .setConfig(new JsonObject().put("database", dbOptions.toJson()))
+                .setThreadingModel(virtual ? ThreadingModel.VIRTUAL_THREAD : ThreadingModel.EVENT_LOOP);
+
+        // Flyway blocks, and the services must not start on a schema that is still being migrated
+        DeploymentOptions migrationOptions = new DeploymentOptions(databaseOptions)
+                .setThreadingModel(virtual ? ThreadingModel.VIRTUAL_THREAD : ThreadingModel.WORKER);
+
+        DeploymentOptions identityOptions = new DeploymentOptions()
+                .setThreadingModel(databaseOptions.getThreadingModel())
+                .setConfig(databaseOptions.getConfig().copy()
+                        .put("migrate", false)
+                        .put("hashing", config.getJsonObject("hashing", new JsonObject()))
+                        .put("tokens", config.getJsonObject("tokens", new JsonObject()))
+                        .put("throttling", config.getJsonObject("throttling", new JsonObject()))
+                        .put("users", config.getJsonObject("users", new JsonObject())));
+
+        // Calls made over the event bus carry the deadline of the gRPC call that made them
+        vertx.eventBus().addInboundInterceptor(deadlines);
+
+        return vertx.deployVerticle(new MigrationVerticle(), migrationOptions)
+                .compose(migrationId -> Future.all(
+                        vertx.deployVerticle(DatabaseVerticle.class, databaseOptions),
+                        vertx.deployVerticle(IdentityVerticle.class, identityOptions)))
+                .onSuccess(services -> logger.infov("Services deployed on database {0}, blocking calls on {1} threads",
+                        dbOptions.getUrl(), virtual ? "virtual" : "worker"));
+    }
+
+    @Override
+    public Future<?> stop() {
+        vertx.eventBus().removeInboundInterceptor(deadlines);
+        return super.stop();
+    }
+}
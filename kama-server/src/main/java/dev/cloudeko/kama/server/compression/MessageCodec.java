@@ -0,0 +1,72 @@
+package dev.cloudeko.kama.server.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gRPC message compression codec, named as in the {@code grpc-encoding} header.
+ */
+public interface MessageCodec {
+
+    String name();
+
+    byte[] compress(byte[] data);
+
+    static MessageCodec gzip() {
+        return Gzip.INSTANCE;
+    }
+
+    /**
+     * Returns the zstd codec, or {@code null} when zstd-jni is not on the classpath.
+     */
+    static MessageCodec zstd(int level) {
+        try {
+            Class.forName("com.github.luben.zstd.Zstd", false, MessageCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        return new Zstd(level);
+    }
+
+    final class Gzip implements MessageCodec {
+
+        private static final Gzip INSTANCE = new Gzip();
+
+        @Override
+        public String name() {
+            return "gzip";
+        }
+
+        @Override
+        public byte[] compress(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    final class Zstd implements MessageCodec {
+
+        private final int level;
+
+        private Zstd(int level) {
+            this.level = level;
+        }
+
+        @Override
+        public String name() {
+            return "zstd";
+        }
+
+        @Override
+        public byte[] compress(byte[] data) {
+            return com.github.luben.zstd.Zstd.compress(data, level);
+        }
+    }
+}
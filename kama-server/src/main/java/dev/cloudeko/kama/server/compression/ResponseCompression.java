@@ -0,0 +1,247 @@
+package dev.cloudeko.kama.server.compression;
+
+import com.google.protobuf.MessageLite;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.GrpcMessage;
+import io.vertx.grpc.common.ServiceMethod;
+import io.vertx.grpc.common.WireFormat;
+import io.vertx.grpc.server.GrpcServer;
+import io.vertx.grpc.server.GrpcServerRequest;
+import io.vertx.grpc.server.GrpcServerResponse;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compresses large gRPC responses with the best codec the client accepts.
+ * <p>
+ * Each method has a size threshold, responses below it are sent uncompressed since the CPU spent would save next to
+ * nothing on the wire. The first message of a call decides: once it is compressed, the call keeps the negotiated
+ * {@code grpc-encoding} and every later message of a stream is compressed too. Codecs are preferred in server order,
+ * zstd before gzip, among those listed in the client's {@code grpc-accept-encoding}. Only binary gRPC is compressed,
+ * gRPC-Web clients rarely support it.
+ * <p>
+ * Configured with {@code minBytes} (default {@value #DEFAULT_MIN_BYTES}), {@code zstd} (default {@code true}, used
+ * when zstd-jni is present) and {@code methods}, a map from {@code package.Service/Method} to its own threshold where a
+ * negative threshold disables compression for the method. Methods returning tokens are not compressed by default, they
+ * are small and high-entropy, and compressing secrets next to client-controlled data invites length side channels.
+ */
+public class ResponseCompression {
+
+    public static final int DEFAULT_MIN_BYTES = 1024;
+
+    private static final int ZSTD_LEVEL = 3;
+
+    private static final Map<String, Integer> DEFAULT_METHODS = Map.of(
+            "cloudeko.kama.identity.v1.IdentityServer/AuthenticateUser", -1,
+            "cloudeko.kama.identity.v1.IdentityServer/GenerateToken", -1,
+            "cloudeko.kama.identity.v1.IdentityServer/RefreshToken", -1,
+            "cloudeko.kama.identity.v1.IdentityServer/ValidateToken", -1);
+
+    private final boolean enabled;
+    private final int minBytes;
+    private final Map<String, Integer> methods = new HashMap<>(DEFAULT_METHODS);
+    private final List<MessageCodec> codecs = new ArrayList<>();
+    private final MeterRegistry registry;
+    private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+    public ResponseCompression(JsonObject config, MeterRegistry registry) {
+        this.enabled = config.getBoolean("enabled", true);
+        this.minBytes = config.getInteger("minBytes", DEFAULT_MIN_BYTES);
+        this.registry = registry;
+
+        JsonObject overrides = config.getJsonObject("methods", new JsonObject());
+        for (String method : overrides.fieldNames()) {
+            methods.put(method, overrides.getInteger(method));
+        }
+
+        if (config.getBoolean("zstd", true)) {
+            MessageCodec zstd = MessageCodec.zstd(ZSTD_LEVEL);
+            if (zstd != null) {
+                codecs.add(zstd);
+            }
+        }
+        codecs.add(MessageCodec.gzip());
+    }
+
+    /**
+     * Returns a view of {@code server} that applies the compression policy to every call handler registered on it.
+     */
+    public GrpcServer wrap(GrpcServer server) {
+        if (!enabled) {
+            return server;
+        }
+        return (GrpcServer) Proxy.newProxyInstance(GrpcServer.class.getClassLoader(), new Class<?>[]{GrpcServer.class}, (proxy, method, args) -> {
+            if (method.getName().equals("callHandler") && args != null && args.length == 2 && args[0] instanceof ServiceMethod<?, ?> serviceMethod) {
+                register(server, serviceMethod, args[1]);
+                return proxy;
+            }
+            return invoke(server, proxy, method, args);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <Req, Resp> void register(GrpcServer server, ServiceMethod<Req, Resp> method, Object handler) {
+        server.callHandler(method, wrap(method, (Handler<GrpcServerRequest<Req, Resp>>) handler));
+    }
+
+    <Req, Resp> Handler<GrpcServerRequest<Req, Resp>> wrap(ServiceMethod<Req, Resp> method, Handler<GrpcServerRequest<Req, Resp>> handler) {
+        String name = method.serviceName().fullyQualifiedName() + "/" + method.methodName();
+        int threshold = methods.getOrDefault(name, minBytes);
+        if (threshold < 0) {
+            return handler;
+        }
+
+        Meters meters = this.meters.computeIfAbsent(name, n -> new Meters(n, registry));
+        return request -> {
+            MessageCodec codec = negotiate(request.headers().get("content-type"), request.headers().get("grpc-accept-encoding"));
+            if (codec == null) {
+                handler.handle(request);
+                return;
+            }
+            handler.handle(compressing(request, new Call(codec, threshold, meters)));
+        };
+    }
+
+    private MessageCodec negotiate(String contentType, String acceptEncoding) {
+        if (acceptEncoding == null || contentType == null || !(contentType.equals("application/grpc") || contentType.startsWith("application/grpc+proto"))) {
+            return null;
+        }
+
+        Set<String> accepted = new HashSet<>();
+        for (String encoding : acceptEncoding.split(",")) {
+            accepted.add(encoding.trim().toLowerCase(Locale.ROOT));
+        }
+        for (MessageCodec codec : codecs) {
+            if (accepted.contains(codec.name())) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <Req, Resp> GrpcServerRequest<Req, Resp> compressing(GrpcServerRequest<Req, Resp> request, Call call) {
+        GrpcServerResponse<Req, Resp> response = request.response();
+        GrpcServerResponse<Req, Resp> compressingResponse = (GrpcServerResponse<Req, Resp>) Proxy.newProxyInstance(
+                GrpcServerResponse.class.getClassLoader(), new Class<?>[]{GrpcServerResponse.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if ((name.equals("write") || name.equals("end")) && args != null && args.length == 1 && args[0] instanceof MessageLite message) {
+                        GrpcMessage compressed = call.encode(response, message);
+                        if (compressed != null) {
+                            return name.equals("end") ? response.endMessage(compressed) : response.writeMessage(compressed);
+                        }
+                    }
+                    return invoke(response, proxy, method, args);
+                });
+
+        return (GrpcServerRequest<Req, Resp>) Proxy.newProxyInstance(
+                GrpcServerRequest.class.getClassLoader(), new Class<?>[]{GrpcServerRequest.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("response") && (args == null || args.length == 0)) {
+                        return compressingResponse;
+                    }
+                    return invoke(request, proxy, method, args);
+                });
+    }
+
+    /**
+     * Forwards to {@code target}, fluent calls return the proxy so chained calls keep going through it.
+     */
+    private static Object invoke(Object target, Object proxy, Method method, Object[] args) throws Throwable {
+        try {
+            Object result = method.invoke(target, args);
+            return result == target ? proxy : result;
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * The compression state of one call. Messages of a call are written from its context, one at a time.
+     */
+    private static final class Call {
+
+        private final MessageCodec codec;
+        private final int threshold;
+        private final Meters meters;
+        private boolean decided;
+        private boolean compressing;
+
+        Call(MessageCodec codec, int threshold, Meters meters) {
+            this.codec = codec;
+            this.threshold = threshold;
+            this.meters = meters;
+        }
+
+        /**
+         * Returns the compressed message, or {@code null} when it is sent as is.
+         */
+        GrpcMessage encode(GrpcServerResponse<?, ?> response, MessageLite message) {
+            if (!decided) {
+                decided = true;
+                compressing = message.getSerializedSize() >= threshold;
+                if (compressing) {
+                    response.encoding(codec.name());
+                }
+            }
+            if (!compressing) {
+                meters.skipped.increment();
+                return null;
+            }
+
+            byte[] data = message.toByteArray();
+            byte[] compressed = codec.compress(data);
+            meters.compressed.increment();
+            meters.uncompressedBytes.increment(data.length);
+            meters.compressedBytes.increment(compressed.length);
+            meters.savedBytes.increment(Math.max(0, data.length - compressed.length));
+            return GrpcMessage.message(codec.name(), WireFormat.PROTOBUF, Buffer.buffer(compressed));
+        }
+    }
+
+    private static final class Meters {
+
+        final Counter compressed;
+        final Counter skipped;
+        final Counter uncompressedBytes;
+        final Counter compressedBytes;
+        final Counter savedBytes;
+
+        Meters(String method, MeterRegistry registry) {
+            this.compressed = Counter.builder("kama.server.compression.messages")
+                    .description("Response messages by compression outcome")
+                    .tag("method", method)
+                    .tag("result", "compressed")
+                    .register(registry);
+            this.skipped = Counter.builder("kama.server.compression.messages")
+                    .description("Response messages by compression outcome")
+                    .tag("method", method)
+                    .tag("result", "skipped")
+                    .register(registry);
+            this.uncompressedBytes = Counter.builder("kama.server.compression.bytes")
+                    .description("Size of compressed response messages before and after compression")
+                    .baseUnit("bytes")
+                    .tag("method", method)
+                    .tag("stage", "before")
+                    .register(registry);
+            this.compressedBytes = Counter.builder("kama.server.compression.bytes")
+                    .description("Size of compressed response messages before and after compression")
+                    .baseUnit("bytes")
+                    .tag("method", method)
+                    .tag("stage", "after")
+                    .register(registry);
+            this.savedBytes = Counter.builder("kama.server.compression.saved")
+                    .description("Bytes saved on the wire by compressing responses")
+                    .baseUnit("bytes")
+                    .tag("method", method)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package dev.cloudeko.kama.server.connect;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.ListCollectionsResponse;
+import dev.cloudeko.kama.common.CollectionEvents;
+import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.database.CollectionService;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collection metadata responses with their entity tags, kept until the collection service announces a change.
+ * <p>
+ * A collection's tag is derived from its id and version, so it changes with every update and with a delete followed by
+ * a create under the same name. The list's tag is a digest of the ids and versions it contains. Validators of cached
+ * entries answer conditional requests without a database read. A read that raced with a change is not cached, the
+ * generation counter tells.
+ */
+public class CollectionReadCache {
+
+    private final CollectionService service;
+    private final Map<String, Entry> collections = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Entry list;
+
+    public CollectionReadCache(CollectionService service) {
+        this.service = service;
+    }
+
+    public void subscribe(EventBus eventBus) {
+        eventBus.<JsonObject>consumer(CollectionEvents.CHANGED, message -> invalidate(message.body().getString("name")));
+    }
+
+    void invalidate(String name) {
+        generation.incrementAndGet();
+        if (name != null) {
+            collections.remove(name);
+        } else {
+            collections.clear();
+        }
+        list = null;
+    }
+
+    /**
+     * Returns the tag of the cached collection, or {@code null} when it is not cached.
+     */
+    public String etag(String name) {
+        Entry entry = collections.get(name);
+        return entry != null ? entry.etag : null;
+    }
+
+    public String listEtag() {
+        Entry entry = list;
+        return entry != null ? entry.etag : null;
+    }
+
+    public Future<Entry> get(String name) {
+        Entry cached = collections.get(name);
+        if (cached != null) {
+            return Future.succeededFuture(cached);
+        }
+
+        long observed = generation.get();
+        return service.getCollection(name).map(json -> {
+            Collection collection = ResourceUtil.decodeCollection(json);
+            Entry entry = new Entry(collection, "\"" + collection.getId() + "." + collection.getVersion() + "\"");
+            if (generation.get() == observed) {
+                collections.put(name, entry);
+            }
+            return entry;
+        });
+    }
+
+    public Future<Entry> list() {
+        Entry cached = list;
+        if (cached != null) {
+            return Future.succeededFuture(cached);
+        }
+
+        long observed = generation.get();
+        return service.listCollections().map(documents -> {
+            ListCollectionsResponse.Builder builder = ListCollectionsResponse.newBuilder();
+            StringBuilder versions = new StringBuilder();
+            for (JsonObject document : documents) {
+                Collection collection = ResourceUtil.decodeCollection(document);
+                builder.addCollections(collection);
+                versions.append(collection.getId()).append('.').append(collection.getVersion()).append(',');
+            }
+            Entry entry = new Entry(builder.build(), "\"" + digest(versions.toString()) + "\"");
+            if (generation.get() == observed) {
+                list = entry;
+            }
+            return entry;
+        });
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A response message with its tag, encoded once per encoding on first use.
+     */
+    public static final class Entry {
+
+        private final Message message;
+        private final String etag;
+        private volatile Buffer proto;
+        private volatile Buffer json;
+
+        Entry(Message message, String etag) {
+            this.message = message;
+            this.etag = etag;
+        }
+
+        public String etag() {
+            return etag;
+        }
+
+        public Buffer proto() {
+            Buffer encoded = proto;
+            if (encoded == null) {
+                proto = encoded = Buffer.buffer(message.toByteArray());
+            }
+            return encoded;
+        }
+
+        public Buffer json() {
+            Buffer encoded = json;
+            if (encoded == null) {
+                try {
+                    json = encoded = Buffer.buffer(JsonFormat.printer().omittingInsignificantWhitespace().print(message));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return encoded;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package dev.cloudeko.kama.server.connect;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import dev.cloudeko.kama.collection.v1.GetCollectionRequest;
+import dev.cloudeko.kama.common.exception.DeadlineExceeded;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Serves the collection read RPCs as Connect GET requests, so browsers and HTTP caches can keep the responses.
+ * <p>
+ * Follows the Connect protocol for unary GET: the request message travels in the {@code message} query parameter,
+ * {@code encoding} is {@code proto} or {@code json}, and {@code base64=1} marks a base64url encoded message. Responses
+ * carry an {@code ETag} and a {@code Cache-Control} header with {@code maxAge} seconds from the config (default
+ * {@value #DEFAULT_MAX_AGE}). A request whose {@code If-None-Match} still matches gets a 304, straight from the cached
+ * validator when the collection is cached.
+ */
+public class ConnectGetHandler {
+
+    private static final Logger logger = Logger.getLogger(ConnectGetHandler.class);
+
+    public static final int DEFAULT_MAX_AGE = 5;
+
+    private static final String GET_COLLECTION = "/cloudeko.kama.collection.v1.CollectionService/GetCollection";
+    private static final String LIST_COLLECTIONS = "/cloudeko.kama.collection.v1.CollectionService/ListCollections";
+
+    private final CollectionReadCache cache;
+    private final String cacheControl;
+
+    public ConnectGetHandler(CollectionReadCache cache, JsonObject config) {
+        this.cache = cache;
+        this.cacheControl = "public, max-age=" + config.getInteger("maxAge", DEFAULT_MAX_AGE);
+    }
+
+    public boolean handles(HttpServerRequest request) {
+        return request.method() == HttpMethod.GET && (GET_COLLECTION.equals(request.path()) || LIST_COLLECTIONS.equals(request.path()));
+    }
+
+    public void handle(HttpServerRequest request) {
+        String encoding = request.getParam("encoding");
+        boolean json = "json".equals(encoding);
+        if (!json && !"proto".equals(encoding)) {
+            error(request.response(), 415, "invalid_argument", "Unsupported encoding: " + encoding);
+            return;
+        }
+        String connect = request.getParam("connect");
+        if (connect != null && !"v1".equals(connect)) {
+            error(request.response(), 400, "invalid_argument", "Unsupported Connect protocol version: " + connect);
+            return;
+        }
+        String compression = request.getParam("compression");
+        if (compression != null && !"identity".equals(compression)) {
+            error(request.response(), 400, "unimplemented", "Unsupported compression: " + compression);
+            return;
+        }
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (LIST_COLLECTIONS.equals(request.path())) {
+            if (matches(ifNoneMatch, cache.listEtag())) {
+                notModified(request.response(), cache.listEtag());
+                return;
+            }
+            respond(request, cache.list(), ifNoneMatch, json);
+            return;
+        }
+
+        GetCollectionRequest.Builder message = GetCollectionRequest.newBuilder();
+        try {
+            decode(request, json, message);
+        } catch (IllegalArgumentException | InvalidProtocolBufferException e) {
+            error(request.response(), 400, "invalid_argument", "Malformed request message");
+            return;
+        }
+        String name = message.getName();
+        if (name.isBlank()) {
+            error(request.response(), 400, "invalid_argument", "name is required");
+            return;
+        }
+        if (matches(ifNoneMatch, cache.etag(name))) {
+            notModified(request.response(), cache.etag(name));
+            return;
+        }
+        respond(request, cache.get(name), ifNoneMatch, json);
+    }
+
+    private void respond(HttpServerRequest request, Future<CollectionReadCache.Entry> entry, String ifNoneMatch, boolean json) {
+        HttpServerResponse response = request.response();
+        entry.onSuccess(cached -> {
+            if (matches(ifNoneMatch, cached.etag())) {
+                notModified(response, cached.etag());
+                return;
+            }
+            response.putHeader("Content-Type", json ? "application/json" : "application/proto")
+                    .putHeader("ETag", cached.etag())
+                    .putHeader("Cache-Control", cacheControl)
+                    .end(json ? cached.json() : cached.proto());
+        }).onFailure(err -> {
+            if ("Not found".equals(err.getMessage())) {
+                error(response, 404, "not_found", "Collection not found");
+            } else if (err instanceof ServiceException e && e.failureCode() == DeadlineExceeded.FAILURE_CODE) {
+                error(response, 504, "deadline_exceeded", err.getMessage());
+            } else {
+                logger.errorv(err, "Failed to read collections for {0}", request.path());
+                error(response, 500, "internal", "Failed to read collections");
+            }
+        });
+    }
+
+    private static void decode(HttpServerRequest request, boolean json, Message.Builder builder) throws InvalidProtocolBufferException {
+        String message = request.getParam("message");
+        if (message == null) {
+            return;
+        }
+        byte[] bytes = "1".equals(request.getParam("base64"))
+                ? Base64.getUrlDecoder().decode(message.replace('+', '-').replace('/', '_').replace("=", ""))
+                : message.getBytes(StandardCharsets.UTF_8);
+        if (json) {
+            JsonFormat.parser().ignoringUnknownFields().merge(new String(bytes, StandardCharsets.UTF_8), builder);
+        } else {
+            builder.mergeFrom(bytes);
+        }
+    }
+
+    private void notModified(HttpServerResponse response, String etag) {
+        response.setStatusCode(304)
+                .putHeader("ETag", etag)
+                .putHeader("Cache-Control", cacheControl)
+                .end();
+    }
+
+    private static void error(HttpServerResponse response, int status, String code, String message) {
+        response.setStatusCode(status)
+                .putHeader("Content-Type", "application/json")
+                .end(new JsonObject().put("code", code).put("message", message).encode());
+    }
+
+    /**
+     * Whether an {@code If-None-Match} header lists {@code etag}, compared weakly as RFC 9110 asks for GET.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,63 @@
+package dev.cloudeko.kama.server.deadline;
+
+import dev.cloudeko.kama.common.Deadline;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.DeliveryOptions;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.Function;
+
+/**
+ * Applies the deadline of the current call to the services the gRPC handlers call.
+ * <p>
+ * A call whose deadline has already passed, or whose client went away, is failed before it reaches the service, so a
+ * backlog of abandoned requests costs no database work. Otherwise the result is failed at the deadline. Through the
+ * event bus the deadline becomes the send timeout and is passed on in a header, so the service applies it to its own
+ * statements.
+ */
+public final class Deadlines {
+
+    private Deadlines() {
+    }
+
+    /**
+     * Wraps a service bound in this Vert.x instance.
+     */
+    public static <T> T local(Class<T> type, T service) {
+        return wrap(type, deadline -> service);
+    }
+
+    /**
+     * Wraps an event-bus proxy, {@code proxies} creates a proxy sending with the given options.
+     */
+    public static <T> T remote(Class<T> type, Function<DeliveryOptions, T> proxies) {
+        T service = proxies.apply(new DeliveryOptions());
+        return wrap(type, deadline -> deadline == null ? service : proxies.apply(new DeliveryOptions()
+                .setSendTimeout(Math.max(1, deadline.remaining()))
+                .addHeader(Deadline.HEADER, deadline.toHeader())));
+    }
+
+    private static <T> T wrap(Class<T> type, Function<Deadline, T> target) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+            Deadline deadline = Deadline.current();
+            if (deadline == null || method.getDeclaringClass() == Object.class || !Future.class.isAssignableFrom(method.getReturnType())) {
+                return invoke(target.apply(null), method, args);
+            }
+            if (deadline.expired()) {
+                return Future.failedFuture(deadline.exceeded());
+            }
+            return Deadline.bound((Future<?>) invoke(target.apply(deadline), method, args));
+        });
+        return type.cast(proxy);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -27,17 +27,22 @@ public class AuthenticateUserV1Handler extends BaseIdentityHandler<AuthenticateU
             String email = req.getEmail();
             String password = req.getPassword();
             
-            userService.authenticateUser(email, password)
+            // The peer address, a proxy in front of the server makes all clients share its address
+            String clientAddress = request.connection().remoteAddress().hostAddress();
+
+            userService.authenticateUser(email, password, clientAddress)
                 .compose(userJson -> {
-                    // Generate JWT token for the authenticated user
+                    // Start a session, its access token and refresh token go back to the client
                     String userId = userJson.getString("id");
-                    return userService.generateJwtToken(userId)
+                    return userService.createSession(userId)
                         .map(tokenJson -> {
                             User user = ResourceUtil.decodeUser(userJson);
                             AuthenticationResponse.Builder responseBuilder = AuthenticationResponse.newBuilder()
                                 .setUser(user)
                                 .setToken(tokenJson.getString("token"))
-                                .setExpiresIn(tokenJson.getLong("expiresIn"));
+                                .setExpiresIn(tokenJson.getLong("expires_in"))
+                                .setRefreshToken(tokenJson.getString("refresh_token"))
+                                .setRefreshExpiresIn(tokenJson.getLong("refresh_expires_in"));
                             return responseBuilder.build();
                         });
                 })
@@ -50,10 +55,18 @@ public class AuthenticateUserV1Handler extends BaseIdentityHandler<AuthenticateU
                 })
                 .onFailure(err -> {
                     logger.error("Failed to authenticate user", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
                     }
+                    if (isResourceExhausted(err)) {
+                        request.response().status(GrpcStatus.RESOURCE_EXHAUSTED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     request.response().status(GrpcStatus.UNAUTHENTICATED).statusMessage("Invalid credentials").end();
                 });
         });
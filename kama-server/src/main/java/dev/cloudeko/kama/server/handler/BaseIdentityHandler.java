@@ -1,8 +1,12 @@
 package dev.cloudeko.kama.server.handler;
 
+import dev.cloudeko.kama.common.exception.DeadlineExceeded;
+import dev.cloudeko.kama.common.exception.InvalidArgument;
+import dev.cloudeko.kama.common.exception.ResourceExhausted;
 import dev.cloudeko.kama.identity.UserService;
 import io.vertx.core.Handler;
 import io.vertx.grpc.server.GrpcServerRequest;
+import io.vertx.serviceproxy.ServiceException;
 import org.jboss.logging.Logger;
 
 public abstract class BaseIdentityHandler<Req, Resp> implements Handler<GrpcServerRequest<Req, Resp>> {
@@ -13,4 +17,26 @@ public abstract class BaseIdentityHandler<Req, Resp> implements Handler<GrpcServ
     protected BaseIdentityHandler(UserService userService) {
         this.userService = userService;
     }
-}
\ No newline at end of file
+
+    /**
+     * Whether the call ran out of time in the identity service, mapped before anything else so the client sees
+     * {@code DEADLINE_EXCEEDED} and the load shedder counts the call as dropped.
+     */
+    protected static boolean isDeadlineExceeded(Throwable err) {
+        return err instanceof ServiceException && ((ServiceException) err).failureCode() == DeadlineExceeded.FAILURE_CODE;
+    }
+
+    /**
+     * Whether the identity service shed the call because its password hashing queue was full.
+     */
+    protected static boolean isResourceExhausted(Throwable err) {
+        return err instanceof ServiceException && ((ServiceException) err).failureCode() == ResourceExhausted.FAILURE_CODE;
+    }
+
+    /**
+     * Whether the identity service rejected the request itself, for example a malformed filter or page token.
+     */
+    protected static boolean isInvalidArgument(Throwable err) {
+        return err instanceof ServiceException && ((ServiceException) err).failureCode() == InvalidArgument.FAILURE_CODE;
+    }
+}
@@ -0,0 +1,84 @@
+package dev.cloudeko.kama.server.handler;
+
+import dev.cloudeko.kama.common.exception.DeadlineExceeded;
+import dev.cloudeko.kama.common.exception.PermissionDenied;
+import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.server.exception.GrpcException;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.GrpcStatus;
+import io.vertx.grpc.common.ServiceName;
+import io.vertx.grpc.server.GrpcServerRequest;
+import io.vertx.serviceproxy.ServiceException;
+import org.jboss.logging.Logger;
+
+public abstract class BaseRecordHandler<Req, Resp> implements Handler<GrpcServerRequest<Req, Resp>> {
+
+    protected static final ServiceName SERVICE_NAME = ServiceName.create("cloudeko.kama.record.v1.RecordService");
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    protected final Logger logger = Logger.getLogger(getClass());
+    protected final RecordService recordService;
+    protected final UserService userService;
+
+    protected BaseRecordHandler(RecordService recordService, UserService userService) {
+        this.recordService = recordService;
+        this.userService = userService;
+    }
+
+    /**
+     * Resolves the principal of the caller from the bearer token of the request. Requests without a token are
+     * anonymous and get an empty principal.
+     */
+    protected Future<JsonObject> principal(GrpcServerRequest<Req, Resp> request) {
+        String authorization = request.headers().get("authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            return Future.succeededFuture(new JsonObject());
+        }
+
+        return userService.validateJwtToken(authorization.substring(BEARER_PREFIX.length()).trim()).compose(validation -> {
+            if (!validation.getBoolean("valid", false)) {
+                return Future.failedFuture(new GrpcException("Invalid token", GrpcStatus.UNAUTHENTICATED));
+            }
+            // Roles come from the token while current, the roles version keys the cached authorization decisions of
+            // the record service
+            return Future.succeededFuture(new JsonObject()
+                    .put("id", validation.getString("user_id"))
+                    .put("roles", validation.getJsonArray("roles", new JsonArray()))
+                    .put("roles_version", validation.getLong("roles_version", 0L)));
+        });
+    }
+
+    /**
+     * Whether the call ran out of time in the record service, mapped before anything else so the client sees
+     * {@code DEADLINE_EXCEEDED} and the load shedder counts the call as dropped.
+     */
+    protected static boolean isDeadlineExceeded(Throwable err) {
+        return err instanceof ServiceException && ((ServiceException) err).failureCode() == DeadlineExceeded.FAILURE_CODE;
+    }
+
+    protected void fail(GrpcServerRequest<Req, Resp> request, String message, Throwable err) {
+        logger.error(message, err);
+        if (isDeadlineExceeded(err)) {
+            request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+            return;
+        }
+        if (err instanceof GrpcException) {
+            request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
+            return;
+        }
+        if (err instanceof ServiceException && ((ServiceException) err).failureCode() == PermissionDenied.FAILURE_CODE) {
+            request.response().status(GrpcStatus.PERMISSION_DENIED).statusMessage(err.getMessage()).end();
+            return;
+        }
+        if (err.getMessage() != null && err.getMessage().contains("Not found")) {
+            request.response().status(GrpcStatus.NOT_FOUND).statusMessage(err.getMessage()).end();
+            return;
+        }
+        request.response().status(GrpcStatus.INTERNAL).end();
+    }
+}
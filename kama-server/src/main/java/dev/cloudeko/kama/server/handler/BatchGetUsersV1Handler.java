@@ -0,0 +1,86 @@
+package dev.cloudeko.kama.server.handler;
+
+import com.google.rpc.Code;
+import com.google.rpc.Status;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.v1.BatchGetUsersRequest;
+import dev.cloudeko.kama.identity.v1.BatchGetUsersResponse;
+import dev.cloudeko.kama.identity.v1.BatchGetUsersResult;
+import dev.cloudeko.kama.server.exception.GrpcException;
+import dev.cloudeko.kama.common.ResourceUtil;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchGetUsersV1Handler extends BaseIdentityHandler<BatchGetUsersRequest, BatchGetUsersResponse> {
+
+    public static final ServiceMethod<BatchGetUsersRequest, BatchGetUsersResponse> SERVICE_METHOD = ServiceMethod.server(
+            ServiceName.create("cloudeko.kama.identity.v1.IdentityServer"),
+            "BatchGetUsers",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(BatchGetUsersRequest.newBuilder()));
+
+    public BatchGetUsersV1Handler(UserService userService) {
+        super(userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<BatchGetUsersRequest, BatchGetUsersResponse> request) {
+        request.handler(req -> {
+            // Extract user IDs from resource names (users/{user}), a malformed name fails the whole batch
+            List<String> userIds = new ArrayList<>(req.getNamesCount());
+            for (String name : req.getNamesList()) {
+                if (!name.startsWith("users/") || name.length() == 6) {
+                    request.response().status(GrpcStatus.INVALID_ARGUMENT).statusMessage("Invalid user name format: " + name).end();
+                    return;
+                }
+                userIds.add(name.substring(6));
+            }
+
+            if (userIds.isEmpty()) {
+                request.response().end(BatchGetUsersResponse.getDefaultInstance());
+                return;
+            }
+
+            userService.batchGetUsers(userIds)
+                .onSuccess(batch -> {
+                    JsonArray users = batch.getJsonArray("users");
+                    BatchGetUsersResponse.Builder responseBuilder = BatchGetUsersResponse.newBuilder();
+                    for (int i = 0; i < users.size(); i++) {
+                        String name = req.getNames(i);
+                        JsonObject userJson = users.getJsonObject(i);
+                        BatchGetUsersResult.Builder result = BatchGetUsersResult.newBuilder().setName(name);
+                        if (userJson == null) {
+                            result.setError(Status.newBuilder()
+                                .setCode(Code.NOT_FOUND_VALUE)
+                                .setMessage("User not found: " + name));
+                        } else {
+                            result.setUser(ResourceUtil.decodeUser(userJson));
+                        }
+                        responseBuilder.addResults(result);
+                    }
+                    request.response().end(responseBuilder.build());
+                })
+                .onFailure(err -> {
+                    logger.error("Failed to get users", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
+                    if (err instanceof GrpcException) {
+                        request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
+                        return;
+                    }
+                    if (isInvalidArgument(err)) {
+                        request.response().status(GrpcStatus.INVALID_ARGUMENT).statusMessage(err.getMessage()).end();
+                        return;
+                    }
+                    request.response().status(GrpcStatus.INTERNAL).end();
+                });
+        });
+    }
+}
@@ -49,10 +49,18 @@ public class ChangePasswordV1Handler extends BaseIdentityHandler<ChangePasswordR
                 })
                 .onFailure(err -> {
                     logger.error("Failed to change password", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
                     }
+                    if (isResourceExhausted(err)) {
+                        request.response().status(GrpcStatus.RESOURCE_EXHAUSTED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err.getMessage() != null && err.getMessage().contains("Invalid old password")) {
                         request.response().status(GrpcStatus.PERMISSION_DENIED).statusMessage("Invalid old password").end();
                         return;
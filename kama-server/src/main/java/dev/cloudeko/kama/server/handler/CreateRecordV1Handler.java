@@ -0,0 +1,30 @@
+package dev.cloudeko.kama.server.handler;
+
+import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.record.v1.CreateRecordRequest;
+import dev.cloudeko.kama.record.v1.Record;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+public class CreateRecordV1Handler extends BaseRecordHandler<CreateRecordRequest, Record> {
+
+    public static final ServiceMethod<CreateRecordRequest, Record> SERVICE_METHOD = ServiceMethod.server(
+            SERVICE_NAME,
+            "CreateRecord",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(CreateRecordRequest.newBuilder()));
+
+    public CreateRecordV1Handler(RecordService recordService, UserService userService) {
+        super(recordService, userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<CreateRecordRequest, Record> request) {
+        request.handler(req -> principal(request)
+                .compose(principal -> recordService.createRecord(req.getParent(), ResourceUtil.encodeRecord(req.getRecord()), principal))
+                .onSuccess(response -> request.response().end(ResourceUtil.decodeRecord(response)))
+                .onFailure(err -> fail(request, "Failed to create record", err)));
+    }
+}
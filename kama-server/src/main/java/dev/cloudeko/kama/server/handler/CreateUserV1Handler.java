@@ -38,10 +38,18 @@ public class CreateUserV1Handler extends BaseIdentityHandler<CreateUserRequest,
                 })
                 .onFailure(err -> {
                     logger.error("Failed to create user", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
                     }
+                    if (isResourceExhausted(err)) {
+                        request.response().status(GrpcStatus.RESOURCE_EXHAUSTED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     request.response().status(GrpcStatus.INTERNAL).end();
                 });
         });
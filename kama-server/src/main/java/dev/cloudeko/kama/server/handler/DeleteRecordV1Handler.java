@@ -0,0 +1,29 @@
+package dev.cloudeko.kama.server.handler;
+
+import com.google.protobuf.Empty;
+import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.record.v1.DeleteRecordRequest;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+public class DeleteRecordV1Handler extends BaseRecordHandler<DeleteRecordRequest, Empty> {
+
+    public static final ServiceMethod<DeleteRecordRequest, Empty> SERVICE_METHOD = ServiceMethod.server(
+            SERVICE_NAME,
+            "DeleteRecord",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(DeleteRecordRequest.newBuilder()));
+
+    public DeleteRecordV1Handler(RecordService recordService, UserService userService) {
+        super(recordService, userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<DeleteRecordRequest, Empty> request) {
+        request.handler(req -> principal(request)
+                .compose(principal -> recordService.deleteRecord(req.getName(), principal))
+                .onSuccess(response -> request.response().end(Empty.getDefaultInstance()))
+                .onFailure(err -> fail(request, "Failed to delete record", err)));
+    }
+}
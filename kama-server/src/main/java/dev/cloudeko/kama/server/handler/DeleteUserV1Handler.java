@@ -38,6 +38,10 @@ public class DeleteUserV1Handler extends BaseIdentityHandler<DeleteUserRequest,
                 })
                 .onFailure(err -> {
                     logger.error("Failed to delete user", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
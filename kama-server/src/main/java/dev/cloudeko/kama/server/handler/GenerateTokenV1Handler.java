@@ -41,13 +41,17 @@ public class GenerateTokenV1Handler extends BaseIdentityHandler<GenerateTokenReq
                     
                     TokenResponse tokenResponse = TokenResponse.newBuilder()
                         .setToken(response.getString("token"))
-                        .setExpiresIn(response.getLong("expiresIn", 3600L))
+                        .setExpiresIn(response.getLong("expires_in", 3600L))
                         .build();
                     
                     request.response().end(tokenResponse);
                 })
                 .onFailure(err -> {
                     logger.error("Failed to generate token", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
@@ -0,0 +1,30 @@
+package dev.cloudeko.kama.server.handler;
+
+import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.record.v1.GetRecordRequest;
+import dev.cloudeko.kama.record.v1.Record;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+public class GetRecordV1Handler extends BaseRecordHandler<GetRecordRequest, Record> {
+
+    public static final ServiceMethod<GetRecordRequest, Record> SERVICE_METHOD = ServiceMethod.server(
+            SERVICE_NAME,
+            "GetRecord",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(GetRecordRequest.newBuilder()));
+
+    public GetRecordV1Handler(RecordService recordService, UserService userService) {
+        super(recordService, userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<GetRecordRequest, Record> request) {
+        request.handler(req -> principal(request)
+                .compose(principal -> recordService.getRecord(req.getName(), principal))
+                .onSuccess(response -> request.response().end(ResourceUtil.decodeRecord(response)))
+                .onFailure(err -> fail(request, "Failed to get record", err)));
+    }
+}
@@ -44,6 +44,10 @@ public class GetUserV1Handler extends BaseIdentityHandler<GetUserRequest, User>
                 })
                 .onFailure(err -> {
                     logger.error("Failed to get user", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
@@ -0,0 +1,153 @@
+package dev.cloudeko.kama.server.handler;
+
+import com.google.rpc.Code;
+import com.google.rpc.Status;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.v1.ImportUserError;
+import dev.cloudeko.kama.identity.v1.ImportUsersRequest;
+import dev.cloudeko.kama.identity.v1.ImportUsersResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+public class ImportUsersV1Handler extends BaseIdentityHandler<ImportUsersRequest, ImportUsersResponse> {
+
+    public static final ServiceMethod<ImportUsersRequest, ImportUsersResponse> SERVICE_METHOD = ServiceMethod.server(
+            ServiceName.create("cloudeko.kama.identity.v1.IdentityServer"),
+            "ImportUsers",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(ImportUsersRequest.newBuilder()));
+
+    // Small enough for a batch to be hashed well within the event bus timeout
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_BATCHES_IN_FLIGHT = 2;
+
+    public ImportUsersV1Handler(UserService userService) {
+        super(userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<ImportUsersRequest, ImportUsersResponse> request) {
+        new Import(request).start();
+    }
+
+    /**
+     * The state of one ImportUsers call. All callbacks run on the context of the call.
+     */
+    private final class Import {
+
+        private final GrpcServerRequest<ImportUsersRequest, ImportUsersResponse> request;
+
+        private JsonArray batch = new JsonArray();
+        private long received;
+        private long processed;
+        private long imported;
+        private long failed;
+        private int inFlight;
+        private boolean ended;
+        private boolean done;
+
+        Import(GrpcServerRequest<ImportUsersRequest, ImportUsersResponse> request) {
+            this.request = request;
+        }
+
+        void start() {
+            request.handler(req -> {
+                if (done) {
+                    return;
+                }
+                JsonObject user = new JsonObject()
+                        .put("email", req.getEmail())
+                        .put("display_name", req.getDisplayName().isEmpty() ? null : req.getDisplayName());
+                switch (req.getCredentialCase()) {
+                    case PASSWORD -> user.put("password", req.getPassword());
+                    case PASSWORD_HASH -> user.put("password_hash", req.getPasswordHash());
+                    default -> {
+                    }
+                }
+                batch.add(user);
+                received++;
+                if (batch.size() == BATCH_SIZE) {
+                    submit();
+                }
+            });
+            request.endHandler(v -> {
+                ended = true;
+                if (!batch.isEmpty()) {
+                    submit();
+                }
+                finishIfDone();
+            });
+            request.exceptionHandler(err -> {
+                logger.error("Failed to read users to import", err);
+                done = true;
+            });
+        }
+
+        private void submit() {
+            JsonArray users = batch;
+            long offset = received - users.size();
+            batch = new JsonArray();
+
+            // Stop reading while enough batches are being hashed and inserted, the client waits on flow control
+            if (++inFlight >= MAX_BATCHES_IN_FLIGHT) {
+                request.pause();
+            }
+
+            userService.importUsers(users)
+                    .onSuccess(result -> {
+                        inFlight--;
+                        if (done) {
+                            return;
+                        }
+                        request.response().write(progress(users, result.getJsonArray("results"), offset));
+                        request.resume();
+                        finishIfDone();
+                    })
+                    .onFailure(err -> {
+                        inFlight--;
+                        logger.error("Failed to import users", err);
+                        if (done) {
+                            return;
+                        }
+                        done = true;
+                        GrpcStatus status = isDeadlineExceeded(err) ? GrpcStatus.DEADLINE_EXCEEDED
+                                : isInvalidArgument(err) ? GrpcStatus.INVALID_ARGUMENT
+                                : GrpcStatus.INTERNAL;
+                        request.response().status(status).statusMessage(err.getMessage()).end();
+                    });
+        }
+
+        private ImportUsersResponse progress(JsonArray users, JsonArray results, long offset) {
+            ImportUsersResponse.Builder responseBuilder = ImportUsersResponse.newBuilder();
+            for (int i = 0; i < results.size(); i++) {
+                JsonObject error = results.getJsonObject(i).getJsonObject("error");
+                if (error == null) {
+                    imported++;
+                    continue;
+                }
+                failed++;
+                responseBuilder.addErrors(ImportUserError.newBuilder()
+                        .setIndex(offset + i)
+                        .setEmail(users.getJsonObject(i).getString("email"))
+                        .setStatus(Status.newBuilder()
+                                .setCode(Code.valueOf(error.getString("code")).getNumber())
+                                .setMessage(error.getString("message"))));
+            }
+            processed += results.size();
+            return responseBuilder
+                    .setProcessed(processed)
+                    .setImported(imported)
+                    .setFailed(failed)
+                    .build();
+        }
+
+        private void finishIfDone() {
+            if (ended && inFlight == 0 && !done) {
+                done = true;
+                request.response().end();
+            }
+        }
+    }
+}
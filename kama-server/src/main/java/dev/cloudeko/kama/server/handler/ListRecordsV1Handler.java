@@ -0,0 +1,37 @@
+package dev.cloudeko.kama.server.handler;
+
+import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.record.v1.ListRecordsRequest;
+import dev.cloudeko.kama.record.v1.ListRecordsResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+public class ListRecordsV1Handler extends BaseRecordHandler<ListRecordsRequest, ListRecordsResponse> {
+
+    public static final ServiceMethod<ListRecordsRequest, ListRecordsResponse> SERVICE_METHOD = ServiceMethod.server(
+            SERVICE_NAME,
+            "ListRecords",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(ListRecordsRequest.newBuilder()));
+
+    public ListRecordsV1Handler(RecordService recordService, UserService userService) {
+        super(recordService, userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<ListRecordsRequest, ListRecordsResponse> request) {
+        request.handler(req -> principal(request)
+                .compose(principal -> recordService.listRecords(req.getParent(), principal))
+                .onSuccess(list -> {
+                    ListRecordsResponse.Builder builder = ListRecordsResponse.newBuilder();
+                    for (JsonObject record : list) {
+                        builder.addRecords(ResourceUtil.decodeRecord(record));
+                    }
+                    request.response().end(builder.build());
+                })
+                .onFailure(err -> fail(request, "Failed to list records", err)));
+    }
+}
@@ -18,6 +18,9 @@ public class ListUsersV1Handler extends BaseIdentityHandler<ListUsersRequest, Li
             GrpcMessageEncoder.encoder(),
             GrpcMessageDecoder.decoder(ListUsersRequest.newBuilder()));
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+
     public ListUsersV1Handler(UserService userService) {
         super(userService);
     }
@@ -25,50 +28,38 @@ public class ListUsersV1Handler extends BaseIdentityHandler<ListUsersRequest, Li
     @Override
     public void handle(GrpcServerRequest<ListUsersRequest, ListUsersResponse> request) {
         request.handler(req -> {
-            int pageSize = req.getPageSize() > 0 ? req.getPageSize() : 50; // Default page size
-            int offset = 0;
-            
-            // Simple pagination - in a real implementation, you'd parse the page token
-            if (!req.getPageToken().isEmpty()) {
-                try {
-                    offset = Integer.parseInt(req.getPageToken());
-                } catch (NumberFormatException e) {
-                    request.response().status(GrpcStatus.INVALID_ARGUMENT).statusMessage("Invalid page token").end();
-                    return;
-                }
-            }
+            int pageSize = req.getPageSize() > 0 ? Math.min(req.getPageSize(), MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
 
-            int finalOffset = offset;
-            userService.listUsers(pageSize + 1, offset) // Get one extra to determine if there are more pages
-                .onSuccess(userJsonList -> {
-                    if (userJsonList == null) {
-                        request.response().status(GrpcStatus.INTERNAL).end();
-                        return;
-                    }
-                    
+            userService.listUsers(pageSize, req.getPageToken(), req.getFilter())
+                .onSuccess(page -> {
                     ListUsersResponse.Builder responseBuilder = ListUsersResponse.newBuilder();
-                    
-                    // Add users (up to pageSize)
-                    int usersToReturn = Math.min(pageSize, userJsonList.size());
-                    for (int i = 0; i < usersToReturn; i++) {
-                        JsonObject userJson = userJsonList.get(i);
-                        User user = ResourceUtil.decodeUser(userJson);
+                    for (Object userJson : page.getJsonArray("users")) {
+                        User user = ResourceUtil.decodeUser((JsonObject) userJson);
                         responseBuilder.addUsers(user);
                     }
-                    
-                    // Set next page token if there are more results
-                    if (userJsonList.size() > pageSize) {
-                        responseBuilder.setNextPageToken(String.valueOf(finalOffset + pageSize));
+
+                    // Opaque keyset position, absent on the last page
+                    String nextPageToken = page.getString("next_page_token");
+                    if (nextPageToken != null) {
+                        responseBuilder.setNextPageToken(nextPageToken);
                     }
-                    
+
                     request.response().end(responseBuilder.build());
                 })
                 .onFailure(err -> {
                     logger.error("Failed to list users", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
                     }
+                    if (isInvalidArgument(err)) {
+                        request.response().status(GrpcStatus.INVALID_ARGUMENT).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     request.response().status(GrpcStatus.INTERNAL).end();
                 });
         });
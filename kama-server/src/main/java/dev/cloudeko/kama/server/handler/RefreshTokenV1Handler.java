@@ -0,0 +1,55 @@
+package dev.cloudeko.kama.server.handler;
+
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.v1.RefreshTokenRequest;
+import dev.cloudeko.kama.identity.v1.RefreshTokenResponse;
+import dev.cloudeko.kama.server.exception.GrpcException;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+public class RefreshTokenV1Handler extends BaseIdentityHandler<RefreshTokenRequest, RefreshTokenResponse> {
+
+    public static final ServiceMethod<RefreshTokenRequest, RefreshTokenResponse> SERVICE_METHOD = ServiceMethod.server(
+            ServiceName.create("cloudeko.kama.identity.v1.IdentityServer"),
+            "RefreshToken",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(RefreshTokenRequest.newBuilder()));
+
+    public RefreshTokenV1Handler(UserService userService) {
+        super(userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<RefreshTokenRequest, RefreshTokenResponse> request) {
+        request.handler(req -> {
+            if (req.getRefreshToken().isEmpty()) {
+                request.response().status(GrpcStatus.INVALID_ARGUMENT).statusMessage("Refresh token is required").end();
+                return;
+            }
+
+            userService.refreshJwtToken(req.getRefreshToken())
+                .onSuccess(response -> {
+                    RefreshTokenResponse refreshResponse = RefreshTokenResponse.newBuilder()
+                        .setToken(response.getString("token"))
+                        .setExpiresIn(response.getLong("expires_in"))
+                        .setRefreshToken(response.getString("refresh_token"))
+                        .setRefreshExpiresIn(response.getLong("refresh_expires_in"))
+                        .build();
+
+                    request.response().end(refreshResponse);
+                })
+                .onFailure(err -> {
+                    logger.debug("Failed to refresh token", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
+                    if (err instanceof GrpcException) {
+                        request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
+                        return;
+                    }
+                    request.response().status(GrpcStatus.UNAUTHENTICATED).statusMessage("Invalid refresh token").end();
+                });
+        });
+    }
+}
@@ -42,6 +42,10 @@ public class ResetPasswordV1Handler extends BaseIdentityHandler<ResetPasswordReq
                 })
                 .onFailure(err -> {
                     logger.error("Failed to reset password", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
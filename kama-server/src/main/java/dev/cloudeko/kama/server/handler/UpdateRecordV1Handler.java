@@ -0,0 +1,30 @@
+package dev.cloudeko.kama.server.handler;
+
+import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.record.v1.Record;
+import dev.cloudeko.kama.record.v1.UpdateRecordRequest;
+import io.vertx.grpc.common.*;
+import io.vertx.grpc.server.GrpcServerRequest;
+
+public class UpdateRecordV1Handler extends BaseRecordHandler<UpdateRecordRequest, Record> {
+
+    public static final ServiceMethod<UpdateRecordRequest, Record> SERVICE_METHOD = ServiceMethod.server(
+            SERVICE_NAME,
+            "UpdateRecord",
+            GrpcMessageEncoder.encoder(),
+            GrpcMessageDecoder.decoder(UpdateRecordRequest.newBuilder()));
+
+    public UpdateRecordV1Handler(RecordService recordService, UserService userService) {
+        super(recordService, userService);
+    }
+
+    @Override
+    public void handle(GrpcServerRequest<UpdateRecordRequest, Record> request) {
+        request.handler(req -> principal(request)
+                .compose(principal -> recordService.updateRecord(ResourceUtil.encodeRecord(req.getRecord()), principal))
+                .onSuccess(response -> request.response().end(ResourceUtil.decodeRecord(response)))
+                .onFailure(err -> fail(request, "Failed to update record", err)));
+    }
+}
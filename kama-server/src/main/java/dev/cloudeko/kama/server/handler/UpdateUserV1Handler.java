@@ -54,6 +54,10 @@ public class UpdateUserV1Handler extends BaseIdentityHandler<UpdateUserRequest,
                 })
                 .onFailure(err -> {
                     logger.error("Failed to update user", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
@@ -35,8 +35,8 @@ public class ValidateTokenV1Handler extends BaseIdentityHandler<ValidateTokenReq
                     TokenValidationResponse.Builder responseBuilder = TokenValidationResponse.newBuilder()
                         .setValid(response.getBoolean("valid", false));
                     
-                    if (response.containsKey("userId")) {
-                        responseBuilder.setUserId(response.getString("userId"));
+                    if (response.containsKey("user_id")) {
+                        responseBuilder.setUserId(response.getString("user_id"));
                     }
                     if (response.containsKey("error")) {
                         responseBuilder.setError(response.getString("error"));
@@ -46,6 +46,10 @@ public class ValidateTokenV1Handler extends BaseIdentityHandler<ValidateTokenReq
                 })
                 .onFailure(err -> {
                     logger.error("Failed to validate token", err);
+                    if (isDeadlineExceeded(err)) {
+                        request.response().status(GrpcStatus.DEADLINE_EXCEEDED).statusMessage(err.getMessage()).end();
+                        return;
+                    }
                     if (err instanceof GrpcException) {
                         request.response().status(((GrpcException) err).getStatus()).statusMessage(err.getMessage()).end();
                         return;
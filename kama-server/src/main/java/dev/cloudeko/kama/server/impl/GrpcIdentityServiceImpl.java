@@ -26,14 +26,17 @@ public record GrpcIdentityServiceImpl(UserService service) implements Service {
     @Override
     public void bind(GrpcServer server) {
         server.callHandler(CreateUserV1Handler.SERVICE_METHOD, new CreateUserV1Handler(service));
+        server.callHandler(ImportUsersV1Handler.SERVICE_METHOD, new ImportUsersV1Handler(service));
         server.callHandler(AuthenticateUserV1Handler.SERVICE_METHOD, new AuthenticateUserV1Handler(service));
         server.callHandler(GetUserV1Handler.SERVICE_METHOD, new GetUserV1Handler(service));
+        server.callHandler(BatchGetUsersV1Handler.SERVICE_METHOD, new BatchGetUsersV1Handler(service));
         server.callHandler(UpdateUserV1Handler.SERVICE_METHOD, new UpdateUserV1Handler(service));
         server.callHandler(DeleteUserV1Handler.SERVICE_METHOD, new DeleteUserV1Handler(service));
         server.callHandler(ListUsersV1Handler.SERVICE_METHOD, new ListUsersV1Handler(service));
         server.callHandler(ChangePasswordV1Handler.SERVICE_METHOD, new ChangePasswordV1Handler(service));
         server.callHandler(ResetPasswordV1Handler.SERVICE_METHOD, new ResetPasswordV1Handler(service));
         server.callHandler(GenerateTokenV1Handler.SERVICE_METHOD, new GenerateTokenV1Handler(service));
+        server.callHandler(RefreshTokenV1Handler.SERVICE_METHOD, new RefreshTokenV1Handler(service));
         server.callHandler(ValidateTokenV1Handler.SERVICE_METHOD, new ValidateTokenV1Handler(service));
     }
 }
\ No newline at end of file
@@ -1,49 +1,36 @@
 package dev.cloudeko.kama.server.impl;
 
-import com.google.protobuf.Empty;
-import dev.cloudeko.kama.common.ResourceUtil;
+import com.google.protobuf.Descriptors;
 import dev.cloudeko.kama.database.RecordService;
-import dev.cloudeko.kama.record.v1.*;
-import dev.cloudeko.kama.record.v1.Record;
-import io.vertx.core.Future;
-import io.vertx.core.json.JsonObject;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.record.v1.RecordServerProto;
+import dev.cloudeko.kama.server.handler.*;
+import io.vertx.grpc.common.ServiceName;
+import io.vertx.grpc.server.GrpcServer;
+import io.vertx.grpc.server.Service;
 
-public final class GrpcRecordServiceImpl extends VertxRecordServiceGrpcService {
+public record GrpcRecordServiceImpl(RecordService service, UserService userService) implements Service {
 
-    private final RecordService service;
-
-    public GrpcRecordServiceImpl(RecordService service) {
-        this.service = service;
-    }
-
-    @Override
-    public Future<Record> createRecord(CreateRecordRequest request) {
-        return service.createRecord(request.getParent(), ResourceUtil.encodeRecord(request.getRecord())).map(ResourceUtil::decodeRecord);
-    }
-
-    @Override
-    public Future<Empty> deleteRecord(DeleteRecordRequest request) {
-        return service.deleteRecord(request.getName()).mapEmpty();
-    }
+    private static final ServiceName V1_SERVICE_NAME = ServiceName.create("cloudeko.kama.record.v1.RecordService");
+    private static final Descriptors.ServiceDescriptor V1_SERVICE_DESCRIPTOR = RecordServerProto.getDescriptor().findServiceByName("RecordService");
 
     @Override
-    public Future<Record> updateRecord(UpdateRecordRequest request) {
-        return service.updateRecord(ResourceUtil.encodeRecord(request.getRecord())).map(ResourceUtil::decodeRecord);
+    public ServiceName name() {
+        return V1_SERVICE_NAME;
     }
 
     @Override
-    public Future<Record> getRecord(GetRecordRequest request) {
-        return service.getRecord(request.getName()).map(ResourceUtil::decodeRecord);
+    public Descriptors.ServiceDescriptor descriptor() {
+        return V1_SERVICE_DESCRIPTOR;
     }
 
     @Override
-    public Future<ListRecordsResponse> listRecords(ListRecordsRequest request) {
-        return service.listRecords(request.getParent()).map(list -> {
-            ListRecordsResponse.Builder builder = ListRecordsResponse.newBuilder();
-            for (JsonObject record : list) {
-                builder.addRecords(ResourceUtil.decodeRecord(record));
-            }
-            return builder.build();
-        });
+    public void bind(GrpcServer server) {
+        // Records are bound through explicit handlers so the caller's token is available for rule evaluation
+        server.callHandler(CreateRecordV1Handler.SERVICE_METHOD, new CreateRecordV1Handler(service, userService));
+        server.callHandler(GetRecordV1Handler.SERVICE_METHOD, new GetRecordV1Handler(service, userService));
+        server.callHandler(ListRecordsV1Handler.SERVICE_METHOD, new ListRecordsV1Handler(service, userService));
+        server.callHandler(UpdateRecordV1Handler.SERVICE_METHOD, new UpdateRecordV1Handler(service, userService));
+        server.callHandler(DeleteRecordV1Handler.SERVICE_METHOD, new DeleteRecordV1Handler(service, userService));
     }
 }
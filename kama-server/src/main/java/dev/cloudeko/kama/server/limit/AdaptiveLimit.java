@@ -0,0 +1,80 @@
+package dev.cloudeko.kama.server.limit;
+
+/**
+ * A concurrency limit that follows the latency of the calls it admits, after the gradient algorithm.
+ * <p>
+ * A long-term average of the call latency serves as the baseline. While calls complete about as fast as the baseline
+ * the limit keeps growing by a small queue allowance, once they get slower the limit shrinks in proportion, so requests
+ * are turned away early instead of waiting in the connection pool queue. Calls dropped at their deadline shrink the limit
+ * by a fixed ratio. Latency is only learned from while the limit is actually in use, an idle server says nothing about
+ * how much it can take.
+ */
+public class AdaptiveLimit {
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double longRtt;
+    private int inFlight;
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Admits a call if fewer than {@code share} of the limit are in flight.
+     */
+    public synchronized boolean tryAcquire(double share) {
+        if (inFlight >= Math.max(1, (int) (limit * share))) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Releases a call without learning from it, for calls whose latency says nothing about the load.
+     */
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * Releases a call and adjusts the limit to its latency.
+     */
+    public synchronized void release(long rttNanos, boolean dropped) {
+        int concurrent = inFlight--;
+        if (dropped) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            return;
+        }
+
+        longRtt = longRtt == 0 ? rttNanos : longRtt + (rttNanos - longRtt) * 2 / (LONG_WINDOW + 1);
+        // After an overload the baseline is inflated, let it converge back faster
+        if (longRtt > 2.0 * rttNanos) {
+            longRtt *= 0.95;
+        }
+        if (concurrent < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+}
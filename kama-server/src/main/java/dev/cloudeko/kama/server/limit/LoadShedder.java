@@ -0,0 +1,164 @@
+package dev.cloudeko.kama.server.limit;
+
+import com.google.protobuf.Descriptors;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.grpc.common.GrpcStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the gRPC calls in flight per service, and turns away the rest with {@code RESOURCE_EXHAUSTED}.
+ * <p>
+ * All methods of a service share one {@link AdaptiveLimit}, they queue on the same connection pool. The method decides
+ * the {@link Priority}, token calls are critical while list, batch and import calls are bulk. Streaming calls take a
+ * slot while they run but do not feed their latency to the limit. The shedder is shared by all server verticles of a
+ * Vert.x instance, since they share the services.
+ * <p>
+ * Configured with {@code initialLimit}, {@code minLimit}, {@code maxLimit} and {@code priorities}, a map from
+ * {@code package.Service/Method} to a priority name overriding the defaults.
+ */
+public class LoadShedder implements Shareable {
+
+    private static final String MAP_NAME = "dev.cloudeko.kama.server.limit.LoadShedder";
+
+    private static final Map<String, Priority> DEFAULT_PRIORITIES = Map.of(
+            "cloudeko.kama.identity.v1.IdentityServer/ValidateToken", Priority.CRITICAL,
+            "cloudeko.kama.identity.v1.IdentityServer/AuthenticateUser", Priority.CRITICAL,
+            "cloudeko.kama.identity.v1.IdentityServer/GenerateToken", Priority.CRITICAL,
+            "cloudeko.kama.identity.v1.IdentityServer/RefreshToken", Priority.CRITICAL,
+            "cloudeko.kama.identity.v1.IdentityServer/ListUsers", Priority.BULK,
+            "cloudeko.kama.identity.v1.IdentityServer/BatchGetUsers", Priority.BULK,
+            "cloudeko.kama.identity.v1.IdentityServer/ImportUsers", Priority.BULK,
+            "cloudeko.kama.record.v1.RecordService/ListRecords", Priority.BULK);
+
+    /**
+     * Returned for calls that are not limited.
+     */
+    public static final Handler<Void> UNLIMITED = v -> {
+    };
+
+    private final JsonObject config;
+    private final MeterRegistry registry;
+    private final Map<String, AdaptiveLimit> services = new ConcurrentHashMap<>();
+    private final Map<String, Method> methods = new ConcurrentHashMap<>();
+
+    public LoadShedder(JsonObject config, MeterRegistry registry) {
+        this.config = config;
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the shedder of this Vert.x instance, created from {@code config} by the first caller.
+     */
+    public static LoadShedder shared(Vertx vertx, JsonObject config, MeterRegistry registry) {
+        LocalMap<String, LoadShedder> map = vertx.sharedData().getLocalMap(MAP_NAME);
+        LoadShedder created = new LoadShedder(config, registry);
+        LoadShedder existing = map.putIfAbsent(MAP_NAME, created);
+        return existing != null ? existing : created;
+    }
+
+    public synchronized void register(Descriptors.ServiceDescriptor service) {
+        AdaptiveLimit limit = services.computeIfAbsent(service.getFullName(), name -> {
+            AdaptiveLimit created = new AdaptiveLimit(config.getInteger("initialLimit", 20), config.getInteger("minLimit", 4), config.getInteger("maxLimit", 1000));
+            Gauge.builder("kama.server.limit", created, AdaptiveLimit::limit)
+                    .description("Concurrency limit of a service")
+                    .tag("service", name)
+                    .register(registry);
+            Gauge.builder("kama.server.limit.in_flight", created, AdaptiveLimit::inFlight)
+                    .description("Calls admitted by the concurrency limit of a service")
+                    .tag("service", name)
+                    .register(registry);
+            return created;
+        });
+
+        JsonObject overrides = config.getJsonObject("priorities", new JsonObject());
+        for (Descriptors.MethodDescriptor method : service.getMethods()) {
+            String name = service.getFullName() + "/" + method.getName();
+            String override = overrides.getString(name);
+            Priority priority = override != null ? Priority.valueOf(override) : DEFAULT_PRIORITIES.getOrDefault(name, Priority.NORMAL);
+            boolean streaming = method.isClientStreaming() || method.isServerStreaming();
+            methods.computeIfAbsent("/" + name, path -> new Method(name, limit, priority, streaming, registry));
+        }
+    }
+
+    /**
+     * Admits the call to {@code path} answered by {@code response}. Returns the handler to call once the response is
+     * ended or closed, {@link #UNLIMITED} when the path is not limited, or {@code null} when the call is turned away.
+     */
+    public Handler<Void> acquire(String path, HttpServerResponse response) {
+        Method method = methods.get(path);
+        if (method == null) {
+            return UNLIMITED;
+        }
+        if (!method.limit.tryAcquire(method.priority.share())) {
+            method.rejected.increment();
+            return null;
+        }
+        return new Permit(method, response, System.nanoTime());
+    }
+
+    private static final class Permit implements Handler<Void> {
+
+        private final Method method;
+        private final HttpServerResponse response;
+        private final long start;
+        private boolean released;
+
+        Permit(Method method, HttpServerResponse response, long start) {
+            this.method = method;
+            this.response = response;
+            this.start = start;
+        }
+
+        @Override
+        public void handle(Void v) {
+            if (released) {
+                return;
+            }
+            released = true;
+            // Closed before the response ended, the client cancelled or went away. That says nothing about the load,
+            // and clients must not be able to drive the limit down by resetting their streams.
+            if (method.streaming || !response.ended()) {
+                method.limit.release();
+                return;
+            }
+            method.limit.release(System.nanoTime() - start, dropped());
+        }
+
+        private boolean dropped() {
+            String status = response.trailers().get("grpc-status");
+            if (status == null) {
+                status = response.headers().get("grpc-status");
+            }
+            return String.valueOf(GrpcStatus.DEADLINE_EXCEEDED.code).equals(status);
+        }
+    }
+
+    private static final class Method {
+
+        private final AdaptiveLimit limit;
+        private final Priority priority;
+        private final boolean streaming;
+        private final Counter rejected;
+
+        Method(String name, AdaptiveLimit limit, Priority priority, boolean streaming, MeterRegistry registry) {
+            this.limit = limit;
+            this.priority = priority;
+            this.streaming = streaming;
+            this.rejected = Counter.builder("kama.server.limit.rejected")
+                    .description("Calls turned away by the concurrency limit")
+                    .tag("method", name)
+                    .tag("priority", priority.name())
+                    .register(registry);
+        }
+    }
+}
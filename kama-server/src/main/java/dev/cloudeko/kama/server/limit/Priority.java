@@ -0,0 +1,22 @@
+package dev.cloudeko.kama.server.limit;
+
+/**
+ * How much of a service's concurrency limit a method may take. When the service is saturated, lower classes are turned
+ * away first, so token validation keeps working while bulk reads and imports back off.
+ */
+public enum Priority {
+
+    CRITICAL(1.0),
+    NORMAL(0.9),
+    BULK(0.5);
+
+    private final double share;
+
+    Priority(double share) {
+        this.share = share;
+    }
+
+    public double share() {
+        return share;
+    }
+}
@@ -0,0 +1,130 @@
+package dev.cloudeko.kama.server.metrics;
+
+import com.google.protobuf.Descriptors;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.grpc.common.GrpcStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the latency, status and concurrency of every gRPC call, per method.
+ * <p>
+ * Calls are measured on the HTTP request carrying them, from arrival until the response is ended or reset, so every
+ * service and every protocol (gRPC, gRPC-Web) is covered without touching the handlers. The status is read from the
+ * {@code grpc-status} trailer. Only methods of registered services are recorded, a client sending arbitrary paths
+ * cannot create meters.
+ */
+public class RpcMetrics {
+
+    static final String DURATION = "kama.grpc.server.duration";
+
+    private final MeterRegistry registry;
+    private final Map<String, Meters> methods = new ConcurrentHashMap<>();
+
+    public RpcMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void register(Descriptors.ServiceDescriptor service) {
+        for (Descriptors.MethodDescriptor method : service.getMethods()) {
+            String name = service.getFullName() + "/" + method.getName();
+            methods.computeIfAbsent("/" + name, path -> new Meters(name, registry));
+        }
+    }
+
+    /**
+     * Starts measuring the call carried by {@code request}, if it targets a registered method. The returned handler
+     * must be called when the response is ended or closed, it is {@code null} when the call is not measured.
+     */
+    public Handler<Void> track(HttpServerRequest request) {
+        Meters meters = methods.get(request.path());
+        if (meters == null) {
+            return null;
+        }
+
+        meters.inFlight.incrementAndGet();
+        return new Call(meters, request.response(), System.nanoTime());
+    }
+
+    private static final class Call implements Handler<Void> {
+
+        private final Meters meters;
+        private final HttpServerResponse response;
+        private final long start;
+        private boolean done;
+
+        Call(Meters meters, HttpServerResponse response, long start) {
+            this.meters = meters;
+            this.response = response;
+            this.start = start;
+        }
+
+        @Override
+        public void handle(Void v) {
+            if (done) {
+                return;
+            }
+            done = true;
+            meters.inFlight.decrementAndGet();
+            meters.timer(status()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        private GrpcStatus status() {
+            if (!response.ended()) {
+                return GrpcStatus.CANCELLED;
+            }
+            // Trailers-only responses carry the status in the headers
+            String code = response.trailers().get("grpc-status");
+            if (code == null) {
+                code = response.headers().get("grpc-status");
+            }
+            try {
+                GrpcStatus status = code != null ? GrpcStatus.valueOf(Integer.parseInt(code)) : null;
+                return status != null ? status : GrpcStatus.UNKNOWN;
+            } catch (RuntimeException e) {
+                // Not a number or not a known code
+                return GrpcStatus.UNKNOWN;
+            }
+        }
+    }
+
+    private static final class Meters {
+
+        private final String method;
+        private final MeterRegistry registry;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Timer[] timers = new Timer[GrpcStatus.values().length];
+
+        Meters(String method, MeterRegistry registry) {
+            this.method = method;
+            this.registry = registry;
+
+            Gauge.builder("kama.grpc.server.in_flight", inFlight, AtomicInteger::get)
+                    .description("gRPC calls currently being processed")
+                    .tag("method", method)
+                    .register(registry);
+        }
+
+        Timer timer(GrpcStatus status) {
+            // Racing threads register the same meter, the registry returns the existing one
+            Timer timer = timers[status.ordinal()];
+            if (timer == null) {
+                timer = Timer.builder(DURATION)
+                        .description("gRPC call latency by method and status")
+                        .tag("method", method)
+                        .tag("status", status.name())
+                        .register(registry);
+                timers[status.ordinal()] = timer;
+            }
+            return timer;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package dev.cloudeko.kama.server.metrics;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The Prometheus registry behind the metrics endpoint.
+ * <p>
+ * Every component registers its meters on {@link Metrics#globalRegistry}, which records nothing until a registry is
+ * added to it. {@link #install(JsonObject)} adds one Prometheus registry per JVM. The per-RPC latency timers publish
+ * histogram buckets, so percentiles are computed by Prometheus and recording stays a bucket increment. The optional
+ * {@code percentiles} in the config are additionally computed in process, at a small cost on every recording. Other
+ * timers only publish count, sum and max, a histogram for each of them would multiply the series of every scrape.
+ * <p>
+ * The scrape is never served on the API port. {@link #serve(Vertx, JsonObject)} answers it on its own {@code port} and
+ * {@code host} (default {@value #DEFAULT_HOST}), an address operators keep off the public network.
+ */
+public final class ServerMetrics {
+
+    public static final String DEFAULT_PATH = "/metrics";
+    public static final int DEFAULT_PORT = 9090;
+    public static final String DEFAULT_HOST = "127.0.0.1";
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static PrometheusMeterRegistry prometheus;
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * Creates the Prometheus registry and adds it to the global registry, once. Later calls return the same registry
+     * and ignore their config, meter filters only apply to meters registered after them.
+     */
+    public static synchronized PrometheusMeterRegistry install(JsonObject config) {
+        if (prometheus != null) {
+            return prometheus;
+        }
+
+        double[] percentiles = percentiles(config.getJsonArray("percentiles", new JsonArray()));
+        boolean histogram = config.getBoolean("histogram", true);
+
+        prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        prometheus.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig statistics) {
+                if (id.getType() != Meter.Type.TIMER || !id.getName().equals(RpcMetrics.DURATION)) {
+                    return statistics;
+                }
+                return DistributionStatisticConfig.builder()
+                        .percentilesHistogram(histogram)
+                        .percentiles(percentiles)
+                        .build()
+                        .merge(statistics);
+            }
+        });
+        Metrics.addRegistry(prometheus);
+        return prometheus;
+    }
+
+    /**
+     * Returns the installed registry, or {@code null} when metrics are disabled.
+     */
+    public static synchronized PrometheusMeterRegistry prometheus() {
+        return prometheus;
+    }
+
+    /**
+     * Serves the scrape of the installed registry on the {@code port} and {@code host} of the config. Server verticle
+     * instances listening on the same port share it.
+     */
+    public static Future<HttpServer> serve(Vertx vertx, JsonObject config) {
+        PrometheusMeterRegistry registry = prometheus();
+        String path = config.getString("path", DEFAULT_PATH);
+        return vertx.createHttpServer()
+                .requestHandler(request -> {
+                    if (registry == null || request.method() != HttpMethod.GET || !path.equals(request.path())) {
+                        request.response().setStatusCode(404).end();
+                        return;
+                    }
+                    request.response()
+                            .putHeader("Content-Type", CONTENT_TYPE)
+                            .end(registry.scrape());
+                })
+                .listen(config.getInteger("port", DEFAULT_PORT), config.getString("host", DEFAULT_HOST));
+    }
+
+    private static double[] percentiles(JsonArray values) {
+        double[] percentiles = new double[values.size()];
+        for (int i = 0; i < percentiles.length; i++) {
+            percentiles[i] = ((Number) values.getValue(i)).doubleValue();
+        }
+        return percentiles;
+    }
+}
@@ -0,0 +1,65 @@
+package dev.cloudeko.kama.server.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Future;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the calls the gRPC handlers make into a service, per method and outcome.
+ * <p>
+ * Together with the per-RPC latency this tells time spent in the service, its SQL and password hashing, apart from time
+ * spent decoding, queueing on the event loop and writing the response.
+ */
+public final class ServiceCallMetrics {
+
+    private ServiceCallMetrics() {
+    }
+
+    public static <T> T instrument(Class<T> type, T service, String name, MeterRegistry registry) {
+        Map<Method, Timer[]> timers = new ConcurrentHashMap<>();
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+            if (method.getDeclaringClass() == Object.class || !Future.class.isAssignableFrom(method.getReturnType())) {
+                return invoke(service, method, args);
+            }
+
+            Timer[] outcomes = timers.computeIfAbsent(method, m -> new Timer[]{
+                    timer(registry, name, m, "success"),
+                    timer(registry, name, m, "failure")
+            });
+            long start = System.nanoTime();
+            Future<?> result;
+            try {
+                result = (Future<?>) invoke(service, method, args);
+            } catch (Throwable e) {
+                outcomes[1].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw e;
+            }
+            return result.onComplete(ar -> outcomes[ar.succeeded() ? 0 : 1].record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+        return type.cast(proxy);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Timer timer(MeterRegistry registry, String service, Method method, String outcome) {
+        return Timer.builder("kama.service.calls")
+                .description("Latency of service calls made by the gRPC handlers")
+                .tag("service", service)
+                .tag("method", method.getName())
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
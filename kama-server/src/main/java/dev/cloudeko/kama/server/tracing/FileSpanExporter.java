@@ -0,0 +1,87 @@
+package dev.cloudeko.kama.server.tracing;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * Appends finished spans to a file, one JSON object per line, for looking at traces without a collector.
+ */
+public class FileSpanExporter implements SpanExporter {
+
+    private static final Logger logger = Logger.getLogger(FileSpanExporter.class);
+
+    private final BufferedWriter writer;
+
+    public FileSpanExporter(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+        try {
+            for (SpanData span : spans) {
+                writer.write(toJson(span).encode());
+                writer.newLine();
+            }
+            writer.flush();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            logger.warnv(e, "Failed to write {0} spans", spans.size());
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode flush() {
+        try {
+            writer.flush();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode shutdown() {
+        try {
+            writer.close();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    static JsonObject toJson(SpanData span) {
+        JsonObject attributes = new JsonObject();
+        span.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), value));
+
+        JsonObject json = new JsonObject()
+                .put("traceId", span.getTraceId())
+                .put("spanId", span.getSpanId())
+                .put("name", span.getName())
+                .put("kind", span.getKind().name())
+                .put("startEpochNanos", span.getStartEpochNanos())
+                .put("durationMicros", (span.getEndEpochNanos() - span.getStartEpochNanos()) / 1000)
+                .put("status", span.getStatus().getStatusCode().name())
+                .put("attributes", attributes);
+        if (span.getParentSpanContext().isValid()) {
+            json.put("parentSpanId", span.getParentSpanId());
+        }
+        return json;
+    }
+}
@@ -0,0 +1,91 @@
+package dev.cloudeko.kama.server.tracing;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Creates the OpenTelemetry SDK that Vert.x reports its spans to.
+ * <p>
+ * With the SDK passed to Vert.x, a span is recorded for every incoming gRPC call, continuing the trace of the
+ * {@code traceparent} header, for every event-bus message of a service proxy, which carries the trace context in its
+ * headers, and for every SQL statement. Password hashing records its own spans through the global instance.
+ * <p>
+ * Configured with {@code exporter}, either {@code otlp} (default, sent to {@code endpoint}) or {@code file} (appended
+ * to {@code file} as JSON lines), and {@code sampleRatio}, the share of new traces that are recorded (default
+ * {@value #DEFAULT_SAMPLE_RATIO}). Calls that arrive with a sampled trace are always recorded, so a trace is never cut
+ * in half between services. Spans are exported in batches off the request path.
+ */
+public final class Tracing {
+
+    private static final Logger logger = Logger.getLogger(Tracing.class);
+
+    public static final double DEFAULT_SAMPLE_RATIO = 0.1;
+    public static final String DEFAULT_ENDPOINT = "http://localhost:4317";
+    public static final String DEFAULT_FILE = "kama-traces.jsonl";
+
+    private Tracing() {
+    }
+
+    /**
+     * Creates the SDK and makes it the global instance, so code outside of Vert.x records into the same traces.
+     */
+    public static OpenTelemetrySdk install(JsonObject config) {
+        OpenTelemetrySdk sdk = create(config, exporter(config));
+        try {
+            GlobalOpenTelemetry.set(sdk);
+        } catch (IllegalStateException e) {
+            logger.warnv("OpenTelemetry was already in use, password hashing will not be traced");
+        }
+        return sdk;
+    }
+
+    public static OpenTelemetrySdk create(JsonObject config, SpanExporter exporter) {
+        double ratio = config.getDouble("sampleRatio", DEFAULT_SAMPLE_RATIO);
+        Resource resource = Resource.getDefault().merge(Resource.create(Attributes.of(
+                AttributeKey.stringKey("service.name"), config.getString("serviceName", "kama"))));
+
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .setResource(resource)
+                .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(ratio)))
+                .addSpanProcessor(BatchSpanProcessor.builder(exporter).build())
+                .build();
+
+        return OpenTelemetrySdk.builder()
+                .setTracerProvider(tracerProvider)
+                .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+                .build();
+    }
+
+    private static SpanExporter exporter(JsonObject config) {
+        String exporter = config.getString("exporter", "otlp");
+        return switch (exporter) {
+            case "otlp" -> OtlpGrpcSpanExporter.builder()
+                    .setEndpoint(config.getString("endpoint", DEFAULT_ENDPOINT))
+                    .build();
+            case "file" -> {
+                try {
+                    yield new FileSpanExporter(Path.of(config.getString("file", DEFAULT_FILE)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown span exporter: " + exporter);
+        };
+    }
+}
@@ -0,0 +1,122 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.collection.v1.ListCollectionsRequest;
+import dev.cloudeko.kama.common.BlockingMode;
+import dev.cloudeko.kama.common.LoadHarness.Load;
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.hash.PasswordHasher;
+import dev.cloudeko.kama.identity.v1.ListUsersRequest;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.cloudeko.kama.common.LoadHarness.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs ListUsers and ListCollections at high concurrency against a server whose blocking calls run on the default
+ * worker pool of 20 threads, then against one running them on virtual threads. The three services hold more
+ * connections than there are worker threads, so in worker mode statements wait for a thread while a connection is free.
+ * Virtual threads must keep up with the worker pool, and the hashing done to create the users must have run in the
+ * configured mode.
+ */
+class BlockingModeLoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(BlockingModeLoadTest.class);
+
+    private static final int USERS = 20;
+    private static final int CONNECTIONS = 16;
+    private static final int DATABASE_CONNECTIONS = 16;
+    private static final int WORKER_THREADS = 20;
+    private static final int CONCURRENCY = 256;
+    private static final long WARMUP_MS = 1_000;
+    private static final long DURATION_MS = 3_000;
+    // Virtual threads should not lose to the worker pool, loose enough for shared CI machines
+    private static final double VIRTUAL_FACTOR = 0.5;
+
+    @Test
+    void testThroughputByBlockingMode() throws Exception {
+        // The services register their meters globally, which records nothing without a registry behind it
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        Load worker;
+        Load virtual;
+        try {
+            worker = measure(BlockingMode.WORKER, "DB_BLOCKING_WORKER", registry);
+            virtual = measure(BlockingMode.VIRTUAL, "DB_BLOCKING_VIRTUAL", registry);
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+
+        LOGGER.infov("Worker threads: {0} calls/s, p50 {1,number,#.##} ms, p99 {2,number,#.##} ms",
+                worker.throughput(), worker.percentile(0.5), worker.percentile(0.99));
+        LOGGER.infov("Virtual threads: {0} calls/s, p50 {1,number,#.##} ms, p99 {2,number,#.##} ms",
+                virtual.throughput(), virtual.percentile(0.5), virtual.percentile(0.99));
+
+        assertEquals(0, worker.failed.get() + virtual.failed.get());
+        assertTrue(worker.throughput() > 0);
+        assertTrue(virtual.throughput() >= worker.throughput() * VIRTUAL_FACTOR,
+                "Virtual threads: " + virtual.throughput() + " calls/s vs " + worker.throughput() + " calls/s on workers");
+    }
+
+    private static Load measure(BlockingMode mode, String database, SimpleMeterRegistry registry) throws Exception {
+        Vertx vertx = Vertx.vertx(new VertxOptions().setWorkerPoolSize(WORKER_THREADS));
+        try {
+            int port = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("database", new JsonObject()
+                            .put("url", "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1;")
+                            .put("maxPoolSize", DATABASE_CONNECTIONS)
+                            .put("blockingMode", mode.name()))
+                    .put("hashing", new JsonObject().put("cost", 4))
+                    // Every call is measured, none is shed
+                    .put("limits", new JsonObject().put("enabled", false));
+            ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            UserService userService = LocalServices.lookup(vertx, "dev.cloudeko.kama.identity.UserService", UserService.class,
+                    address -> UserService.createProxy(vertx, address));
+            for (int i = 0; i < USERS; i++) {
+                userService.createUser("blocking" + i + "@example.com", "password123", "Blocking User " + i).await(5, TimeUnit.SECONDS);
+            }
+
+            // Creating the users hashed their passwords on the executor of the configured mode
+            Timer hashing = registry.find("kama.blocking.duration")
+                    .tag("subsystem", PasswordHasher.POOL_NAME)
+                    .tag("mode", mode.name().toLowerCase())
+                    .timer();
+            assertNotNull(hashing, "Hashing ran in " + mode + " mode");
+            assertTrue(hashing.count() >= USERS);
+
+            HttpClient client = grpcClient(vertx, port, CONNECTIONS);
+
+            Buffer users = frame(ListUsersRequest.newBuilder().setPageSize(USERS).build().toByteArray());
+            Buffer collections = frame(ListCollectionsRequest.newBuilder().setPageSize(USERS).build().toByteArray());
+            String usersPath = "/cloudeko.kama.identity.v1.IdentityServer/ListUsers";
+            String collectionsPath = "/cloudeko.kama.collection.v1.CollectionService/ListCollections";
+
+            // Half of the concurrent callers list users, the other half list collections
+            AtomicInteger caller = new AtomicInteger();
+            run(CONCURRENCY, WARMUP_MS, () -> caller.getAndIncrement() % 2 == 0
+                    ? grpc(client, usersPath, users)
+                    : grpc(client, collectionsPath, collections));
+            return run(CONCURRENCY, DURATION_MS, () -> caller.getAndIncrement() % 2 == 0
+                    ? grpc(client, usersPath, users)
+                    : grpc(client, collectionsPath, collections));
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.collection.v1.Collection;
+import dev.cloudeko.kama.collection.v1.CollectionField;
+import dev.cloudeko.kama.collection.v1.GetCollectionRequest;
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.common.ResourceUtil;
+import dev.cloudeko.kama.database.CollectionService;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectGetTest {
+
+    private static final String GET_COLLECTION = "/cloudeko.kama.collection.v1.CollectionService/GetCollection";
+
+    @Test
+    void testConditionalCollectionReads() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int port = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_CONNECT;DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4))
+                    .put("connect", new JsonObject().put("maxAge", 30));
+            ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            CollectionService collectionService = LocalServices.lookup(vertx, "dev.cloudeko.kama.database.CollectionService", CollectionService.class,
+                    address -> CollectionService.createProxy(vertx, address));
+            Collection created = ResourceUtil.decodeCollection(collectionService.createCollection(ResourceUtil.encodeCollection(Collection.newBuilder()
+                    .putFields("title", CollectionField.newBuilder().setStringType("").build())
+                    .setDisplayName("Connect Collection")
+                    .build())).await(5, TimeUnit.SECONDS));
+
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultHost("127.0.0.1").setDefaultPort(port));
+
+            String json = "encoding=json&message=" + URLEncoder.encode("{\"name\":\"" + created.getName() + "\"}", StandardCharsets.UTF_8);
+            Response first = get(client, GET_COLLECTION + "?" + json, null).await(5, TimeUnit.SECONDS);
+            assertEquals(200, first.status);
+            assertEquals("application/json", first.response.getHeader("Content-Type"));
+            assertEquals("public, max-age=30", first.response.getHeader("Cache-Control"));
+            assertTrue(first.body.contains("Connect Collection"));
+            String etag = first.response.getHeader("ETag");
+            assertNotNull(etag);
+
+            // The proto encoding shares the validator, the message is the same
+            String proto = "encoding=proto&base64=1&message=" + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(GetCollectionRequest.newBuilder().setName(created.getName()).build().toByteArray());
+            Response encoded = get(client, GET_COLLECTION + "?" + proto, null).await(5, TimeUnit.SECONDS);
+            assertEquals(200, encoded.status);
+            assertEquals(etag, encoded.response.getHeader("ETag"));
+
+            assertEquals(304, get(client, GET_COLLECTION + "?" + json, etag).await(5, TimeUnit.SECONDS).status);
+            assertEquals(304, get(client, GET_COLLECTION + "?" + json, "\"other\", W/" + etag).await(5, TimeUnit.SECONDS).status);
+
+            collectionService.updateCollection(ResourceUtil.encodeCollection(created.toBuilder().setDisplayName("Renamed").build())).await(5, TimeUnit.SECONDS);
+            Response updated = get(client, GET_COLLECTION + "?" + json, etag).await(5, TimeUnit.SECONDS);
+            assertEquals(200, updated.status);
+            assertNotEquals(etag, updated.response.getHeader("ETag"));
+            assertTrue(updated.body.contains("Renamed"));
+
+            String list = "/cloudeko.kama.collection.v1.CollectionService/ListCollections?encoding=json";
+            Response listed = get(client, list, null).await(5, TimeUnit.SECONDS);
+            assertEquals(200, listed.status);
+            assertEquals(304, get(client, list, listed.response.getHeader("ETag")).await(5, TimeUnit.SECONDS).status);
+
+            String missing = "encoding=json&message=" + URLEncoder.encode("{\"name\":\"collections/missing\"}", StandardCharsets.UTF_8);
+            assertEquals(404, get(client, GET_COLLECTION + "?" + missing, null).await(5, TimeUnit.SECONDS).status);
+            assertEquals(415, get(client, GET_COLLECTION + "?encoding=xml", null).await(5, TimeUnit.SECONDS).status);
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private record Response(HttpClientResponse response, int status, String body) {
+    }
+
+    private static Future<Response> get(HttpClient client, String uri, String ifNoneMatch) {
+        return client.request(HttpMethod.GET, uri)
+                .compose(request -> {
+                    if (ifNoneMatch != null) {
+                        request.putHeader("If-None-Match", ifNoneMatch);
+                    }
+                    return request.send();
+                })
+                .compose(response -> response.body().map(body -> new Response(response, response.statusCode(), body.toString())));
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
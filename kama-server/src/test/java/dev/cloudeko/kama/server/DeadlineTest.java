@@ -0,0 +1,132 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.common.Deadline;
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.common.exception.DeadlineExceeded;
+import dev.cloudeko.kama.database.RecordService;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.v1.GetUserRequest;
+import dev.cloudeko.kama.record.v1.GetRecordRequest;
+import dev.cloudeko.kama.server.handler.GetRecordV1Handler;
+import dev.cloudeko.kama.server.handler.GetUserV1Handler;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.server.GrpcServer;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlineTest {
+
+    @Test
+    void testParsesGrpcTimeout() {
+        long remaining = Deadline.fromTimeout("250m").remaining();
+        assertTrue(remaining > 0 && remaining <= 250);
+        assertTrue(Deadline.fromTimeout("2S").remaining() > 1000);
+        assertTrue(Deadline.fromTimeout("1n").expired());
+
+        assertNull(Deadline.fromTimeout(null));
+        assertNull(Deadline.fromTimeout("m"));
+        assertNull(Deadline.fromTimeout("10x"));
+        assertNull(Deadline.fromTimeout("123456789m"));
+    }
+
+    @Test
+    void testExpiredCallIsRejectedBeforeAnyWork() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int port = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_DEADLINE;DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4));
+            ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            UserService userService = LocalServices.lookup(vertx, "dev.cloudeko.kama.identity.UserService", UserService.class,
+                    address -> UserService.createProxy(vertx, address));
+            String userId = userService.createUser("deadline@example.com", "password123", "Deadline User").await(5, TimeUnit.SECONDS).getString("id");
+
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                    .setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(false)
+                    .setDefaultHost("127.0.0.1")
+                    .setDefaultPort(port));
+
+            assertEquals("4", getUser(client, userId, "1n").await(5, TimeUnit.SECONDS));
+            assertEquals("0", getUser(client, userId, "5S").await(5, TimeUnit.SECONDS));
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testDeadlinePassedInTheServiceIsReported() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            // Services that accept the call and run out of time while working on it
+            UserService userService = late(vertx, UserService.class);
+            RecordService recordService = late(vertx, RecordService.class);
+
+            GrpcServer grpcServer = GrpcServer.server(vertx);
+            grpcServer.callHandler(GetUserV1Handler.SERVICE_METHOD, new GetUserV1Handler(userService));
+            grpcServer.callHandler(GetRecordV1Handler.SERVICE_METHOD, new GetRecordV1Handler(recordService, userService));
+            int port = freePort();
+            vertx.createHttpServer().requestHandler(grpcServer).listen(port, "127.0.0.1").await(5, TimeUnit.SECONDS);
+
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                    .setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(false)
+                    .setDefaultHost("127.0.0.1")
+                    .setDefaultPort(port));
+
+            // No grpc-timeout, only the failure of the service can turn into DEADLINE_EXCEEDED
+            assertEquals("4", getUser(client, "id", null).await(5, TimeUnit.SECONDS));
+            byte[] record = GetRecordRequest.newBuilder().setName("collections/c/records/r").build().toByteArray();
+            assertEquals("4", call(client, "/cloudeko.kama.record.v1.RecordService/GetRecord", record, null).await(5, TimeUnit.SECONDS));
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T late(Vertx vertx, Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> vertx.timer(50).compose(v -> Future.failedFuture(new DeadlineExceeded("Deadline exceeded"))));
+    }
+
+    private static Future<String> getUser(HttpClient client, String userId, String timeout) {
+        byte[] message = GetUserRequest.newBuilder().setName("users/" + userId).build().toByteArray();
+        return call(client, "/cloudeko.kama.identity.v1.IdentityServer/GetUser", message, timeout);
+    }
+
+    private static Future<String> call(HttpClient client, String path, byte[] message, String timeout) {
+        Buffer body = Buffer.buffer().appendByte((byte) 0).appendInt(message.length).appendBytes(message);
+        return client.request(HttpMethod.POST, path)
+                .compose(request -> {
+                    request.putHeader("content-type", "application/grpc").putHeader("te", "trailers");
+                    if (timeout != null) {
+                        request.putHeader("grpc-timeout", timeout);
+                    }
+                    return request.send(body);
+                })
+                .compose(response -> response.body().map(b -> {
+                    // Trailers-only responses carry the status in the headers
+                    String status = response.getTrailer("grpc-status");
+                    return status != null ? status : response.getHeader("grpc-status");
+                }));
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
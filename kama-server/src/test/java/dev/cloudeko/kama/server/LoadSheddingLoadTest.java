@@ -0,0 +1,109 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.common.LoadHarness;
+import dev.cloudeko.kama.common.LoadHarness.Load;
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.v1.ListUsersRequest;
+import dev.cloudeko.kama.identity.v1.ValidateTokenRequest;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static dev.cloudeko.kama.common.LoadHarness.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Overloads the identity service with bulk ListUsers calls while a steady stream of ValidateToken calls runs, once
+ * without and once with the concurrency limit. With the limit, bulk calls beyond what the service can take are turned
+ * away with RESOURCE_EXHAUSTED and the p99 latency of the admitted ValidateToken calls stays close to an idle server.
+ */
+class LoadSheddingLoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LoadSheddingLoadTest.class);
+
+    private static final int USERS = 50;
+    private static final int CONNECTIONS = 16;
+    private static final int CRITICAL_CONCURRENCY = 8;
+    private static final int BULK_CONCURRENCY = 512;
+    private static final long WARMUP_MS = 1_000;
+    private static final long DURATION_MS = 3_000;
+    // How far the admitted critical p99 may drift from the idle baseline, loose enough for shared CI machines
+    private static final double BASELINE_FACTOR = 5;
+    private static final double BASELINE_SLACK_MS = 50;
+
+    @Test
+    void testAdmittedLatencyStaysStableUnderOverload() throws Exception {
+        Result unlimited = measure(false, "DB_SHED_OFF");
+        Result limited = measure(true, "DB_SHED_ON");
+
+        LOGGER.infov("Baseline ValidateToken p99 {0,number,#.##} ms", limited.baselineP99);
+        LOGGER.infov("Overload without limit: ValidateToken p99 {0,number,#.##} ms, {1} ok, {2} ListUsers ok, {3} rejected",
+                unlimited.criticalP99, unlimited.criticalOk, unlimited.bulkOk, unlimited.bulkRejected);
+        LOGGER.infov("Overload with limit: ValidateToken p99 {0,number,#.##} ms, {1} ok, {2} ListUsers ok, {3} rejected",
+                limited.criticalP99, limited.criticalOk, limited.bulkOk, limited.bulkRejected);
+
+        assertTrue(limited.baselineP99 > 0);
+        assertTrue(limited.bulkRejected > 0, "The limit sheds bulk calls under overload");
+        assertTrue(limited.criticalP99 < unlimited.criticalP99,
+                "The limit keeps critical calls faster: " + limited.criticalP99 + " ms vs " + unlimited.criticalP99 + " ms");
+        double bound = limited.baselineP99 * BASELINE_FACTOR + BASELINE_SLACK_MS;
+        assertTrue(limited.criticalP99 <= bound,
+                "Critical p99 under overload " + limited.criticalP99 + " ms exceeds " + bound + " ms");
+    }
+
+    private record Result(double baselineP99, double criticalP99, long criticalOk, long bulkOk, long bulkRejected) {
+    }
+
+    private static Result measure(boolean limits, String database) throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int port = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4))
+                    .put("limits", new JsonObject().put("enabled", limits));
+            ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            UserService userService = LocalServices.lookup(vertx, "dev.cloudeko.kama.identity.UserService", UserService.class,
+                    address -> UserService.createProxy(vertx, address));
+            String userId = null;
+            for (int i = 0; i < USERS; i++) {
+                userId = userService.createUser("shed" + i + "@example.com", "password123", "Shed User " + i).await(5, TimeUnit.SECONDS).getString("id");
+            }
+            String token = userService.generateJwtToken(userId).await(5, TimeUnit.SECONDS).getString("token");
+
+            Buffer validate = frame(ValidateTokenRequest.newBuilder().setToken(token).build().toByteArray());
+            Buffer list = frame(ListUsersRequest.newBuilder().setPageSize(USERS).build().toByteArray());
+
+            HttpClient client = grpcClient(vertx, port, CONNECTIONS);
+
+            String validatePath = "/cloudeko.kama.identity.v1.IdentityServer/ValidateToken";
+            String listPath = "/cloudeko.kama.identity.v1.IdentityServer/ListUsers";
+
+            run(CRITICAL_CONCURRENCY, WARMUP_MS, () -> grpc(client, validatePath, validate));
+            Load baseline = run(CRITICAL_CONCURRENCY, DURATION_MS, () -> grpc(client, validatePath, validate));
+
+            // The bulk calls get a head start so the service is saturated while the critical calls are measured
+            Load bulk = new Load();
+            CountDownLatch bulkDone = start(BULK_CONCURRENCY, WARMUP_MS + DURATION_MS, () -> grpc(client, listPath, list), bulk);
+            Thread.sleep(WARMUP_MS);
+            Load critical = run(CRITICAL_CONCURRENCY, DURATION_MS, () -> grpc(client, validatePath, validate));
+            LoadHarness.await(bulkDone, DURATION_MS);
+            assertEquals(0, critical.failed.get() + bulk.failed.get() + baseline.failed.get());
+
+            return new Result(baseline.percentile(0.99), critical.percentile(0.99), critical.ok.get(), bulk.ok.get(), bulk.rejected.get());
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.database.CollectionService;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerDeploymentTest {
+
+    @Test
+    void testUndeployStopsServerAndServices() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int port = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("instances", 2)
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_DEPLOYMENT;DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4));
+            String id = ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+            assertNotNull(LocalServices.lookup(vertx, "dev.cloudeko.kama.database.CollectionService", CollectionService.class, address -> null));
+
+            vertx.undeploy(id).await(10, TimeUnit.SECONDS);
+
+            assertTrue(vertx.deploymentIDs().isEmpty(), "Left deployed: " + vertx.deploymentIDs());
+            assertNull(LocalServices.lookup(vertx, "dev.cloudeko.kama.database.CollectionService", CollectionService.class, address -> null));
+            // The port is free again
+            new ServerSocket(port).close();
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testFailedServerUndeploysServices() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try (ServerSocket taken = new ServerSocket(0)) {
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", taken.getLocalPort())
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_DEPLOYMENT_FAILED;DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4));
+
+            assertThrows(Exception.class, () -> ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS));
+            assertTrue(vertx.deploymentIDs().isEmpty(), "Left deployed: " + vertx.deploymentIDs());
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
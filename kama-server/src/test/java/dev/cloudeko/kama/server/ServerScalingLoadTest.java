@@ -0,0 +1,86 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.common.LoadHarness.Load;
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.v1.ValidateTokenRequest;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static dev.cloudeko.kama.common.LoadHarness.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures ValidateToken throughput over plain gRPC with a single server instance and with one instance per core.
+ * Every instance runs on its own event loop, so throughput should grow with the instances until the cores are busy.
+ * Only runs with the {@code benchmark} profile.
+ */
+@Tag("benchmark")
+class ServerScalingLoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ServerScalingLoadTest.class);
+
+    private static final int MAX_INSTANCES = 8;
+    private static final int CONNECTIONS = 16;
+    private static final int CONCURRENCY = 128;
+    private static final long WARMUP_MS = 1_000;
+    private static final long DURATION_MS = 3_000;
+    // The client shares the cores with the server, the gain stays well below the number of instances
+    private static final double MIN_SPEEDUP = 1.2;
+
+    @Test
+    void testThroughputScalesWithInstances() throws Exception {
+        int instances = Math.min(Runtime.getRuntime().availableProcessors(), MAX_INSTANCES);
+        assumeTrue(instances > 2, "Needs cores for the client next to the instances");
+
+        double single = measure(1, "DB_SCALE_SINGLE");
+        double scaled = measure(instances, "DB_SCALE_MULTI");
+
+        LOGGER.infov("ValidateToken throughput: 1 instance {0,number,#} req/s, {1} instances {2,number,#} req/s ({3,number,#.##}x)",
+                single, instances, scaled, scaled / single);
+
+        assertTrue(single > 0);
+        assertTrue(scaled >= single * MIN_SPEEDUP, "Scaled " + scaled + " req/s vs single " + single + " req/s");
+    }
+
+    private static double measure(int instances, String database) throws Exception {
+        // Leave event loops for the client, it shares the machine with the server
+        Vertx vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(2 * instances + 2));
+        try {
+            int port = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("instances", instances)
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4));
+            ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            UserService userService = LocalServices.lookup(vertx, "dev.cloudeko.kama.identity.UserService", UserService.class,
+                    address -> UserService.createProxy(vertx, address));
+            String userId = userService.createUser("load@example.com", "password123", "Load User").await(5, TimeUnit.SECONDS).getString("id");
+            String token = userService.generateJwtToken(userId).await(5, TimeUnit.SECONDS).getString("token");
+
+            Buffer body = frame(ValidateTokenRequest.newBuilder().setToken(token).build().toByteArray());
+            HttpClient client = grpcClient(vertx, port, CONNECTIONS);
+            String path = "/cloudeko.kama.identity.v1.IdentityServer/ValidateToken";
+
+            run(CONCURRENCY, WARMUP_MS, () -> grpc(client, path, body));
+            Load load = run(CONCURRENCY, DURATION_MS, () -> grpc(client, path, body));
+            assertEquals(0, load.failed.get() + load.rejected.get());
+            return load.ok.get() * 1000.0 / DURATION_MS;
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+}
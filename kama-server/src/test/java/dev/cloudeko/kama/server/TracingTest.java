@@ -0,0 +1,85 @@
+package dev.cloudeko.kama.server;
+
+import dev.cloudeko.kama.common.LocalServices;
+import dev.cloudeko.kama.identity.UserService;
+import dev.cloudeko.kama.identity.v1.GetUserRequest;
+import dev.cloudeko.kama.server.tracing.Tracing;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+import io.vertx.core.json.JsonObject;
+import io.vertx.tracing.opentelemetry.OpenTelemetryTracingFactory;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TracingTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    @Test
+    void testGrpcCallContinuesTraceIntoSql() throws Exception {
+        InMemorySpanExporter exporter = InMemorySpanExporter.create();
+        OpenTelemetrySdk openTelemetry = Tracing.create(new JsonObject().put("sampleRatio", 0.0), exporter);
+        Vertx vertx = Vertx.builder().withTracer(new OpenTelemetryTracingFactory(openTelemetry)).build();
+        try {
+            int port = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_TRACING;DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4));
+            ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            UserService userService = LocalServices.lookup(vertx, "dev.cloudeko.kama.identity.UserService", UserService.class,
+                    address -> UserService.createProxy(vertx, address));
+            String userId = userService.createUser("trace@example.com", "password123", "Trace User").await(5, TimeUnit.SECONDS).getString("id");
+
+            byte[] message = GetUserRequest.newBuilder().setName("users/" + userId).build().toByteArray();
+            Buffer body = Buffer.buffer().appendByte((byte) 0).appendInt(message.length).appendBytes(message);
+
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                    .setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(false)
+                    .setDefaultHost("127.0.0.1")
+                    .setDefaultPort(port));
+            // New traces are never sampled, the call is only recorded because its caller sampled it
+            String status = client.request(HttpMethod.POST, "/cloudeko.kama.identity.v1.IdentityServer/GetUser")
+                    .compose(request -> request
+                            .putHeader("content-type", "application/grpc")
+                            .putHeader("te", "trailers")
+                            .putHeader("traceparent", "00-" + TRACE_ID + "-00f067aa0ba902b7-01")
+                            .send(body))
+                    .compose(response -> response.body().map(b -> response.getTrailer("grpc-status")))
+                    .await(5, TimeUnit.SECONDS);
+            assertEquals("0", status);
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+            openTelemetry.getSdkTracerProvider().forceFlush().join(5, TimeUnit.SECONDS);
+        }
+
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        assertTrue(spans.stream().allMatch(span -> span.getTraceId().equals(TRACE_ID)), "Only the sampled trace is recorded");
+
+        SpanData server = spans.stream().filter(span -> span.getKind() == SpanKind.SERVER).findFirst().orElseThrow();
+        assertEquals("00f067aa0ba902b7", server.getParentSpanId());
+        assertTrue(spans.stream().anyMatch(span -> span.getKind() == SpanKind.CLIENT && span.getAttributes().asMap().keySet().stream()
+                .anyMatch(key -> key.getKey().startsWith("db."))), "SQL statements are recorded");
+
+        openTelemetry.close();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
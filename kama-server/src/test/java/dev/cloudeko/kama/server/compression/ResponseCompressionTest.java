@@ -0,0 +1,190 @@
+package dev.cloudeko.kama.server.compression;
+
+import dev.cloudeko.kama.identity.v1.GetUserRequest;
+import dev.cloudeko.kama.identity.v1.User;
+import dev.cloudeko.kama.server.handler.GetUserV1Handler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+import io.vertx.core.json.JsonObject;
+import io.vertx.grpc.server.GrpcServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCompressionTest {
+
+    private static final int MIN_BYTES = 256;
+    private static final String PATH = "/cloudeko.kama.identity.v1.IdentityServer/GetUser";
+
+    private Vertx vertx;
+    private SimpleMeterRegistry registry;
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        registry = new SimpleMeterRegistry();
+
+        // Answers users/small below the threshold and users/large well above it
+        GrpcServer grpcServer = new ResponseCompression(new JsonObject().put("minBytes", MIN_BYTES), registry).wrap(GrpcServer.server(vertx));
+        grpcServer.callHandler(GetUserV1Handler.SERVICE_METHOD, request -> request.handler(req ->
+                request.response().end(user(req.getName().equals("users/large") ? MIN_BYTES * 8 : 8))));
+
+        int port = freePort();
+        vertx.createHttpServer().requestHandler(grpcServer).listen(port, "127.0.0.1").await(5, TimeUnit.SECONDS);
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setProtocolVersion(HttpVersion.HTTP_2)
+                .setHttp2ClearTextUpgrade(false)
+                .setDefaultHost("127.0.0.1")
+                .setDefaultPort(port));
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close().await(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testLargeResponseIsCompressed() {
+        Reply reply = getUser("users/large", "application/grpc", "gzip").await(5, TimeUnit.SECONDS);
+
+        assertEquals("0", reply.status);
+        assertEquals("gzip", reply.encoding);
+        assertEquals(1, reply.flag, "Message is marked as compressed");
+        assertTrue(reply.message.length < MIN_BYTES * 8);
+        assertEquals(user(MIN_BYTES * 8), parse(gunzip(reply.message)));
+
+        assertEquals(1.0, registry.get("kama.server.compression.messages").tag("result", "compressed").counter().count());
+        assertTrue(registry.get("kama.server.compression.saved").counter().count() > 0);
+    }
+
+    @Test
+    void testSmallResponseIsSentAsIs() {
+        Reply reply = getUser("users/small", "application/grpc", "gzip").await(5, TimeUnit.SECONDS);
+
+        assertEquals("0", reply.status);
+        assertNull(reply.encoding);
+        assertEquals(0, reply.flag);
+        assertEquals(user(8), parse(reply.message));
+        assertEquals(1.0, registry.get("kama.server.compression.messages").tag("result", "skipped").counter().count());
+    }
+
+    @Test
+    void testServerPrefersZstd() {
+        Reply reply = getUser("users/large", "application/grpc", "gzip, zstd").await(5, TimeUnit.SECONDS);
+
+        assertEquals("zstd", reply.encoding);
+        assertEquals(1, reply.flag);
+        assertEquals(user(MIN_BYTES * 8), parse(com.github.luben.zstd.Zstd.decompress(reply.message, user(MIN_BYTES * 8).getSerializedSize())));
+    }
+
+    @Test
+    void testClientWithoutCompressionGetsPlainMessages() {
+        // An older peer that sends no grpc-accept-encoding, or only lists codecs the server lacks
+        for (String acceptEncoding : new String[]{null, "identity, deflate"}) {
+            Reply reply = getUser("users/large", "application/grpc", acceptEncoding).await(5, TimeUnit.SECONDS);
+
+            assertEquals("0", reply.status);
+            assertNull(reply.encoding);
+            assertEquals(0, reply.flag);
+            assertEquals(user(MIN_BYTES * 8), parse(reply.message));
+        }
+        // Calls without a codec never reach the compression policy
+        assertEquals(0.0, registry.get("kama.server.compression.messages").tag("result", "compressed").counter().count());
+        assertEquals(0.0, registry.get("kama.server.compression.messages").tag("result", "skipped").counter().count());
+    }
+
+    @Test
+    void testGrpcWebIsNotCompressed() {
+        Reply reply = getUser("users/large", "application/grpc-web+proto", "gzip").await(5, TimeUnit.SECONDS);
+
+        assertNull(reply.encoding);
+        assertEquals(0, reply.flag);
+        assertEquals(user(MIN_BYTES * 8), parse(reply.message));
+    }
+
+    @Test
+    void testCodecsRoundTrip() {
+        byte[] text = "kama ".repeat(1_000).getBytes(StandardCharsets.UTF_8);
+        // Incompressible input still decodes, it only grows by the framing of the codec
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+
+        MessageCodec zstd = MessageCodec.zstd(3);
+        assertNotNull(zstd, "zstd-jni is on the test classpath");
+        for (byte[] data : new byte[][]{text, random, new byte[0]}) {
+            assertArrayEquals(data, gunzip(MessageCodec.gzip().compress(data)));
+            assertArrayEquals(data, com.github.luben.zstd.Zstd.decompress(zstd.compress(data), data.length));
+        }
+        assertTrue(MessageCodec.gzip().compress(text).length < text.length / 10);
+    }
+
+    private Future<Reply> getUser(String name, String contentType, String acceptEncoding) {
+        byte[] message = GetUserRequest.newBuilder().setName(name).build().toByteArray();
+        Buffer body = Buffer.buffer().appendByte((byte) 0).appendInt(message.length).appendBytes(message);
+        return client.request(HttpMethod.POST, PATH)
+                .compose(request -> {
+                    request.putHeader("content-type", contentType).putHeader("te", "trailers");
+                    if (acceptEncoding != null) {
+                        request.putHeader("grpc-accept-encoding", acceptEncoding);
+                    }
+                    return request.send(body);
+                })
+                .compose(response -> response.body().map(b -> {
+                    String status = response.getTrailer("grpc-status");
+                    // An uncompressed call may still announce the identity encoding
+                    String encoding = response.getHeader("grpc-encoding");
+                    int length = b.getInt(1);
+                    return new Reply(status != null ? status : response.getHeader("grpc-status"), "identity".equals(encoding) ? null : encoding,
+                            b.getByte(0), b.getBytes(5, 5 + length));
+                }));
+    }
+
+    private static User user(int size) {
+        return User.newBuilder()
+                .setId("0b7c2a4e-5c1d-4f7e-9a3b-1f2e3d4c5b6a")
+                .setName("users/0b7c2a4e-5c1d-4f7e-9a3b-1f2e3d4c5b6a")
+                .setEmail("compression@example.com")
+                .setDisplayName("a".repeat(size))
+                .build();
+    }
+
+    private static User parse(byte[] data) {
+        try {
+            return User.parseFrom(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gunzip(byte[] data) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Reply(String status, String encoding, byte flag, byte[] message) {
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package dev.cloudeko.kama.server.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimitTest {
+
+    @Test
+    void testLowerPrioritiesAreTurnedAwayFirst() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 1, 100);
+
+        assertEquals(5, fill(limit, Priority.BULK));
+        assertEquals(4, fill(limit, Priority.NORMAL));
+        assertEquals(1, fill(limit, Priority.CRITICAL));
+        assertEquals(10, limit.inFlight());
+    }
+
+    @Test
+    void testLimitFollowsLatency() {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 1, 1000);
+
+        saturate(limit, TimeUnit.MILLISECONDS.toNanos(1), 200);
+        int grown = limit.limit();
+        assertTrue(grown > 20, "Fast calls raise the limit: " + grown);
+
+        saturate(limit, TimeUnit.MILLISECONDS.toNanos(20), 50);
+        int shrunk = limit.limit();
+        assertTrue(shrunk < grown / 2, "Slow calls lower the limit: " + grown + " -> " + shrunk);
+    }
+
+    @Test
+    void testDroppedCallsBackOff() {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 4, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire(1.0));
+            limit.release(0, true);
+        }
+        assertEquals(4, limit.limit());
+    }
+
+    private static int fill(AdaptiveLimit limit, Priority priority) {
+        int admitted = 0;
+        while (limit.tryAcquire(priority.share())) {
+            admitted++;
+        }
+        return admitted;
+    }
+
+    /**
+     * Keeps the limit fully used, completing one call of the given latency at a time.
+     */
+    private static void saturate(AdaptiveLimit limit, long rttNanos, int calls) {
+        for (int i = 0; i < calls; i++) {
+            fill(limit, Priority.CRITICAL);
+            limit.release(rttNanos, false);
+        }
+        while (limit.inFlight() > 0) {
+            limit.release();
+        }
+    }
+}
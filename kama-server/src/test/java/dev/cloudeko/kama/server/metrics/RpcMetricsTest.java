@@ -0,0 +1,115 @@
+package dev.cloudeko.kama.server.metrics;
+
+import dev.cloudeko.kama.identity.v1.IdentityServerProto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RpcMetricsTest {
+
+    private static final String GET_USER = "/cloudeko.kama.identity.v1.IdentityServer/GetUser";
+    private static final String METHOD = "cloudeko.kama.identity.v1.IdentityServer/GetUser";
+
+    private Vertx vertx;
+    private SimpleMeterRegistry registry;
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        registry = new SimpleMeterRegistry();
+        RpcMetrics metrics = new RpcMetrics(registry);
+        metrics.register(IdentityServerProto.getDescriptor().findServiceByName("IdentityServer"));
+
+        // Answers with the status asked for in x-status, in the trailers or, for x-trailers-only, in the headers
+        int port = freePort();
+        vertx.createHttpServer(new HttpServerOptions().setHost("127.0.0.1").setPort(port))
+                .requestHandler(request -> {
+                    Handler<Void> call = metrics.track(request);
+                    if (call != null) {
+                        request.response().endHandler(call).closeHandler(call);
+                    }
+                    HttpServerResponse response = request.response().putHeader("content-type", "application/grpc");
+                    String status = request.getHeader("x-status");
+                    if (request.getHeader("x-trailers-only") != null) {
+                        response.putHeader("grpc-status", status).end();
+                    } else {
+                        response.setChunked(true).putTrailer("grpc-status", status).end();
+                    }
+                })
+                .listen().await(5, TimeUnit.SECONDS);
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setProtocolVersion(HttpVersion.HTTP_2)
+                .setHttp2ClearTextUpgrade(false)
+                .setDefaultHost("127.0.0.1")
+                .setDefaultPort(port));
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close().await(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testCallsAreTaggedWithTheirStatus() {
+        call(GET_USER, "0", false).await(5, TimeUnit.SECONDS);
+        call(GET_USER, "0", false).await(5, TimeUnit.SECONDS);
+        call(GET_USER, "5", true).await(5, TimeUnit.SECONDS);
+        call(GET_USER, "8", false).await(5, TimeUnit.SECONDS);
+
+        assertEquals(2, count("OK"));
+        assertEquals(1, count("NOT_FOUND"));
+        assertEquals(1, count("RESOURCE_EXHAUSTED"));
+        assertEquals(0.0, registry.get("kama.grpc.server.in_flight").tag("method", METHOD).gauge().value());
+    }
+
+    @Test
+    void testMalformedStatusIsUnknown() {
+        call(GET_USER, "not-a-code", false).await(5, TimeUnit.SECONDS);
+        call(GET_USER, "99", true).await(5, TimeUnit.SECONDS);
+
+        assertEquals(2, count("UNKNOWN"));
+    }
+
+    @Test
+    void testUnregisteredPathsCreateNoMeters() {
+        call("/unknown.Service/Method", "0", false).await(5, TimeUnit.SECONDS);
+        call("/cloudeko.kama.identity.v1.IdentityServer/NoSuchMethod", "0", false).await(5, TimeUnit.SECONDS);
+
+        assertTrue(registry.find("kama.grpc.server.duration").timers().isEmpty());
+        assertNull(registry.find("kama.grpc.server.in_flight").tag("method", "unknown.Service/Method").gauge());
+    }
+
+    private long count(String status) {
+        return registry.get("kama.grpc.server.duration").tag("method", METHOD).tag("status", status).timer().count();
+    }
+
+    private Future<Void> call(String path, String status, boolean trailersOnly) {
+        return client.request(HttpMethod.POST, path)
+                .compose(request -> {
+                    request.putHeader("content-type", "application/grpc").putHeader("x-status", status);
+                    if (trailersOnly) {
+                        request.putHeader("x-trailers-only", "true");
+                    }
+                    return request.send();
+                })
+                .compose(HttpClientResponse::body)
+                .mapEmpty();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package dev.cloudeko.kama.server.metrics;
+
+import dev.cloudeko.kama.collection.v1.ListCollectionsRequest;
+import dev.cloudeko.kama.server.ServerVerticle;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.*;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerMetricsTest {
+
+    @Test
+    void testScrapeIsServedOnTheMetricsPortOnly() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int port = freePort();
+            int metricsPort = freePort();
+            JsonObject config = new JsonObject()
+                    .put("host", "127.0.0.1")
+                    .put("port", port)
+                    .put("database", new JsonObject().put("url", "jdbc:h2:mem:DB_METRICS;DB_CLOSE_DELAY=-1;"))
+                    .put("hashing", new JsonObject().put("cost", 4))
+                    .put("metrics", new JsonObject().put("port", metricsPort));
+            ServerVerticle.deploy(vertx, config).await(30, TimeUnit.SECONDS);
+
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                    .setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(false)
+                    .setDefaultHost("127.0.0.1"));
+            byte[] message = ListCollectionsRequest.newBuilder().setPageSize(10).build().toByteArray();
+            Buffer body = Buffer.buffer().appendByte((byte) 0).appendInt(message.length).appendBytes(message);
+            client.request(HttpMethod.POST, port, "127.0.0.1", "/cloudeko.kama.collection.v1.CollectionService/ListCollections")
+                    .compose(request -> request.putHeader("content-type", "application/grpc").putHeader("te", "trailers").send(body))
+                    .compose(HttpClientResponse::body)
+                    .await(5, TimeUnit.SECONDS);
+
+            // Other timers keep count, sum and max only
+            Timer.builder("kama.test.metrics").register(Metrics.globalRegistry).record(1, TimeUnit.MILLISECONDS);
+
+            String scrape = get(client, metricsPort, ServerMetrics.DEFAULT_PATH).await(5, TimeUnit.SECONDS);
+            assertTrue(scrape.contains("kama_grpc_server_duration_seconds_bucket{"), scrape);
+            assertTrue(scrape.contains("method=\"cloudeko.kama.collection.v1.CollectionService/ListCollections\",status=\"OK\""), scrape);
+            assertTrue(scrape.contains("kama_test_metrics_seconds_count"), scrape);
+            assertFalse(scrape.contains("kama_test_metrics_seconds_bucket"), scrape);
+
+            assertNull(get(client, metricsPort, "/other").await(5, TimeUnit.SECONDS));
+            // The API port does not answer the scrape
+            assertNull(get(client, port, ServerMetrics.DEFAULT_PATH).await(5, TimeUnit.SECONDS));
+        } finally {
+            vertx.close().await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns the body of a successful GET, {@code null} for any other status.
+     */
+    private static Future<String> get(HttpClient client, int port, String path) {
+        return client.request(HttpMethod.GET, port, "127.0.0.1", path)
+                .compose(HttpClientRequest::send)
+                .compose(response -> response.body().map(body -> response.statusCode() == 200 ? body.toString() : null));
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}